@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mongodb.client.internal;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoNamespace;
+import com.mongodb.ReadConcern;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.operation.ReadOperation;
+import com.mongodb.operation.WriteOperation;
+import org.bson.Document;
+
+// this is in the driver's package in order to construct the driver's own MongoCollection
+// implementation (so that it is instrumented) on top of an executor that never connects to a
+// MongoDB server
+//
+// read operations return 0 (the result of count) and write operations return an unacknowledged
+// result, which is all that the benchmarks need
+public class MockOperationExecutor implements OperationExecutor {
+
+    public static MongoCollection<Document> createCollection() {
+        return new MongoCollectionImpl<Document>(new MongoNamespace("test", "mock"),
+                Document.class, MongoClient.getDefaultCodecRegistry(), ReadPreference.primary(),
+                WriteConcern.UNACKNOWLEDGED, false, ReadConcern.DEFAULT,
+                new MockOperationExecutor());
+    }
+
+    @Override
+    public <T> T execute(ReadOperation<T> operation, ReadPreference readPreference,
+            ReadConcern readConcern) {
+        return readResult();
+    }
+
+    @Override
+    public <T> T execute(WriteOperation<T> operation, ReadConcern readConcern) {
+        return writeResult();
+    }
+
+    @Override
+    public <T> T execute(ReadOperation<T> operation, ReadPreference readPreference,
+            ReadConcern readConcern, ClientSession session) {
+        return readResult();
+    }
+
+    @Override
+    public <T> T execute(WriteOperation<T> operation, ReadConcern readConcern,
+            ClientSession session) {
+        return writeResult();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T readResult() {
+        return (T) Long.valueOf(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T writeResult() {
+        return (T) BulkWriteResult.unacknowledged();
+    }
+}
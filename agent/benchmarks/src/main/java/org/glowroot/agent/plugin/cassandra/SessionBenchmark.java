@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.cassandra;
+
+import java.util.concurrent.TimeUnit;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.glowroot.agent.plugin.cassandra.support.MockSession;
+import org.glowroot.microbenchmarks.support.TransactionWorthy;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class SessionBenchmark extends TransactionWorthy {
+
+    private static final int CALLS_PER_TRANSACTION = 10;
+
+    private Session session;
+    private Statement statement;
+
+    private Blackhole blackhole;
+
+    @Setup
+    public void setup() {
+        session = new MockSession();
+        statement = new SimpleStatement("SELECT * FROM test.users WHERE id = 1");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS_PER_TRANSACTION)
+    public void execute(Blackhole blackhole) {
+        executeStatements(blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS_PER_TRANSACTION)
+    public void executeInTransaction(Blackhole blackhole) throws Exception {
+        this.blackhole = blackhole;
+        doSomethingTransactionWorthy();
+    }
+
+    @Override
+    public void doSomethingTransactionWorthy() {
+        executeStatements(blackhole);
+    }
+
+    private void executeStatements(Blackhole blackhole) {
+        for (int i = 0; i < CALLS_PER_TRANSACTION; i++) {
+            ResultSet resultSet = session.execute(statement);
+            blackhole.consume(resultSet.one());
+        }
+    }
+}
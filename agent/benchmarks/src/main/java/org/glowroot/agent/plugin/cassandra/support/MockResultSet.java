@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.cassandra.support;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import com.datastax.driver.core.ColumnDefinitions;
+import com.datastax.driver.core.ExecutionInfo;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+class MockResultSet implements ResultSet {
+
+    @Override
+    public Row one() {
+        return null;
+    }
+
+    @Override
+    public ColumnDefinitions getColumnDefinitions() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean wasApplied() {
+        return true;
+    }
+
+    @Override
+    public boolean isExhausted() {
+        return true;
+    }
+
+    @Override
+    public boolean isFullyFetched() {
+        return true;
+    }
+
+    @Override
+    public int getAvailableWithoutFetching() {
+        return 0;
+    }
+
+    @Override
+    public ListenableFuture<ResultSet> fetchMoreResults() {
+        return Futures.<ResultSet>immediateFuture(this);
+    }
+
+    @Override
+    public List<Row> all() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Iterator<Row> iterator() {
+        return Collections.<Row>emptyList().iterator();
+    }
+
+    @Override
+    public ExecutionInfo getExecutionInfo() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<ExecutionInfo> getAllExecutionInfo() {
+        return Collections.emptyList();
+    }
+}
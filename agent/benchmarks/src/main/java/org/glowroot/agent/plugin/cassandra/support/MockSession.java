@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.cassandra.support;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import com.datastax.driver.core.AbstractSession;
+import com.datastax.driver.core.CloseFuture;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.google.common.util.concurrent.ListenableFuture;
+
+// this is a Session so that it is instrumented, but it never connects to a Cassandra node
+public class MockSession extends AbstractSession {
+
+    private final ResultSet resultSet = new MockResultSet();
+
+    @Override
+    public ResultSet execute(Statement statement) {
+        return resultSet;
+    }
+
+    @Override
+    public ResultSetFuture executeAsync(Statement statement) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected ListenableFuture<PreparedStatement> prepareAsync(String query,
+            Map<String, ByteBuffer> customPayload) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String getLoggedKeyspace() {
+        return "mock";
+    }
+
+    @Override
+    public Session init() {
+        return this;
+    }
+
+    @Override
+    public ListenableFuture<Session> initAsync() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CloseFuture closeAsync() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {}
+
+    @Override
+    public boolean isClosed() {
+        return false;
+    }
+
+    @Override
+    public Cluster getCluster() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public State getState() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.executor;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import org.glowroot.microbenchmarks.support.TransactionWorthy;
+
+// the DIRECT executor runs tasks on the submitting thread, which isolates the cost of wrapping the
+// task from the cost of handing it off to another thread
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ExecutorBenchmark extends TransactionWorthy {
+
+    private static final int CALLS_PER_TRANSACTION = 10;
+
+    private static final Callable<Integer> TASK = new Callable<Integer>() {
+        @Override
+        public Integer call() {
+            return 1;
+        }
+    };
+
+    @Param
+    private ExecutorType executorType;
+
+    private ExecutorService executor;
+
+    private int result;
+
+    @Setup
+    public void setup() {
+        switch (executorType) {
+            case DIRECT:
+                executor = MoreExecutors.newDirectExecutorService();
+                break;
+            case THREAD_POOL:
+                executor = Executors.newSingleThreadExecutor();
+                break;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS_PER_TRANSACTION)
+    public int submit() throws Exception {
+        return submitTasks();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS_PER_TRANSACTION)
+    public int submitInTransaction() throws Exception {
+        doSomethingTransactionWorthy();
+        return result;
+    }
+
+    @Override
+    public void doSomethingTransactionWorthy() throws Exception {
+        result = submitTasks();
+    }
+
+    private int submitTasks() throws Exception {
+        int sum = 0;
+        for (int i = 0; i < CALLS_PER_TRANSACTION; i++) {
+            Future<Integer> future = executor.submit(TASK);
+            sum += future.get();
+        }
+        return sum;
+    }
+
+    public enum ExecutorType {
+        DIRECT, THREAD_POOL
+    }
+}
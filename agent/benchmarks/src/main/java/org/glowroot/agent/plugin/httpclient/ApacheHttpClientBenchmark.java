@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.httpclient;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import org.glowroot.agent.plugin.httpclient.support.MockHttpClient;
+import org.glowroot.microbenchmarks.support.TransactionWorthy;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ApacheHttpClientBenchmark extends TransactionWorthy {
+
+    private static final int CALLS_PER_TRANSACTION = 10;
+
+    private CloseableHttpClient httpClient;
+    private HttpGet httpGet;
+
+    @Setup
+    public void setup() {
+        httpClient = new MockHttpClient();
+        httpGet = new HttpGet("http://localhost:8080/hello?a=b");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        httpClient.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS_PER_TRANSACTION)
+    public void execute() throws Exception {
+        executeRequests();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS_PER_TRANSACTION)
+    public void executeInTransaction() throws Exception {
+        doSomethingTransactionWorthy();
+    }
+
+    @Override
+    public void doSomethingTransactionWorthy() throws Exception {
+        executeRequests();
+    }
+
+    private void executeRequests() throws Exception {
+        for (int i = 0; i < CALLS_PER_TRANSACTION; i++) {
+            CloseableHttpResponse response = httpClient.execute(httpGet);
+            response.close();
+        }
+    }
+}
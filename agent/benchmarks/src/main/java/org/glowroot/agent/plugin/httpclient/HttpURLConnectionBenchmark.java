@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.httpclient;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.glowroot.agent.plugin.httpclient.support.MockHttpURLConnection;
+import org.glowroot.microbenchmarks.support.TransactionWorthy;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class HttpURLConnectionBenchmark extends TransactionWorthy {
+
+    private static final int CALLS_PER_TRANSACTION = 10;
+
+    private URL url;
+
+    private Blackhole blackhole;
+
+    @Setup
+    public void setup() throws Exception {
+        url = new URL("http://localhost:8080/hello?a=b");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS_PER_TRANSACTION)
+    public void connect(Blackhole blackhole) throws Exception {
+        connectAndRead(blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS_PER_TRANSACTION)
+    public void connectInTransaction(Blackhole blackhole) throws Exception {
+        this.blackhole = blackhole;
+        doSomethingTransactionWorthy();
+    }
+
+    @Override
+    public void doSomethingTransactionWorthy() throws Exception {
+        connectAndRead(blackhole);
+    }
+
+    private void connectAndRead(Blackhole blackhole) throws Exception {
+        for (int i = 0; i < CALLS_PER_TRANSACTION; i++) {
+            HttpURLConnection connection = new MockHttpURLConnection(url);
+            connection.connect();
+            InputStream in = connection.getInputStream();
+            blackhole.consume(in.read());
+            in.close();
+            connection.disconnect();
+        }
+    }
+}
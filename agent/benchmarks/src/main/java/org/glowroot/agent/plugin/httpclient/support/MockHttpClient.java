@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.httpclient.support;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+// this is a CloseableHttpClient so that it is instrumented, but it never opens a connection
+@SuppressWarnings("deprecation")
+public class MockHttpClient extends CloseableHttpClient {
+
+    private final HttpParams params = new BasicHttpParams();
+
+    @Override
+    protected CloseableHttpResponse doExecute(HttpHost target, HttpRequest request,
+            HttpContext context) {
+        return new MockHttpResponse();
+    }
+
+    @Override
+    public HttpParams getParams() {
+        return params;
+    }
+
+    @Override
+    public ClientConnectionManager getConnectionManager() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {}
+
+    private static class MockHttpResponse extends BasicHttpResponse
+            implements CloseableHttpResponse {
+
+        private MockHttpResponse() {
+            super(HttpVersion.HTTP_1_1, 200, "OK");
+        }
+
+        @Override
+        public void close() {}
+    }
+}
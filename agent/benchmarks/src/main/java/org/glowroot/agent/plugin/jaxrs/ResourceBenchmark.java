@@ -0,0 +1,74 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jaxrs;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.glowroot.agent.plugin.jaxrs.support.MockResource;
+import org.glowroot.microbenchmarks.support.TransactionWorthy;
+
+// the resource method is called directly (not through a JAX-RS servlet), so this measures the
+// resource advice only, without the transaction naming that needs the servlet request info
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ResourceBenchmark extends TransactionWorthy {
+
+    private static final int CALLS_PER_TRANSACTION = 10;
+
+    private MockResource resource;
+
+    private Blackhole blackhole;
+
+    @Setup
+    public void setup() {
+        resource = new MockResource();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS_PER_TRANSACTION)
+    public void handle(Blackhole blackhole) {
+        callResource(blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS_PER_TRANSACTION)
+    public void handleInTransaction(Blackhole blackhole) throws Exception {
+        this.blackhole = blackhole;
+        doSomethingTransactionWorthy();
+    }
+
+    @Override
+    public void doSomethingTransactionWorthy() {
+        callResource(blackhole);
+    }
+
+    private void callResource(Blackhole blackhole) {
+        for (int i = 0; i < CALLS_PER_TRANSACTION; i++) {
+            blackhole.consume(resource.hello("world"));
+        }
+    }
+}
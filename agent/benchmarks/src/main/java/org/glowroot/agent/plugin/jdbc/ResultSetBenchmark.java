@@ -1,5 +1,5 @@
 /*
- * Copyright 2014-2016 the original author or authors.
+ * Copyright 2014-2019 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -35,18 +35,30 @@ import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.TearDown;
 
 import org.glowroot.agent.plugin.jdbc.support.MockConnection;
+import org.glowroot.agent.plugin.jdbc.support.MockPreparedStatement;
+import org.glowroot.agent.plugin.jdbc.support.MockResultSet;
 import org.glowroot.microbenchmarks.support.TransactionWorthy;
 
+// ns/op is per row
+//
+// the statement is prepared inside of the transaction, since the jdbc plugin only attaches its
+// statement mirror (which the ResultSet advice depends on) to statements prepared inside of a
+// transaction
+//
+// to measure the jdbc plugin's row count only mode, run again with the jdbc plugin property
+// "captureResultSetRowCountOnly" set to true in the glowroot config.json, and compare
 @BenchmarkMode(Mode.AverageTime)
 @OutputTimeUnit(TimeUnit.NANOSECONDS)
 @State(Scope.Thread)
 public class ResultSetBenchmark extends TransactionWorthy {
 
+    private static final int ROW_COUNT = 10000;
+
     @Param
     private Database database;
 
     private Connection connection;
-    private PreparedStatement preparedStatement;
+    private Operation operation = Operation.NEXT;
 
     @Setup
     public void setup() throws SQLException {
@@ -56,7 +68,7 @@ public class ResultSetBenchmark extends TransactionWorthy {
                 Statement statement = connection.createStatement();
                 try {
                     statement.execute("create table mock (name varchar(100))");
-                    for (int i = 0; i < 10000; i++) {
+                    for (int i = 0; i < ROW_COUNT; i++) {
                         statement.execute("insert into mock (name) values ('mock" + 1 + "')");
                     }
                 } finally {
@@ -64,34 +76,87 @@ public class ResultSetBenchmark extends TransactionWorthy {
                 }
                 break;
             case MOCK:
-                connection = new MockConnection();
+                connection = new RowsMockConnection();
                 break;
         }
-        preparedStatement = connection.prepareStatement("select * from mock");
     }
 
     @TearDown
     public void tearDown() throws SQLException {
-        preparedStatement.close();
         connection.close();
     }
 
     @Benchmark
-    @OperationsPerInvocation(10000)
+    @OperationsPerInvocation(ROW_COUNT)
     public void next() throws Exception {
+        operation = Operation.NEXT;
+        doSomethingTransactionWorthy();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROW_COUNT)
+    public void nextUntilExhausted() throws Exception {
+        operation = Operation.NEXT_UNTIL_EXHAUSTED;
+        doSomethingTransactionWorthy();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROW_COUNT)
+    public void nextAndGet() throws Exception {
+        operation = Operation.NEXT_AND_GET;
         doSomethingTransactionWorthy();
     }
 
     @Override
     public void doSomethingTransactionWorthy() throws SQLException {
-        ResultSet resultSet = preparedStatement.executeQuery();
-        for (int i = 0; i < 10000; i++) {
-            resultSet.next();
+        PreparedStatement preparedStatement = connection.prepareStatement("select * from mock");
+        try {
+            ResultSet resultSet = preparedStatement.executeQuery();
+            switch (operation) {
+                case NEXT:
+                    for (int i = 0; i < ROW_COUNT; i++) {
+                        resultSet.next();
+                    }
+                    break;
+                case NEXT_UNTIL_EXHAUSTED:
+                    while (resultSet.next()) {
+                        // this exercises the end of result set path
+                    }
+                    break;
+                case NEXT_AND_GET:
+                    for (int i = 0; i < ROW_COUNT; i++) {
+                        resultSet.next();
+                        resultSet.getString(1);
+                    }
+                    break;
+            }
+            resultSet.close();
+        } finally {
+            preparedStatement.close();
         }
-        resultSet.close();
+    }
+
+    private enum Operation {
+        NEXT, NEXT_UNTIL_EXHAUSTED, NEXT_AND_GET
     }
 
     public enum Database {
         HSQLDB, MOCK
     }
+
+    // the shared MockPreparedStatement returns empty result sets, which only exercises the end of
+    // result set path
+    private static class RowsMockConnection extends MockConnection {
+        @Override
+        public PreparedStatement prepareStatement(String sql) {
+            return new RowsMockPreparedStatement();
+        }
+    }
+
+    private static class RowsMockPreparedStatement extends MockPreparedStatement {
+        @Override
+        public ResultSet executeQuery() {
+            return new MockResultSet(ROW_COUNT);
+        }
+    }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2014-2015 the original author or authors.
+ * Copyright 2014-2019 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -39,6 +39,17 @@ import java.util.Map;
 
 public class MockResultSet implements ResultSet {
 
+    private final int rowCount;
+    private int row;
+
+    public MockResultSet() {
+        this(0);
+    }
+
+    public MockResultSet(int rowCount) {
+        this.rowCount = rowCount;
+    }
+
     @Override
     public <T> T unwrap(Class<T> iface) throws SQLException {
         return null;
@@ -51,7 +62,7 @@ public class MockResultSet implements ResultSet {
 
     @Override
     public boolean next() throws SQLException {
-        return false;
+        return row++ < rowCount;
     }
 
     @Override
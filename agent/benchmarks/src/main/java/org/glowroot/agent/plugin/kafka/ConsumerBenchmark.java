@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.kafka;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.glowroot.agent.plugin.kafka.support.MockKafkaConsumer;
+import org.glowroot.microbenchmarks.support.TransactionWorthy;
+
+// ns/op is per batch, the instrumentation overhead should not grow with the batch size
+//
+// to measure the kafka plugin's transaction per poll batch mode, run again with the kafka plugin
+// property "transactionPerPollBatch" set to true in the glowroot config.json, and compare
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ConsumerBenchmark extends TransactionWorthy {
+
+    @Param({"1", "10", "100", "1000"})
+    private int batchSize;
+
+    private Consumer<String, String> consumer;
+
+    private Blackhole blackhole;
+
+    @Setup
+    public void setup() {
+        consumer = new MockKafkaConsumer(batchSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        consumer.close();
+    }
+
+    @Benchmark
+    public void poll(Blackhole blackhole) {
+        pollAndProcess(blackhole);
+    }
+
+    @Benchmark
+    public void pollInTransaction(Blackhole blackhole) throws Exception {
+        this.blackhole = blackhole;
+        doSomethingTransactionWorthy();
+    }
+
+    @Override
+    public void doSomethingTransactionWorthy() {
+        pollAndProcess(blackhole);
+    }
+
+    private void pollAndProcess(Blackhole blackhole) {
+        ConsumerRecords<String, String> consumerRecords = consumer.poll(100);
+        for (ConsumerRecord<String, String> consumerRecord : consumerRecords) {
+            blackhole.consume(consumerRecord.value());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.kafka;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.glowroot.agent.plugin.kafka.support.MockKafkaProducer;
+import org.glowroot.microbenchmarks.support.TransactionWorthy;
+
+// to measure the cost of trace context propagation, run again with the kafka plugin property
+// "propagateTraceContext" set to true in the glowroot config.json, and compare
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ProducerBenchmark extends TransactionWorthy {
+
+    private static final int CALLS_PER_TRANSACTION = 10;
+
+    private static final Callback CALLBACK = new Callback() {
+        @Override
+        public void onCompletion(RecordMetadata metadata, Exception exception) {}
+    };
+
+    private Producer<String, String> producer;
+    private ProducerRecord<String, String> record;
+
+    private Blackhole blackhole;
+
+    @Setup
+    public void setup() {
+        producer = new MockKafkaProducer();
+        record = new ProducerRecord<String, String>("mock", "key", "value");
+    }
+
+    @TearDown
+    public void tearDown() {
+        producer.close(0, TimeUnit.MILLISECONDS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS_PER_TRANSACTION)
+    public void send(Blackhole blackhole) {
+        sendRecords(blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS_PER_TRANSACTION)
+    public void sendInTransaction(Blackhole blackhole) throws Exception {
+        this.blackhole = blackhole;
+        doSomethingTransactionWorthy();
+    }
+
+    @Override
+    public void doSomethingTransactionWorthy() {
+        sendRecords(blackhole);
+    }
+
+    private void sendRecords(Blackhole blackhole) {
+        for (int i = 0; i < CALLS_PER_TRANSACTION; i++) {
+            blackhole.consume(producer.send(record, CALLBACK));
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.kafka.support;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.serialization.StringDeserializer;
+
+// this is a KafkaConsumer so that it is instrumented, but it never connects to a Kafka broker
+public class MockKafkaConsumer extends KafkaConsumer<String, String> {
+
+    private final ConsumerRecords<String, String> consumerRecords;
+
+    public MockKafkaConsumer(int batchSize) {
+        super(createProperties());
+        List<ConsumerRecord<String, String>> records =
+                new ArrayList<ConsumerRecord<String, String>>();
+        long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < batchSize; i++) {
+            records.add(new ConsumerRecord<String, String>("mock", 0, i, timestamp,
+                    TimestampType.CREATE_TIME, 0L, 0, 0, "key" + i, "value" + i));
+        }
+        consumerRecords = new ConsumerRecords<String, String>(
+                Collections.singletonMap(new TopicPartition("mock", 0), records));
+    }
+
+    @Override
+    public ConsumerRecords<String, String> poll(long timeout) {
+        return consumerRecords;
+    }
+
+    private static Properties createProperties() {
+        Properties props = new Properties();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG,
+                StringDeserializer.class.getName());
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG,
+                StringDeserializer.class.getName());
+        return props;
+    }
+}
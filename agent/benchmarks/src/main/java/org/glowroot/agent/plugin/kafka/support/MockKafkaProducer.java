@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.kafka.support;
+
+import java.util.Properties;
+import java.util.concurrent.Future;
+
+import com.google.common.util.concurrent.Futures;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.StringSerializer;
+
+// this is a KafkaProducer so that it is instrumented, but it never connects to a Kafka broker
+public class MockKafkaProducer extends KafkaProducer<String, String> {
+
+    private final RecordMetadata recordMetadata =
+            new RecordMetadata(new TopicPartition("mock", 0), 0, 0, 0, 0L, 0, 0);
+
+    private final Future<RecordMetadata> future = Futures.immediateFuture(recordMetadata);
+
+    public MockKafkaProducer() {
+        super(createProperties());
+    }
+
+    @Override
+    public Future<RecordMetadata> send(ProducerRecord<String, String> record,
+            Callback callback) {
+        if (callback != null) {
+            callback.onCompletion(recordMetadata, null);
+        }
+        return future;
+    }
+
+    private static Properties createProperties() {
+        Properties props = new Properties();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG,
+                StringSerializer.class.getName());
+        return props;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks;
+
+import java.io.IOException;
+import java.security.ProtectionDomain;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.Resources;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import org.glowroot.microbenchmarks.support.CorpusClassLoader;
+import org.glowroot.microbenchmarks.support.HierarchyLevels;
+
+// measures the cost of loading a class (in a new class loader) whose super classes and interfaces
+// have not been analyzed yet, as a function of the hierarchy depth, each op defines depth + 1
+// classes and depth + 1 interfaces
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class WeavingHierarchyBenchmark {
+
+    @Param({"0", "4", "16"})
+    private int depth;
+
+    private Map<String, byte[]> classFiles;
+    private Map<String, ProtectionDomain> protectionDomains;
+    private String leafClassName;
+
+    @Setup
+    public void setup() throws IOException {
+        if (depth > HierarchyLevels.MAX_DEPTH) {
+            throw new IllegalStateException("depth must be <= " + HierarchyLevels.MAX_DEPTH);
+        }
+        classFiles = Maps.newHashMap();
+        protectionDomains = Maps.newHashMap();
+        for (int i = 0; i <= depth; i++) {
+            String levelName = getLevelName(i);
+            addClassFile(levelName);
+            addClassFile(levelName + "Interface");
+        }
+        leafClassName = getLevelName(depth);
+    }
+
+    @Benchmark
+    public Class<?> execute() throws ClassNotFoundException {
+        CorpusClassLoader loader = new CorpusClassLoader(classFiles, protectionDomains,
+                WeavingHierarchyBenchmark.class.getClassLoader());
+        return loader.loadClass(leafClassName);
+    }
+
+    private static String getLevelName(int level) {
+        return HierarchyLevels.class.getName() + "$Level" + (level < 10 ? "0" : "") + level;
+    }
+
+    private void addClassFile(String className) throws IOException {
+        classFiles.put(className, Resources.toByteArray(
+                Resources.getResource(className.replace('.', '/') + ".class")));
+        protectionDomains.put(className, HierarchyLevels.class.getProtectionDomain());
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.StandardSystemProperty;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.glowroot.microbenchmarks.support.CorpusClassLoader;
+
+// measures the cost per class of ClassFileTransformer.transform() (plus class definition) over a
+// corpus of real world class files, each invocation defines the corpus in a new class loader so
+// that every class is analyzed (and woven if needed) again
+//
+// the corpus is limited during setup to classes that can be defined without their optional
+// dependencies, and each invocation verifies that exactly CLASS_COUNT classes were defined, so
+// that ns/op really is per transformed class
+//
+// ns/op is per class, and running with "-prof gc" gives bytes allocated per class
+// (gc.alloc.rate.norm), compare against a run without -javaagent to get the weaving overhead
+//
+// the corpus is read from the jars on the class path, plus any jars listed (separated by the path
+// separator) in the system property glowroot.benchmark.corpusJars, e.g. jars from the local maven
+// repository
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(WeavingTransformBenchmark.CLASS_COUNT)
+@State(Scope.Thread)
+public class WeavingTransformBenchmark {
+
+    static final int CLASS_COUNT = 1000;
+
+    @Param({"org/springframework/"})
+    private String corpusPrefix;
+
+    private Map<String, byte[]> classFiles;
+    private Map<String, ProtectionDomain> protectionDomains;
+    private List<String> classNames;
+
+    @Setup
+    public void setup() throws IOException {
+        Map<String, byte[]> classFiles = new TreeMap<String, byte[]>();
+        Map<String, ProtectionDomain> protectionDomains = Maps.newHashMap();
+        for (String path : getCorpusJars()) {
+            if (!path.endsWith(".jar")) {
+                continue;
+            }
+            File file = new File(path);
+            ProtectionDomain protectionDomain = new ProtectionDomain(
+                    new CodeSource(file.toURI().toURL(), (Certificate[]) null), null);
+            JarFile jarFile = new JarFile(file);
+            try {
+                Enumeration<JarEntry> e = jarFile.entries();
+                while (e.hasMoreElements()) {
+                    JarEntry jarEntry = e.nextElement();
+                    String name = jarEntry.getName();
+                    if (name.startsWith(corpusPrefix) && name.endsWith(".class")) {
+                        name = name.replace('/', '.');
+                        name = name.substring(0, name.length() - ".class".length());
+                        InputStream in = jarFile.getInputStream(jarEntry);
+                        try {
+                            classFiles.put(name, ByteStreams.toByteArray(in));
+                            protectionDomains.put(name, protectionDomain);
+                        } finally {
+                            in.close();
+                        }
+                    }
+                }
+            } finally {
+                jarFile.close();
+            }
+        }
+        this.classFiles = ImmutableMap.copyOf(classFiles);
+        this.protectionDomains = ImmutableMap.copyOf(protectionDomains);
+        // trial run to find the classes that can be defined, in the order that they are defined
+        // (super types first), so that loading them in that order defines exactly one class each
+        CorpusClassLoader loader = newCorpusClassLoader();
+        for (String className : classFiles.keySet()) {
+            try {
+                loader.loadClass(className);
+            } catch (ClassNotFoundException e) {
+                // optional dependencies are not transitively included
+            } catch (LinkageError e) {
+                // optional dependencies are not transitively included
+            }
+        }
+        List<String> definedClassNames = loader.getDefinedClassNames();
+        if (definedClassNames.size() < CLASS_COUNT) {
+            throw new IllegalStateException("corpus has only " + definedClassNames.size()
+                    + " definable classes with prefix " + corpusPrefix + ", need " + CLASS_COUNT);
+        }
+        classNames = ImmutableList.copyOf(definedClassNames.subList(0, CLASS_COUNT));
+    }
+
+    @Benchmark
+    public CorpusClassLoader execute() throws ClassNotFoundException {
+        CorpusClassLoader loader = newCorpusClassLoader();
+        for (String className : classNames) {
+            loader.loadClass(className);
+        }
+        int definedClassCount = loader.getDefinedClassCount();
+        if (definedClassCount != CLASS_COUNT) {
+            throw new IllegalStateException(
+                    "expected " + CLASS_COUNT + " classes defined, but was " + definedClassCount);
+        }
+        return loader;
+    }
+
+    private CorpusClassLoader newCorpusClassLoader() {
+        return new CorpusClassLoader(classFiles, protectionDomains,
+                WeavingTransformBenchmark.class.getClassLoader());
+    }
+
+    private static List<String> getCorpusJars() {
+        List<String> paths = Lists.newArrayList();
+        String classPath = StandardSystemProperty.JAVA_CLASS_PATH.value();
+        String pathSeparator = StandardSystemProperty.PATH_SEPARATOR.value();
+        paths.addAll(Splitter.on(pathSeparator).splitToList(classPath));
+        String corpusJars = System.getProperty("glowroot.benchmark.corpusJars");
+        if (!Strings.isNullOrEmpty(corpusJars)) {
+            paths.addAll(Splitter.on(pathSeparator).omitEmptyStrings().splitToList(corpusJars));
+        }
+        return paths;
+    }
+}
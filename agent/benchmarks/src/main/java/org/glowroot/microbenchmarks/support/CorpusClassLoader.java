@@ -0,0 +1,69 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks.support;
+
+import java.security.ProtectionDomain;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+
+// child-first class loader over a fixed set of class files, so that each new instance defines (and
+// so passes through ClassFileTransformer.transform()) all of the classes again
+//
+// each class is defined with the protection domain (and so the code source) of the jar that it
+// was read from, same as a regular class loader would do
+public class CorpusClassLoader extends ClassLoader {
+
+    private final Map<String, byte[]> classFiles;
+    private final Map<String, ProtectionDomain> protectionDomains;
+
+    private final List<String> definedClassNames = Lists.newArrayList();
+
+    public CorpusClassLoader(Map<String, byte[]> classFiles,
+            Map<String, ProtectionDomain> protectionDomains, ClassLoader parent) {
+        super(parent);
+        this.classFiles = classFiles;
+        this.protectionDomains = protectionDomains;
+    }
+
+    // in the order that they were defined, which is super types first
+    public synchronized List<String> getDefinedClassNames() {
+        return Lists.newArrayList(definedClassNames);
+    }
+
+    public synchronized int getDefinedClassCount() {
+        return definedClassNames.size();
+    }
+
+    @Override
+    protected synchronized Class<?> loadClass(String name, boolean resolve)
+            throws ClassNotFoundException {
+        byte[] bytes = classFiles.get(name);
+        if (bytes == null) {
+            return super.loadClass(name, resolve);
+        }
+        Class<?> clazz = findLoadedClass(name);
+        if (clazz == null) {
+            clazz = defineClass(name, bytes, 0, bytes.length, protectionDomains.get(name));
+            definedClassNames.add(name);
+        }
+        if (resolve) {
+            resolveClass(clazz);
+        }
+        return clazz;
+    }
+}
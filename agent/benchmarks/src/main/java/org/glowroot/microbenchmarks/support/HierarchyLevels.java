@@ -0,0 +1,178 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks.support;
+
+// deep class hierarchy used by WeavingHierarchyBenchmark, each level also implements an interface
+// so that both super class and interface resolution are exercised
+public class HierarchyLevels {
+
+    public static final int MAX_DEPTH = 16;
+
+    private HierarchyLevels() {}
+
+    public interface Level00Interface {
+        void level00();
+    }
+
+    public static class Level00 implements Level00Interface {
+        @Override
+        public void level00() {}
+    }
+
+    public interface Level01Interface {
+        void level01();
+    }
+
+    public static class Level01 extends Level00 implements Level01Interface {
+        @Override
+        public void level01() {}
+    }
+
+    public interface Level02Interface {
+        void level02();
+    }
+
+    public static class Level02 extends Level01 implements Level02Interface {
+        @Override
+        public void level02() {}
+    }
+
+    public interface Level03Interface {
+        void level03();
+    }
+
+    public static class Level03 extends Level02 implements Level03Interface {
+        @Override
+        public void level03() {}
+    }
+
+    public interface Level04Interface {
+        void level04();
+    }
+
+    public static class Level04 extends Level03 implements Level04Interface {
+        @Override
+        public void level04() {}
+    }
+
+    public interface Level05Interface {
+        void level05();
+    }
+
+    public static class Level05 extends Level04 implements Level05Interface {
+        @Override
+        public void level05() {}
+    }
+
+    public interface Level06Interface {
+        void level06();
+    }
+
+    public static class Level06 extends Level05 implements Level06Interface {
+        @Override
+        public void level06() {}
+    }
+
+    public interface Level07Interface {
+        void level07();
+    }
+
+    public static class Level07 extends Level06 implements Level07Interface {
+        @Override
+        public void level07() {}
+    }
+
+    public interface Level08Interface {
+        void level08();
+    }
+
+    public static class Level08 extends Level07 implements Level08Interface {
+        @Override
+        public void level08() {}
+    }
+
+    public interface Level09Interface {
+        void level09();
+    }
+
+    public static class Level09 extends Level08 implements Level09Interface {
+        @Override
+        public void level09() {}
+    }
+
+    public interface Level10Interface {
+        void level10();
+    }
+
+    public static class Level10 extends Level09 implements Level10Interface {
+        @Override
+        public void level10() {}
+    }
+
+    public interface Level11Interface {
+        void level11();
+    }
+
+    public static class Level11 extends Level10 implements Level11Interface {
+        @Override
+        public void level11() {}
+    }
+
+    public interface Level12Interface {
+        void level12();
+    }
+
+    public static class Level12 extends Level11 implements Level12Interface {
+        @Override
+        public void level12() {}
+    }
+
+    public interface Level13Interface {
+        void level13();
+    }
+
+    public static class Level13 extends Level12 implements Level13Interface {
+        @Override
+        public void level13() {}
+    }
+
+    public interface Level14Interface {
+        void level14();
+    }
+
+    public static class Level14 extends Level13 implements Level14Interface {
+        @Override
+        public void level14() {}
+    }
+
+    public interface Level15Interface {
+        void level15();
+    }
+
+    public static class Level15 extends Level14 implements Level15Interface {
+        @Override
+        public void level15() {}
+    }
+
+    public interface Level16Interface {
+        void level16();
+    }
+
+    public static class Level16 extends Level15 implements Level16Interface {
+        @Override
+        public void level16() {}
+    }
+}
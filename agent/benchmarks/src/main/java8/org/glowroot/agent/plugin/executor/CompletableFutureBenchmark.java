@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.executor;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import org.glowroot.microbenchmarks.support.TransactionWorthy;
+
+// rawChain() runs the chain outside of any transaction, so compare chainInTransaction() against it
+// to get the cost of propagating the transaction through the chain, and compare rawChain() against
+// a run without -javaagent to get the cost of the instrumentation when there is no transaction
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class CompletableFutureBenchmark extends TransactionWorthy {
+
+    private static final int STAGE_COUNT = 10;
+
+    private static final Function<Integer, Integer> INCREMENT = x -> x + 1;
+
+    @Param
+    private StageType stageType;
+
+    private ExecutorService executor;
+
+    private int result;
+
+    @Setup
+    public void setup() {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public int rawChain() throws Exception {
+        return runChain();
+    }
+
+    @Benchmark
+    public int chainInTransaction() throws Exception {
+        doSomethingTransactionWorthy();
+        return result;
+    }
+
+    @Override
+    public void doSomethingTransactionWorthy() throws Exception {
+        result = runChain();
+    }
+
+    private int runChain() throws Exception {
+        CompletableFuture<Integer> head = new CompletableFuture<Integer>();
+        CompletableFuture<Integer> future = head;
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            switch (stageType) {
+                case SYNC:
+                    future = future.thenApply(INCREMENT);
+                    break;
+                case ASYNC:
+                    future = future.thenApplyAsync(INCREMENT, executor);
+                    break;
+            }
+        }
+        head.complete(0);
+        return future.get();
+    }
+
+    public enum StageType {
+        SYNC, ASYNC
+    }
+}
@@ -22,13 +22,17 @@ import java.net.InetAddress;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.io.Closer;
+import com.google.common.util.concurrent.RateLimiter;
 import io.grpc.stub.StreamObserver;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
@@ -36,11 +40,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.glowroot.agent.central.CentralConnection.GrpcCall;
+import org.glowroot.agent.central.CentralSpool.InvalidRecordException;
+import org.glowroot.agent.central.CentralSpool.RecordReplayer;
+import org.glowroot.agent.central.CentralSpool.SpooledRecord;
 import org.glowroot.agent.collector.Collector;
 import org.glowroot.agent.config.ConfigService;
 import org.glowroot.agent.live.LiveJvmServiceImpl;
 import org.glowroot.agent.live.LiveTraceRepositoryImpl;
 import org.glowroot.agent.live.LiveWeavingServiceImpl;
+import org.glowroot.agent.util.ThreadFactories;
 import org.glowroot.common.util.OnlyUsedByTests;
 import org.glowroot.common.util.PropertiesFiles;
 import org.glowroot.common.util.Version;
@@ -73,6 +81,7 @@ import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 import static com.google.common.base.Charsets.UTF_8;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class CentralCollector implements Collector {
 
@@ -102,11 +111,16 @@ public class CentralCollector implements Collector {
 
     private final SharedQueryTextLimiter sharedQueryTextLimiter = new SharedQueryTextLimiter();
 
+    // spool is only used if glowroot.collector.spool.maxSizeMb is configured
+    private final @Nullable CentralSpool spool;
+    private final @Nullable ScheduledExecutorService spoolReplayExecutor;
+
     private volatile @MonotonicNonNull Environment environment;
     private volatile int nextAggregateDelayMillis;
 
     public CentralCollector(Map<String, String> properties, String collectorAddress,
-            @Nullable String collectorAuthority, List<File> confDirs, boolean configReadOnly,
+            @Nullable String collectorAuthority, List<File> confDirs, File tmpDir,
+            boolean configReadOnly,
             LiveJvmServiceImpl liveJvmService, LiveWeavingServiceImpl liveWeavingService,
             LiveTraceRepositoryImpl liveTraceRepository, AgentConfigUpdater agentConfigUpdater,
             ConfigService configService) throws Exception {
@@ -139,6 +153,18 @@ public class CentralCollector implements Collector {
         downstreamServiceObserver = new DownstreamServiceObserver(centralConnection,
                 agentConfigUpdater, configReadOnly, liveJvmService, liveWeavingService,
                 liveTraceRepository, agentId, inConnectionFailure, sharedQueryTextLimiter);
+
+        long spoolMaxSizeBytes =
+                getSpoolMaxSizeBytes(properties.get("glowroot.collector.spool.maxSizeMb"));
+        if (spoolMaxSizeBytes == 0) {
+            spool = null;
+            spoolReplayExecutor = null;
+        } else {
+            spool = new CentralSpool(new File(tmpDir, "central-spool"), spoolMaxSizeBytes);
+            spoolReplayExecutor = Executors.newSingleThreadScheduledExecutor(
+                    ThreadFactories.create("Glowroot-Central-Spool-Replay"));
+            spoolReplayExecutor.scheduleWithFixedDelay(new SpoolReplay(spool), 10, 10, SECONDS);
+        }
     }
 
     @Override
@@ -202,8 +228,21 @@ public class CentralCollector implements Collector {
         if (!SKIP_DELAY) {
             MILLISECONDS.sleep(nextAggregateDelayMillis);
         }
-        centralConnection
+        boolean success = centralConnection
                 .blockingCallWithAFewRetries(new CollectAggregatesGrpcCall(aggregateReader));
+        if (!success && spool != null) {
+            List<AggregateStreamMessage> messages = Lists.newArrayList();
+            messages.add(createAggregateStreamHeader(aggregateReader));
+            try {
+                aggregateReader.accept(new AggregateVisitorImpl(
+                        new CollectingStreamObserver<AggregateStreamMessage>(messages),
+                        Lists.<String>newArrayList()));
+            } catch (Exception e) {
+                logger.error(e.getMessage(), e);
+                return;
+            }
+            spool.append(CentralSpool.AGGREGATES, messages);
+        }
     }
 
     @Override
@@ -213,29 +252,11 @@ public class CentralCollector implements Collector {
                 .addAllGaugeValue(gaugeValues)
                 .setPostV09(true)
                 .build();
-        centralConnection.blockingCallWithAFewRetries(new GrpcCall<GaugeValueResponseMessage>() {
-            @Override
-            public void call(StreamObserver<GaugeValueResponseMessage> responseObserver) {
-                collectorServiceStub.collectGaugeValues(gaugeValueMessage, responseObserver);
-            }
-            @Override
-            public void doWithResponse(GaugeValueResponseMessage response) {
-                if (response.getResendInit() && environment != null) {
-                    final InitMessage initMessage = InitMessage.newBuilder()
-                            .setAgentId(agentId)
-                            .setEnvironment(environment)
-                            .setAgentConfig(configService.getAgentConfig())
-                            .build();
-                    // only once, since resendInit will continue to be sent back until it succeeds
-                    centralConnection.asyncCallOnce(new GrpcCall<InitResponse>() {
-                        @Override
-                        void call(StreamObserver<InitResponse> responseObserver) {
-                            collectorServiceStub.collectInit(initMessage, responseObserver);
-                        }
-                    });
-                }
-            }
-        });
+        boolean success = centralConnection
+                .blockingCallWithAFewRetries(new CollectGaugeValuesGrpcCall(gaugeValueMessage));
+        if (!success && spool != null) {
+            spool.append(CentralSpool.GAUGE_VALUES, ImmutableList.of(gaugeValueMessage));
+        }
     }
 
     @Override
@@ -245,7 +266,23 @@ public class CentralCollector implements Collector {
             // reader will not be idempotent, so could lead to confusing results
             centralConnection.blockingCallOnce(new CollectTraceGrpcCall(traceReader));
         } else {
-            centralConnection.blockingCallWithAFewRetries(new CollectTraceGrpcCall(traceReader));
+            boolean success = centralConnection
+                    .blockingCallWithAFewRetries(new CollectTraceGrpcCall(traceReader));
+            if (!success && spool != null) {
+                List<TraceStreamMessage> messages = Lists.newArrayList();
+                messages.add(createTraceStreamHeader(traceReader));
+                TraceVisitorImpl traceVisitor = new TraceVisitorImpl(
+                        new CollectingStreamObserver<TraceStreamMessage>(messages),
+                        Lists.<String>newArrayList());
+                try {
+                    traceReader.accept(traceVisitor);
+                } catch (Exception e) {
+                    logger.error(e.getMessage(), e);
+                    return;
+                }
+                messages.add(traceVisitor.createStreamCounts());
+                spool.append(CentralSpool.TRACE, messages);
+            }
         }
     }
 
@@ -273,15 +310,44 @@ public class CentralCollector implements Collector {
 
     @OnlyUsedByTests
     public void close() throws InterruptedException {
+        if (spoolReplayExecutor != null) {
+            spoolReplayExecutor.shutdown();
+        }
         downstreamServiceObserver.close();
         centralConnection.close();
     }
 
     @OnlyUsedByTests
-    public void awaitClose() throws InterruptedException {
+    public void awaitClose() throws Exception {
+        if (spoolReplayExecutor != null
+                && !spoolReplayExecutor.awaitTermination(10, SECONDS)) {
+            throw new IllegalStateException("Could not terminate executor");
+        }
+        if (spool != null) {
+            spool.close();
+        }
         centralConnection.awaitClose();
     }
 
+    private AggregateStreamMessage createAggregateStreamHeader(AggregateReader aggregateReader) {
+        return AggregateStreamMessage.newBuilder()
+                .setStreamHeader(AggregateStreamHeader.newBuilder()
+                        .setAgentId(agentId)
+                        .setCaptureTime(aggregateReader.captureTime())
+                        .setPostV09(true))
+                .build();
+    }
+
+    private TraceStreamMessage createTraceStreamHeader(TraceReader traceReader) {
+        return TraceStreamMessage.newBuilder()
+                .setStreamHeader(TraceStreamHeader.newBuilder()
+                        .setAgentId(agentId)
+                        .setTraceId(traceReader.traceId())
+                        .setUpdate(traceReader.update())
+                        .setPostV09(true))
+                .build();
+    }
+
     @VisibleForTesting
     static String escapeHostname(String hostname) {
         hostname = hostname.replace("\\", "\\\\");
@@ -294,6 +360,29 @@ public class CentralCollector implements Collector {
         return hostname;
     }
 
+    // returns 0 if the spool is not enabled
+    @VisibleForTesting
+    static long getSpoolMaxSizeBytes(@Nullable String spoolMaxSizeMb) {
+        if (spoolMaxSizeMb == null) {
+            return 0;
+        }
+        int maxSizeMb;
+        try {
+            maxSizeMb = Integer.parseInt(spoolMaxSizeMb.trim());
+        } catch (NumberFormatException e) {
+            logger.debug(e.getMessage(), e);
+            startupLogger.warn("invalid collector.spool.maxSizeMb (must be a positive integer),"
+                    + " not spooling data for the central collector: {}", spoolMaxSizeMb);
+            return 0;
+        }
+        if (maxSizeMb < 0) {
+            startupLogger.warn("invalid collector.spool.maxSizeMb (must be a positive integer),"
+                    + " not spooling data for the central collector: {}", spoolMaxSizeMb);
+            return 0;
+        }
+        return maxSizeMb * 1024L * 1024;
+    }
+
     private static String convertFromV09AgentRollupId(String agentRollupId) {
         // old agent rollup id supported spaces around separator
         return agentRollupId.replaceAll(" */ *", "::").trim() + "::";
@@ -392,17 +481,13 @@ public class CentralCollector implements Collector {
         @Override
         public void call(StreamObserver<AggregateResponseMessage> responseObserver) {
             final StreamObserver<AggregateStreamMessage> requestObserver =
-                    collectorServiceStub.collectAggregateStream(responseObserver);
-            requestObserver.onNext(AggregateStreamMessage.newBuilder()
-                    .setStreamHeader(AggregateStreamHeader.newBuilder()
-                            .setAgentId(agentId)
-                            .setCaptureTime(aggregateReader.captureTime())
-                            .setPostV09(true))
-                    .build());
+                    SizeBasedCompressionStreamObserver.wrap(
+                            collectorServiceStub.collectAggregateStream(responseObserver));
+            requestObserver.onNext(createAggregateStreamHeader(aggregateReader));
             // need to clear in case this is a retry
             fullTextSha1s.clear();
             try {
-                aggregateReader.accept(new AggregateVisitorImpl(requestObserver));
+                aggregateReader.accept(new AggregateVisitorImpl(requestObserver, fullTextSha1s));
             } catch (Throwable t) {
                 logger.error(t.getMessage(), t);
                 requestObserver.onError(t);
@@ -419,48 +504,37 @@ public class CentralCollector implements Collector {
                 sharedQueryTextLimiter.onSuccessfullySentToCentralCollector(fullTextSha1);
             }
         }
+    }
 
-        private class AggregateVisitorImpl implements AggregateVisitor {
+    private class CollectGaugeValuesGrpcCall extends GrpcCall<GaugeValueResponseMessage> {
 
-            private final StreamObserver<AggregateStreamMessage> requestObserver;
+        private final GaugeValueMessage gaugeValueMessage;
 
-            private AggregateVisitorImpl(StreamObserver<AggregateStreamMessage> requestObserver) {
-                this.requestObserver = requestObserver;
-            }
+        private CollectGaugeValuesGrpcCall(GaugeValueMessage gaugeValueMessage) {
+            this.gaugeValueMessage = gaugeValueMessage;
+        }
 
-            @Override
-            public void visitOverallAggregate(String transactionType,
-                    List<String> sharedQueryTexts, Aggregate overallAggregate) {
-                for (String sharedQueryText : sharedQueryTexts) {
-                    Aggregate.SharedQueryText aggregateSharedQueryText = sharedQueryTextLimiter
-                            .buildAggregateSharedQueryText(sharedQueryText, fullTextSha1s);
-                    requestObserver.onNext(AggregateStreamMessage.newBuilder()
-                            .setSharedQueryText(aggregateSharedQueryText)
-                            .build());
-                }
-                requestObserver.onNext(AggregateStreamMessage.newBuilder()
-                        .setOverallAggregate(OverallAggregate.newBuilder()
-                                .setTransactionType(transactionType)
-                                .setAggregate(overallAggregate))
-                        .build());
-            }
+        @Override
+        public void call(StreamObserver<GaugeValueResponseMessage> responseObserver) {
+            collectorServiceStub.collectGaugeValues(gaugeValueMessage, responseObserver);
+        }
 
-            @Override
-            public void visitTransactionAggregate(String transactionType,
-                    String transactionName, List<String> sharedQueryTexts,
-                    Aggregate transactionAggregate) {
-                for (String sharedQueryText : sharedQueryTexts) {
-                    requestObserver.onNext(AggregateStreamMessage.newBuilder()
-                            .setSharedQueryText(sharedQueryTextLimiter
-                                    .buildAggregateSharedQueryText(sharedQueryText, fullTextSha1s))
-                            .build());
-                }
-                requestObserver.onNext(AggregateStreamMessage.newBuilder()
-                        .setTransactionAggregate(TransactionAggregate.newBuilder()
-                                .setTransactionType(transactionType)
-                                .setTransactionName(transactionName)
-                                .setAggregate(transactionAggregate))
-                        .build());
+        @Override
+        public void doWithResponse(GaugeValueResponseMessage response) {
+            final Environment environment = CentralCollector.this.environment;
+            if (response.getResendInit() && environment != null) {
+                final InitMessage initMessage = InitMessage.newBuilder()
+                        .setAgentId(agentId)
+                        .setEnvironment(environment)
+                        .setAgentConfig(configService.getAgentConfig())
+                        .build();
+                // only once, since resendInit will continue to be sent back until it succeeds
+                centralConnection.asyncCallOnce(new GrpcCall<InitResponse>() {
+                    @Override
+                    void call(StreamObserver<InitResponse> responseObserver) {
+                        collectorServiceStub.collectInit(initMessage, responseObserver);
+                    }
+                });
             }
         }
     }
@@ -478,14 +552,9 @@ public class CentralCollector implements Collector {
         @Override
         public void call(StreamObserver<EmptyMessage> responseObserver) {
             StreamObserver<TraceStreamMessage> requestObserver =
-                    collectorServiceStub.collectTraceStream(responseObserver);
-            requestObserver.onNext(TraceStreamMessage.newBuilder()
-                    .setStreamHeader(TraceStreamHeader.newBuilder()
-                            .setAgentId(agentId)
-                            .setTraceId(traceReader.traceId())
-                            .setUpdate(traceReader.update())
-                            .setPostV09(true))
-                    .build());
+                    SizeBasedCompressionStreamObserver.wrap(
+                            collectorServiceStub.collectTraceStream(responseObserver));
+            requestObserver.onNext(createTraceStreamHeader(traceReader));
             // need to clear in case this is a retry
             fullTextSha1s.clear();
             TraceVisitorImpl traceVisitor = new TraceVisitorImpl(requestObserver, fullTextSha1s);
@@ -496,11 +565,7 @@ public class CentralCollector implements Collector {
                 requestObserver.onError(t);
                 return;
             }
-            requestObserver.onNext(TraceStreamMessage.newBuilder()
-                    .setStreamCounts(TraceStreamCounts.newBuilder()
-                            .setEntryCount(traceVisitor.entryCount)
-                            .setSharedQueryTextCount(traceVisitor.sharedQueryTextCount))
-                    .build());
+            requestObserver.onNext(traceVisitor.createStreamCounts());
             requestObserver.onCompleted();
         }
 
@@ -512,6 +577,53 @@ public class CentralCollector implements Collector {
         }
     }
 
+    private class AggregateVisitorImpl implements AggregateVisitor {
+
+        private final StreamObserver<AggregateStreamMessage> requestObserver;
+        private final List<String> fullTextSha1s;
+
+        private AggregateVisitorImpl(StreamObserver<AggregateStreamMessage> requestObserver,
+                List<String> fullTextSha1s) {
+            this.requestObserver = requestObserver;
+            this.fullTextSha1s = fullTextSha1s;
+        }
+
+        @Override
+        public void visitOverallAggregate(String transactionType,
+                List<String> sharedQueryTexts, Aggregate overallAggregate) {
+            for (String sharedQueryText : sharedQueryTexts) {
+                Aggregate.SharedQueryText aggregateSharedQueryText = sharedQueryTextLimiter
+                        .buildAggregateSharedQueryText(sharedQueryText, fullTextSha1s);
+                requestObserver.onNext(AggregateStreamMessage.newBuilder()
+                        .setSharedQueryText(aggregateSharedQueryText)
+                        .build());
+            }
+            requestObserver.onNext(AggregateStreamMessage.newBuilder()
+                    .setOverallAggregate(OverallAggregate.newBuilder()
+                            .setTransactionType(transactionType)
+                            .setAggregate(overallAggregate))
+                    .build());
+        }
+
+        @Override
+        public void visitTransactionAggregate(String transactionType,
+                String transactionName, List<String> sharedQueryTexts,
+                Aggregate transactionAggregate) {
+            for (String sharedQueryText : sharedQueryTexts) {
+                requestObserver.onNext(AggregateStreamMessage.newBuilder()
+                        .setSharedQueryText(sharedQueryTextLimiter
+                                .buildAggregateSharedQueryText(sharedQueryText, fullTextSha1s))
+                        .build());
+            }
+            requestObserver.onNext(AggregateStreamMessage.newBuilder()
+                    .setTransactionAggregate(TransactionAggregate.newBuilder()
+                            .setTransactionType(transactionType)
+                            .setTransactionName(transactionName)
+                            .setAggregate(transactionAggregate))
+                    .build());
+        }
+    }
+
     private class TraceVisitorImpl implements TraceVisitor {
 
         private final StreamObserver<TraceStreamMessage> requestObserver;
@@ -526,6 +638,14 @@ public class CentralCollector implements Collector {
             this.fullTextSha1s = fullTextSha1s;
         }
 
+        private TraceStreamMessage createStreamCounts() {
+            return TraceStreamMessage.newBuilder()
+                    .setStreamCounts(TraceStreamCounts.newBuilder()
+                            .setEntryCount(entryCount)
+                            .setSharedQueryTextCount(sharedQueryTextCount))
+                    .build();
+        }
+
         @Override
         public void visitEntry(Trace.Entry entry) {
             requestObserver.onNext(TraceStreamMessage.newBuilder()
@@ -575,4 +695,108 @@ public class CentralCollector implements Collector {
                     .build());
         }
     }
+
+    private class SpoolReplay implements Runnable {
+
+        private final CentralSpool spool;
+
+        // replaying at a limited rate to avoid overwhelming the central collector right after it
+        // has become available again (e.g. after a rolling restart)
+        private final RateLimiter rateLimiter = RateLimiter.create(10);
+
+        private SpoolReplay(CentralSpool spool) {
+            this.spool = spool;
+        }
+
+        @Override
+        public void run() {
+            try {
+                runInternal();
+            } catch (InterruptedException e) {
+                // probably shutdown requested (see close method above)
+                logger.debug(e.getMessage(), e);
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                logger.error(t.getMessage(), t);
+            }
+        }
+
+        private void runInternal() throws Exception {
+            spool.replay(new RecordReplayer() {
+                @Override
+                public boolean replay(SpooledRecord record) throws Exception {
+                    if (centralConnection.isInConnectionFailure()) {
+                        // will try again on next run
+                        return false;
+                    }
+                    GrpcCall<?> grpcCall = createGrpcCall(record);
+                    rateLimiter.acquire();
+                    // if this fails, will try again on next run
+                    return centralConnection.blockingCallWithAFewRetries(grpcCall);
+                }
+            });
+        }
+
+        private GrpcCall<?> createGrpcCall(SpooledRecord record) throws InvalidRecordException {
+            switch (record.recordType()) {
+                case CentralSpool.GAUGE_VALUES:
+                    List<GaugeValueMessage> gaugeValueMessages = CentralSpool
+                            .parseMessages(record.payload(), GaugeValueMessage.parser());
+                    return new CollectGaugeValuesGrpcCall(gaugeValueMessages.get(0));
+                case CentralSpool.AGGREGATES:
+                    final List<AggregateStreamMessage> aggregateMessages = CentralSpool
+                            .parseMessages(record.payload(), AggregateStreamMessage.parser());
+                    return new GrpcCall<AggregateResponseMessage>() {
+                        @Override
+                        void call(StreamObserver<AggregateResponseMessage> responseObserver) {
+                            StreamObserver<AggregateStreamMessage> requestObserver =
+                                    SizeBasedCompressionStreamObserver.wrap(collectorServiceStub
+                                            .collectAggregateStream(responseObserver));
+                            for (AggregateStreamMessage message : aggregateMessages) {
+                                requestObserver.onNext(message);
+                            }
+                            requestObserver.onCompleted();
+                        }
+                    };
+                case CentralSpool.TRACE:
+                    final List<TraceStreamMessage> traceMessages = CentralSpool
+                            .parseMessages(record.payload(), TraceStreamMessage.parser());
+                    return new GrpcCall<EmptyMessage>() {
+                        @Override
+                        void call(StreamObserver<EmptyMessage> responseObserver) {
+                            StreamObserver<TraceStreamMessage> requestObserver =
+                                    SizeBasedCompressionStreamObserver.wrap(collectorServiceStub
+                                            .collectTraceStream(responseObserver));
+                            for (TraceStreamMessage message : traceMessages) {
+                                requestObserver.onNext(message);
+                            }
+                            requestObserver.onCompleted();
+                        }
+                    };
+                default:
+                    throw new InvalidRecordException(
+                            "unexpected record type: " + record.recordType());
+            }
+        }
+    }
+
+    private static class CollectingStreamObserver<T> implements StreamObserver<T> {
+
+        private final List<T> messages;
+
+        private CollectingStreamObserver(List<T> messages) {
+            this.messages = messages;
+        }
+
+        @Override
+        public void onNext(T value) {
+            messages.add(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {}
+
+        @Override
+        public void onCompleted() {}
+    }
 }
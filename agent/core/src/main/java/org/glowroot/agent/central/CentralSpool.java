@@ -0,0 +1,326 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.central;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.immutables.value.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.agent.util.RateLimitedLogger;
+import org.glowroot.common.util.OnlyUsedByTests;
+import org.glowroot.common.util.Styles;
+
+// bounded file of messages that could not be sent to the central collector, which are replayed
+// (in order) once the central collector is reachable again
+//
+// the file starts with [long read position], so that records that have already been replayed are
+// not replayed again after a JVM restart, followed by the records, each written as
+// [int record length][byte record type][length-delimited messages]
+class CentralSpool {
+
+    static final byte GAUGE_VALUES = 1;
+    static final byte AGGREGATES = 2;
+    static final byte TRACE = 3;
+
+    @VisibleForTesting
+    static final int HEADER_SIZE = 8;
+
+    private static final Logger logger = LoggerFactory.getLogger(CentralSpool.class);
+
+    private final File file;
+    private final long maxSizeBytes;
+
+    private final RateLimitedLogger spoolFullLogger = new RateLimitedLogger(CentralSpool.class);
+
+    private final Object lock = new Object();
+
+    // guarded by lock
+    private @Nullable RandomAccessFile out;
+    // guarded by lock
+    private long readPosition = HEADER_SIZE;
+
+    CentralSpool(File file, long maxSizeBytes) throws IOException {
+        this.file = file;
+        this.maxSizeBytes = maxSizeBytes;
+        // existing content (e.g. from prior to JVM restart) is intentionally retained so that it
+        // gets replayed
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        this.out = out;
+        long length = out.length();
+        if (length >= HEADER_SIZE) {
+            out.seek(0);
+            long storedReadPosition = out.readLong();
+            if (storedReadPosition >= HEADER_SIZE && storedReadPosition <= length) {
+                readPosition = storedReadPosition;
+                return;
+            }
+        }
+        if (length > 0) {
+            logger.warn("discarding unreadable content in {}", file.getAbsolutePath());
+            out.setLength(0);
+        }
+    }
+
+    boolean append(byte recordType, List<? extends MessageLite> messages) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dataOut = new DataOutputStream(baos);
+        try {
+            dataOut.writeInt(0);
+            dataOut.writeByte(recordType);
+            for (MessageLite message : messages) {
+                message.writeDelimitedTo(dataOut);
+            }
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw IOException
+            throw new IllegalStateException(e);
+        }
+        byte[] bytes = baos.toByteArray();
+        int recordLength = bytes.length - 4;
+        bytes[0] = (byte) (recordLength >>> 24);
+        bytes[1] = (byte) (recordLength >>> 16);
+        bytes[2] = (byte) (recordLength >>> 8);
+        bytes[3] = (byte) recordLength;
+        synchronized (lock) {
+            try {
+                RandomAccessFile out = getOrReopen();
+                // the header is only written once there is something to replay
+                long length = Math.max(out.length(), HEADER_SIZE);
+                if (length + bytes.length > maxSizeBytes) {
+                    spoolFullLogger.warn("not spooling data for the central collector because the"
+                            + " spool file has reached its maximum size: {}",
+                            file.getAbsolutePath());
+                    return false;
+                }
+                if (out.length() < HEADER_SIZE) {
+                    writeReadPosition(out);
+                }
+                out.seek(length);
+                out.write(bytes);
+                return true;
+            } catch (IOException e) {
+                logger.error("error writing to {}: {}", file.getAbsolutePath(), e.getMessage(),
+                        e);
+                return false;
+            }
+        }
+    }
+
+    // replays the pending records in order until the replayer returns false (e.g. because the
+    // central collector is not available), records that the replayer cannot decode are discarded so
+    // that they do not block the records after them from ever being replayed
+    void replay(RecordReplayer replayer) throws Exception {
+        SpooledRecord record;
+        while ((record = readNext()) != null) {
+            try {
+                if (!replayer.replay(record)) {
+                    return;
+                }
+            } catch (InvalidRecordException e) {
+                logger.warn("discarding unreadable record in {}: {}", file.getAbsolutePath(),
+                        e.getMessage());
+                logger.debug(e.getMessage(), e);
+            }
+            markReplayed(record);
+        }
+    }
+
+    @VisibleForTesting
+    @Nullable
+    SpooledRecord readNext() {
+        synchronized (lock) {
+            try {
+                RandomAccessFile out = getOrReopen();
+                if (readPosition >= out.length()) {
+                    return null;
+                }
+                out.seek(readPosition);
+                int recordLength = out.readInt();
+                if (recordLength < 1 || readPosition + 4 + recordLength > out.length()) {
+                    // this can happen if JVM was terminated in the middle of writing a record
+                    throw new EOFException();
+                }
+                byte recordType = out.readByte();
+                byte[] payload = new byte[recordLength - 1];
+                out.readFully(payload);
+                return ImmutableSpooledRecord.of(readPosition + 4 + recordLength, recordType,
+                        payload);
+            } catch (IOException e) {
+                logger.warn("discarding unreadable content in {}: {}", file.getAbsolutePath(),
+                        e.getMessage());
+                logger.debug(e.getMessage(), e);
+                truncate();
+                return null;
+            }
+        }
+    }
+
+    @VisibleForTesting
+    void markReplayed(SpooledRecord record) {
+        synchronized (lock) {
+            readPosition = record.nextReadPosition();
+            try {
+                RandomAccessFile out = getOrReopen();
+                long length = out.length();
+                if (readPosition >= length) {
+                    // everything has been replayed, so reclaim the disk space
+                    truncate();
+                    return;
+                }
+                writeReadPosition(out);
+                long replayedBytes = readPosition - HEADER_SIZE;
+                long pendingBytes = length - readPosition;
+                // only compacting once the pending records can be copied without overwriting
+                // them, so that if the JVM is terminated in the middle of compacting, the stored
+                // read position still points to intact records
+                if (replayedBytes >= maxSizeBytes / 4 && replayedBytes >= pendingBytes) {
+                    compact(out, length);
+                }
+            } catch (IOException e) {
+                logger.error("error writing {}: {}", file.getAbsolutePath(), e.getMessage(), e);
+            }
+        }
+    }
+
+    boolean hasPending() {
+        synchronized (lock) {
+            try {
+                return readPosition < getOrReopen().length();
+            } catch (IOException e) {
+                logger.error("error reading {}: {}", file.getAbsolutePath(), e.getMessage(), e);
+                return false;
+            }
+        }
+    }
+
+    @OnlyUsedByTests
+    void close() throws IOException {
+        synchronized (lock) {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        }
+    }
+
+    // guarded by lock
+    private void truncate() {
+        readPosition = HEADER_SIZE;
+        try {
+            getOrReopen().setLength(0);
+        } catch (IOException e) {
+            logger.error("error truncating {}: {}", file.getAbsolutePath(), e.getMessage(), e);
+        }
+    }
+
+    // moves the pending records to the start of the file in order to reclaim the space used by
+    // records that have already been replayed, without waiting for everything to be replayed
+    //
+    // guarded by lock
+    private void compact(RandomAccessFile out, long length) throws IOException {
+        byte[] buffer = new byte[8192];
+        long from = readPosition;
+        long to = HEADER_SIZE;
+        while (from < length) {
+            out.seek(from);
+            int n = out.read(buffer, 0, (int) Math.min(buffer.length, length - from));
+            if (n == -1) {
+                throw new EOFException();
+            }
+            out.seek(to);
+            out.write(buffer, 0, n);
+            from += n;
+            to += n;
+        }
+        // truncating before writing the new read position, since otherwise if the JVM is terminated
+        // in between, the stale bytes after the compacted records would be replayed as records
+        // (whereas this way the worst case is that the compacted records are not replayed)
+        out.setLength(to);
+        readPosition = HEADER_SIZE;
+        writeReadPosition(out);
+    }
+
+    // guarded by lock
+    private void writeReadPosition(RandomAccessFile out) throws IOException {
+        out.seek(0);
+        out.writeLong(readPosition);
+    }
+
+    // guarded by lock
+    private RandomAccessFile getOrReopen() throws IOException {
+        if (out == null) {
+            out = new RandomAccessFile(file, "rw");
+        }
+        return out;
+    }
+
+    static <T> List<T> parseMessages(byte[] payload, Parser<T> parser)
+            throws InvalidRecordException {
+        List<T> messages = Lists.newArrayList();
+        InputStream in = new ByteArrayInputStream(payload);
+        try {
+            T message;
+            while ((message = parser.parseDelimitedFrom(in)) != null) {
+                messages.add(message);
+            }
+        } catch (IOException e) {
+            throw new InvalidRecordException(e.getMessage(), e);
+        }
+        if (messages.isEmpty()) {
+            throw new InvalidRecordException("record has no messages");
+        }
+        return messages;
+    }
+
+    interface RecordReplayer {
+        // returns false if the record could not be replayed and should be tried again later
+        boolean replay(SpooledRecord record) throws Exception;
+    }
+
+    @SuppressWarnings("serial")
+    static class InvalidRecordException extends Exception {
+
+        InvalidRecordException(String message) {
+            super(message);
+        }
+
+        private InvalidRecordException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    @Value.Immutable
+    @Styles.AllParameters
+    interface SpooledRecord {
+        long nextReadPosition();
+        byte recordType();
+        byte[] payload();
+    }
+}
@@ -17,7 +17,9 @@ package org.glowroot.agent.central;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -98,6 +100,8 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
 
     private static final Logger logger = LoggerFactory.getLogger(DownstreamServiceObserver.class);
 
+    private static final int TRACE_REQUEST_THREADS = 2;
+
     private final CentralConnection centralConnection;
     private final DownstreamServiceStub downstreamServiceStub;
     private final AgentConfigUpdater agentConfigUpdater;
@@ -107,7 +111,7 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
     private final LiveTraceRepositoryImpl liveTraceRepository;
     private final String agentId;
 
-    private volatile @Nullable StreamObserver<AgentResponse> currResponseObserver;
+    private volatile @Nullable ConnectionResponseObserver currResponseObserver;
 
     // only used by tests
     private volatile boolean closedByCentralCollector;
@@ -119,6 +123,17 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
 
     private final ScheduledExecutorService scheduledRetryExecutor;
 
+    // requests are dispatched off of the gRPC executor thread, and are split into separate
+    // executors so that a slow heap dump / heap histogram / classpath scan does not block live
+    // trace requests (which central only waits 5 seconds for) or other quick lookups
+    //
+    // single thread is used for the quick lookups in order to preserve ordering of config updates
+    private final ExecutorService quickRequestExecutor;
+    private final ExecutorService traceRequestExecutor;
+    private final ExecutorService heavyRequestExecutor;
+
+    private final Thread shutdownHookThread;
+
     DownstreamServiceObserver(CentralConnection centralConnection,
             AgentConfigUpdater agentConfigUpdater, boolean configReadOnly,
             LiveJvmServiceImpl liveJvmService, LiveWeavingServiceImpl liveWeavingService,
@@ -137,6 +152,14 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
         this.sharedQueryTextLimiter = sharedQueryTextLimiter;
         scheduledRetryExecutor = Executors.newSingleThreadScheduledExecutor(
                 ThreadFactories.create("Glowroot-Downstream-Retry"));
+        quickRequestExecutor = Executors
+                .newSingleThreadExecutor(ThreadFactories.create("Glowroot-Downstream-Quick"));
+        traceRequestExecutor = Executors.newFixedThreadPool(TRACE_REQUEST_THREADS,
+                ThreadFactories.create("Glowroot-Downstream-Trace-%d"));
+        heavyRequestExecutor = Executors
+                .newSingleThreadExecutor(ThreadFactories.create("Glowroot-Downstream-Heavy"));
+        shutdownHookThread = new ShutdownHookThread();
+        Runtime.getRuntime().addShutdownHook(shutdownHookThread);
     }
 
     @Override
@@ -154,10 +177,17 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
         if (request.getMessageCase() == MessageCase.HELLO_ACK) {
             return;
         }
+        ConnectionResponseObserver responseObserver = currResponseObserver;
+        if (responseObserver == null) {
+            // connection has already failed
+            return;
+        }
         try {
-            onNextInternal(request);
-        } catch (Throwable t) {
-            logger.error(t.getMessage(), t);
+            getExecutor(request.getMessageCase())
+                    .execute(new DispatchedRequest(request, responseObserver));
+        } catch (RejectedExecutionException e) {
+            // executors have been shut down
+            logger.debug(e.getMessage(), e);
         }
     }
 
@@ -187,13 +217,19 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
             });
         }
         currResponseObserver = null;
-        // TODO revisit retry/backoff after next grpc version
-        scheduledRetryExecutor.schedule(new RetryAfterError(), 1, SECONDS);
+        try {
+            // TODO revisit retry/backoff after next grpc version
+            scheduledRetryExecutor.schedule(new RetryAfterError(), 1, SECONDS);
+        } catch (RejectedExecutionException e) {
+            // executors have been shut down
+            logger.debug(e.getMessage(), e);
+        }
     }
 
     void connectAsync() {
         // these are async so never fail, onError() will be called on failure
-        StreamObserver<AgentResponse> responseObserver = downstreamServiceStub.connect(this);
+        ConnectionResponseObserver responseObserver =
+                new ConnectionResponseObserver(downstreamServiceStub.connect(this));
         currResponseObserver = responseObserver;
         responseObserver.onNext(AgentResponse.newBuilder()
                 .setHello(Hello.newBuilder()
@@ -201,12 +237,30 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
                 .build());
     }
 
-    private void onNextInternal(CentralRequest request) throws InterruptedException {
-        StreamObserver<AgentResponse> responseObserver = currResponseObserver;
-        while (responseObserver == null) {
-            MILLISECONDS.sleep(10);
-            responseObserver = currResponseObserver;
+    private ExecutorService getExecutor(MessageCase messageCase) {
+        switch (messageCase) {
+            case HEADER_REQUEST:
+            case ENTRIES_REQUEST:
+            case QUERIES_REQUEST:
+            case MAIN_THREAD_PROFILE_REQUEST:
+            case AUX_THREAD_PROFILE_REQUEST:
+            case FULL_TRACE_REQUEST:
+                return traceRequestExecutor;
+            case HEAP_DUMP_REQUEST:
+            case HEAP_HISTOGRAM_REQUEST:
+            case FORCE_GC_REQUEST:
+            case JSTACK_REQUEST:
+            case PRELOAD_CLASSPATH_CACHE_REQUEST:
+            case METHOD_SIGNATURES_REQUEST:
+            case REWEAVE_REQUEST:
+                return heavyRequestExecutor;
+            default:
+                return quickRequestExecutor;
         }
+    }
+
+    private void onNextInternal(CentralRequest request,
+            StreamObserver<AgentResponse> responseObserver) {
         switch (request.getMessageCase()) {
             case AGENT_CONFIG_UPDATE_REQUEST:
                 updateConfigAndRespond(request, responseObserver);
@@ -845,6 +899,8 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
 
     @OnlyUsedByTests
     void close() throws InterruptedException {
+        shutdownExecutors();
+        Runtime.getRuntime().removeShutdownHook(shutdownHookThread);
         StreamObserver<AgentResponse> responseObserver = currResponseObserver;
         while (responseObserver == null) {
             MILLISECONDS.sleep(10);
@@ -858,6 +914,31 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
         checkState(closedByCentralCollector);
     }
 
+    private void shutdownExecutors() {
+        quickRequestExecutor.shutdownNow();
+        traceRequestExecutor.shutdownNow();
+        heavyRequestExecutor.shutdownNow();
+        scheduledRetryExecutor.shutdownNow();
+    }
+
+    // these match the timeouts that central uses when waiting for a response (see
+    // org.glowroot.central.DownstreamServiceImpl), after which there is no point in handling the
+    // request since central has already given up on it
+    private static long getCentralTimeoutMillis(MessageCase messageCase) {
+        switch (messageCase) {
+            case HEADER_REQUEST:
+            case ENTRIES_REQUEST:
+            case MAIN_THREAD_PROFILE_REQUEST:
+            case AUX_THREAD_PROFILE_REQUEST:
+            case FULL_TRACE_REQUEST:
+                return SECONDS.toMillis(5);
+            case HEAP_DUMP_REQUEST:
+                return SECONDS.toMillis(300);
+            default:
+                return SECONDS.toMillis(60);
+        }
+    }
+
     private static void sendExceptionResponse(CentralRequest request,
             StreamObserver<AgentResponse> responseObserver) {
         responseObserver.onNext(AgentResponse.newBuilder()
@@ -866,6 +947,82 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
                 .build());
     }
 
+    private class DispatchedRequest implements Runnable {
+
+        private final CentralRequest request;
+        private final ConnectionResponseObserver responseObserver;
+        private final Stopwatch queuedStopwatch = Stopwatch.createStarted();
+
+        private DispatchedRequest(CentralRequest request,
+                ConnectionResponseObserver responseObserver) {
+            this.request = request;
+            this.responseObserver = responseObserver;
+        }
+
+        @Override
+        public void run() {
+            MessageCase messageCase = request.getMessageCase();
+            // config updates are never skipped since they are not just a response to central
+            if (messageCase != MessageCase.AGENT_CONFIG_UPDATE_REQUEST && queuedStopwatch
+                    .elapsed(MILLISECONDS) > getCentralTimeoutMillis(messageCase)) {
+                logger.debug("skipping {} since central has already timed out waiting for it",
+                        messageCase);
+                return;
+            }
+            try {
+                onNextInternal(request, responseObserver);
+            } catch (Throwable t) {
+                logger.error(t.getMessage(), t);
+            }
+        }
+    }
+
+    // requests are handled concurrently, but StreamObserver is not thread safe
+    //
+    // responses are only sent on the connection that the request was received on, since request
+    // ids are only meaningful to the central collector node on the other end of that connection,
+    // and once the connection has been re-established the old response observer is closed
+    private class ConnectionResponseObserver implements StreamObserver<AgentResponse> {
+
+        private final StreamObserver<AgentResponse> delegate;
+
+        private ConnectionResponseObserver(StreamObserver<AgentResponse> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onNext(AgentResponse value) {
+            synchronized (delegate) {
+                if (currResponseObserver != this) {
+                    logger.debug("not responding since connection has been re-established");
+                    return;
+                }
+                delegate.onNext(value);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            synchronized (delegate) {
+                delegate.onError(t);
+            }
+        }
+
+        @Override
+        public void onCompleted() {
+            synchronized (delegate) {
+                delegate.onCompleted();
+            }
+        }
+    }
+
+    private class ShutdownHookThread extends Thread {
+        @Override
+        public void run() {
+            shutdownExecutors();
+        }
+    }
+
     private class RetryAfterError implements Runnable {
         @Override
         public void run() {
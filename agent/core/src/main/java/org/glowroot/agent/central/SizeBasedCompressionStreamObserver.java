@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.central;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.protobuf.MessageLite;
+import io.grpc.stub.CallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+// gzip is applied per message, and so compressing the many small messages in the aggregate and
+// trace streams (e.g. individual shared query texts) costs cpu and typically increases their size
+// due to the gzip header/trailer overhead, so only compress messages that are large enough to
+// benefit
+class SizeBasedCompressionStreamObserver<T extends MessageLite> implements StreamObserver<T> {
+
+    @VisibleForTesting
+    static final int MIN_COMPRESSION_SIZE_BYTES = 256;
+
+    private final StreamObserver<T> delegate;
+
+    private boolean messageCompression = true;
+
+    private SizeBasedCompressionStreamObserver(StreamObserver<T> delegate) {
+        this.delegate = delegate;
+    }
+
+    static <T extends MessageLite> StreamObserver<T> wrap(StreamObserver<T> requestObserver) {
+        if (requestObserver instanceof CallStreamObserver) {
+            return new SizeBasedCompressionStreamObserver<T>(requestObserver);
+        } else {
+            return requestObserver;
+        }
+    }
+
+    @Override
+    public void onNext(T value) {
+        // serialized size is memoized by protobuf, so this does not add serialization cost
+        boolean compress = shouldCompress(value.getSerializedSize());
+        if (compress != messageCompression) {
+            ((CallStreamObserver<T>) delegate).setMessageCompression(compress);
+            messageCompression = compress;
+        }
+        delegate.onNext(value);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        delegate.onError(t);
+    }
+
+    @Override
+    public void onCompleted() {
+        delegate.onCompleted();
+    }
+
+    @VisibleForTesting
+    static boolean shouldCompress(int serializedSize) {
+        return serializedSize >= MIN_COMPRESSION_SIZE_BYTES;
+    }
+}
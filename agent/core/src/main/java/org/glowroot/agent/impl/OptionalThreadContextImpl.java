@@ -256,6 +256,29 @@ class OptionalThreadContextImpl implements ThreadContextPlus {
         }
     }
 
+    @Override
+    public boolean shouldStoreTransactionTrace() {
+        if (threadContext == null) {
+            return false;
+        }
+        return threadContext.shouldStoreTransactionTrace();
+    }
+
+    @Override
+    public void setTransactionTraceparent(@Nullable String traceparent) {
+        if (threadContext != null) {
+            threadContext.setTransactionTraceparent(traceparent);
+        }
+    }
+
+    @Override
+    public String getTransactionTraceparent() {
+        if (threadContext == null) {
+            return "";
+        }
+        return threadContext.getTransactionTraceparent();
+    }
+
     @Override
     public void setTransactionError(@Nullable String message) {
         if (threadContext != null) {
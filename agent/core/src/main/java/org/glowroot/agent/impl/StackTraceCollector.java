@@ -96,6 +96,9 @@ public class StackTraceCollector {
             ThreadInfo threadInfo = threadInfos[i];
             if (threadInfo != null) {
                 threadContext.captureStackTrace(threadInfo);
+            } else {
+                // no-op unless running in a virtual thread
+                threadContext.captureVirtualThreadStackTrace();
             }
         }
     }
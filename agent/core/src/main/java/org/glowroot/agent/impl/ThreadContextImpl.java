@@ -60,6 +60,7 @@ import org.glowroot.agent.plugin.api.TimerName;
 import org.glowroot.agent.plugin.api.TraceEntry;
 import org.glowroot.agent.util.ThreadAllocatedBytes;
 import org.glowroot.agent.util.Tickers;
+import org.glowroot.agent.util.VirtualThreads;
 import org.glowroot.common.config.AdvancedConfig;
 import org.glowroot.common.util.NotAvailableAware;
 
@@ -116,6 +117,8 @@ public class ThreadContextImpl implements ThreadContextPlus {
     private final int maxServiceCallAggregates;
 
     private final long threadId;
+    // only non-null when running in a virtual thread, which is not visible to ThreadMXBean
+    private final @Nullable Thread virtualThread;
 
     private final boolean limitExceededAuxThreadContext;
 
@@ -153,9 +156,12 @@ public class ThreadContextImpl implements ThreadContextPlus {
         traceEntryComponent = new TraceEntryComponent(castInitialized(this), messageSupplier,
                 rootTimer, startTick);
         this.parentThreadContextPriorEntry = parentThreadContextPriorEntry;
-        threadId = Thread.currentThread().getId();
-        threadStatsComponent =
-                captureThreadStats ? new ThreadStatsComponent(threadAllocatedBytes) : null;
+        Thread currentThread = Thread.currentThread();
+        threadId = currentThread.getId();
+        virtualThread = VirtualThreads.isVirtual(currentThread) ? currentThread : null;
+        // thread stats are captured via ThreadMXBean, which does not support virtual threads
+        threadStatsComponent = captureThreadStats && virtualThread == null
+                ? new ThreadStatsComponent(threadAllocatedBytes) : null;
         this.maxQueryAggregates = maxQueryAggregates;
         this.maxServiceCallAggregates = maxServiceCallAggregates;
         this.limitExceededAuxThreadContext = limitExceededAuxThreadContext;
@@ -423,7 +429,24 @@ public class ThreadContextImpl implements ThreadContextPlus {
     }
 
     void captureStackTrace(ThreadInfo threadInfo) {
-        transaction.captureStackTrace(isAuxiliary(), threadInfo);
+        transaction.captureStackTrace(isAuxiliary(), threadInfo.getStackTrace(),
+                threadInfo.getThreadState());
+        // memory barrier read ensures timely visibility of detach()
+        transaction.memoryBarrierRead();
+    }
+
+    // virtual threads are not visible to ThreadMXBean, and while mounted, their frames do not show
+    // up in the stack trace of the carrier thread either, so need to sample them directly
+    void captureVirtualThreadStackTrace() {
+        if (virtualThread == null) {
+            return;
+        }
+        StackTraceElement[] stackTrace = virtualThread.getStackTrace();
+        if (stackTrace.length == 0) {
+            // thread must have just recently terminated
+            return;
+        }
+        transaction.captureStackTrace(isAuxiliary(), stackTrace, virtualThread.getState());
         // memory barrier read ensures timely visibility of detach()
         transaction.memoryBarrierRead();
     }
@@ -566,6 +589,20 @@ public class ThreadContextImpl implements ThreadContextPlus {
             logger.error("startTransaction(): argument 'timerName' must be non-null");
             return NopTransactionService.TRACE_ENTRY;
         }
+        if (traceEntryComponent.isCompleted()) {
+            // woven code holds on to the thread context for the duration of the woven method, so
+            // this can be called after the transaction has ended, e.g. from @OnReturn advice after
+            // @OnBefore advice ended the transaction, in which case the new transaction cannot be
+            // attached to this (completed) transaction
+            ThreadContextImpl currThreadContext = (ThreadContextImpl) threadContextHolder.get();
+            if (currThreadContext != null) {
+                return currThreadContext.startTransaction(transactionType, transactionName,
+                        messageSupplier, timerName, alreadyInTransactionBehavior);
+            }
+            return transaction.getTransactionService().startTransaction(transactionType,
+                    transactionName, messageSupplier, timerName, threadContextHolder,
+                    currentNestingGroupId, currentSuppressionKeyId);
+        }
         // ensure visibility of recent configuration updates
         transaction.getConfigService().readMemoryBarrier();
         if (transaction.isOuter()
@@ -946,6 +983,36 @@ public class ThreadContextImpl implements ThreadContextPlus {
         }
     }
 
+    @Override
+    public boolean shouldStoreTransactionTrace() {
+        if (innerTransactionThreadContext == null) {
+            return transaction.getTransactionService().shouldStoreTrace(transaction);
+        } else {
+            return innerTransactionThreadContext.shouldStoreTransactionTrace();
+        }
+    }
+
+    @Override
+    public void setTransactionTraceparent(@Nullable String traceparent) {
+        if (traceparent == null) {
+            return;
+        }
+        if (innerTransactionThreadContext == null) {
+            transaction.setTraceparent(traceparent);
+        } else {
+            innerTransactionThreadContext.setTransactionTraceparent(traceparent);
+        }
+    }
+
+    @Override
+    public String getTransactionTraceparent() {
+        if (innerTransactionThreadContext == null) {
+            return transaction.getTraceparent();
+        } else {
+            return innerTransactionThreadContext.getTransactionTraceparent();
+        }
+    }
+
     @Override
     public void setTransactionError(@Nullable String message) {
         if (Strings.isNullOrEmpty(message)) {
@@ -63,6 +63,10 @@ class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, Timer {
 
     // volatile so it can be set from another thread (needed for async trace entries)
     private volatile @Nullable ErrorMessage errorMessage;
+    // throwable passed to endWithInfo(), which is only converted into errorMessage when the entry
+    // is read, since the vast majority of transactions are never stored and the conversion is
+    // expensive (e.g. chatty info logging with throwables)
+    private volatile @Nullable Throwable infoThrowable;
 
     private final long startTick;
 
@@ -124,6 +128,10 @@ class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, Timer {
 
     @Nullable
     ErrorMessage getErrorMessage() {
+        ErrorMessage errorMessage = this.errorMessage;
+        if (errorMessage == null && infoThrowable != null) {
+            return convertInfoThrowable();
+        }
         return errorMessage;
     }
 
@@ -181,7 +189,7 @@ class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, Timer {
             builder.addAllDetailEntry(DetailMapWriter.toProto(readableQueryMessage.getDetail()));
         }
 
-        ErrorMessage errorMessage = this.errorMessage;
+        ErrorMessage errorMessage = getErrorMessage();
         if (errorMessage != null) {
             Trace.Error.Builder errorBuilder = builder.getErrorBuilder();
             errorBuilder.setMessage(errorMessage.message());
@@ -261,7 +269,8 @@ class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, Timer {
             // this guards against end*() being called multiple times on async trace entries
             return;
         }
-        endWithErrorInternal(null, t);
+        infoThrowable = t;
+        endInternal(ticker.read(), null);
     }
 
     @Override
@@ -457,6 +466,19 @@ class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, Timer {
         endInternal(ticker.read(), errorMessage);
     }
 
+    private synchronized @Nullable ErrorMessage convertInfoThrowable() {
+        Throwable t = infoThrowable;
+        if (t == null) {
+            // converted by another thread in the meantime
+            return errorMessage;
+        }
+        ErrorMessage errorMessage = ErrorMessage.create(null, t,
+                threadContext.getTransaction().getThrowableFrameLimitCounter());
+        this.errorMessage = errorMessage;
+        infoThrowable = null;
+        return errorMessage;
+    }
+
     private void endInternal(long endTick, @Nullable ErrorMessage errorMessage) {
         // syncTimer is only null for trace entries added using addEntryEntry(), and these trace
         // entries are not returned from plugin api so no way for end...() to be called
@@ -526,6 +548,7 @@ class TraceEntryImpl extends QueryEntryBase implements AsyncQueryEntry, Timer {
             return readableQueryMessage.getPrefix() + checkNotNull(getQueryText())
                     + readableQueryMessage.getSuffix();
         }
+        ErrorMessage errorMessage = getErrorMessage();
         if (errorMessage != null) {
             return errorMessage.message();
         }
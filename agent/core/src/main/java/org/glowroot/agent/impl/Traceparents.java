@@ -0,0 +1,118 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+// W3C trace context traceparent header, see https://www.w3.org/TR/trace-context/
+//
+// version "-" trace-id "-" parent-id "-" trace-flags, e.g.
+// 00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01
+class Traceparents {
+
+    private static final int LENGTH = 55;
+
+    private static final int TRACE_ID_START = 3;
+    private static final int TRACE_ID_END = 35;
+    private static final int PARENT_ID_START = 36;
+    private static final int PARENT_ID_END = 52;
+    private static final int FLAGS_START = 53;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private Traceparents() {}
+
+    static boolean isValid(String traceparent) {
+        int length = traceparent.length();
+        if (length < LENGTH) {
+            return false;
+        }
+        if (!isHex(traceparent, 0, 2) || traceparent.startsWith("ff")) {
+            return false;
+        }
+        if (traceparent.startsWith("00")) {
+            if (length != LENGTH) {
+                return false;
+            }
+        } else if (length > LENGTH && traceparent.charAt(LENGTH) != '-') {
+            // future versions can only append fields
+            return false;
+        }
+        return traceparent.charAt(2) == '-'
+                && traceparent.charAt(TRACE_ID_END) == '-'
+                && traceparent.charAt(PARENT_ID_END) == '-'
+                && isHex(traceparent, TRACE_ID_START, TRACE_ID_END)
+                && isHex(traceparent, PARENT_ID_START, PARENT_ID_END)
+                && isHex(traceparent, FLAGS_START, LENGTH)
+                && !isZero(traceparent, TRACE_ID_START, TRACE_ID_END)
+                && !isZero(traceparent, PARENT_ID_START, PARENT_ID_END);
+    }
+
+    static String getTraceId(String traceparent) {
+        return traceparent.substring(TRACE_ID_START, TRACE_ID_END);
+    }
+
+    static String getParentId(String traceparent) {
+        return traceparent.substring(PARENT_ID_START, PARENT_ID_END);
+    }
+
+    static String getFlags(String traceparent) {
+        return traceparent.substring(FLAGS_START, LENGTH);
+    }
+
+    static String buildSpanId(long id) {
+        char[] chars = new char[16];
+        writeHex(id, chars, 0);
+        return new String(chars);
+    }
+
+    // builds directly into a single char array to avoid intermediate strings
+    static String build(String traceId, String spanId, String flags) {
+        char[] chars = new char[LENGTH];
+        chars[0] = '0';
+        chars[1] = '0';
+        chars[2] = '-';
+        traceId.getChars(0, 32, chars, TRACE_ID_START);
+        chars[TRACE_ID_END] = '-';
+        spanId.getChars(0, 16, chars, PARENT_ID_START);
+        chars[PARENT_ID_END] = '-';
+        flags.getChars(0, 2, chars, FLAGS_START);
+        return new String(chars);
+    }
+
+    private static void writeHex(long value, char[] chars, int offset) {
+        for (int i = 15; i >= 0; i--) {
+            chars[offset + 15 - i] = HEX_DIGITS[(int) (value >>> (i * 4)) & 0xf];
+        }
+    }
+
+    private static boolean isHex(String str, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = str.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isZero(String str, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (str.charAt(i) != '0') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -107,8 +107,17 @@ public class Transaction {
 
     private static final Random random = new Random();
 
+    private static final String W3C_TRACE_ID_ATTRIBUTE_NAME = "W3C trace id";
+    private static final String W3C_PARENT_ID_ATTRIBUTE_NAME = "W3C parent id";
+    private static final String W3C_SPAN_ID_ATTRIBUTE_NAME = "W3C span id";
+
     private volatile @Nullable String traceId;
 
+    // W3C trace context, only populated when a plugin propagates trace context
+    private volatile @Nullable String traceparentTraceId;
+    private volatile @Nullable String traceparentFlags;
+    private volatile @Nullable String traceparent;
+
     private final long startTime;
     private final long startTick;
 
@@ -653,6 +662,30 @@ public class Transaction {
         }
     }
 
+    void setTraceparent(String traceparent) {
+        if (traceparentTraceId != null || this.traceparent != null
+                || !Traceparents.isValid(traceparent)) {
+            return;
+        }
+        String traceId = Traceparents.getTraceId(traceparent);
+        traceparentFlags = Traceparents.getFlags(traceparent);
+        traceparentTraceId = traceId;
+        addAttribute(W3C_TRACE_ID_ATTRIBUTE_NAME, traceId);
+        addAttribute(W3C_PARENT_ID_ATTRIBUTE_NAME, Traceparents.getParentId(traceparent));
+    }
+
+    String getTraceparent() {
+        if (traceparent == null) {
+            // double-checked locking works here because traceparent is volatile
+            synchronized (this) {
+                if (traceparent == null) {
+                    traceparent = buildTraceparent();
+                }
+            }
+        }
+        return traceparent;
+    }
+
     void setError(@Nullable String message, @Nullable Throwable t) {
         if (this.errorMessage == null) {
             this.errorMessage = ErrorMessage.create(message, t, getThrowableFrameLimitCounter());
@@ -782,7 +815,8 @@ public class Transaction {
         return queryCount > maxQueryAggregates;
     }
 
-    void captureStackTrace(boolean auxiliary, ThreadInfo threadInfo) {
+    void captureStackTrace(boolean auxiliary, StackTraceElement[] stackTrace,
+            Thread.State threadState) {
         if (completed) {
             return;
         }
@@ -801,7 +835,7 @@ public class Transaction {
             // transaction profile field, so that it is not possible to read a profile that doesn't
             // have at least one stack trace
             profile = new ThreadProfile(maxProfileSamples);
-            profile.addStackTrace(threadInfo);
+            profile.addStackTrace(stackTrace, threadState);
             if (auxiliary) {
                 auxThreadProfile = profile;
             } else {
@@ -809,7 +843,7 @@ public class Transaction {
             }
             return;
         }
-        profile.addStackTrace(threadInfo);
+        profile.addStackTrace(stackTrace, threadState);
     }
 
     void trackResourceAcquired(Object resource, boolean withLocationStackTrace) {
@@ -1104,6 +1138,28 @@ public class Transaction {
         }
     }
 
+    private String buildTraceparent() {
+        String traceId = traceparentTraceId;
+        String flags = traceparentFlags;
+        if (traceId == null) {
+            // the glowroot trace id is already in the W3C trace id format
+            traceId = getTraceId();
+            addAttribute(W3C_TRACE_ID_ATTRIBUTE_NAME, traceId);
+        }
+        if (flags == null) {
+            // sampled
+            flags = "01";
+        }
+        long id = random.nextLong();
+        if (id == 0) {
+            // all zeros is not a valid span id
+            id = 1;
+        }
+        String spanId = Traceparents.buildSpanId(id);
+        addAttribute(W3C_SPAN_ID_ATTRIBUTE_NAME, spanId);
+        return Traceparents.build(traceId, spanId, flags);
+    }
+
     @VisibleForTesting
     static String buildTraceId(long startTime) {
         byte[] bytes = new byte[10];
@@ -130,6 +130,11 @@ public class TransactionProcessor {
         }
     }
 
+    boolean shouldStoreTrace(Transaction transaction) {
+        return traceCollector.shouldStoreSlow(transaction)
+                || traceCollector.shouldStoreError(transaction);
+    }
+
     void processOnCompletion(Transaction transaction) {
         // this synchronized block is to ensure traces are placed into processing queue in the
         // order of captureTime (so that queue reader can assume if captureTime indicates time to
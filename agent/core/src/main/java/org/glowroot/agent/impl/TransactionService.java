@@ -112,6 +112,10 @@ public class TransactionService implements ConfigListener {
                 threadAllocatedBytes);
     }
 
+    boolean shouldStoreTrace(Transaction transaction) {
+        return transactionProcessor != null && transactionProcessor.shouldStoreTrace(transaction);
+    }
+
     @Override
     public void onChange() {
         AdvancedConfig advancedConfig = configService.getAdvancedConfig();
@@ -22,7 +22,9 @@ import java.lang.management.ManagementFactory;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.jar.JarFile;
 
 import com.google.common.base.Joiner;
@@ -64,10 +66,12 @@ import org.glowroot.agent.util.JavaVersion;
 import org.glowroot.agent.util.LazyPlatformMBeanServer;
 import org.glowroot.agent.util.OptionalService;
 import org.glowroot.agent.util.ThreadAllocatedBytes;
+import org.glowroot.agent.util.ThreadFactories;
 import org.glowroot.agent.util.Tickers;
 import org.glowroot.agent.weaving.AdviceCache;
 import org.glowroot.agent.weaving.AnalyzedWorld;
 import org.glowroot.agent.weaving.IsolatedWeavingClassLoader;
+import org.glowroot.agent.weaving.NoWeavingRequiredCache;
 import org.glowroot.agent.weaving.PointcutClassFileTransformer;
 import org.glowroot.agent.weaving.PreInitializeWeavingClasses;
 import org.glowroot.agent.weaving.Weaver;
@@ -75,6 +79,7 @@ import org.glowroot.agent.weaving.WeavingClassFileTransformer;
 import org.glowroot.common.util.Clock;
 import org.glowroot.common.util.OnlyUsedByTests;
 import org.glowroot.common.util.ScheduledRunnable;
+import org.glowroot.common.util.Version;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
@@ -99,6 +104,8 @@ public class AgentModule {
     private final TransactionRegistry transactionRegistry;
     private final AdviceCache adviceCache;
     private final PreloadSomeSuperTypesCache preloadSomeSuperTypesCache;
+    private final @Nullable NoWeavingRequiredCache noWeavingRequiredCache;
+    private final @Nullable ThreadPoolExecutor hierarchyPrefetchExecutor;
     private final AnalyzedWorld analyzedWorld;
     private final Weaver weaver;
     private final Random random;
@@ -150,14 +157,38 @@ public class AgentModule {
         }
         preloadSomeSuperTypesCache = new PreloadSomeSuperTypesCache(
                 new File(tmpDir, "preload-some-super-types-cache"), 50000, clock);
+        int hierarchyPrefetchThreads =
+                Integer.getInteger("glowroot.weaving.hierarchyPrefetchThreads", 0);
+        if (hierarchyPrefetchThreads > 0) {
+            // discarding (instead of blocking or running in the caller) when saturated since
+            // the caller is inside of ClassFileTransformer.transform() and will just read the
+            // class file itself
+            hierarchyPrefetchExecutor = new ThreadPoolExecutor(hierarchyPrefetchThreads,
+                    hierarchyPrefetchThreads, 0, MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(1000),
+                    ThreadFactories.create("Glowroot-Hierarchy-Prefetch-%d"),
+                    new ThreadPoolExecutor.DiscardPolicy());
+            // starting threads now, instead of from inside of ClassFileTransformer.transform()
+            hierarchyPrefetchExecutor.prestartAllCoreThreads();
+        } else {
+            hierarchyPrefetchExecutor = null;
+        }
         analyzedWorld =
                 new AnalyzedWorld(adviceCache.getAdvisorsSupplier(), adviceCache.getShimTypes(),
-                        adviceCache.getMixinTypes(), preloadSomeSuperTypesCache);
+                        adviceCache.getMixinTypes(), preloadSomeSuperTypesCache,
+                        hierarchyPrefetchExecutor);
+        if (Boolean.getBoolean("glowroot.weaving.noWeavingRequiredCache")) {
+            noWeavingRequiredCache = new NoWeavingRequiredCache(
+                    new File(tmpDir, "no-weaving-required-cache"), 100000, adviceCache,
+                    Version.getVersion(AgentModule.class));
+        } else {
+            noWeavingRequiredCache = null;
+        }
         TimerNameCache timerNameCache = new TimerNameCache();
 
         weaver = new Weaver(adviceCache.getAdvisorsSupplier(), adviceCache.getShimTypes(),
-                adviceCache.getMixinTypes(), analyzedWorld, transactionRegistry, ticker,
-                timerNameCache, configService);
+                adviceCache.getMixinTypes(), analyzedWorld, noWeavingRequiredCache,
+                transactionRegistry, ticker, timerNameCache, configService);
 
         // need to initialize glowroot-agent-api, glowroot-agent-plugin-api and glowroot-weaving-api
         // services before enabling instrumentation
@@ -294,12 +325,15 @@ public class AgentModule {
                 clock, ticker);
         liveAggregateRepository = new LiveAggregateRepositoryImpl(transactionProcessor);
         liveWeavingService = new LiveWeavingServiceImpl(analyzedWorld, instrumentation,
-                configService, adviceCache, jvmRetransformClassesSupported);
+                configService, adviceCache, transactionRegistry, jvmRetransformClassesSupported);
         liveJvmService = new LiveJvmServiceImpl(lazyPlatformMBeanServer, transactionRegistry,
                 traceCollector, threadAllocatedBytes.getAvailability(), configService,
                 glowrootJarFile, clock);
 
         preloadSomeSuperTypesCache.scheduleWithFixedDelay(backgroundExecutor, 5, 5, SECONDS);
+        if (noWeavingRequiredCache != null) {
+            noWeavingRequiredCache.scheduleWithFixedDelay(backgroundExecutor, 5, 5, SECONDS);
+        }
     }
 
     public ConfigService getConfigService() {
@@ -460,6 +494,12 @@ public class AgentModule {
         if (deadlockedActiveWeavingRunnable != null) {
             deadlockedActiveWeavingRunnable.cancel();
         }
+        if (noWeavingRequiredCache != null) {
+            noWeavingRequiredCache.cancel();
+        }
+        if (hierarchyPrefetchExecutor != null) {
+            hierarchyPrefetchExecutor.shutdown();
+        }
     }
 
     private static class DeadlockedActiveWeavingRunnable extends ScheduledRunnable {
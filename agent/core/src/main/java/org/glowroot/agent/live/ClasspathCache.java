@@ -29,9 +29,7 @@ import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Locale;
 import java.util.Set;
 import java.util.jar.JarEntry;
 import java.util.jar.JarInputStream;
@@ -39,13 +37,15 @@ import java.util.jar.Manifest;
 
 import javax.annotation.concurrent.GuardedBy;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Splitter;
 import com.google.common.base.StandardSystemProperty;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.MultimapBuilder;
@@ -88,6 +88,21 @@ class ClasspathCache {
     @GuardedBy("this")
     private ImmutableMultimap<String, Location> classNameLocations = ImmutableMultimap.of();
 
+    // parallel arrays over the keys of classNameLocations, the char masks are used to quickly rule
+    // out class names that cannot match the partial class name during search
+    @GuardedBy("this")
+    private String[] classNames = new String[0];
+    @GuardedBy("this")
+    private long[] classNameCharMasks = new long[0];
+
+    // the instrumentation config UI requests the methods of the same class repeatedly (e.g. method
+    // names and then method signatures), and reading and parsing the class bytes is expensive
+    @GuardedBy("this")
+    private final Cache<String, ImmutableList<UiAnalyzedMethod>> analyzedMethodsCache =
+            CacheBuilder.newBuilder()
+                    .maximumSize(100)
+                    .build();
+
     ClasspathCache(AnalyzedWorld analyzedWorld, @Nullable Instrumentation instrumentation) {
         this.analyzedWorld = analyzedWorld;
         this.instrumentation = instrumentation;
@@ -100,33 +115,27 @@ class ClasspathCache {
         PartialClassNameMatcher matcher = new PartialClassNameMatcher(partialClassName);
         Set<String> fullMatchingClassNames = Sets.newLinkedHashSet();
         Set<String> matchingClassNames = Sets.newLinkedHashSet();
+        for (int i = 0; i < classNames.length; i++) {
+            if (!matcher.isPotentialMatch(classNameCharMasks[i])) {
+                continue;
+            }
+            if (!addIfMatching(classNames[i], matcher, fullMatchingClassNames, matchingClassNames,
+                    limit)) {
+                return combineClassNamesWithLimit(fullMatchingClassNames, matchingClassNames,
+                        limit);
+            }
+        }
         // also check loaded classes, e.g. for groovy classes
-        Iterator<String> i = classNameLocations.keySet().iterator();
         if (instrumentation != null) {
-            List<String> loadedClassNames = Lists.newArrayList();
             for (Class<?> clazz : instrumentation.getAllLoadedClasses()) {
-                if (!clazz.getName().startsWith("[")) {
-                    loadedClassNames.add(clazz.getName());
+                String className = clazz.getName();
+                if (className.startsWith("[")
+                        || !matcher.isPotentialMatch(getCharMask(className))) {
+                    continue;
                 }
-            }
-            i = Iterators.concat(i, loadedClassNames.iterator());
-        }
-        while (i.hasNext()) {
-            String className = i.next();
-            String classNameUpper = className.toUpperCase(Locale.ENGLISH);
-            boolean potentialFullMatch = matcher.isPotentialFullMatch(classNameUpper);
-            if (matchingClassNames.size() == limit && !potentialFullMatch) {
-                // once limit reached, only consider full matches
-                continue;
-            }
-            if (fullMatchingClassNames.size() == limit) {
-                break;
-            }
-            if (matcher.isPotentialMatch(classNameUpper)) {
-                if (potentialFullMatch) {
-                    fullMatchingClassNames.add(className);
-                } else {
-                    matchingClassNames.add(className);
+                if (!addIfMatching(className, matcher, fullMatchingClassNames, matchingClassNames,
+                        limit)) {
+                    break;
                 }
             }
         }
@@ -138,14 +147,22 @@ class ClasspathCache {
         // update cache before proceeding
         updateCache();
         Set<UiAnalyzedMethod> analyzedMethods = Sets.newHashSet();
-        Collection<Location> locations = classNameLocations.get(className);
-        for (Location location : locations) {
-            try {
-                analyzedMethods.addAll(getAnalyzedMethods(location, className));
-            } catch (IOException e) {
-                logger.warn(e.getMessage(), e);
+        ImmutableList<UiAnalyzedMethod> locationAnalyzedMethods =
+                analyzedMethodsCache.getIfPresent(className);
+        if (locationAnalyzedMethods == null) {
+            Set<UiAnalyzedMethod> methods = Sets.newLinkedHashSet();
+            Collection<Location> locations = classNameLocations.get(className);
+            for (Location location : locations) {
+                try {
+                    methods.addAll(getAnalyzedMethods(location, className));
+                } catch (IOException e) {
+                    logger.warn(e.getMessage(), e);
+                }
             }
+            locationAnalyzedMethods = ImmutableList.copyOf(methods);
+            analyzedMethodsCache.put(className, locationAnalyzedMethods);
         }
+        analyzedMethods.addAll(locationAnalyzedMethods);
         if (instrumentation != null) {
             // also check loaded classes, e.g. for groovy classes
             for (Class<?> clazz : instrumentation.getAllLoadedClasses()) {
@@ -172,9 +189,24 @@ class ClasspathCache {
             newMap.putAll(classNameLocations);
             newMap.putAll(newClassNameLocations);
             classNameLocations = ImmutableMultimap.copyOf(newMap);
+            updateClassNameIndex();
+            // new locations may contain additional copies of already cached classes
+            analyzedMethodsCache.invalidateAll();
         }
     }
 
+    @GuardedBy("this")
+    private void updateClassNameIndex() {
+        Set<String> keys = classNameLocations.keySet();
+        String[] classNames = keys.toArray(new String[keys.size()]);
+        long[] classNameCharMasks = new long[classNames.length];
+        for (int i = 0; i < classNames.length; i++) {
+            classNameCharMasks[i] = getCharMask(classNames[i]);
+        }
+        this.classNames = classNames;
+        this.classNameCharMasks = classNameCharMasks;
+    }
+
     @GuardedBy("this")
     private void updateCacheWithClasspathClasses(Multimap<String, Location> newClassNameLocations) {
         String javaClassPath = StandardSystemProperty.JAVA_CLASS_PATH.value();
@@ -311,6 +343,53 @@ class ClasspathCache {
         }
     }
 
+    // returns false once no more class names can be added
+    private static boolean addIfMatching(String className, PartialClassNameMatcher matcher,
+            Set<String> fullMatchingClassNames, Set<String> matchingClassNames, int limit) {
+        boolean potentialFullMatch = matcher.isPotentialFullMatch(className);
+        if (matchingClassNames.size() == limit && !potentialFullMatch) {
+            // once limit reached, only consider full matches
+            return true;
+        }
+        if (fullMatchingClassNames.size() == limit) {
+            return false;
+        }
+        if (matcher.isPotentialMatch(className)) {
+            if (potentialFullMatch) {
+                fullMatchingClassNames.add(className);
+            } else {
+                matchingClassNames.add(className);
+            }
+        }
+        return true;
+    }
+
+    // case-insensitive bit set of the characters present in the string (letters, digits and a
+    // few separators each get their own bit, everything else shares a single bit)
+    @VisibleForTesting
+    static long getCharMask(String str) {
+        long mask = 0;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                mask |= 1L << (c - 'a');
+            } else if (c >= 'A' && c <= 'Z') {
+                mask |= 1L << (c - 'A');
+            } else if (c >= '0' && c <= '9') {
+                mask |= 1L << (26 + c - '0');
+            } else if (c == '.') {
+                mask |= 1L << 36;
+            } else if (c == '$') {
+                mask |= 1L << 37;
+            } else if (c == '_') {
+                mask |= 1L << 38;
+            } else {
+                mask |= 1L << 39;
+            }
+        }
+        return mask;
+    }
+
     private static ImmutableList<String> combineClassNamesWithLimit(
             Set<String> fullMatchingClassNames, Set<String> matchingClassNames, int limit) {
         if (fullMatchingClassNames.size() < limit) {
@@ -517,28 +596,52 @@ class ClasspathCache {
         ImmutableList<String> exceptions();
     }
 
-    private static class PartialClassNameMatcher {
+    // matching is case-insensitive, and is performed in place to avoid creating upper case copies
+    // of every class name on every search
+    @VisibleForTesting
+    static class PartialClassNameMatcher {
+
+        private final String partialClassName;
+        private final long partialClassNameCharMask;
 
-        private final String partialClassNameUpper;
-        private final String prefixedPartialClassNameUpper1;
-        private final String prefixedPartialClassNameUpper2;
+        PartialClassNameMatcher(String partialClassName) {
+            this.partialClassName = partialClassName;
+            partialClassNameCharMask = getCharMask(partialClassName);
+        }
 
-        private PartialClassNameMatcher(String partialClassName) {
-            partialClassNameUpper = partialClassName.toUpperCase(Locale.ENGLISH);
-            prefixedPartialClassNameUpper1 = '.' + partialClassNameUpper;
-            prefixedPartialClassNameUpper2 = '$' + partialClassNameUpper;
+        boolean isPotentialMatch(long classNameCharMask) {
+            return (classNameCharMask & partialClassNameCharMask) == partialClassNameCharMask;
         }
 
-        private boolean isPotentialFullMatch(String classNameUpper) {
-            return classNameUpper.equals(partialClassNameUpper)
-                    || classNameUpper.endsWith(prefixedPartialClassNameUpper1)
-                    || classNameUpper.endsWith(prefixedPartialClassNameUpper2);
+        boolean isPotentialFullMatch(String className) {
+            int len = partialClassName.length();
+            int offset = className.length() - len;
+            if (offset == 0) {
+                return className.equalsIgnoreCase(partialClassName);
+            }
+            if (offset < 0 || !isSeparator(className.charAt(offset - 1))) {
+                return false;
+            }
+            return className.regionMatches(true, offset, partialClassName, 0, len);
+        }
+
+        boolean isPotentialMatch(String className) {
+            int len = partialClassName.length();
+            if (className.regionMatches(true, 0, partialClassName, 0, len)) {
+                return true;
+            }
+            int maxOffset = className.length() - len;
+            for (int i = 1; i <= maxOffset; i++) {
+                if (isSeparator(className.charAt(i - 1))
+                        && className.regionMatches(true, i, partialClassName, 0, len)) {
+                    return true;
+                }
+            }
+            return false;
         }
 
-        private boolean isPotentialMatch(String classNameUpper) {
-            return classNameUpper.startsWith(partialClassNameUpper)
-                    || classNameUpper.contains(prefixedPartialClassNameUpper1)
-                    || classNameUpper.contains(prefixedPartialClassNameUpper2);
+        private static boolean isSeparator(char c) {
+            return c == '.' || c == '$';
         }
     }
 
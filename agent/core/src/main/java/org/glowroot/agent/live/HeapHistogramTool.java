@@ -15,20 +15,20 @@
  */
 package org.glowroot.agent.live;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.StringReader;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Map;
 
 import javax.management.ObjectName;
 
-import com.google.common.base.Splitter;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Ordering;
 import com.google.common.primitives.Longs;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.objectweb.asm.Type;
@@ -47,7 +47,8 @@ class HeapHistogramTool {
                 ObjectName.getInstance("com.sun.management:type=DiagnosticCommand");
         String result = (String) lazyPlatformMBeanServer.invoke(objectName, "gcClassHistogram",
                 new Object[] {null}, new String[] {"[Ljava.lang.String;"});
-        return HeapHistogramProcessor.process(new BufferedReader(new StringReader(result)));
+        return HeapHistogramProcessor.process(new StringReader(result),
+                JavaVersion.isJRockitJvm());
     }
 
     static HeapHistogram runPriorToJava8(long pid, boolean allowAttachSelf,
@@ -56,45 +57,58 @@ class HeapHistogramTool {
                 glowrootJarFile);
     }
 
-    private static class HeapHistogramProcessor implements InputStreamProcessor<HeapHistogram> {
+    @VisibleForTesting
+    static class HeapHistogramProcessor implements InputStreamProcessor<HeapHistogram> {
 
         @Override
         public HeapHistogram process(InputStream in) throws IOException {
-            return process(new BufferedReader(new InputStreamReader(in)));
+            // LineBuffer performs its own buffering
+            return process(new InputStreamReader(in), JavaVersion.isJRockitJvm());
         }
 
-        private static HeapHistogram process(BufferedReader in) throws IOException {
-            boolean jrockit = JavaVersion.isJRockitJvm();
+        // the histogram can have tens of thousands of lines (and is requested when memory may
+        // already be tight), so this parses each line in place from a reused buffer, only
+        // allocating the class name and aggregated class info
+        @VisibleForTesting
+        static HeapHistogram process(Reader in, boolean jrockit) throws IOException {
+            LineBuffer line = new LineBuffer(in);
             // skip over header lines
-            String line = in.readLine();
-            while (line != null && !line.contains("--------")) {
-                line = in.readLine();
+            boolean foundHeader = false;
+            while (line.next()) {
+                if (line.contains("--------")) {
+                    foundHeader = true;
+                    break;
+                }
             }
-            if (line == null) {
+            if (!foundHeader) {
                 throw new IOException("Unexpected heapHisto output");
             }
             Map<String, ClassInfo> classInfos = Maps.newHashMap();
-            Splitter splitter = Splitter.on(' ').omitEmptyStrings();
-            while ((line = in.readLine()) != null) {
+            while (line.next()) {
                 if (line.startsWith("Total ") || line.endsWith(" total ---")) {
                     break;
                 }
-                Iterator<String> parts = splitter.split(line).iterator();
-                parts.next();
+                // skip over line number
+                line.nextToken();
                 long count;
                 long bytes;
                 if (jrockit) {
-                    String bytesStr = parts.next();
-                    bytes = 1024 * Long.parseLong(bytesStr.substring(0, bytesStr.length() - 1));
-                    count = Long.parseLong(parts.next());
-                    parts.next();
+                    // e.g. "1234k"
+                    line.nextToken();
+                    bytes = 1024 * line.parseLong(line.tokenStart, line.tokenEnd - 1);
+                    line.nextToken();
+                    count = line.parseLong(line.tokenStart, line.tokenEnd);
+                    line.nextToken();
                 } else {
-                    count = Long.parseLong(parts.next());
-                    bytes = Long.parseLong(parts.next());
+                    line.nextToken();
+                    count = line.parseLong(line.tokenStart, line.tokenEnd);
+                    line.nextToken();
+                    bytes = line.parseLong(line.tokenStart, line.tokenEnd);
                 }
-                String className = parts.next();
+                line.nextToken();
                 // skipping PermGen objects
-                if (className.charAt(0) != '<') {
+                if (line.tokenEnd > line.tokenStart && line.buffer[line.tokenStart] != '<') {
+                    String className = line.tokenString();
                     if (className.charAt(0) == '[') {
                         className = Type.getType(className).getClassName();
                     }
@@ -107,8 +121,10 @@ class HeapHistogramTool {
                     classInfo.count += count;
                 }
             }
+            ClassInfo[] sorted = classInfos.values().toArray(new ClassInfo[classInfos.size()]);
+            Arrays.sort(sorted, ClassInfo.orderingByBytes);
             HeapHistogram.Builder builder = HeapHistogram.newBuilder();
-            for (ClassInfo classInfo : ClassInfo.orderingByBytes.sortedCopy(classInfos.values())) {
+            for (ClassInfo classInfo : sorted) {
                 builder.addClassInfo(HeapHistogram.ClassInfo.newBuilder()
                         .setClassName(classInfo.className)
                         .setBytes(classInfo.bytes)
@@ -118,9 +134,126 @@ class HeapHistogramTool {
         }
     }
 
+    private static class LineBuffer {
+
+        private final Reader in;
+
+        private final char[] readBuffer = new char[8192];
+        private int readPos;
+        private int readLimit;
+
+        private char[] buffer = new char[256];
+        private int length;
+
+        private int tokenStart;
+        private int tokenEnd;
+
+        private LineBuffer(Reader in) {
+            this.in = in;
+        }
+
+        // returns false at end of input
+        private boolean next() throws IOException {
+            length = 0;
+            tokenStart = 0;
+            tokenEnd = 0;
+            boolean any = false;
+            while (true) {
+                if (readPos == readLimit) {
+                    readLimit = in.read(readBuffer);
+                    readPos = 0;
+                    if (readLimit == -1) {
+                        readLimit = 0;
+                        return any;
+                    }
+                }
+                any = true;
+                char c = readBuffer[readPos++];
+                if (c == '\n') {
+                    return true;
+                }
+                if (c == '\r') {
+                    continue;
+                }
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, length * 2);
+                }
+                buffer[length++] = c;
+            }
+        }
+
+        private void nextToken() throws IOException {
+            int i = tokenEnd;
+            while (i < length && buffer[i] == ' ') {
+                i++;
+            }
+            tokenStart = i;
+            while (i < length && buffer[i] != ' ') {
+                i++;
+            }
+            tokenEnd = i;
+            if (tokenStart == tokenEnd) {
+                throw new IOException("Unexpected heapHisto output: " + toString());
+            }
+        }
+
+        private String tokenString() {
+            return new String(buffer, tokenStart, tokenEnd - tokenStart);
+        }
+
+        private long parseLong(int from, int to) throws IOException {
+            if (from == to) {
+                throw new IOException("Unexpected heapHisto output: " + toString());
+            }
+            long value = 0;
+            for (int i = from; i < to; i++) {
+                int digit = buffer[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new IOException("Unexpected heapHisto output: " + toString());
+                }
+                value = value * 10 + digit;
+            }
+            return value;
+        }
+
+        private boolean startsWith(String prefix) {
+            return regionMatches(0, prefix);
+        }
+
+        private boolean endsWith(String suffix) {
+            return regionMatches(length - suffix.length(), suffix);
+        }
+
+        private boolean contains(String str) {
+            for (int i = 0; i <= length - str.length(); i++) {
+                if (regionMatches(i, str)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean regionMatches(int offset, String str) {
+            if (offset < 0 || offset + str.length() > length) {
+                return false;
+            }
+            for (int i = 0; i < str.length(); i++) {
+                if (buffer[offset + i] != str.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return new String(buffer, 0, length);
+        }
+    }
+
     private static class ClassInfo {
 
-        private static final Ordering<ClassInfo> orderingByBytes = new Ordering<ClassInfo>() {
+        private static final Comparator<ClassInfo> orderingByBytes = new Comparator<ClassInfo>() {
             @Override
             public int compare(ClassInfo left, ClassInfo right) {
                 return Longs.compare(right.bytes, left.bytes);
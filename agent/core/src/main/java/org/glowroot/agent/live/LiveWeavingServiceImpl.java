@@ -43,6 +43,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.glowroot.agent.config.ConfigService;
+import org.glowroot.agent.impl.TransactionRegistry;
 import org.glowroot.agent.live.ClasspathCache.UiAnalyzedMethod;
 import org.glowroot.agent.util.MaybePatterns;
 import org.glowroot.agent.weaving.AdviceCache;
@@ -64,11 +65,19 @@ public class LiveWeavingServiceImpl implements LiveWeavingService {
     private static final String THE_SINGLE_KEY = "THE_SINGLE_KEY";
     private static final Splitter splitter = Splitter.on(' ').omitEmptyStrings();
 
+    // when set, reweaving retransforms classes in batches of this size on a background thread,
+    // instead of retransforming all of them at once on the calling thread
+    private static final int PROGRESSIVE_REWEAVE_BATCH_SIZE =
+            Integer.getInteger("glowroot.weaving.progressiveReweaveBatchSize", 0);
+    private static final long PROGRESSIVE_REWEAVE_BATCH_INTERVAL_MILLIS =
+            Long.getLong("glowroot.weaving.progressiveReweaveBatchIntervalMillis", 100);
+
     private final AnalyzedWorld analyzedWorld;
     private final @Nullable Instrumentation instrumentation;
     private final ConfigService configService;
     private final AdviceCache adviceCache;
     private final boolean jvmRetransformClassesSupported;
+    private final @Nullable ProgressiveReweaver progressiveReweaver;
 
     // hopefully can simplify someday https://github.com/google/guava/issues/872
     private final LoadingCache<String, ClasspathCache> classpathCache = CacheBuilder.newBuilder()
@@ -83,18 +92,29 @@ public class LiveWeavingServiceImpl implements LiveWeavingService {
 
     public LiveWeavingServiceImpl(AnalyzedWorld analyzedWorld,
             @Nullable Instrumentation instrumentation, ConfigService configService,
-            AdviceCache adviceCache, boolean jvmRetransformClassesSupported) {
+            AdviceCache adviceCache, TransactionRegistry transactionRegistry,
+            boolean jvmRetransformClassesSupported) {
         this.analyzedWorld = analyzedWorld;
         this.instrumentation = instrumentation;
         this.configService = configService;
         this.adviceCache = adviceCache;
         this.jvmRetransformClassesSupported = jvmRetransformClassesSupported;
+        if (instrumentation != null && PROGRESSIVE_REWEAVE_BATCH_SIZE > 0) {
+            progressiveReweaver = new ProgressiveReweaver(instrumentation, transactionRegistry,
+                    PROGRESSIVE_REWEAVE_BATCH_SIZE, PROGRESSIVE_REWEAVE_BATCH_INTERVAL_MILLIS);
+        } else {
+            progressiveReweaver = null;
+        }
     }
 
     @Override
     public GlobalMeta getGlobalMeta(String agentId) {
+        // classes still waiting on a progressive reweave are reported as out of sync, which keeps
+        // the UI showing that the JVM has not yet picked up all of the instrumentation changes
+        boolean jvmOutOfSync = adviceCache.isOutOfSync(configService.getInstrumentationConfigs())
+                || (progressiveReweaver != null && progressiveReweaver.getPendingCount() > 0);
         return GlobalMeta.newBuilder()
-                .setJvmOutOfSync(adviceCache.isOutOfSync(configService.getInstrumentationConfigs()))
+                .setJvmOutOfSync(jvmOutOfSync)
                 .setJvmRetransformClassesSupported(jvmRetransformClassesSupported)
                 .build();
     }
@@ -232,6 +252,11 @@ public class LiveWeavingServiceImpl implements LiveWeavingService {
         if (classes.isEmpty()) {
             return 0;
         }
+        if (progressiveReweaver != null) {
+            // the number of classes that will actually end up with new advice is not known until
+            // they are retransformed, so this returns the number of classes pending instead
+            return progressiveReweaver.schedule(classes);
+        }
         instrumentation.retransformClasses(Iterables.toArray(classes, Class.class));
         List<Class<?>> updatedReweavableClasses =
                 analyzedWorld.getClassesWithReweavableAdvice(false);
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.live;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Longs;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.agent.impl.ThreadContextImpl;
+import org.glowroot.agent.impl.Transaction;
+import org.glowroot.agent.impl.TransactionRegistry;
+
+// retransforms classes in small batches on a background thread instead of passing all of them to
+// a single Instrumentation.retransformClasses() call, which on large applications can pause
+// application threads for a long time (and when pushing new instrumentation to many JVMs at once,
+// produces latency spikes across all of them)
+//
+// classes that are currently on the stack of active transactions are retransformed first, so that
+// new instrumentation shows up as soon as possible for the code that is actually being traced
+class ProgressiveReweaver {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProgressiveReweaver.class);
+
+    private final Instrumentation instrumentation;
+    private final TransactionRegistry transactionRegistry;
+    private final int batchSize;
+    private final long batchIntervalMillis;
+
+    private final Object lock = new Object();
+
+    @GuardedBy("lock")
+    private final Set<Class<?>> pendingClasses = Sets.newLinkedHashSet();
+
+    @GuardedBy("lock")
+    private @Nullable Thread thread;
+
+    ProgressiveReweaver(Instrumentation instrumentation, TransactionRegistry transactionRegistry,
+            int batchSize, long batchIntervalMillis) {
+        this.instrumentation = instrumentation;
+        this.transactionRegistry = transactionRegistry;
+        this.batchSize = batchSize;
+        this.batchIntervalMillis = batchIntervalMillis;
+    }
+
+    // returns the number of classes pending retransformation, which includes any classes left over
+    // from a prior progressive reweave that has not completed yet
+    int schedule(Collection<Class<?>> classes) {
+        synchronized (lock) {
+            pendingClasses.addAll(classes);
+            int pendingCount = pendingClasses.size();
+            if (thread == null && pendingCount > 0) {
+                logger.info("progressively reweaving {} classes in batches of {}", pendingCount,
+                        batchSize);
+                Thread thread = new Thread(new BatchRunnable());
+                thread.setName("Glowroot-Progressive-Reweave");
+                thread.setDaemon(true);
+                thread.start();
+                this.thread = thread;
+            }
+            return pendingCount;
+        }
+    }
+
+    int getPendingCount() {
+        synchronized (lock) {
+            return pendingClasses.size();
+        }
+    }
+
+    private void retransform(List<Class<?>> batch) {
+        try {
+            instrumentation.retransformClasses(batch.toArray(new Class<?>[batch.size()]));
+        } catch (UnmodifiableClassException e) {
+            // one bad class should not prevent the rest of the batch from being retransformed
+            logger.debug(e.getMessage(), e);
+            for (Class<?> clazz : batch) {
+                try {
+                    instrumentation.retransformClasses(clazz);
+                } catch (UnmodifiableClassException f) {
+                    logger.debug(f.getMessage(), f);
+                }
+            }
+        }
+    }
+
+    private Set<String> getHotClassNames() {
+        List<Long> threadIds = Lists.newArrayList();
+        for (Transaction transaction : transactionRegistry.getTransactions()) {
+            threadIds.add(transaction.getMainThreadContext().getThreadId());
+            for (ThreadContextImpl auxThreadContext : transaction.getActiveAuxThreadContexts()) {
+                threadIds.add(auxThreadContext.getThreadId());
+            }
+        }
+        if (threadIds.isEmpty()) {
+            // critical not to call ThreadMXBean.getThreadInfo() with empty id list
+            // see https://bugs.openjdk.java.net/browse/JDK-8074368
+            return Sets.newHashSet();
+        }
+        @Nullable
+        ThreadInfo[] threadInfos = ManagementFactory.getThreadMXBean()
+                .getThreadInfo(Longs.toArray(threadIds), Integer.MAX_VALUE);
+        Set<String> hotClassNames = Sets.newHashSet();
+        for (ThreadInfo threadInfo : threadInfos) {
+            if (threadInfo == null) {
+                continue;
+            }
+            for (StackTraceElement stackTraceElement : threadInfo.getStackTrace()) {
+                hotClassNames.add(stackTraceElement.getClassName());
+            }
+        }
+        return hotClassNames;
+    }
+
+    // removes and returns up to batchSize classes from pendingClasses, hot classes first, then the
+    // rest in the order they were scheduled
+    @VisibleForTesting
+    static List<Class<?>> removeNextBatch(Set<Class<?>> pendingClasses, Set<String> hotClassNames,
+            int batchSize) {
+        List<Class<?>> batch = Lists.newArrayList();
+        if (!hotClassNames.isEmpty()) {
+            Iterator<Class<?>> i = pendingClasses.iterator();
+            while (i.hasNext() && batch.size() < batchSize) {
+                Class<?> clazz = i.next();
+                if (hotClassNames.contains(clazz.getName())) {
+                    batch.add(clazz);
+                    i.remove();
+                }
+            }
+        }
+        Iterator<Class<?>> i = pendingClasses.iterator();
+        while (i.hasNext() && batch.size() < batchSize) {
+            batch.add(i.next());
+            i.remove();
+        }
+        return batch;
+    }
+
+    private class BatchRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            int count = 0;
+            try {
+                while (true) {
+                    Set<String> hotClassNames = getHotClassNames();
+                    List<Class<?>> batch;
+                    synchronized (lock) {
+                        batch = removeNextBatch(pendingClasses, hotClassNames, batchSize);
+                        if (batch.isEmpty()) {
+                            thread = null;
+                            logger.info("progressive reweave complete, {} classes retransformed",
+                                    count);
+                            return;
+                        }
+                    }
+                    retransform(batch);
+                    count += batch.size();
+                    logger.debug("progressive reweave: {} classes retransformed, {} remaining",
+                            count, getPendingCount());
+                    Thread.sleep(batchIntervalMillis);
+                }
+            } catch (InterruptedException e) {
+                logger.debug(e.getMessage(), e);
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                logger.error(t.getMessage(), t);
+                synchronized (lock) {
+                    // not leaving the remaining classes pending, otherwise the JVM would be
+                    // reported as out of sync until the next call to schedule()
+                    if (!pendingClasses.isEmpty()) {
+                        logger.warn("progressive reweave aborted, {} classes were not"
+                                + " retransformed", pendingClasses.size());
+                        pendingClasses.clear();
+                    }
+                }
+            }
+            synchronized (lock) {
+                // if interrupted, remaining classes (if any) will be picked up by the next call to
+                // schedule()
+                thread = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.util;
+
+import java.lang.reflect.Method;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// virtual threads (Java 21+) are not visible to ThreadMXBean, so thread stats cannot be captured
+// for them, and stack traces have to be captured via Thread.getStackTrace() instead
+public class VirtualThreads {
+
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreads.class);
+
+    // looked up once since this is checked on every thread context creation
+    private static final @Nullable Method isVirtualMethod = getIsVirtualMethod();
+
+    private static volatile boolean disabledDueToError;
+
+    private VirtualThreads() {}
+
+    public static boolean isVirtual(Thread thread) {
+        if (isVirtualMethod == null || disabledDueToError) {
+            return false;
+        }
+        try {
+            return Boolean.TRUE.equals(isVirtualMethod.invoke(thread));
+        } catch (Exception e) {
+            // prevent excessive error logging in case there is a problem
+            logger.error(e.getMessage(), e);
+            disabledDueToError = true;
+            return false;
+        }
+    }
+
+    private static @Nullable Method getIsVirtualMethod() {
+        try {
+            return Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            // prior to Java 21
+            logger.debug(e.getMessage(), e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import org.glowroot.agent.plugin.api.weaving.Pointcut;
+
+// index over the class-level criteria of the advisors (class name, class annotation and super type
+// restriction) so that the advisors that cannot possibly match a given class are skipped without
+// evaluating their patterns one by one
+//
+// each advice is indexed under just one of its class-level criteria (the first one that is
+// non-empty and indexable), and the advisors returned by getCandidates() still need to be fully
+// matched by AdviceMatcher
+//
+// this is only built from ClassFileTransformer.transform(), so intentionally only uses jdk
+// collections (see PreInitializeWeavingClasses)
+class AdviceIndex {
+
+    private final List<Advice> advisors;
+
+    // advisors that have no indexable class-level criteria, e.g. full regex class name
+    private final BitSet unindexed;
+
+    private final NameIndex classNameIndex = new NameIndex();
+    private final NameIndex classAnnotationIndex = new NameIndex();
+    private final NameIndex superTypeRestrictionIndex = new NameIndex();
+
+    AdviceIndex(List<Advice> advisors) {
+        this.advisors = advisors;
+        unindexed = new BitSet(advisors.size());
+        for (int i = 0; i < advisors.size(); i++) {
+            Pointcut pointcut = advisors.get(i).pointcut();
+            String className = pointcut.className();
+            String classAnnotation = pointcut.classAnnotation();
+            String superTypeRestriction = pointcut.superTypeRestriction();
+            if (!className.isEmpty()) {
+                if (!classNameIndex.add(className, i)) {
+                    unindexed.set(i);
+                }
+            } else if (!classAnnotation.isEmpty()) {
+                if (!classAnnotationIndex.add(classAnnotation, i)) {
+                    unindexed.set(i);
+                }
+            } else if (!superTypeRestriction.isEmpty()) {
+                if (!superTypeRestrictionIndex.add(superTypeRestriction, i)) {
+                    unindexed.set(i);
+                }
+            } else {
+                unindexed.set(i);
+            }
+        }
+    }
+
+    List<Advice> advisors() {
+        return advisors;
+    }
+
+    // returned advisors are in the same order as the original list
+    List<Advice> getCandidates(String className, List<String> classAnnotations,
+            Collection<String> superClassNames) {
+        BitSet candidates = (BitSet) unindexed.clone();
+        classNameIndex.collect(className, candidates);
+        if (!classAnnotationIndex.isEmpty()) {
+            for (String classAnnotation : classAnnotations) {
+                // convert from descriptor, e.g. "Ljavax/ejb/Remote;" to "javax.ejb.Remote"
+                classAnnotationIndex.collect(classAnnotation.replace('/', '.').substring(1,
+                        classAnnotation.length() - 1), candidates);
+            }
+        }
+        if (!superTypeRestrictionIndex.isEmpty()) {
+            for (String superClassName : superClassNames) {
+                superTypeRestrictionIndex.collect(superClassName, candidates);
+            }
+        }
+        List<Advice> candidateAdvisors = new ArrayList<Advice>(candidates.cardinality());
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            candidateAdvisors.add(advisors.get(i));
+        }
+        return candidateAdvisors;
+    }
+
+    // supports the same "maybe pattern" syntax as MaybePatterns.buildPattern(), with exact names
+    // in a hash map and the literal prefix (up to the first *) of each wildcard in a trie
+    private static class NameIndex {
+
+        private final Map<String, BitSet> exactNames = new HashMap<String, BitSet>();
+        private final TrieNode prefixes = new TrieNode();
+        private boolean empty = true;
+
+        private boolean add(String maybePattern, int adviceIndex) {
+            if (maybePattern.startsWith("/") && maybePattern.endsWith("/")) {
+                // full regex
+                return false;
+            }
+            String[] parts = maybePattern.split("\\|");
+            for (String part : parts) {
+                if (part.isEmpty() || part.charAt(0) == '*') {
+                    // no literal prefix to index on
+                    return false;
+                }
+            }
+            for (String part : parts) {
+                int index = part.indexOf('*');
+                if (index == -1) {
+                    BitSet adviceIndexes = exactNames.get(part);
+                    if (adviceIndexes == null) {
+                        adviceIndexes = new BitSet();
+                        exactNames.put(part, adviceIndexes);
+                    }
+                    adviceIndexes.set(adviceIndex);
+                } else {
+                    prefixes.add(part, index, adviceIndex);
+                }
+            }
+            empty = false;
+            return true;
+        }
+
+        private boolean isEmpty() {
+            return empty;
+        }
+
+        private void collect(String name, BitSet candidates) {
+            if (empty) {
+                return;
+            }
+            BitSet adviceIndexes = exactNames.get(name);
+            if (adviceIndexes != null) {
+                candidates.or(adviceIndexes);
+            }
+            prefixes.collect(name, candidates);
+        }
+    }
+
+    private static class TrieNode {
+
+        private final Map<Character, TrieNode> children = new HashMap<Character, TrieNode>();
+        private @Nullable BitSet adviceIndexes;
+
+        private void add(String name, int length, int adviceIndex) {
+            TrieNode node = this;
+            for (int i = 0; i < length; i++) {
+                Character c = name.charAt(i);
+                TrieNode child = node.children.get(c);
+                if (child == null) {
+                    child = new TrieNode();
+                    node.children.put(c, child);
+                }
+                node = child;
+            }
+            if (node.adviceIndexes == null) {
+                node.adviceIndexes = new BitSet();
+            }
+            node.adviceIndexes.set(adviceIndex);
+        }
+
+        private void collect(String name, BitSet candidates) {
+            TrieNode node = this;
+            for (int i = 0; i < name.length(); i++) {
+                node = node.children.get(name.charAt(i));
+                if (node == null) {
+                    return;
+                }
+                BitSet adviceIndexes = node.adviceIndexes;
+                if (adviceIndexes != null) {
+                    candidates.or(adviceIndexes);
+                }
+            }
+        }
+    }
+}
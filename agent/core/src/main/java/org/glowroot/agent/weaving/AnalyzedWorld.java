@@ -17,17 +17,22 @@ package org.glowroot.agent.weaving;
 
 import java.io.IOException;
 import java.lang.annotation.Annotation;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.net.URL;
 import java.security.CodeSource;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -53,6 +58,17 @@ public class AnalyzedWorld {
 
     private static final Logger logger = LoggerFactory.getLogger(AnalyzedWorld.class);
 
+    // this bounds the memory held by prefetched class files that end up not being used, once this
+    // is reached the prefetched class files that are not currently being read are evicted
+    @VisibleForTesting
+    static final int MAX_PREFETCHED_CLASS_FILES = 1000;
+
+    private static final int PREFETCH_PENDING = 0;
+    private static final int PREFETCH_RUNNING = 1;
+    private static final int PREFETCH_DONE = 2;
+    private static final int PREFETCH_CANCELLED = 3;
+    private static final int PREFETCH_FAILED = 4;
+
     private static final Method findLoadedClassMethod;
 
     static {
@@ -93,13 +109,34 @@ public class AnalyzedWorld {
     // only null for tests
     private final @Nullable PreloadSomeSuperTypesCache preloadSomeSuperTypesCache;
 
+    // null when hierarchy prefetching is not enabled
+    private final @Nullable Executor hierarchyPrefetchExecutor;
+
+    // class files of super types that are being read in the background by the
+    // hierarchyPrefetchExecutor, keyed by class name and (identity hash code of) class loader
+    //
+    // intentionally avoiding Maps.newConcurrentMap() for the same reason as above
+    private final ConcurrentMap<String, PrefetchedClassFile> prefetchedClassFiles =
+            new ConcurrentHashMap<String, PrefetchedClassFile>();
+
+    // this is rebuilt (and replaced as a whole) after the advisors are updated
+    private volatile @Nullable AdviceIndex adviceIndex;
+
     public AnalyzedWorld(Supplier<List<Advice>> advisors, List<ShimType> shimTypes,
             List<MixinType> mixinTypes,
             @Nullable PreloadSomeSuperTypesCache preloadSomeSuperTypesCache) {
+        this(advisors, shimTypes, mixinTypes, preloadSomeSuperTypesCache, null);
+    }
+
+    public AnalyzedWorld(Supplier<List<Advice>> advisors, List<ShimType> shimTypes,
+            List<MixinType> mixinTypes,
+            @Nullable PreloadSomeSuperTypesCache preloadSomeSuperTypesCache,
+            @Nullable Executor hierarchyPrefetchExecutor) {
         this.advisors = advisors;
         this.shimTypes = ImmutableList.copyOf(shimTypes);
         this.mixinTypes = ImmutableList.copyOf(mixinTypes);
         this.preloadSomeSuperTypesCache = preloadSomeSuperTypesCache;
+        this.hierarchyPrefetchExecutor = hierarchyPrefetchExecutor;
     }
 
     public List<Class<?>> getClassesWithReweavableAdvice(boolean remove) {
@@ -131,6 +168,89 @@ public class AnalyzedWorld {
     void add(AnalyzedClass analyzedClass, @Nullable ClassLoader loader) {
         ConcurrentMap<String, AnalyzedClass> loaderAnalyzedClasses = getAnalyzedClasses(loader);
         loaderAnalyzedClasses.put(analyzedClass.name(), analyzedClass);
+        if (loader != null && !prefetchedClassFiles.isEmpty()) {
+            // the class was loaded before it was needed as a super type, so the prefetched class
+            // file will never be used
+            prefetchedClassFiles.remove(getPrefetchKey(analyzedClass.name(), loader));
+        }
+    }
+
+    // returns null if the advisors are not the current advisors, e.g. when they have been merged
+    // with @Instrumentation annotations found on the class being analyzed, in which case there is
+    // no point in building an index just for one class
+    @Nullable
+    AdviceIndex getAdviceIndex(List<Advice> advisors) {
+        AdviceIndex adviceIndex = this.adviceIndex;
+        if (adviceIndex != null && adviceIndex.advisors() == advisors) {
+            return adviceIndex;
+        }
+        if (advisors != this.advisors.get()) {
+            return null;
+        }
+        // race condition here is ok, worst case the index is built more than once
+        adviceIndex = new AdviceIndex(advisors);
+        this.adviceIndex = adviceIndex;
+        return adviceIndex;
+    }
+
+    boolean isPrefetchingSuperTypes() {
+        return hierarchyPrefetchExecutor != null;
+    }
+
+    // the first class name is skipped since the caller is about to resolve that one itself, the
+    // rest are read in the background while the caller is busy with the first
+    void prefetchSuperTypes(List<String> classNames, @Nullable ClassLoader loader) {
+        if (hierarchyPrefetchExecutor == null || loader == null || classNames.size() < 2) {
+            return;
+        }
+        if (prefetchedClassFiles.size() >= MAX_PREFETCHED_CLASS_FILES) {
+            evictPrefetchedClassFiles();
+            if (prefetchedClassFiles.size() >= MAX_PREFETCHED_CLASS_FILES) {
+                return;
+            }
+        }
+        ConcurrentMap<String, AnalyzedClass> loaderAnalyzedClasses = getAnalyzedClasses(loader);
+        for (int i = 1; i < classNames.size(); i++) {
+            String className = classNames.get(i);
+            if (className.equals("java.lang.Object")
+                    || loaderAnalyzedClasses.containsKey(className)
+                    || bootstrapLoaderWorld.containsKey(className)) {
+                continue;
+            }
+            if (findLoadedClass(loader, className) != null) {
+                // the super type will be resolved under the class loader that defined it (see
+                // getAnalyzedLoader()), which is typically a parent loader, and its class file
+                // will not be read under this loader, so the prefetched class file would never be
+                // taken
+                continue;
+            }
+            PrefetchedClassFile prefetchedClassFile = new PrefetchedClassFile(className, loader);
+            if (prefetchedClassFiles.putIfAbsent(getPrefetchKey(className, loader),
+                    prefetchedClassFile) == null) {
+                // the executor is expected to discard (instead of block) when it is saturated,
+                // in which case the class file is just read by the caller as it would be anyways
+                hierarchyPrefetchExecutor.execute(prefetchedClassFile);
+            }
+        }
+    }
+
+    @VisibleForTesting
+    int getPrefetchedClassFileCount() {
+        return prefetchedClassFiles.size();
+    }
+
+    // prefetched class files are taken within milliseconds if they are going to be used at all,
+    // so the ones that are still around by the time the limit is reached are not going to be used
+    // (this includes pending ones, since the executor discards tasks when it is saturated)
+    private void evictPrefetchedClassFiles() {
+        for (Iterator<PrefetchedClassFile> i = prefetchedClassFiles.values().iterator();
+                i.hasNext();) {
+            PrefetchedClassFile prefetchedClassFile = i.next();
+            prefetchedClassFile.state.compareAndSet(PREFETCH_PENDING, PREFETCH_CANCELLED);
+            if (prefetchedClassFile.state.get() != PREFETCH_RUNNING) {
+                i.remove();
+            }
+        }
     }
 
     // it's ok if there are duplicates in the returned list (e.g. an interface that appears twice
@@ -199,6 +319,10 @@ public class AnalyzedWorld {
         ClassLoader analyzedClassLoader = analyzedClassAndLoader.analyzedClassLoader();
         superTypes.add(analyzedClass);
         String superName = analyzedClass.superName();
+        if (isPrefetchingSuperTypes()) {
+            prefetchSuperTypes(getSuperTypeNames(superName, analyzedClass.interfaceNames()),
+                    analyzedClassLoader);
+        }
         if (superName != null && !superName.equals("java.lang.Object")) {
             superTypes.addAll(
                     getSuperClasses(superName, analyzedClassLoader, className, parseContext));
@@ -268,11 +392,18 @@ public class AnalyzedWorld {
             throws ClassNotFoundException, IOException {
         String path = ClassNames.toInternalName(className) + ".class";
         URL url;
+        byte[] bytes = null;
         if (loader == null) {
             // null loader means the bootstrap class loader
             url = ClassLoader.getSystemResource(path);
         } else {
-            url = loader.getResource(path);
+            PrefetchedClassFile prefetchedClassFile = takePrefetchedClassFile(className, loader);
+            if (prefetchedClassFile == null) {
+                url = loader.getResource(path);
+            } else {
+                url = prefetchedClassFile.url;
+                bytes = prefetchedClassFile.bytes;
+            }
             if (url != null) {
                 AnalyzedClass parentLoaderAnalyzedClass =
                         tryToReuseFromParentLoader(className, loader, path, url);
@@ -287,7 +418,9 @@ public class AnalyzedWorld {
             // org.codehaus.groovy.runtime.callsite.CallSiteClassLoader
             return createAnalyzedClassPlanB(className, loader);
         }
-        byte[] bytes = Resources.toByteArray(url);
+        if (bytes == null) {
+            bytes = Resources.toByteArray(url);
+        }
         List<Advice> advisors =
                 mergeInstrumentationAnnotations(this.advisors.get(), bytes, loader, className);
         ThinClassVisitor accv = new ThinClassVisitor();
@@ -299,6 +432,31 @@ public class AnalyzedWorld {
         return classAnalyzer.getAnalyzedClass();
     }
 
+    private @Nullable PrefetchedClassFile takePrefetchedClassFile(String className,
+            ClassLoader loader) {
+        if (prefetchedClassFiles.isEmpty()) {
+            return null;
+        }
+        PrefetchedClassFile prefetchedClassFile =
+                prefetchedClassFiles.remove(getPrefetchKey(className, loader));
+        if (prefetchedClassFile == null || prefetchedClassFile.loaderRef.get() != loader) {
+            // the loader check is needed in case of identity hash code collision
+            return null;
+        }
+        if (prefetchedClassFile.state.compareAndSet(PREFETCH_PENDING, PREFETCH_CANCELLED)) {
+            // not started yet, so just read it here (and the background task will do nothing)
+            return null;
+        }
+        if (prefetchedClassFile.state.get() != PREFETCH_DONE) {
+            // still being read, or failed to read, in the background
+            //
+            // not waiting here since the background thread could be blocked waiting on a lock
+            // (e.g. inside of a custom ClassLoader.getResource()) that is held by this thread
+            return null;
+        }
+        return prefetchedClassFile;
+    }
+
     private @Nullable AnalyzedClass tryToReuseFromParentLoader(String className,
             ClassLoader originalLoader, String path, URL url) {
         ClassLoader loader = originalLoader;
@@ -359,6 +517,20 @@ public class AnalyzedWorld {
         return analyzedClass;
     }
 
+    private static List<String> getSuperTypeNames(@Nullable String superName,
+            List<String> interfaceNames) {
+        List<String> superTypeNames = Lists.newArrayList();
+        if (superName != null && !superName.equals("java.lang.Object")) {
+            superTypeNames.add(superName);
+        }
+        superTypeNames.addAll(interfaceNames);
+        return superTypeNames;
+    }
+
+    private static String getPrefetchKey(String className, ClassLoader loader) {
+        return className + '@' + System.identityHashCode(loader);
+    }
+
     private ConcurrentMap<String, AnalyzedClass> getAnalyzedClasses(@Nullable ClassLoader loader) {
         if (loader == null) {
             return bootstrapLoaderWorld;
@@ -401,12 +573,7 @@ public class AnalyzedWorld {
         // can't call Class.forName() since that bypasses ClassFileTransformer.transform() if the
         // class hasn't already been loaded, so instead, call the package protected
         // ClassLoader.findLoadedClass()
-        Class<?> clazz = null;
-        try {
-            clazz = (Class<?>) findLoadedClassMethod.invoke(loader, className);
-        } catch (Exception e) {
-            logger.error(e.getMessage(), e);
-        }
+        Class<?> clazz = findLoadedClass(loader, className);
         if (clazz == null) {
             logger.debug("super class {} of {} not found in loader {}@{}", className, subClassName,
                     loader.getClass().getName(), loader.hashCode());
@@ -424,6 +591,15 @@ public class AnalyzedWorld {
         }
     }
 
+    private static @Nullable Class<?> findLoadedClass(ClassLoader loader, String className) {
+        try {
+            return (Class<?>) findLoadedClassMethod.invoke(loader, className);
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            return null;
+        }
+    }
+
     // now that the type has been loaded anyways, build the analyzed class via reflection
     private static AnalyzedClass createAnalyzedClassPlanC(Class<?> clazz, List<Advice> advisors) {
         ImmutableAnalyzedClass.Builder classBuilder = ImmutableAnalyzedClass.builder();
@@ -591,4 +767,47 @@ public class AnalyzedWorld {
             }
         }
     }
+
+    private static class PrefetchedClassFile implements Runnable {
+
+        private final String className;
+        // weak reference so that a prefetch that is never used doesn't retain the class loader
+        private final WeakReference<ClassLoader> loaderRef;
+
+        private final AtomicInteger state = new AtomicInteger(PREFETCH_PENDING);
+
+        // these are published by the write to state (PREFETCH_DONE)
+        private @Nullable URL url;
+        private byte /*@Nullable*/ [] bytes;
+
+        private PrefetchedClassFile(String className, ClassLoader loader) {
+            this.className = className;
+            loaderRef = new WeakReference<ClassLoader>(loader);
+        }
+
+        @Override
+        public void run() {
+            if (!state.compareAndSet(PREFETCH_PENDING, PREFETCH_RUNNING)) {
+                return;
+            }
+            ClassLoader loader = loaderRef.get();
+            if (loader == null) {
+                state.set(PREFETCH_FAILED);
+                return;
+            }
+            try {
+                URL url = loader.getResource(ClassNames.toInternalName(className) + ".class");
+                if (url != null) {
+                    bytes = Resources.toByteArray(url);
+                }
+                this.url = url;
+                state.set(PREFETCH_DONE);
+            } catch (Throwable t) {
+                // the class file will be read again by the transform thread which will log the
+                // error if it occurs again
+                logger.debug(t.getMessage(), t);
+                state.set(PREFETCH_FAILED);
+            }
+        }
+    }
 }
@@ -125,6 +125,14 @@ class ClassAnalyzer {
         // callers, and so it doesn't seem worth the (minor) performance hit to de-dup every
         // time
         List<AnalyzedClass> superAnalyzedClasses = Lists.newArrayList();
+        if (analyzedWorld.isPrefetchingSuperTypes()) {
+            // in the order that they are resolved below
+            List<String> superTypeNames = Lists.newArrayList(interfaceNames);
+            if (!intf && superClassName != null) {
+                superTypeNames.add(superClassName);
+            }
+            analyzedWorld.prefetchSuperTypes(superTypeNames, loader);
+        }
         for (String interfaceName : interfaceNames) {
             interfaceAnalyzedHierarchy.addAll(analyzedWorld.getAnalyzedHierarchy(interfaceName,
                     loader, className, parseContext));
@@ -197,8 +205,16 @@ class ClassAnalyzer {
             superClassNames.add(analyzedClass.name());
         }
         this.superClassNames = ImmutableSet.copyOf(superClassNames);
+        AdviceIndex adviceIndex = analyzedWorld.getAdviceIndex(advisors);
+        List<Advice> candidateAdvisors;
+        if (adviceIndex == null) {
+            candidateAdvisors = advisors;
+        } else {
+            candidateAdvisors = adviceIndex.getCandidates(className, thinClass.annotations(),
+                    superClassNames);
+        }
         adviceMatchers = AdviceMatcher.getAdviceMatchers(className, thinClass.annotations(),
-                superClassNames, advisors);
+                superClassNames, candidateAdvisors);
         if (intf) {
             shortCircuitBeforeAnalyzeMethods = false;
         } else {
@@ -281,17 +297,23 @@ class ClassAnalyzer {
         return checkNotNull(methodsThatOnlyNowFulfillAdvice);
     }
 
+    static boolean isPublicFinal(ThinMethod thinMethod) {
+        return Modifier.isFinal(thinMethod.access()) && Modifier.isPublic(thinMethod.access());
+    }
+
+    static PublicFinalMethod createPublicFinalMethod(ThinMethod thinMethod) {
+        ImmutablePublicFinalMethod.Builder builder = ImmutablePublicFinalMethod.builder()
+                .name(thinMethod.name());
+        for (Type parameterType : Type.getArgumentTypes(thinMethod.descriptor())) {
+            builder.addParameterTypes(parameterType.getClassName());
+        }
+        return builder.build();
+    }
+
     @RequiresNonNull("bridgeTargetAdvisors")
     private List<Advice> analyzeMethod(ThinMethod thinMethod) {
-        if (Modifier.isFinal(thinMethod.access()) && Modifier.isPublic(thinMethod.access())) {
-            ImmutablePublicFinalMethod.Builder builder = ImmutablePublicFinalMethod.builder()
-                    .name(thinMethod.name());
-            List<Type> parameterTypes =
-                    Arrays.asList(Type.getArgumentTypes(thinMethod.descriptor()));
-            for (Type parameterType : parameterTypes) {
-                builder.addParameterTypes(parameterType.getClassName());
-            }
-            analyzedClassBuilder.addPublicFinalMethods(builder.build());
+        if (isPublicFinal(thinMethod)) {
+            analyzedClassBuilder.addPublicFinalMethods(createPublicFinalMethod(thinMethod));
         }
         if (shortCircuitBeforeAnalyzeMethods) {
             return ImmutableList.of();
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.lang.reflect.Modifier;
+import java.security.CodeSource;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.agent.weaving.AnalyzedWorld.ParseContext;
+import org.glowroot.agent.weaving.ThinClassVisitor.ThinClass;
+import org.glowroot.agent.weaving.ThinClassVisitor.ThinMethod;
+import org.glowroot.common.util.ScheduledRunnable;
+
+import static com.google.common.base.Charsets.UTF_8;
+
+// this caches (across JVM restarts) the classes that were analyzed and found to not require any
+// weaving, so that the next JVM start can skip matching all of the advisors against them
+//
+// woven bytecode itself is not cached since it is not reusable across JVM restarts (it has
+// nesting group ids and suppression key ids baked in that are only valid for the JVM that
+// generated them, and it depends on MetaHolder and advice classes that are defined at weaving time)
+//
+// an entry is only recorded (and only used) for a non-interface class when no type in its
+// hierarchy has any advice, shim type or mixin type, in which case the outcome of the analysis
+// only depends on the class bytes, the names of the types in its hierarchy and the advisors/shim
+// types/mixin types, which are all part of the key (or of the file fingerprint)
+public class NoWeavingRequiredCache extends ScheduledRunnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(NoWeavingRequiredCache.class);
+
+    private final File file;
+    private final int maxSize;
+    private final List<Advice> advisors;
+    private final String fingerprint;
+
+    private final Set<String> keys = Sets.newConcurrentHashSet();
+    // keys that have been used (either read or added) by this JVM, these are the ones that are
+    // kept when the file needs to be rewritten because it has grown too large
+    private final Set<String> usedKeys = Sets.newConcurrentHashSet();
+    private final Set<String> needsToBeWritten = Sets.newConcurrentHashSet();
+
+    private volatile int linesInFile;
+    private volatile boolean needsToBeRewritten;
+
+    private final AtomicBoolean isWritingFile = new AtomicBoolean();
+
+    public NoWeavingRequiredCache(File file, int maxSize, AdviceCache adviceCache,
+            String agentVersion) {
+        this(file, maxSize, adviceCache.getAdvisorsSupplier().get(), adviceCache.getShimTypes(),
+                adviceCache.getMixinTypes(), agentVersion);
+    }
+
+    @VisibleForTesting
+    NoWeavingRequiredCache(File file, int maxSize, List<Advice> advisors, List<ShimType> shimTypes,
+            List<MixinType> mixinTypes, String agentVersion) {
+        this.file = file;
+        this.maxSize = maxSize;
+        this.advisors = advisors;
+        fingerprint = getFingerprint(advisors, shimTypes, mixinTypes, agentVersion);
+        loadFromFile();
+    }
+
+    // returns null if the class is not eligible for this cache
+    @Nullable
+    String getKey(ThinClass thinClass, byte[] classBytes, List<Advice> advisors,
+            @Nullable ClassLoader loader, AnalyzedWorld analyzedWorld,
+            @Nullable CodeSource codeSource) {
+        if (advisors != this.advisors) {
+            // advisors have been updated (e.g. via instrumentation config) since the JVM started,
+            // or @Instrumentation annotations were found on the class
+            return null;
+        }
+        if (Modifier.isInterface(thinClass.access())) {
+            return null;
+        }
+        for (String annotation : thinClass.annotations()) {
+            if (annotation.equals("Ljavax/ejb/Remote;")
+                    || annotation.equals("Ljavax/ejb/Stateless;")) {
+                return null;
+            }
+        }
+        String className = ClassNames.fromInternalName(thinClass.name());
+        ParseContext parseContext = ImmutableParseContext.of(className, codeSource);
+        List<AnalyzedClass> hierarchy = Lists.newArrayList();
+        for (String interfaceName : thinClass.interfaces()) {
+            hierarchy.addAll(analyzedWorld.getAnalyzedHierarchy(
+                    ClassNames.fromInternalName(interfaceName), loader, className, parseContext));
+        }
+        hierarchy.addAll(analyzedWorld.getAnalyzedHierarchy(
+                ClassNames.fromInternalName(thinClass.superName()), loader, className,
+                parseContext));
+        CRC32 hierarchyCrc = new CRC32();
+        for (AnalyzedClass analyzedClass : hierarchy) {
+            if (hasAdviceOrShimOrMixin(analyzedClass)) {
+                return null;
+            }
+            hierarchyCrc.update(analyzedClass.name().getBytes(UTF_8));
+            hierarchyCrc.update(',');
+        }
+        CRC32 classBytesCrc = new CRC32();
+        classBytesCrc.update(classBytes);
+        StringBuilder sb = new StringBuilder(className.length() + 64);
+        sb.append(className);
+        sb.append(',');
+        if (loader != null) {
+            sb.append(loader.getClass().getName());
+        }
+        sb.append(',');
+        sb.append(classBytes.length);
+        sb.append(',');
+        sb.append(Long.toHexString(classBytesCrc.getValue()));
+        sb.append(',');
+        sb.append(Long.toHexString(hierarchyCrc.getValue()));
+        return sb.toString();
+    }
+
+    boolean isEmpty() {
+        return keys.isEmpty();
+    }
+
+    boolean contains(String key) {
+        if (keys.contains(key)) {
+            usedKeys.add(key);
+            return true;
+        }
+        return false;
+    }
+
+    // this is checked before computing the key to add
+    boolean shouldAdd(AnalyzedClass analyzedClass) {
+        if (!analyzedClass.analyzedMethods().isEmpty() || hasAdviceOrShimOrMixin(analyzedClass)
+                || analyzedClass.ejbRemote()) {
+            return false;
+        }
+        if (keys.size() >= maxSize) {
+            needsToBeRewritten = true;
+            return false;
+        }
+        return true;
+    }
+
+    void add(String key, AnalyzedClass analyzedClass) {
+        if (!shouldAdd(analyzedClass)) {
+            return;
+        }
+        if (keys.add(key)) {
+            usedKeys.add(key);
+            needsToBeWritten.add(key);
+        }
+    }
+
+    static AnalyzedClass createAnalyzedClass(ThinClass thinClass) {
+        ImmutableAnalyzedClass.Builder builder = ImmutableAnalyzedClass.builder()
+                .modifiers(thinClass.access())
+                .name(ClassNames.fromInternalName(thinClass.name()))
+                .superName(ClassNames.fromInternalName(thinClass.superName()))
+                .addAllInterfaceNames(ClassNames.fromInternalNames(thinClass.interfaces()))
+                .ejbRemote(false);
+        for (ThinMethod bridgeMethod : thinClass.bridgeMethods()) {
+            if (ClassAnalyzer.isPublicFinal(bridgeMethod)) {
+                builder.addPublicFinalMethods(ClassAnalyzer.createPublicFinalMethod(bridgeMethod));
+            }
+        }
+        for (ThinMethod nonBridgeMethod : thinClass.nonBridgeMethods()) {
+            if (ClassAnalyzer.isPublicFinal(nonBridgeMethod)) {
+                builder.addPublicFinalMethods(
+                        ClassAnalyzer.createPublicFinalMethod(nonBridgeMethod));
+            }
+        }
+        return builder.build();
+    }
+
+    @Override
+    protected void runInternal() throws Exception {
+        if (!needsToBeWritten.isEmpty() || needsToBeRewritten) {
+            writeToFileAsync();
+        }
+    }
+
+    private void writeToFileAsync() {
+        if (isWritingFile.compareAndSet(false, true)) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writeToFile();
+                    } catch (Throwable t) {
+                        logger.error(t.getMessage(), t);
+                    }
+                    isWritingFile.set(false);
+                }
+            });
+            thread.setName("Glowroot-No-Weaving-Required-Cache-Writer");
+            thread.start();
+        }
+    }
+
+    @VisibleForTesting
+    void writeToFile() throws IOException {
+        if (linesInFile == 0 || needsToBeRewritten
+                || linesInFile + needsToBeWritten.size() > maxSize) {
+            // only keep the keys that are still being used by this JVM
+            keys.retainAll(usedKeys);
+            needsToBeRewritten = false;
+            writeAllToFile();
+        } else {
+            appendNewLinesToFile();
+        }
+        // race condition on clearing is ok, worst case a few keys that were just added during
+        // writing/appending above are not written, and will likely be caught on next JVM start
+        needsToBeWritten.clear();
+    }
+
+    private void writeAllToFile() throws IOException {
+        BufferedWriter out = Files.newWriter(file, UTF_8);
+        try {
+            out.write(fingerprint);
+            out.write("\n");
+            int lineCount = 1;
+            for (String key : keys) {
+                out.write(key);
+                out.write("\n");
+                lineCount++;
+            }
+            linesInFile = lineCount;
+        } finally {
+            out.close();
+        }
+    }
+
+    private void appendNewLinesToFile() throws IOException {
+        BufferedWriter out =
+                new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), UTF_8));
+        try {
+            int lineCount = 0;
+            for (String key : needsToBeWritten) {
+                out.write(key);
+                out.write("\n");
+                lineCount++;
+            }
+            linesInFile += lineCount;
+        } finally {
+            out.close();
+        }
+    }
+
+    private void loadFromFile() {
+        if (!file.exists()) {
+            return;
+        }
+        List<String> lines;
+        try {
+            lines = Files.readLines(file, UTF_8);
+        } catch (IOException e) {
+            logger.error("error reading {}: {}", file.getAbsolutePath(), e.getMessage(), e);
+            return;
+        }
+        if (lines.isEmpty() || !lines.get(0).equals(fingerprint)) {
+            // agent version, plugins or instrumentation config have changed since the file was
+            // written, so none of the entries can be trusted (and file will be rewritten)
+            return;
+        }
+        for (int i = 1; i < lines.size() && keys.size() < maxSize; i++) {
+            String line = lines.get(i);
+            if (!line.isEmpty()) {
+                keys.add(line);
+            }
+        }
+        linesInFile = lines.size();
+    }
+
+    private static boolean hasAdviceOrShimOrMixin(AnalyzedClass analyzedClass) {
+        for (AnalyzedMethod analyzedMethod : analyzedClass.analyzedMethods()) {
+            if (!analyzedMethod.advisors().isEmpty()
+                    || !analyzedMethod.subTypeRestrictedAdvisors().isEmpty()) {
+                return true;
+            }
+        }
+        return !analyzedClass.shimTypes().isEmpty() || !analyzedClass.mixinTypes().isEmpty()
+                || !analyzedClass.nonReweavableMixinTypes().isEmpty();
+    }
+
+    @VisibleForTesting
+    static String getFingerprint(List<Advice> advisors, List<ShimType> shimTypes,
+            List<MixinType> mixinTypes, String agentVersion) {
+        Hasher hasher = Hashing.sha1().newHasher();
+        hasher.putString(agentVersion, UTF_8);
+        for (Advice advice : advisors) {
+            hasher.putString(advice.adviceType().getInternalName(), UTF_8);
+            // pointcut annotation toString() includes all of the matching criteria
+            hasher.putString(advice.pointcut().toString(), UTF_8);
+            hasher.putBoolean(advice.reweavable());
+        }
+        for (ShimType shimType : shimTypes) {
+            hasher.putString(shimType.iface().getInternalName(), UTF_8);
+            hasher.putString(shimType.targets().toString(), UTF_8);
+        }
+        for (MixinType mixinType : mixinTypes) {
+            hasher.putString(mixinType.interfaces().toString(), UTF_8);
+            hasher.putString(mixinType.targets().toString(), UTF_8);
+        }
+        return hasher.hash().toString();
+    }
+}
@@ -306,6 +306,10 @@ public class PreInitializeWeavingClasses {
         types.add("org.glowroot.agent.bytecode.api.Util");
         types.add("org.glowroot.agent.weaving.Advice");
         types.add("org.glowroot.agent.weaving.AdviceGenerator");
+        types.add("org.glowroot.agent.weaving.AdviceIndex");
+        types.add("org.glowroot.agent.weaving.AdviceIndex$1");
+        types.add("org.glowroot.agent.weaving.AdviceIndex$NameIndex");
+        types.add("org.glowroot.agent.weaving.AdviceIndex$TrieNode");
         types.add("org.glowroot.agent.weaving.Advice$AdviceOrdering");
         types.add("org.glowroot.agent.weaving.Advice$AdviceParameter");
         types.add("org.glowroot.agent.weaving.Advice$ParameterKind");
@@ -316,8 +320,10 @@ public class PreInitializeWeavingClasses {
         types.add("org.glowroot.agent.weaving.AnalyzedClass");
         types.add("org.glowroot.agent.weaving.AnalyzedMethod");
         types.add("org.glowroot.agent.weaving.AnalyzedWorld");
+        types.add("org.glowroot.agent.weaving.AnalyzedWorld$1");
         types.add("org.glowroot.agent.weaving.AnalyzedWorld$AnalyzedClassAndLoader");
         types.add("org.glowroot.agent.weaving.AnalyzedWorld$ParseContext");
+        types.add("org.glowroot.agent.weaving.AnalyzedWorld$PrefetchedClassFile");
         types.add("org.glowroot.agent.weaving.BootstrapMetaHolders");
         types.add("org.glowroot.agent.weaving.BootstrapMetaHolders$ClassMetaHolder");
         types.add("org.glowroot.agent.weaving.BootstrapMetaHolders$MethodMetaHolder");
@@ -383,6 +389,8 @@ public class PreInitializeWeavingClasses {
                 + "$TransactionAnnotationVisitor");
         types.add("org.glowroot.agent.weaving.JSRInlinerClassVisitor");
         types.add("org.glowroot.agent.weaving.MixinType");
+        types.add("org.glowroot.agent.weaving.NoWeavingRequiredCache");
+        types.add("org.glowroot.agent.weaving.NoWeavingRequiredCache$1");
         types.add("org.glowroot.agent.weaving.PluginClassRenamer");
         types.add("org.glowroot.agent.weaving.PluginClassRenamer$PluginClassRemapper");
         types.add("org.glowroot.agent.weaving.PluginDetail$PointcutClass");
@@ -59,6 +59,7 @@ import org.glowroot.agent.util.IterableWithSelfRemovableEntries.SelfRemovableEnt
 import org.glowroot.agent.weaving.ClassLoaders.LazyDefinedClass;
 import org.glowroot.common.util.ScheduledRunnable.TerminateSubsequentExecutionsException;
 
+import static com.google.common.base.Preconditions.checkNotNull;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.objectweb.asm.Opcodes.ASM7;
 import static org.objectweb.asm.Opcodes.INVOKESTATIC;
@@ -84,6 +85,8 @@ public class Weaver {
     private final ImmutableList<ShimType> shimTypes;
     private final ImmutableList<MixinType> mixinTypes;
     private final AnalyzedWorld analyzedWorld;
+    // null when the (opt-in) persistent cache is not enabled
+    private final @Nullable NoWeavingRequiredCache noWeavingRequiredCache;
     private final TransactionRegistry transactionRegistry;
     private final Ticker ticker;
     private final TimerName timerName;
@@ -99,12 +102,14 @@ public class Weaver {
 
     public Weaver(Supplier<List<Advice>> advisors, List<ShimType> shimTypes,
             List<MixinType> mixinTypes, AnalyzedWorld analyzedWorld,
+            @Nullable NoWeavingRequiredCache noWeavingRequiredCache,
             TransactionRegistry transactionRegistry, Ticker ticker, TimerNameCache timerNameCache,
             final ConfigService configService) {
         this.advisors = advisors;
         this.shimTypes = ImmutableList.copyOf(shimTypes);
         this.mixinTypes = ImmutableList.copyOf(mixinTypes);
         this.analyzedWorld = analyzedWorld;
+        this.noWeavingRequiredCache = noWeavingRequiredCache;
         this.transactionRegistry = transactionRegistry;
         this.ticker = ticker;
         configService.addConfigListener(new ConfigListener() {
@@ -210,6 +215,27 @@ public class Weaver {
             cr.accept(new JSRInlinerClassVisitor(cv), parsingOptions);
             maybeProcessedBytes = cw.toByteArray();
         }
+        boolean useNoWeavingRequiredCache = noWeavingRequiredCache != null
+                && maybeProcessedBytes == null && classBeingRedefined == null;
+        String noWeavingRequiredCacheKey = null;
+        boolean noWeavingRequiredCacheKeyComputed = false;
+        // main methods are still woven prior to entering main, and entries are recorded
+        // regardless, so a "no weaving required" entry is only valid after entering main
+        //
+        // the key requires the type hierarchy and a checksum of the class bytes, so it is not
+        // computed here unless there is a chance of it being found
+        if (useNoWeavingRequiredCache && noLongerNeedToWeaveMainMethods
+                && !checkNotNull(noWeavingRequiredCache).isEmpty()) {
+            noWeavingRequiredCacheKey = noWeavingRequiredCache.getKey(accv.getThinClass(),
+                    classBytes, advisors, loader, analyzedWorld, codeSource);
+            noWeavingRequiredCacheKeyComputed = true;
+            if (noWeavingRequiredCacheKey != null
+                    && noWeavingRequiredCache.contains(noWeavingRequiredCacheKey)) {
+                analyzedWorld.add(
+                        NoWeavingRequiredCache.createAnalyzedClass(accv.getThinClass()), loader);
+                return null;
+            }
+        }
         ClassAnalyzer classAnalyzer = new ClassAnalyzer(accv.getThinClass(), advisors, shimTypes,
                 mixinTypes, loader, analyzedWorld, codeSource, classBytes, classBeingRedefined,
                 noLongerNeedToWeaveMainMethods);
@@ -223,7 +249,20 @@ public class Weaver {
             return null;
         }
         if (!classAnalyzer.isWeavingRequired()) {
-            analyzedWorld.add(classAnalyzer.getAnalyzedClass(), loader);
+            AnalyzedClass analyzedClass = classAnalyzer.getAnalyzedClass();
+            analyzedWorld.add(analyzedClass, loader);
+            if (useNoWeavingRequiredCache
+                    && checkNotNull(noWeavingRequiredCache).shouldAdd(analyzedClass)) {
+                if (!noWeavingRequiredCacheKeyComputed) {
+                    // the type hierarchy has been analyzed by now, so this is cheaper than above
+                    noWeavingRequiredCacheKey = noWeavingRequiredCache.getKey(
+                            accv.getThinClass(), classBytes, advisors, loader, analyzedWorld,
+                            codeSource);
+                }
+                if (noWeavingRequiredCacheKey != null) {
+                    noWeavingRequiredCache.add(noWeavingRequiredCacheKey, analyzedClass);
+                }
+            }
             return maybeProcessedBytes;
         }
         List<ShimType> matchedShimTypes = classAnalyzer.getMatchedShimTypes();
@@ -36,6 +36,20 @@ public class CentralCollectorTest {
         assertThat(CentralCollector.escapeHostname("a\\b\\c")).isEqualTo("a\\\\b\\\\c");
     }
 
+    @Test
+    public void shouldParseSpoolMaxSize() {
+        assertThat(CentralCollector.getSpoolMaxSizeBytes(null)).isZero();
+        assertThat(CentralCollector.getSpoolMaxSizeBytes("0")).isZero();
+        assertThat(CentralCollector.getSpoolMaxSizeBytes("-1")).isZero();
+        assertThat(CentralCollector.getSpoolMaxSizeBytes("")).isZero();
+        assertThat(CentralCollector.getSpoolMaxSizeBytes("abc")).isZero();
+        assertThat(CentralCollector.getSpoolMaxSizeBytes("10MB")).isZero();
+        assertThat(CentralCollector.getSpoolMaxSizeBytes("10")).isEqualTo(10 * 1024 * 1024);
+        assertThat(CentralCollector.getSpoolMaxSizeBytes(" 10 ")).isEqualTo(10 * 1024 * 1024);
+        assertThat(CentralCollector.getSpoolMaxSizeBytes("4096"))
+                .isEqualTo(4096L * 1024 * 1024);
+    }
+
     @Test
     public void shouldCheckAgentVersionAgainstCentralVersion() {
         assertThat(CentralCollector.isAgentVersionGreaterThanCentralVersion("1.10.2", "1.10.1"))
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.central;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import org.glowroot.agent.central.CentralSpool.InvalidRecordException;
+import org.glowroot.agent.central.CentralSpool.RecordReplayer;
+import org.glowroot.agent.central.CentralSpool.SpooledRecord;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValueMessage;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValueMessage.GaugeValue;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CentralSpoolTest {
+
+    @Test
+    public void shouldReplayInOrder() throws Exception {
+        // given
+        File file = File.createTempFile("glowroot-unit-test-", "");
+        CentralSpool spool = new CentralSpool(file, 1024 * 1024);
+
+        // when
+        spool.append(CentralSpool.GAUGE_VALUES, ImmutableList.of(createMessage(1)));
+        spool.append(CentralSpool.GAUGE_VALUES, ImmutableList.of(createMessage(2)));
+
+        // then
+        SpooledRecord record = spool.readNext();
+        assertThat(record.recordType()).isEqualTo(CentralSpool.GAUGE_VALUES);
+        assertThat(getCaptureTime(record)).isEqualTo(1);
+        spool.markReplayed(record);
+        record = spool.readNext();
+        assertThat(getCaptureTime(record)).isEqualTo(2);
+        spool.markReplayed(record);
+        assertThat(spool.hasPending()).isFalse();
+        assertThat(spool.readNext()).isNull();
+        assertThat(file.length()).isZero();
+
+        // cleanup
+        spool.close();
+        file.delete();
+    }
+
+    @Test
+    public void shouldNotAdvanceUntilReplayed() throws Exception {
+        // given
+        File file = File.createTempFile("glowroot-unit-test-", "");
+        CentralSpool spool = new CentralSpool(file, 1024 * 1024);
+        spool.append(CentralSpool.GAUGE_VALUES, ImmutableList.of(createMessage(1)));
+
+        // when
+        spool.readNext();
+
+        // then
+        assertThat(spool.hasPending()).isTrue();
+        assertThat(getCaptureTime(spool.readNext())).isEqualTo(1);
+
+        // cleanup
+        spool.close();
+        file.delete();
+    }
+
+    @Test
+    public void shouldRetainAcrossRestart() throws Exception {
+        // given
+        File file = File.createTempFile("glowroot-unit-test-", "");
+        CentralSpool spool = new CentralSpool(file, 1024 * 1024);
+        spool.append(CentralSpool.GAUGE_VALUES, ImmutableList.of(createMessage(1)));
+        spool.close();
+
+        // when
+        spool = new CentralSpool(file, 1024 * 1024);
+
+        // then
+        assertThat(getCaptureTime(spool.readNext())).isEqualTo(1);
+
+        // cleanup
+        spool.close();
+        file.delete();
+    }
+
+    @Test
+    public void shouldNotReplayAgainAfterRestart() throws Exception {
+        // given
+        File file = File.createTempFile("glowroot-unit-test-", "");
+        CentralSpool spool = new CentralSpool(file, 1024 * 1024);
+        spool.append(CentralSpool.GAUGE_VALUES, ImmutableList.of(createMessage(1)));
+        spool.append(CentralSpool.GAUGE_VALUES, ImmutableList.of(createMessage(2)));
+        spool.markReplayed(spool.readNext());
+        spool.close();
+
+        // when
+        spool = new CentralSpool(file, 1024 * 1024);
+
+        // then
+        SpooledRecord record = spool.readNext();
+        assertThat(getCaptureTime(record)).isEqualTo(2);
+        spool.markReplayed(record);
+        assertThat(spool.hasPending()).isFalse();
+
+        // cleanup
+        spool.close();
+        file.delete();
+    }
+
+    @Test
+    public void shouldReclaimSpaceBeforeEverythingIsReplayed() throws Exception {
+        // given
+        File file = File.createTempFile("glowroot-unit-test-", "");
+        CentralSpool spool = new CentralSpool(file, 1000);
+        int count = 0;
+        while (spool.append(CentralSpool.GAUGE_VALUES, ImmutableList.of(createMessage(count)))) {
+            count++;
+        }
+        long fullLength = file.length();
+
+        // when
+        int replayed = 0;
+        while (file.length() == fullLength) {
+            SpooledRecord record = spool.readNext();
+            assertThat(getCaptureTime(record)).isEqualTo(replayed);
+            spool.markReplayed(record);
+            replayed++;
+        }
+
+        // then
+        assertThat(replayed).isLessThan(count);
+        assertThat(file.length())
+                .isLessThanOrEqualTo((fullLength + CentralSpool.HEADER_SIZE) / 2);
+        assertThat(spool.append(CentralSpool.GAUGE_VALUES,
+                ImmutableList.of(createMessage(count)))).isTrue();
+        for (int i = replayed; i <= count; i++) {
+            SpooledRecord record = spool.readNext();
+            assertThat(getCaptureTime(record)).isEqualTo(i);
+            spool.markReplayed(record);
+        }
+        assertThat(spool.hasPending()).isFalse();
+
+        // cleanup
+        spool.close();
+        file.delete();
+    }
+
+    @Test
+    public void shouldReplayCompactedRecordsAfterRestart() throws Exception {
+        // given
+        File file = File.createTempFile("glowroot-unit-test-", "");
+        CentralSpool spool = new CentralSpool(file, 1000);
+        int count = 0;
+        while (spool.append(CentralSpool.GAUGE_VALUES, ImmutableList.of(createMessage(count)))) {
+            count++;
+        }
+        long fullLength = file.length();
+        int replayed = 0;
+        while (file.length() == fullLength) {
+            spool.markReplayed(spool.readNext());
+            replayed++;
+        }
+        spool.close();
+
+        // when
+        spool = new CentralSpool(file, 1000);
+
+        // then
+        for (int i = replayed; i < count; i++) {
+            SpooledRecord record = spool.readNext();
+            assertThat(getCaptureTime(record)).isEqualTo(i);
+            spool.markReplayed(record);
+        }
+        assertThat(spool.hasPending()).isFalse();
+
+        // cleanup
+        spool.close();
+        file.delete();
+    }
+
+    @Test
+    public void shouldDiscardInvalidReadPosition() throws Exception {
+        // given
+        File file = File.createTempFile("glowroot-unit-test-", "");
+        CentralSpool spool = new CentralSpool(file, 1024 * 1024);
+        spool.append(CentralSpool.GAUGE_VALUES, ImmutableList.of(createMessage(1)));
+        spool.close();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.writeLong(raf.length() + 1);
+        raf.close();
+
+        // when
+        spool = new CentralSpool(file, 1024 * 1024);
+
+        // then
+        assertThat(spool.hasPending()).isFalse();
+        assertThat(file.length()).isZero();
+
+        // cleanup
+        spool.close();
+        file.delete();
+    }
+
+    @Test
+    public void shouldNotExceedMaxSize() throws Exception {
+        // given
+        File file = File.createTempFile("glowroot-unit-test-", "");
+        CentralSpool spool = new CentralSpool(file, 100);
+
+        // when
+        for (int i = 0; i < 100; i++) {
+            spool.append(CentralSpool.GAUGE_VALUES, ImmutableList.of(createMessage(i)));
+        }
+
+        // then
+        assertThat(file.length()).isLessThanOrEqualTo(100);
+
+        // cleanup
+        spool.close();
+        file.delete();
+    }
+
+    @Test
+    public void shouldDiscardPartiallyWrittenRecord() throws Exception {
+        // given
+        File file = File.createTempFile("glowroot-unit-test-", "");
+        CentralSpool spool = new CentralSpool(file, 1024 * 1024);
+        spool.append(CentralSpool.GAUGE_VALUES, ImmutableList.of(createMessage(1)));
+        spool.append(CentralSpool.GAUGE_VALUES, ImmutableList.of(createMessage(2)));
+        spool.close();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 2);
+        raf.close();
+        spool = new CentralSpool(file, 1024 * 1024);
+
+        // when
+        SpooledRecord record = spool.readNext();
+        spool.markReplayed(record);
+
+        // then
+        assertThat(getCaptureTime(record)).isEqualTo(1);
+        assertThat(spool.readNext()).isNull();
+        assertThat(spool.hasPending()).isFalse();
+
+        // cleanup
+        spool.close();
+        file.delete();
+    }
+
+    @Test
+    public void shouldReplayPastUnreadableRecords() throws Exception {
+        // given
+        File file = File.createTempFile("glowroot-unit-test-", "");
+        CentralSpool spool = new CentralSpool(file, 1024 * 1024);
+        spool.append(CentralSpool.GAUGE_VALUES, ImmutableList.of(createMessage(1)));
+        spool.close();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(raf.length());
+        // record with a payload that cannot be parsed
+        raf.writeInt(4);
+        raf.writeByte(CentralSpool.GAUGE_VALUES);
+        raf.write(new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF});
+        // record with no messages
+        raf.writeInt(1);
+        raf.writeByte(CentralSpool.GAUGE_VALUES);
+        raf.close();
+        spool = new CentralSpool(file, 1024 * 1024);
+        // record with an unknown record type
+        spool.append((byte) 99, ImmutableList.of(createMessage(2)));
+        spool.append(CentralSpool.GAUGE_VALUES, ImmutableList.of(createMessage(3)));
+        final List<Long> captureTimes = Lists.newArrayList();
+
+        // when
+        spool.replay(new RecordReplayer() {
+            @Override
+            public boolean replay(SpooledRecord record) throws Exception {
+                if (record.recordType() != CentralSpool.GAUGE_VALUES) {
+                    throw new InvalidRecordException(
+                            "unexpected record type: " + record.recordType());
+                }
+                captureTimes.add(getCaptureTime(record));
+                return true;
+            }
+        });
+
+        // then
+        assertThat(captureTimes).containsExactly(1L, 3L);
+        assertThat(spool.hasPending()).isFalse();
+
+        // cleanup
+        spool.close();
+        file.delete();
+    }
+
+    @Test
+    public void shouldStopReplayingWhenRecordIsNotReplayed() throws Exception {
+        // given
+        File file = File.createTempFile("glowroot-unit-test-", "");
+        CentralSpool spool = new CentralSpool(file, 1024 * 1024);
+        spool.append(CentralSpool.GAUGE_VALUES, ImmutableList.of(createMessage(1)));
+        spool.append(CentralSpool.GAUGE_VALUES, ImmutableList.of(createMessage(2)));
+
+        // when
+        spool.replay(new RecordReplayer() {
+            @Override
+            public boolean replay(SpooledRecord record) throws Exception {
+                return getCaptureTime(record) == 1;
+            }
+        });
+
+        // then
+        assertThat(getCaptureTime(spool.readNext())).isEqualTo(2);
+
+        // cleanup
+        spool.close();
+        file.delete();
+    }
+
+    private static GaugeValueMessage createMessage(long captureTime) {
+        return GaugeValueMessage.newBuilder()
+                .setAgentId("xyz")
+                .addGaugeValue(GaugeValue.newBuilder()
+                        .setGaugeName("abc")
+                        .setCaptureTime(captureTime)
+                        .setValue(1)
+                        .setWeight(1))
+                .build();
+    }
+
+    private static long getCaptureTime(SpooledRecord record) throws Exception {
+        return CentralSpool.parseMessages(record.payload(), GaugeValueMessage.parser()).get(0)
+                .getGaugeValue(0).getCaptureTime();
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.central;
+
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.collect.ImmutableList;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import org.glowroot.agent.collector.Collector.AgentConfigUpdater;
+import org.glowroot.agent.live.LiveJvmServiceImpl;
+import org.glowroot.agent.live.LiveTraceRepositoryImpl;
+import org.glowroot.agent.live.LiveWeavingServiceImpl;
+import org.glowroot.wire.api.model.DownstreamServiceGrpc.DownstreamServiceImplBase;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.AgentResponse;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.CentralRequest;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapHistogram;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapHistogramRequest;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.MatchingClassNamesRequest;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DownstreamServiceObserverTest {
+
+    private final CountDownLatch heapHistogramLatch = new CountDownLatch(1);
+
+    private FakeCentral central;
+    private Server server;
+    private ManagedChannel channel;
+    private DownstreamServiceObserver downstreamServiceObserver;
+
+    @Before
+    public void beforeEach() throws Exception {
+        central = new FakeCentral();
+        String name = "downstream-" + UUID.randomUUID();
+        server = InProcessServerBuilder.forName(name)
+                .addService(central)
+                .directExecutor()
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(name)
+                .directExecutor()
+                .build();
+        CentralConnection centralConnection = mock(CentralConnection.class);
+        when(centralConnection.getChannel()).thenReturn(channel);
+        LiveJvmServiceImpl liveJvmService = mock(LiveJvmServiceImpl.class);
+        when(liveJvmService.heapHistogram("")).thenAnswer(new Answer<HeapHistogram>() {
+            @Override
+            public HeapHistogram answer(InvocationOnMock invocation) throws Exception {
+                heapHistogramLatch.await();
+                return HeapHistogram.getDefaultInstance();
+            }
+        });
+        LiveWeavingServiceImpl liveWeavingService = mock(LiveWeavingServiceImpl.class);
+        when(liveWeavingService.getMatchingClassNames("", "abc", 10))
+                .thenReturn(ImmutableList.of("abc.Xyz"));
+        downstreamServiceObserver = new DownstreamServiceObserver(centralConnection,
+                mock(AgentConfigUpdater.class), false, liveJvmService, liveWeavingService,
+                mock(LiveTraceRepositoryImpl.class), "a", new AtomicBoolean(),
+                new SharedQueryTextLimiter());
+    }
+
+    @After
+    public void afterEach() throws Exception {
+        heapHistogramLatch.countDown();
+        downstreamServiceObserver.close();
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    @Test
+    public void shouldNotBlockQuickRequestBehindHeavyRequest() throws Exception {
+        // given
+        downstreamServiceObserver.connectAsync();
+        Connection connection = central.connections.poll(10, SECONDS);
+
+        // when
+        connection.requestObserver.onNext(heapHistogramRequest(1));
+        connection.requestObserver.onNext(matchingClassNamesRequest(2));
+
+        // then
+        AgentResponse response = connection.responses.poll(10, SECONDS);
+        assertThat(response.getRequestId()).isEqualTo(2);
+        assertThat(response.getMatchingClassNamesResponse().getClassNameList())
+                .containsExactly("abc.Xyz");
+
+        // when
+        heapHistogramLatch.countDown();
+
+        // then
+        response = connection.responses.poll(10, SECONDS);
+        assertThat(response.getRequestId()).isEqualTo(1);
+        assertThat(response.hasHeapHistogramResponse()).isTrue();
+    }
+
+    @Test
+    public void shouldNotRespondOnPriorConnection() throws Exception {
+        // given
+        downstreamServiceObserver.connectAsync();
+        Connection priorConnection = central.connections.poll(10, SECONDS);
+        priorConnection.requestObserver.onNext(heapHistogramRequest(1));
+
+        // when
+        downstreamServiceObserver.connectAsync();
+        Connection connection = central.connections.poll(10, SECONDS);
+        heapHistogramLatch.countDown();
+        // heavy requests are handled one at a time, so once this is responded to, the prior
+        // heap histogram request has been fully handled
+        connection.requestObserver.onNext(heapHistogramRequest(2));
+
+        // then
+        AgentResponse response = connection.responses.poll(10, SECONDS);
+        assertThat(response.getRequestId()).isEqualTo(2);
+        assertThat(connection.responses).isEmpty();
+        assertThat(priorConnection.responses).isEmpty();
+    }
+
+    private static CentralRequest heapHistogramRequest(long requestId) {
+        return CentralRequest.newBuilder()
+                .setRequestId(requestId)
+                .setHeapHistogramRequest(HeapHistogramRequest.getDefaultInstance())
+                .build();
+    }
+
+    private static CentralRequest matchingClassNamesRequest(long requestId) {
+        return CentralRequest.newBuilder()
+                .setRequestId(requestId)
+                .setMatchingClassNamesRequest(MatchingClassNamesRequest.newBuilder()
+                        .setPartialClassName("abc")
+                        .setLimit(10))
+                .build();
+    }
+
+    private static class FakeCentral extends DownstreamServiceImplBase {
+
+        private final BlockingQueue<Connection> connections = new LinkedBlockingQueue<Connection>();
+
+        @Override
+        public StreamObserver<AgentResponse> connect(
+                final StreamObserver<CentralRequest> requestObserver) {
+            return new StreamObserver<AgentResponse>() {
+                private final Connection connection = new Connection(requestObserver);
+                @Override
+                public void onNext(AgentResponse value) {
+                    if (value.hasHello()) {
+                        connections.add(connection);
+                    } else {
+                        connection.responses.add(value);
+                    }
+                }
+                @Override
+                public void onError(Throwable t) {}
+                @Override
+                public void onCompleted() {
+                    requestObserver.onCompleted();
+                }
+            };
+        }
+    }
+
+    private static class Connection {
+
+        private final StreamObserver<CentralRequest> requestObserver;
+        private final BlockingQueue<AgentResponse> responses =
+                new LinkedBlockingQueue<AgentResponse>();
+
+        private Connection(StreamObserver<CentralRequest> requestObserver) {
+            this.requestObserver = requestObserver;
+        }
+    }
+}
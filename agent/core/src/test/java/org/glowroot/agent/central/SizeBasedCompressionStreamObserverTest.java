@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.central;
+
+import com.google.common.base.Strings;
+import io.grpc.stub.CallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.AggregateStreamMessage;
+
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+
+public class SizeBasedCompressionStreamObserverTest {
+
+    @Test
+    public void shouldOnlyCompressLargeMessages() {
+        // given
+        @SuppressWarnings("unchecked")
+        CallStreamObserver<AggregateStreamMessage> delegate = mock(CallStreamObserver.class);
+        StreamObserver<AggregateStreamMessage> requestObserver =
+                SizeBasedCompressionStreamObserver.wrap(delegate);
+        AggregateStreamMessage small = createMessage("select 1");
+        AggregateStreamMessage large = createMessage(Strings.repeat("select 1 union ", 100));
+
+        // when
+        requestObserver.onNext(small);
+        requestObserver.onNext(small);
+        requestObserver.onNext(large);
+
+        // then
+        InOrder inOrder = inOrder(delegate);
+        inOrder.verify(delegate).setMessageCompression(false);
+        inOrder.verify(delegate, times(2)).onNext(small);
+        inOrder.verify(delegate).setMessageCompression(true);
+        inOrder.verify(delegate).onNext(large);
+        inOrder.verifyNoMoreInteractions();
+    }
+
+    private static AggregateStreamMessage createMessage(String fullText) {
+        return AggregateStreamMessage.newBuilder()
+                .setSharedQueryText(Aggregate.SharedQueryText.newBuilder()
+                        .setFullText(fullText))
+                .build();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import org.glowroot.agent.bytecode.api.ThreadContextThreadLocal;
+import org.glowroot.agent.model.TimerNameImpl;
+import org.glowroot.agent.plugin.api.MessageSupplier;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class StackTraceCollectorTest {
+
+    @Test
+    public void shouldCaptureStackTraceOfLiveThread() {
+        // given
+        Transaction transaction = mock(Transaction.class);
+        ThreadContextImpl threadContext = createThreadContext(transaction);
+
+        // when
+        StackTraceCollector.captureStackTraces(ImmutableList.of(threadContext));
+
+        // then
+        verify(transaction).captureStackTrace(anyBoolean(), any(StackTraceElement[].class),
+                any(Thread.State.class));
+    }
+
+    @Test
+    public void shouldNotCaptureStackTraceWhenNoThreadInfo() throws Exception {
+        // given
+        final Transaction transaction = mock(Transaction.class);
+        final AtomicReference<ThreadContextImpl> threadContext =
+                new AtomicReference<ThreadContextImpl>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                threadContext.set(createThreadContext(transaction));
+            }
+        });
+        thread.start();
+        thread.join();
+
+        // when
+        // ThreadMXBean returns null thread info for the terminated thread, and since it is not a
+        // virtual thread there is nothing to fall back to
+        StackTraceCollector.captureStackTraces(ImmutableList.of(threadContext.get()));
+
+        // then
+        verify(transaction, never()).captureStackTrace(anyBoolean(),
+                any(StackTraceElement[].class), any(Thread.State.class));
+    }
+
+    private static ThreadContextImpl createThreadContext(Transaction transaction) {
+        return new ThreadContextImpl(transaction, null, null, mock(MessageSupplier.class),
+                mock(TimerNameImpl.class), 0, false, 0, 0, null, false, mock(Ticker.class),
+                mock(ThreadContextThreadLocal.Holder.class), null, 0, 0);
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2018 the original author or authors.
+ * Copyright 2015-2019 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,8 +15,11 @@
  */
 package org.glowroot.agent.impl;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.Test;
 
+import org.glowroot.agent.model.ErrorMessage;
 import org.glowroot.agent.plugin.api.Message;
 import org.glowroot.agent.plugin.api.MessageSupplier;
 
@@ -78,4 +81,32 @@ public class TraceEntryComponentTest {
         // then
         assertThat(traceEntryComponent.isCompleted()).isFalse();
     }
+
+    @Test
+    public void testEndWithInfoDefersThrowableConversion() {
+        // given
+        ThreadContextImpl threadContext = mock(ThreadContextImpl.class);
+        Transaction transaction = mock(Transaction.class);
+        AtomicInteger throwableFrameLimitCounter = new AtomicInteger();
+        when(threadContext.getTransaction()).thenReturn(transaction);
+        when(transaction.getThrowableFrameLimitCounter()).thenReturn(throwableFrameLimitCounter);
+        MessageSupplier messageSupplier1 = mock(MessageSupplier.class);
+        MessageSupplier messageSupplier2 = mock(MessageSupplier.class);
+        TimerImpl timer1 = mock(TimerImpl.class);
+        TimerImpl timer2 = mock(TimerImpl.class);
+        TraceEntryComponent traceEntryComponent =
+                new TraceEntryComponent(threadContext, messageSupplier1, timer1, 0);
+        TraceEntryImpl traceEntry =
+                traceEntryComponent.pushEntry(0, messageSupplier2, timer2, null, null, 0);
+        // when
+        traceEntry.endWithInfo(new IllegalStateException("xyz"));
+        // then
+        assertThat(throwableFrameLimitCounter.get()).isZero();
+        ErrorMessage errorMessage = traceEntry.getErrorMessage();
+        assertThat(errorMessage).isNotNull();
+        assertThat(errorMessage.message()).isEqualTo("java.lang.IllegalStateException: xyz");
+        assertThat(errorMessage.throwable()).isNotNull();
+        assertThat(throwableFrameLimitCounter.get()).isPositive();
+        assertThat(traceEntry.getErrorMessage()).isSameAs(errorMessage);
+    }
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TraceparentsTest {
+
+    private static final String TRACEPARENT =
+            "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01";
+
+    @Test
+    public void shouldParseValid() {
+        assertThat(Traceparents.isValid(TRACEPARENT)).isTrue();
+        assertThat(Traceparents.getTraceId(TRACEPARENT))
+                .isEqualTo("4bf92f3577b34da6a3ce929d0e0e4736");
+        assertThat(Traceparents.getParentId(TRACEPARENT)).isEqualTo("00f067aa0ba902b7");
+        assertThat(Traceparents.getFlags(TRACEPARENT)).isEqualTo("01");
+    }
+
+    @Test
+    public void shouldAcceptFutureVersionWithExtraFields() {
+        assertThat(Traceparents.isValid(
+                "01-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01-abc")).isTrue();
+    }
+
+    @Test
+    public void shouldRejectInvalid() {
+        assertThat(Traceparents.isValid("")).isFalse();
+        assertThat(Traceparents.isValid(TRACEPARENT + "-abc")).isFalse();
+        assertThat(Traceparents.isValid(TRACEPARENT.toUpperCase())).isFalse();
+        assertThat(Traceparents.isValid(
+                "ff-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01")).isFalse();
+        assertThat(Traceparents.isValid(
+                "00-00000000000000000000000000000000-00f067aa0ba902b7-01")).isFalse();
+        assertThat(Traceparents.isValid(
+                "00-4bf92f3577b34da6a3ce929d0e0e4736-0000000000000000-01")).isFalse();
+        assertThat(Traceparents.isValid(
+                "00-4bf92f3577b34da6a3ce929d0e0e4736_00f067aa0ba902b7-01")).isFalse();
+    }
+
+    @Test
+    public void shouldBuild() {
+        // when
+        String traceparent = Traceparents.build("4bf92f3577b34da6a3ce929d0e0e4736",
+                Traceparents.buildSpanId(0xf067aa0ba902b7L), "01");
+        // then
+        assertThat(traceparent).isEqualTo(TRACEPARENT);
+    }
+
+    @Test
+    public void shouldBuildSpanIdWithHighBitSet() {
+        assertThat(Traceparents.buildSpanId(-1)).isEqualTo("ffffffffffffffff");
+    }
+}
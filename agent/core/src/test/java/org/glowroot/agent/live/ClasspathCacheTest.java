@@ -103,6 +103,45 @@ public class ClasspathCacheTest {
         }
     }
 
+    @Test
+    public void shouldMatchCaseInsensitive() {
+        // when
+        List<String> classNames = classpathCache.getMatchingClassNames("immutablemap", 5);
+        // then
+        assertThat(classNames).contains("com.google.common.collect.ImmutableMap");
+    }
+
+    @Test
+    public void shouldMatchPartialClassName() {
+        // given
+        ClasspathCache.PartialClassNameMatcher matcher =
+                new ClasspathCache.PartialClassNameMatcher("immut");
+        // then
+        assertThat(matcher.isPotentialMatch("com.google.common.collect.ImmutableMap")).isTrue();
+        assertThat(matcher.isPotentialMatch("com.Immutable")).isTrue();
+        assertThat(matcher.isPotentialMatch("Immutable")).isTrue();
+        assertThat(matcher.isPotentialMatch("a.b.Outer$ImmutableInner")).isTrue();
+        assertThat(matcher.isPotentialMatch("com.NotImmutable")).isFalse();
+        assertThat(matcher.isPotentialMatch("com.Immu")).isFalse();
+        assertThat(matcher.isPotentialFullMatch("com.Immutable")).isFalse();
+        assertThat(matcher.isPotentialFullMatch("com.immut")).isTrue();
+        assertThat(matcher.isPotentialFullMatch("a.Outer$Immut")).isTrue();
+        assertThat(matcher.isPotentialFullMatch("IMMUT")).isTrue();
+        assertThat(matcher.isPotentialFullMatch("aImmut")).isFalse();
+    }
+
+    @Test
+    public void shouldRuleOutUsingCharMask() {
+        // given
+        ClasspathCache.PartialClassNameMatcher matcher =
+                new ClasspathCache.PartialClassNameMatcher("Map");
+        // then
+        assertThat(matcher.isPotentialMatch(ClasspathCache.getCharMask("java.util.HashMap")))
+                .isTrue();
+        assertThat(matcher.isPotentialMatch(ClasspathCache.getCharMask("java.util.List")))
+                .isFalse();
+    }
+
     @Test
     public void shouldAnalyzedMethods() {
         List<UiAnalyzedMethod> methods = classpathCache.getAnalyzedMethods(A.class.getName());
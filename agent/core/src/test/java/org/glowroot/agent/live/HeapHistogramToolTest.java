@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.live;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import org.glowroot.agent.live.HeapHistogramTool.HeapHistogramProcessor;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapHistogram;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HeapHistogramToolTest {
+
+    @Test
+    public void shouldParseHotSpotOutput() throws Exception {
+        // given
+        String output = "\n"
+                + " num     #instances         #bytes  class name\n"
+                + "----------------------------------------------\n"
+                + "   1:           100           2400  java.lang.String\n"
+                + "   2:            10          81920  [B\n"
+                + "   3:             5            120  [[Ljava.lang.Object;\n"
+                + "   4:            20            480  java.lang.String\n"
+                + "   5:             1            560  <constMethodKlass>\n"
+                + "Total           136          85480\n";
+
+        // when
+        HeapHistogram heapHistogram =
+                HeapHistogramProcessor.process(new StringReader(output), false);
+
+        // then
+        assertThat(heapHistogram.getClassInfoCount()).isEqualTo(3);
+        assertClassInfo(heapHistogram.getClassInfo(0), "byte[]", 81920, 10);
+        assertClassInfo(heapHistogram.getClassInfo(1), "java.lang.String", 2880, 120);
+        assertClassInfo(heapHistogram.getClassInfo(2), "java.lang.Object[][]", 120, 5);
+    }
+
+    @Test
+    public void shouldParseJava9Output() throws Exception {
+        // given
+        String output = " num     #instances         #bytes  class name (module)\r\n"
+                + "-------------------------------------------------------\r\n"
+                + "   1:          5075         596936  [B (java.base@11.0.2)\r\n"
+                + "   2:          4786         114864  java.lang.String (java.base@11.0.2)\r\n"
+                + "Total         10000        1000000\r\n";
+
+        // when
+        HeapHistogram heapHistogram =
+                HeapHistogramProcessor.process(new StringReader(output), false);
+
+        // then
+        assertThat(heapHistogram.getClassInfoCount()).isEqualTo(2);
+        assertClassInfo(heapHistogram.getClassInfo(0), "byte[]", 596936, 5075);
+        assertClassInfo(heapHistogram.getClassInfo(1), "java.lang.String", 114864, 4786);
+    }
+
+    @Test
+    public void shouldParseJRockitOutput() throws Exception {
+        // given
+        String output = "--------- Detailed Heap Statistics: ---------\n"
+                + "   40.9% 3214k    23457   +3214k [C\n"
+                + "    9.8% 768k    32768   +768k java.lang.String\n"
+                + "    7863kB total ---\n";
+
+        // when
+        HeapHistogram heapHistogram =
+                HeapHistogramProcessor.process(new StringReader(output), true);
+
+        // then
+        assertThat(heapHistogram.getClassInfoCount()).isEqualTo(2);
+        assertClassInfo(heapHistogram.getClassInfo(0), "char[]", 3214 * 1024, 23457);
+        assertClassInfo(heapHistogram.getClassInfo(1), "java.lang.String", 768 * 1024, 32768);
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldFailOnUnexpectedOutput() throws Exception {
+        HeapHistogramProcessor.process(new StringReader("Something went wrong\n"), false);
+    }
+
+    private static void assertClassInfo(HeapHistogram.ClassInfo classInfo, String className,
+            long bytes, long count) {
+        assertThat(classInfo.getClassName()).isEqualTo(className);
+        assertThat(classInfo.getBytes()).isEqualTo(bytes);
+        assertThat(classInfo.getCount()).isEqualTo(count);
+    }
+}
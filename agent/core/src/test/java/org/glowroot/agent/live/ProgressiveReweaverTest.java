@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.live;
+
+import java.lang.instrument.Instrumentation;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+import org.glowroot.agent.impl.Transaction;
+import org.glowroot.agent.impl.TransactionRegistry;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ProgressiveReweaverTest {
+
+    @Test
+    public void shouldTakeClassesInScheduledOrder() {
+        // given
+        Set<Class<?>> pendingClasses = newPendingClasses();
+
+        // when
+        List<Class<?>> batch =
+                ProgressiveReweaver.removeNextBatch(pendingClasses, ImmutableSet.<String>of(), 2);
+
+        // then
+        assertThat(batch).containsExactly(String.class, Integer.class);
+        assertThat(pendingClasses).containsExactly(Long.class, Double.class);
+    }
+
+    @Test
+    public void shouldTakeHotClassesFirst() {
+        // given
+        Set<Class<?>> pendingClasses = newPendingClasses();
+
+        // when
+        List<Class<?>> batch = ProgressiveReweaver.removeNextBatch(pendingClasses,
+                ImmutableSet.of(Double.class.getName(), Thread.class.getName()), 2);
+
+        // then
+        assertThat(batch).containsExactly(Double.class, String.class);
+        assertThat(pendingClasses).containsExactly(Integer.class, Long.class);
+    }
+
+    @Test
+    public void shouldLimitHotClassesToBatchSize() {
+        // given
+        Set<Class<?>> pendingClasses = newPendingClasses();
+
+        // when
+        List<Class<?>> batch = ProgressiveReweaver.removeNextBatch(pendingClasses,
+                ImmutableSet.of(Long.class.getName(), Double.class.getName()), 1);
+
+        // then
+        assertThat(batch).containsExactly(Long.class);
+        assertThat(pendingClasses).containsExactly(String.class, Integer.class, Double.class);
+    }
+
+    @Test
+    public void shouldReturnEmptyBatchWhenNothingPending() {
+        // given
+        Set<Class<?>> pendingClasses = Sets.newLinkedHashSet();
+
+        // when
+        List<Class<?>> batch =
+                ProgressiveReweaver.removeNextBatch(pendingClasses, ImmutableSet.<String>of(), 10);
+
+        // then
+        assertThat(batch).isEmpty();
+    }
+
+    @Test
+    public void shouldNotLeaveClassesPendingAfterUnexpectedError() throws Exception {
+        // given
+        Instrumentation instrumentation = mock(Instrumentation.class);
+        doThrow(new IllegalStateException("unexpected")).when(instrumentation)
+                .retransformClasses(String.class, Integer.class);
+        TransactionRegistry transactionRegistry = mock(TransactionRegistry.class);
+        when(transactionRegistry.getTransactions()).thenReturn(ImmutableList.<Transaction>of());
+        ProgressiveReweaver progressiveReweaver =
+                new ProgressiveReweaver(instrumentation, transactionRegistry, 2, 0);
+
+        // when
+        int pendingCount = progressiveReweaver.schedule(newPendingClasses());
+
+        // then
+        assertThat(pendingCount).isEqualTo(4);
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        while (stopwatch.elapsed(SECONDS) < 10 && progressiveReweaver.getPendingCount() > 0) {
+            MILLISECONDS.sleep(10);
+        }
+        assertThat(progressiveReweaver.getPendingCount()).isZero();
+    }
+
+    private static Set<Class<?>> newPendingClasses() {
+        Set<Class<?>> pendingClasses = Sets.newLinkedHashSet();
+        pendingClasses.add(String.class);
+        pendingClasses.add(Integer.class);
+        pendingClasses.add(Long.class);
+        pendingClasses.add(Double.class);
+        return pendingClasses;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.model;
+
+import org.junit.Test;
+
+import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ThreadProfileTest {
+
+    @Test
+    public void shouldAddStackTraceWithThreadState() {
+        // given
+        ThreadProfile threadProfile = new ThreadProfile(10);
+        StackTraceElement[] stackTrace = new StackTraceElement[] {
+                new StackTraceElement("org.example.Some", "inner", "Some.java", 20),
+                new StackTraceElement("org.example.Some", "outer", "Some.java", 10)};
+
+        // when
+        threadProfile.addStackTrace(stackTrace, Thread.State.WAITING);
+        threadProfile.addStackTrace(stackTrace, Thread.State.WAITING);
+
+        // then
+        assertThat(threadProfile.getSampleCount()).isEqualTo(2);
+        Profile profile = threadProfile.toProto();
+        assertThat(profile.getNodeCount()).isEqualTo(2);
+        Profile.ProfileNode rootNode = profile.getNode(0);
+        assertThat(rootNode.getDepth()).isEqualTo(0);
+        assertThat(profile.getMethodName(rootNode.getMethodNameIndex())).isEqualTo("outer");
+        assertThat(rootNode.getLeafThreadState()).isEqualTo(Profile.LeafThreadState.NONE);
+        assertThat(rootNode.getSampleCount()).isEqualTo(2);
+        Profile.ProfileNode leafNode = profile.getNode(1);
+        assertThat(leafNode.getDepth()).isEqualTo(1);
+        assertThat(profile.getMethodName(leafNode.getMethodNameIndex())).isEqualTo("inner");
+        assertThat(leafNode.getLineNumber()).isEqualTo(20);
+        assertThat(leafNode.getLeafThreadState()).isEqualTo(Profile.LeafThreadState.WAITING);
+        assertThat(leafNode.getSampleCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldNotAddStackTraceOverLimit() {
+        // given
+        ThreadProfile threadProfile = new ThreadProfile(1);
+        StackTraceElement[] stackTrace = new StackTraceElement[] {
+                new StackTraceElement("org.example.Some", "outer", "Some.java", 10)};
+
+        // when
+        threadProfile.addStackTrace(stackTrace, Thread.State.RUNNABLE);
+        threadProfile.addStackTrace(stackTrace, Thread.State.RUNNABLE);
+
+        // then
+        assertThat(threadProfile.getSampleCount()).isEqualTo(1);
+        assertThat(threadProfile.isSampleLimitExceeded()).isTrue();
+        assertThat(threadProfile.toProto().getNode(0).getSampleCount()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.util;
+
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+public class VirtualThreadsTest {
+
+    @Test
+    public void shouldNotBeVirtual() {
+        // this is always the case prior to Java 21
+        assertThat(VirtualThreads.isVirtual(Thread.currentThread())).isFalse();
+        assertThat(VirtualThreads.isVirtual(new Thread())).isFalse();
+    }
+
+    @Test
+    public void shouldBeVirtual() throws Exception {
+        Method ofVirtualMethod;
+        try {
+            ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+        } catch (NoSuchMethodException e) {
+            // prior to Java 21
+            ofVirtualMethod = null;
+        }
+        assumeTrue(ofVirtualMethod != null);
+        Object builder = ofVirtualMethod.invoke(null);
+        Thread thread = (Thread) Class.forName("java.lang.Thread$Builder")
+                .getMethod("unstarted", Runnable.class).invoke(builder, new Runnable() {
+                    @Override
+                    public void run() {}
+                });
+        assertThat(VirtualThreads.isVirtual(thread)).isTrue();
+    }
+}
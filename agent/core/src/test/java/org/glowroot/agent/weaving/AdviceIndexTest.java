@@ -0,0 +1,155 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+import org.objectweb.asm.Type;
+
+import org.glowroot.agent.plugin.api.weaving.Pointcut;
+import org.glowroot.agent.util.MaybePatterns;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdviceIndexTest {
+
+    private final Advice exactAdvice = createAdvice(Exact.class);
+    private final Advice wildcardAdvice = createAdvice(Wildcard.class);
+    private final Advice alternationAdvice = createAdvice(Alternation.class);
+    private final Advice regexAdvice = createAdvice(Regex.class);
+    private final Advice classAnnotationAdvice = createAdvice(ClassAnnotation.class);
+    private final Advice superTypeRestrictionAdvice = createAdvice(SuperTypeRestriction.class);
+    private final Advice leadingWildcardAdvice = createAdvice(LeadingWildcard.class);
+
+    private final List<Advice> advisors = ImmutableList.of(exactAdvice, wildcardAdvice,
+            alternationAdvice, regexAdvice, classAnnotationAdvice, superTypeRestrictionAdvice,
+            leadingWildcardAdvice);
+
+    private final AdviceIndex adviceIndex = new AdviceIndex(advisors);
+
+    @Test
+    public void shouldMatchExactClassName() {
+        assertThat(getCandidates("org.example.Exact")).containsExactly(exactAdvice, regexAdvice,
+                leadingWildcardAdvice);
+    }
+
+    @Test
+    public void shouldMatchWildcardPrefix() {
+        assertThat(getCandidates("org.example.wild.Foo")).containsExactly(wildcardAdvice,
+                regexAdvice, leadingWildcardAdvice);
+        assertThat(getCandidates("org.example.wil")).containsExactly(regexAdvice,
+                leadingWildcardAdvice);
+    }
+
+    @Test
+    public void shouldMatchAlternation() {
+        assertThat(getCandidates("org.example.One")).containsExactly(alternationAdvice,
+                regexAdvice, leadingWildcardAdvice);
+        assertThat(getCandidates("org.example.two.Three")).containsExactly(alternationAdvice,
+                regexAdvice, leadingWildcardAdvice);
+    }
+
+    @Test
+    public void shouldMatchClassAnnotation() {
+        assertThat(adviceIndex.getCandidates("org.example.Other",
+                ImmutableList.of("Lorg/example/Annotation;"), ImmutableSet.<String>of()))
+                        .containsExactly(regexAdvice, classAnnotationAdvice,
+                                leadingWildcardAdvice);
+    }
+
+    @Test
+    public void shouldMatchSuperTypeRestriction() {
+        assertThat(adviceIndex.getCandidates("org.example.Other", ImmutableList.<String>of(),
+                ImmutableSet.of("org.example.Other", "org.example.Super")))
+                        .containsExactly(regexAdvice, superTypeRestrictionAdvice,
+                                leadingWildcardAdvice);
+    }
+
+    @Test
+    public void shouldAlwaysIncludeUnindexableAdvisors() {
+        assertThat(getCandidates("com.other.Other")).containsExactly(regexAdvice,
+                leadingWildcardAdvice);
+    }
+
+    @Test
+    public void shouldReturnAllMatchingAdvisors() {
+        List<String> classNames = ImmutableList.of("org.example.Exact", "org.example.wild.Foo",
+                "org.example.One", "org.example.two.Three", "org.example.Other",
+                "com.other.Other", "com.other.Exact");
+        for (String className : classNames) {
+            List<String> classAnnotations = ImmutableList.of("Lorg/example/Annotation;");
+            ImmutableSet<String> superClassNames = ImmutableSet.of(className, "org.example.Super");
+            List<AdviceMatcher> expected = AdviceMatcher.getAdviceMatchers(className,
+                    classAnnotations, superClassNames, advisors);
+            List<AdviceMatcher> actual = AdviceMatcher.getAdviceMatchers(className,
+                    classAnnotations, superClassNames,
+                    adviceIndex.getCandidates(className, classAnnotations, superClassNames));
+            assertThat(actual).isEqualTo(expected);
+        }
+    }
+
+    private List<Advice> getCandidates(String className) {
+        return adviceIndex.getCandidates(className, ImmutableList.<String>of(),
+                ImmutableSet.of(className));
+    }
+
+    private static Advice createAdvice(Class<?> clazz) {
+        Pointcut pointcut = clazz.getAnnotation(Pointcut.class);
+        return ImmutableAdvice.builder()
+                .pointcut(pointcut)
+                .adviceType(Type.getType(clazz))
+                .pointcutClassNamePattern(MaybePatterns.buildPattern(pointcut.className()))
+                .pointcutClassAnnotationPattern(
+                        MaybePatterns.buildPattern(pointcut.classAnnotation()))
+                .pointcutSuperTypeRestrictionPattern(
+                        MaybePatterns.buildPattern(pointcut.superTypeRestriction()))
+                .reweavable(false)
+                .hasBindThreadContext(false)
+                .hasBindOptionalThreadContext(false)
+                .build();
+    }
+
+    @Pointcut(className = "org.example.Exact", methodName = "*", methodParameterTypes = {".."},
+            timerName = "a")
+    private static class Exact {}
+
+    @Pointcut(className = "org.example.wild.*", methodName = "*", methodParameterTypes = {".."},
+            timerName = "a")
+    private static class Wildcard {}
+
+    @Pointcut(className = "org.example.One|org.example.two.*", methodName = "*",
+            methodParameterTypes = {".."}, timerName = "a")
+    private static class Alternation {}
+
+    @Pointcut(className = "/org\\.example\\..*/", methodName = "*",
+            methodParameterTypes = {".."}, timerName = "a")
+    private static class Regex {}
+
+    @Pointcut(classAnnotation = "org.example.Annotation", methodName = "*",
+            methodParameterTypes = {".."}, timerName = "a")
+    private static class ClassAnnotation {}
+
+    @Pointcut(superTypeRestriction = "org.example.Super", methodName = "*",
+            methodParameterTypes = {".."}, timerName = "a")
+    private static class SuperTypeRestriction {}
+
+    @Pointcut(className = "*Exact", methodName = "*", methodParameterTypes = {".."},
+            timerName = "a")
+    private static class LeadingWildcard {}
+}
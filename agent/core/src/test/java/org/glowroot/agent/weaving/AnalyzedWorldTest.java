@@ -0,0 +1,193 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.Executor;
+
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.glowroot.agent.weaving.AnalyzedWorld.ParseContext;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AnalyzedWorldTest {
+
+    private RecordingExecutor executor;
+    private AnalyzedWorld analyzedWorld;
+    private ClassLoader loader;
+
+    @Before
+    public void beforeEachTest() {
+        executor = new RecordingExecutor();
+        analyzedWorld = new AnalyzedWorld(Suppliers.ofInstance(ImmutableList.<Advice>of()),
+                ImmutableList.<ShimType>of(), ImmutableList.<MixinType>of(), null, executor);
+        // using a separate loader so that the types are not already loaded in it
+        loader = new ClassLoader(AnalyzedWorldTest.class.getClassLoader()) {};
+    }
+
+    @Test
+    public void shouldPrefetchAllButFirstSuperType() {
+        // when
+        analyzedWorld.prefetchSuperTypes(ImmutableList.of(SomeClass.class.getName(),
+                SomeInterface.class.getName(), SomeOtherInterface.class.getName()), loader);
+
+        // then
+        assertThat(executor.runnables).hasSize(2);
+    }
+
+    @Test
+    public void shouldNotPrefetchSameSuperTypeTwice() {
+        // when
+        analyzedWorld.prefetchSuperTypes(
+                ImmutableList.of(SomeClass.class.getName(), SomeInterface.class.getName()), loader);
+        analyzedWorld.prefetchSuperTypes(
+                ImmutableList.of(SomeClass.class.getName(), SomeInterface.class.getName()), loader);
+
+        // then
+        assertThat(executor.runnables).hasSize(1);
+    }
+
+    @Test
+    public void shouldUsePrefetchedSuperTypes() {
+        // given
+        analyzedWorld.prefetchSuperTypes(ImmutableList.of(SomeClass.class.getName(),
+                SomeInterface.class.getName(), SomeOtherInterface.class.getName()), loader);
+        executor.runAll();
+
+        // when
+        List<AnalyzedClass> hierarchy = getHierarchy(SomeClass.class);
+
+        // then
+        assertThat(getNames(hierarchy)).containsExactly(SomeClass.class.getName(),
+                SomeInterface.class.getName(), Serializable.class.getName(),
+                SomeOtherInterface.class.getName(), RandomAccess.class.getName());
+    }
+
+    @Test
+    public void shouldNotWaitOnPrefetchThatHasNotStarted() {
+        // given
+        analyzedWorld.prefetchSuperTypes(ImmutableList.of(SomeClass.class.getName(),
+                SomeInterface.class.getName(), SomeOtherInterface.class.getName()), loader);
+
+        // when
+        List<AnalyzedClass> hierarchy = getHierarchy(SomeClass.class);
+        // running these after the fact is a no-op
+        executor.runAll();
+
+        // then
+        assertThat(getNames(hierarchy)).containsExactly(SomeClass.class.getName(),
+                SomeInterface.class.getName(), Serializable.class.getName(),
+                SomeOtherInterface.class.getName(), RandomAccess.class.getName());
+    }
+
+    @Test
+    public void shouldPrefetchSuperTypesWhileResolvingHierarchy() {
+        // when
+        getHierarchy(SomeClass.class);
+
+        // then
+        // SomeClass has super types SomeInterface and SomeOtherInterface, and the first of those
+        // is resolved by the calling thread
+        assertThat(executor.runnables).hasSize(1);
+    }
+
+    @Test
+    public void shouldNotPrefetchSuperTypeAlreadyLoadedThroughChildLoader() throws Exception {
+        // given
+        ClassLoader childLoader = new ClassLoader(loader) {};
+        // SomeOtherInterface is defined by the parent loader (of the child/parent loader pair),
+        // but the child loader is recorded as an initiating loader
+        Class.forName(SomeOtherInterface.class.getName(), false, childLoader);
+
+        // when
+        analyzedWorld.prefetchSuperTypes(ImmutableList.of(SomeInterface.class.getName(),
+                SomeOtherInterface.class.getName()), childLoader);
+        List<AnalyzedClass> hierarchy = analyzedWorld.getAnalyzedHierarchy(
+                SomeClass.class.getName(), childLoader, "dummy",
+                ImmutableParseContext.of("dummy", null));
+
+        // then
+        assertThat(executor.runnables).isEmpty();
+        assertThat(analyzedWorld.getPrefetchedClassFileCount()).isZero();
+        assertThat(getNames(hierarchy)).containsExactly(SomeClass.class.getName(),
+                SomeInterface.class.getName(), Serializable.class.getName(),
+                SomeOtherInterface.class.getName(), RandomAccess.class.getName());
+    }
+
+    @Test
+    public void shouldEvictUnusedPrefetchedClassFilesOnceLimitIsReached() {
+        // given
+        for (int i = 0; i < AnalyzedWorld.MAX_PREFETCHED_CLASS_FILES; i++) {
+            analyzedWorld.prefetchSuperTypes(
+                    ImmutableList.of(SomeClass.class.getName(), "org.example.Unused" + i), loader);
+        }
+        assertThat(analyzedWorld.getPrefetchedClassFileCount())
+                .isEqualTo(AnalyzedWorld.MAX_PREFETCHED_CLASS_FILES);
+
+        // when
+        analyzedWorld.prefetchSuperTypes(
+                ImmutableList.of(SomeClass.class.getName(), SomeInterface.class.getName()), loader);
+
+        // then
+        assertThat(analyzedWorld.getPrefetchedClassFileCount()).isEqualTo(1);
+        assertThat(executor.runnables).hasSize(AnalyzedWorld.MAX_PREFETCHED_CLASS_FILES + 1);
+    }
+
+    private List<AnalyzedClass> getHierarchy(Class<?> clazz) {
+        ParseContext parseContext = ImmutableParseContext.of("dummy", null);
+        return analyzedWorld.getAnalyzedHierarchy(clazz.getName(), loader, "dummy",
+                parseContext);
+    }
+
+    private static List<String> getNames(List<AnalyzedClass> analyzedClasses) {
+        List<String> names = Lists.newArrayList();
+        for (AnalyzedClass analyzedClass : analyzedClasses) {
+            names.add(analyzedClass.name());
+        }
+        return names;
+    }
+
+    private interface SomeInterface extends Serializable {}
+
+    private interface SomeOtherInterface extends RandomAccess {}
+
+    private static class SomeClass implements SomeInterface, SomeOtherInterface {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static class RecordingExecutor implements Executor {
+
+        private final List<Runnable> runnables = Lists.newArrayList();
+
+        @Override
+        public void execute(Runnable command) {
+            runnables.add(command);
+        }
+
+        private void runAll() {
+            for (Runnable runnable : runnables) {
+                runnable.run();
+            }
+        }
+    }
+}
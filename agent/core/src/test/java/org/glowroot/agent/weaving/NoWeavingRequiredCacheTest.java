@@ -0,0 +1,234 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.weaving;
+
+import java.io.File;
+import java.util.List;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+
+import org.glowroot.agent.weaving.ThinClassVisitor.ThinClass;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NoWeavingRequiredCacheTest {
+
+    private File file;
+    private List<Advice> advisors;
+    private AnalyzedWorld analyzedWorld;
+
+    @Before
+    public void beforeEachTest() throws Exception {
+        file = File.createTempFile("glowroot-unit-test-", "");
+        file.delete();
+        advisors = ImmutableList.of();
+        Supplier<List<Advice>> advisorsSupplier = Suppliers.ofInstance(advisors);
+        analyzedWorld = new AnalyzedWorld(advisorsSupplier, ImmutableList.<ShimType>of(),
+                ImmutableList.<MixinType>of(), null);
+    }
+
+    @After
+    public void afterEachTest() {
+        file.delete();
+    }
+
+    @Test
+    public void shouldReadBackKeysWrittenToFile() throws Exception {
+        // given
+        NoWeavingRequiredCache cache = newCache("1.0");
+        String key = getKey(cache, SomeClass.class);
+        cache.add(key, createAnalyzedClass(SomeClass.class));
+        cache.writeToFile();
+
+        // when
+        NoWeavingRequiredCache cache2 = newCache("1.0");
+
+        // then
+        assertThat(cache.contains(key)).isTrue();
+        assertThat(cache2.contains(key)).isTrue();
+        assertThat(cache2.contains(getKey(cache2, SomeOtherClass.class))).isFalse();
+    }
+
+    @Test
+    public void shouldAppendKeysToExistingFile() throws Exception {
+        // given
+        NoWeavingRequiredCache cache = newCache("1.0");
+        String key = getKey(cache, SomeClass.class);
+        cache.add(key, createAnalyzedClass(SomeClass.class));
+        cache.writeToFile();
+        NoWeavingRequiredCache cache2 = newCache("1.0");
+        String otherKey = getKey(cache2, SomeOtherClass.class);
+        cache2.add(otherKey, createAnalyzedClass(SomeOtherClass.class));
+        cache2.writeToFile();
+
+        // when
+        NoWeavingRequiredCache cache3 = newCache("1.0");
+
+        // then
+        assertThat(cache3.contains(key)).isTrue();
+        assertThat(cache3.contains(otherKey)).isTrue();
+    }
+
+    @Test
+    public void shouldIgnoreFileFromDifferentAgentVersion() throws Exception {
+        // given
+        NoWeavingRequiredCache cache = newCache("1.0");
+        String key = getKey(cache, SomeClass.class);
+        cache.add(key, createAnalyzedClass(SomeClass.class));
+        cache.writeToFile();
+
+        // when
+        NoWeavingRequiredCache cache2 = newCache("2.0");
+
+        // then
+        assertThat(cache2.contains(key)).isFalse();
+    }
+
+    @Test
+    public void shouldNotCreateKeyForUpdatedAdvisors() throws Exception {
+        // given
+        NoWeavingRequiredCache cache = newCache("1.0");
+        ThinClass thinClass = getThinClass(SomeClass.class);
+
+        // when
+        String key = cache.getKey(thinClass, getBytes(SomeClass.class),
+                Lists.<Advice>newArrayList(), null, analyzedWorld, null);
+
+        // then
+        assertThat(key).isNull();
+    }
+
+    @Test
+    public void shouldNotCreateKeyForInterface() throws Exception {
+        // given
+        NoWeavingRequiredCache cache = newCache("1.0");
+
+        // when
+        String key = getKey(cache, SomeInterface.class);
+
+        // then
+        assertThat(key).isNull();
+    }
+
+    @Test
+    public void shouldCreateDifferentKeyForDifferentHierarchy() throws Exception {
+        // given
+        NoWeavingRequiredCache cache = newCache("1.0");
+
+        // when
+        String key = getKey(cache, SomeClass.class);
+        String otherKey = getKey(cache, SomeOtherClass.class);
+
+        // then
+        assertThat(key).isNotNull();
+        assertThat(otherKey).isNotNull();
+        assertThat(key.substring(key.lastIndexOf(',')))
+                .isNotEqualTo(otherKey.substring(otherKey.lastIndexOf(',')));
+    }
+
+    @Test
+    public void shouldOnlyBeNonEmptyOnceKeysAreAddedOrRead() throws Exception {
+        // given
+        NoWeavingRequiredCache cache = newCache("1.0");
+        assertThat(cache.isEmpty()).isTrue();
+        cache.add(getKey(cache, SomeClass.class), createAnalyzedClass(SomeClass.class));
+        cache.writeToFile();
+
+        // when
+        NoWeavingRequiredCache cache2 = newCache("1.0");
+        NoWeavingRequiredCache cache3 = newCache("2.0");
+
+        // then
+        assertThat(cache.isEmpty()).isFalse();
+        assertThat(cache2.isEmpty()).isFalse();
+        assertThat(cache3.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void shouldNotAddOnceFull() throws Exception {
+        // given
+        NoWeavingRequiredCache cache = new NoWeavingRequiredCache(file, 1, advisors,
+                ImmutableList.<ShimType>of(), ImmutableList.<MixinType>of(), "1.0");
+        cache.add(getKey(cache, SomeClass.class), createAnalyzedClass(SomeClass.class));
+
+        // when
+        boolean shouldAdd = cache.shouldAdd(createAnalyzedClass(SomeOtherClass.class));
+
+        // then
+        assertThat(shouldAdd).isFalse();
+    }
+
+    @Test
+    public void shouldCreateSameAnalyzedClassAsClassAnalyzer() throws Exception {
+        // given
+        ThinClass thinClass = getThinClass(SomeOtherClass.class);
+
+        // when
+        AnalyzedClass analyzedClass = NoWeavingRequiredCache.createAnalyzedClass(thinClass);
+
+        // then
+        assertThat(analyzedClass).isEqualTo(createAnalyzedClass(SomeOtherClass.class));
+        assertThat(analyzedClass.publicFinalMethods()).hasSize(1);
+    }
+
+    private NoWeavingRequiredCache newCache(String agentVersion) {
+        return new NoWeavingRequiredCache(file, 100, advisors, ImmutableList.<ShimType>of(),
+                ImmutableList.<MixinType>of(), agentVersion);
+    }
+
+    private String getKey(NoWeavingRequiredCache cache, Class<?> clazz) throws Exception {
+        return cache.getKey(getThinClass(clazz), getBytes(clazz), advisors,
+                NoWeavingRequiredCacheTest.class.getClassLoader(), analyzedWorld, null);
+    }
+
+    private AnalyzedClass createAnalyzedClass(Class<?> clazz) throws Exception {
+        ClassAnalyzer classAnalyzer = new ClassAnalyzer(getThinClass(clazz), advisors,
+                ImmutableList.<ShimType>of(), ImmutableList.<MixinType>of(),
+                NoWeavingRequiredCacheTest.class.getClassLoader(), analyzedWorld, null,
+                getBytes(clazz), null, true);
+        classAnalyzer.analyzeMethods();
+        return classAnalyzer.getAnalyzedClass();
+    }
+
+    private static ThinClass getThinClass(Class<?> clazz) throws Exception {
+        ThinClassVisitor accv = new ThinClassVisitor();
+        new ClassReader(getBytes(clazz)).accept(accv,
+                ClassReader.SKIP_FRAMES + ClassReader.SKIP_CODE);
+        return accv.getThinClass();
+    }
+
+    private static byte[] getBytes(Class<?> clazz) throws Exception {
+        return Resources.toByteArray(Resources.getResource(
+                ClassNames.toInternalName(clazz.getName()) + ".class"));
+    }
+
+    private interface SomeInterface {}
+
+    private static class SomeClass {}
+
+    private static class SomeOtherClass implements SomeInterface {
+        @SuppressWarnings("unused")
+        public final void execute(String value) {}
+    }
+}
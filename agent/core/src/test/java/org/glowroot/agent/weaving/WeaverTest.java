@@ -1023,7 +1023,7 @@ public class WeaverTest {
         when(transactionRegistry.getCurrentThreadContextHolder())
                 .thenReturn(new ThreadContextThreadLocal().getHolder());
         Weaver weaver = new Weaver(advisorsSupplier, ImmutableList.<ShimType>of(),
-                ImmutableList.<MixinType>of(), analyzedWorld, transactionRegistry,
+                ImmutableList.<MixinType>of(), analyzedWorld, null, transactionRegistry,
                 Ticker.systemTicker(), new TimerNameCache(), mock(ConfigService.class));
         isolatedWeavingClassLoader.setWeaver(weaver);
         Misc test = isolatedWeavingClassLoader.newInstance(BasicMisc.class, Misc.class);
@@ -1847,7 +1847,7 @@ public class WeaverTest {
         TransactionRegistry transactionRegistry = mock(TransactionRegistry.class);
         when(transactionRegistry.getCurrentThreadContextHolder())
                 .thenReturn(new ThreadContextThreadLocal().getHolder());
-        Weaver weaver = new Weaver(advisorsSupplier, shimTypes, mixinTypes, analyzedWorld,
+        Weaver weaver = new Weaver(advisorsSupplier, shimTypes, mixinTypes, analyzedWorld, null,
                 transactionRegistry, Ticker.systemTicker(), new TimerNameCache(),
                 mock(ConfigService.class));
         isolatedWeavingClassLoader.setWeaver(weaver);
@@ -1887,7 +1887,7 @@ public class WeaverTest {
         TransactionRegistry transactionRegistry = mock(TransactionRegistry.class);
         when(transactionRegistry.getCurrentThreadContextHolder())
                 .thenReturn(new ThreadContextThreadLocal().getHolder());
-        Weaver weaver = new Weaver(advisorsSupplier, shimTypes, mixinTypes, analyzedWorld,
+        Weaver weaver = new Weaver(advisorsSupplier, shimTypes, mixinTypes, analyzedWorld, null,
                 transactionRegistry, Ticker.systemTicker(), new TimerNameCache(),
                 mock(ConfigService.class));
         isolatedWeavingClassLoader.setWeaver(weaver);
@@ -201,6 +201,47 @@ public interface ThreadContext {
      */
     void setTransactionSlowThreshold(long threshold, TimeUnit unit, int priority);
 
+    /**
+     * Returns {@code true} if the transaction would be stored as a trace if it completed now, i.e.
+     * it has exceeded its slow threshold, or it has an error, or it has already been partially
+     * stored.
+     * 
+     * This is useful for capturing expensive detail at the end of a transaction, only when that
+     * detail is going to be stored.
+     * 
+     * If there is no current transaction then this method returns {@code false}.
+     */
+    boolean shouldStoreTransactionTrace();
+
+    /**
+     * Joins the transaction to the distributed trace identified by a W3C trace context
+     * {@code traceparent} header value, e.g. from an incoming http request or message.
+     * 
+     * The caller's trace id and parent id are captured as transaction attributes
+     * ("W3C trace id" and "W3C parent id"), and are used when building
+     * {@link #getTransactionTraceparent()}.
+     * 
+     * Invalid values are ignored, as are calls made after {@link #getTransactionTraceparent()} has
+     * already been called for the transaction.
+     * 
+     * If there is no current transaction then this method does nothing.
+     */
+    void setTransactionTraceparent(@Nullable String traceparent);
+
+    /**
+     * Returns the W3C trace context {@code traceparent} header value to send with outgoing
+     * requests or messages from the transaction.
+     * 
+     * The value is built once per transaction, using the trace id from
+     * {@link #setTransactionTraceparent(String)} if there was one (otherwise a new trace id), and
+     * a new span id which identifies the transaction as the parent of the outgoing calls. The span
+     * id is captured as a transaction attribute ("W3C span id") so that the receiving side's
+     * "W3C parent id" can be matched back to this transaction.
+     * 
+     * If there is no current transaction then this method returns an empty string.
+     */
+    String getTransactionTraceparent();
+
     /**
      * Marks the transaction as an error with the given message. Normally transactions are only
      * marked as an error if {@code endWithError} is called on the root entry. This method can be
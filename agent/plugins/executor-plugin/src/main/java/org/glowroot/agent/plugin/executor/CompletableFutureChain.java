@@ -0,0 +1,40 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.executor;
+
+import org.glowroot.agent.plugin.api.AuxThreadContext;
+import org.glowroot.agent.plugin.api.ThreadContext;
+
+// auxiliary thread context shared by the stages of a CompletableFuture chain that are registered
+// from the same thread context
+public class CompletableFutureChain {
+
+    private final ThreadContext threadContext;
+    private final AuxThreadContext auxContext;
+
+    public CompletableFutureChain(ThreadContext threadContext, AuxThreadContext auxContext) {
+        this.threadContext = threadContext;
+        this.auxContext = auxContext;
+    }
+
+    public ThreadContext getThreadContext() {
+        return threadContext;
+    }
+
+    public AuxThreadContext getAuxContext() {
+        return auxContext;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.executor;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.glowroot.agent.plugin.api.AuxThreadContext;
+import org.glowroot.agent.plugin.api.TraceEntry;
+import org.glowroot.agent.plugin.api.checker.Nullable;
+
+// per thread state of CompletableFuture.postComplete(), which runs the stages that depend on a
+// future on the thread that completes it, one after another, so that the stages of a chain share
+// a single auxiliary thread context for the run instead of starting one per stage
+//
+// this is only accessed by the owning thread
+public class CompletionRun {
+
+    // number of runs (across all threads) that currently have a trace entry, so that completions
+    // without an auxiliary thread context can skip the thread local lookup when this is zero
+    private static final AtomicInteger traceEntryCount = new AtomicInteger();
+
+    private boolean active;
+
+    // true while a stage is being run at the top level of postComplete(), as opposed to a stage
+    // that is run (nested) from inside of another stage
+    private boolean firing;
+
+    private @Nullable AuxThreadContext auxContext;
+    private @Nullable TraceEntry traceEntry;
+
+    public static boolean isAnyTraceEntryActive() {
+        return traceEntryCount.get() > 0;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public boolean isFiring() {
+        return firing;
+    }
+
+    public boolean hasTraceEntry() {
+        return traceEntry != null;
+    }
+
+    public void begin() {
+        active = true;
+    }
+
+    public void fire(@Nullable AuxThreadContext auxContext) {
+        firing = true;
+        if (auxContext == this.auxContext) {
+            // same chain as the prior stage
+            return;
+        }
+        // different chain (or no chain), so the prior stage's auxiliary thread context must not
+        // be used since it may belong to a different transaction
+        endTraceEntry();
+        if (auxContext != null) {
+            traceEntry = auxContext.start();
+            this.auxContext = auxContext;
+            traceEntryCount.incrementAndGet();
+        }
+    }
+
+    public void fired() {
+        firing = false;
+    }
+
+    public void firedWithError(Throwable t) {
+        firing = false;
+        if (traceEntry != null) {
+            traceEntry.endWithError(t);
+            traceEntry = null;
+            auxContext = null;
+            traceEntryCount.decrementAndGet();
+        }
+    }
+
+    public void end() {
+        active = false;
+        firing = false;
+        endTraceEntry();
+    }
+
+    private void endTraceEntry() {
+        if (traceEntry != null) {
+            traceEntry.end();
+            traceEntry = null;
+            traceEntryCount.decrementAndGet();
+        }
+        auxContext = null;
+    }
+}
@@ -30,12 +30,16 @@ import org.glowroot.agent.plugin.api.Timer;
 import org.glowroot.agent.plugin.api.TimerName;
 import org.glowroot.agent.plugin.api.TraceEntry;
 import org.glowroot.agent.plugin.api.checker.Nullable;
+import org.glowroot.agent.plugin.api.util.FastThreadLocal;
 import org.glowroot.agent.plugin.api.weaving.BindClassMeta;
+import org.glowroot.agent.plugin.api.weaving.BindMethodName;
 import org.glowroot.agent.plugin.api.weaving.BindParameter;
 import org.glowroot.agent.plugin.api.weaving.BindReceiver;
+import org.glowroot.agent.plugin.api.weaving.BindReturn;
 import org.glowroot.agent.plugin.api.weaving.BindThrowable;
 import org.glowroot.agent.plugin.api.weaving.BindTraveler;
 import org.glowroot.agent.plugin.api.weaving.IsEnabled;
+import org.glowroot.agent.plugin.api.weaving.MethodModifier;
 import org.glowroot.agent.plugin.api.weaving.Mixin;
 import org.glowroot.agent.plugin.api.weaving.OnAfter;
 import org.glowroot.agent.plugin.api.weaving.OnBefore;
@@ -54,6 +58,17 @@ public class ExecutorAspect {
 
     private static final AtomicBoolean isDoneExceptionLogged = new AtomicBoolean();
 
+    private static final FastThreadLocal<CompletionRun> completionRun =
+            new FastThreadLocal<CompletionRun>() {
+                @Override
+                protected CompletionRun initialValue() {
+                    return new CompletionRun();
+                }
+            };
+
+    private static final FastThreadLocal</*@Nullable*/ TwoInputStage> twoInputStage =
+            new FastThreadLocal</*@Nullable*/ TwoInputStage>();
+
     // the field and method names are verbose since they will be mixed in to existing classes
     @Mixin({"java.lang.Runnable", "java.util.concurrent.Callable",
             "java.util.concurrent.ForkJoinTask", "akka.jsr166y.ForkJoinTask",
@@ -76,9 +91,58 @@ public class ExecutorAspect {
     // TODO suppress various known thread pool threads (e.g. TimerThread)
     @Mixin({"org.apache.tomcat.util.net.JIoEndpoint$SocketProcessor",
             "org.apache.http.impl.nio.client.CloseableHttpAsyncClientBase$1",
-            "java.util.TimerThread"})
+            "java.util.TimerThread", "java.util.concurrent.CompletableFuture$Signaller"})
     public static class SuppressedRunnableImpl implements SuppressedRunnableMixin {}
 
+    // the field and method names are verbose since they will be mixed in to existing classes
+    @Mixin("java.util.concurrent.CompletableFuture")
+    public static class CompletableFutureImpl implements CompletableFutureMixin {
+
+        private transient volatile @Nullable CompletableFutureChain glowroot$chain;
+
+        @Override
+        public @Nullable CompletableFutureChain glowroot$getChain() {
+            return glowroot$chain;
+        }
+
+        @Override
+        public void glowroot$setChain(@Nullable CompletableFutureChain chain) {
+            glowroot$chain = chain;
+        }
+    }
+
+    // the field and method names are verbose since they will be mixed in to existing classes
+    @Mixin("java.util.concurrent.CompletableFuture$Completion")
+    public static class CompletionImpl implements CompletionMixin {
+
+        private transient volatile @Nullable Future<?> glowroot$source;
+        private transient volatile @Nullable Future<?> glowroot$otherSource;
+        private transient volatile boolean glowroot$either;
+
+        @Override
+        public @Nullable Future<?> glowroot$getSource() {
+            return glowroot$source;
+        }
+
+        @Override
+        public @Nullable Future<?> glowroot$getOtherSource() {
+            return glowroot$otherSource;
+        }
+
+        @Override
+        public boolean glowroot$isEither() {
+            return glowroot$either;
+        }
+
+        @Override
+        public void glowroot$setSources(Future<?> source, @Nullable Future<?> otherSource,
+                boolean either) {
+            glowroot$source = source;
+            glowroot$otherSource = otherSource;
+            glowroot$either = either;
+        }
+    }
+
     // the method names are verbose since they will be mixed in to existing classes
     public interface RunnableEtcMixin {
 
@@ -90,6 +154,31 @@ public class ExecutorAspect {
 
     public interface SuppressedRunnableMixin {}
 
+    // the method names are verbose since they will be mixed in to existing classes
+    public interface CompletableFutureMixin {
+
+        @Nullable
+        CompletableFutureChain glowroot$getChain();
+
+        void glowroot$setChain(@Nullable CompletableFutureChain chain);
+    }
+
+    // the method names are verbose since they will be mixed in to existing classes
+    public interface CompletionMixin {
+
+        // only set for stages with two sources (thenCombine(), applyToEither(), etc)
+        @Nullable
+        Future<?> glowroot$getSource();
+
+        @Nullable
+        Future<?> glowroot$getOtherSource();
+
+        boolean glowroot$isEither();
+
+        void glowroot$setSources(Future<?> source, @Nullable Future<?> otherSource,
+                boolean either);
+    }
+
     @Pointcut(className = EXECUTOR_CLASSES, methodName = "execute|submit|submitListenable",
             methodParameterTypes = {"java.lang.Runnable", ".."}, nestingGroup = "executor-execute")
     public static class ExecuteRunnableAdvice {
@@ -240,6 +329,146 @@ public class ExecutorAspect {
         }
     }
 
+    // the stages of a CompletableFuture chain share a single auxiliary thread context (per
+    // registering thread context), instead of creating one per stage
+    @Pointcut(className = "java.util.concurrent.CompletableFuture", methodName = "tryPushStack",
+            methodParameterTypes = {"java.util.concurrent.CompletableFuture$Completion"})
+    public static class CompletableFuturePushAdvice {
+        @IsEnabled
+        public static boolean isEnabled(@BindReceiver Object future,
+                @BindParameter @Nullable Object completion) {
+            // these classes may have been loaded before class file transformer was added to jvm
+            return future instanceof CompletableFutureMixin
+                    && completion instanceof RunnableEtcMixin
+                    && !(completion instanceof SuppressedRunnableMixin);
+        }
+        @OnBefore
+        public static void onBefore(ThreadContext context, @BindReceiver Object future,
+                @BindParameter Object completion) {
+            CompletableFutureMixin futureMixin = (CompletableFutureMixin) future;
+            TwoInputStage stage = twoInputStage.get();
+            if (isRelay(completion, stage)) {
+                // relays (used by allOf() and anyOf()) only complete their dependent future, whose
+                // own stages are then run (and captured) on the same thread, inside of this
+                // future's postComplete(), which is only bounded if this future has a chain
+                getChainAuxContext(context, futureMixin);
+                return;
+            }
+            RunnableEtcMixin completionMixin = (RunnableEtcMixin) completion;
+            // tryPushStack() is retried under contention, in which case this is already set
+            if (completionMixin.glowroot$getAuxContext() == null) {
+                // a stage with two sources uses the chain of the future that it was registered on
+                // (which is also the chain of the dependent future), no matter which source it is
+                // pushed onto
+                Object chainFuture = stage == null ? future : stage.getSource();
+                completionMixin.glowroot$setAuxContext(
+                        getChainAuxContext(context, (CompletableFutureMixin) chainFuture));
+            }
+            if (stage != null) {
+                if (futureMixin.glowroot$getChain() == null) {
+                    // the stage can also be run inside of the other source's postComplete()
+                    futureMixin.glowroot$setChain(
+                            ((CompletableFutureMixin) stage.getSource()).glowroot$getChain());
+                }
+                if (completion instanceof CompletionMixin) {
+                    ((CompletionMixin) completion).glowroot$setSources(stage.getSource(),
+                            stage.getOther(), stage.isEither());
+                }
+            }
+        }
+    }
+
+    // a stage with two sources is pushed onto both of them, so its tryFire() is also called on
+    // completion of the source that does not run it, which is recorded here so that no auxiliary
+    // thread context is started in that case (see isReadyToFire())
+    @Pointcut(className = "java.util.concurrent.CompletableFuture",
+            methodName = "thenCombine*|thenAcceptBoth*|runAfterBoth*|applyToEither*"
+                    + "|acceptEither*|runAfterEither*",
+            methodParameterTypes = {"java.util.concurrent.CompletionStage", ".."},
+            methodReturnType = "java.util.concurrent.CompletableFuture",
+            methodModifiers = MethodModifier.PUBLIC)
+    public static class CompletableFutureTwoInputStageAdvice {
+        @IsEnabled
+        public static boolean isEnabled(@BindReceiver Object future) {
+            // this class may have been loaded before class file transformer was added to jvm
+            return future instanceof CompletableFutureMixin;
+        }
+        @OnBefore
+        public static @Nullable TwoInputStage onBefore(ThreadContext context,
+                @BindReceiver Object future, @BindParameter @Nullable Object other,
+                @BindMethodName String methodName) {
+            FastThreadLocal.Holder</*@Nullable*/ TwoInputStage> holder =
+                    twoInputStage.getHolder();
+            TwoInputStage priorStage = holder.get();
+            holder.set(new TwoInputStage((Future<?>) future,
+                    other instanceof Future ? (Future<?>) other : null,
+                    methodName.contains("Either")));
+            return priorStage;
+        }
+        @OnAfter
+        public static void onAfter(@BindTraveler @Nullable TwoInputStage priorStage) {
+            twoInputStage.set(priorStage);
+        }
+    }
+
+    // postComplete() runs the stages that depend on the future on the thread that completes it,
+    // so this bounds the auxiliary thread context that is shared by the stages of a chain during
+    // that run (see CompletionTryFireAdvice)
+    @Pointcut(className = "java.util.concurrent.CompletableFuture", methodName = "postComplete",
+            methodParameterTypes = {})
+    public static class CompletableFuturePostCompleteAdvice {
+        @IsEnabled
+        public static boolean isEnabled(@BindReceiver Object future) {
+            // only futures that have stages registered from a transaction have a chain, so this
+            // avoids the thread local lookup when completing all other futures
+            //
+            // (this class may have been loaded before class file transformer was added to jvm)
+            return future instanceof CompletableFutureMixin
+                    && ((CompletableFutureMixin) future).glowroot$getChain() != null;
+        }
+        @OnBefore
+        public static @Nullable CompletionRun onBefore() {
+            CompletionRun run = completionRun.get();
+            if (run.isActive()) {
+                // nested postComplete(), e.g. a stage that completes another future
+                return null;
+            }
+            run.begin();
+            return run;
+        }
+        @OnAfter
+        public static void onAfter(@BindTraveler @Nullable CompletionRun run) {
+            if (run != null) {
+                run.end();
+            }
+        }
+    }
+
+    @Pointcut(className = "java.util.concurrent.CompletableFuture",
+            methodName = "then*|handle*|whenComplete*|exceptionally*|applyToEither*"
+                    + "|acceptEither*|runAfter*",
+            methodParameterTypes = {".."},
+            methodReturnType = "java.util.concurrent.CompletableFuture",
+            methodModifiers = MethodModifier.PUBLIC)
+    public static class CompletableFutureStageAdvice {
+        @IsEnabled
+        public static boolean isEnabled(@BindReceiver Object future) {
+            // this class may have been loaded before class file transformer was added to jvm
+            return future instanceof CompletableFutureMixin;
+        }
+        @OnReturn
+        public static void onReturn(@BindReturn @Nullable Object dependent,
+                @BindReceiver Object future) {
+            CompletableFutureChain chain = ((CompletableFutureMixin) future).glowroot$getChain();
+            if (chain != null && dependent instanceof CompletableFutureMixin) {
+                CompletableFutureMixin dependentMixin = (CompletableFutureMixin) dependent;
+                if (dependentMixin.glowroot$getChain() == null) {
+                    dependentMixin.glowroot$setChain(chain);
+                }
+            }
+        }
+    }
+
     @Pointcut(
             className = "java.util.concurrent.ExecutorService|java.util.concurrent.ForkJoinPool"
                     + "|akka.jsr166y.ForkJoinPool|scala.concurrent.forkjoin.ForkJoinPool",
@@ -373,6 +602,28 @@ public class ExecutorAspect {
         }
     }
 
+    // CompletableFuture.join() is not part of the Future interface
+    @Pointcut(className = "java.util.concurrent.CompletableFuture", methodName = "join",
+            methodParameterTypes = {}, timerName = "wait on future",
+            suppressibleUsingKey = "wait-on-future")
+    public static class CompletableFutureJoinAdvice {
+        private static final TimerName timerName =
+                Agent.getTimerName(CompletableFutureJoinAdvice.class);
+        @IsEnabled
+        public static boolean isEnabled(@BindReceiver Future<?> future) {
+            // don't capture if already done, same as FutureGetAdvice
+            return !future.isDone();
+        }
+        @OnBefore
+        public static Timer onBefore(ThreadContext context) {
+            return context.startTimer(timerName);
+        }
+        @OnAfter
+        public static void onAfter(@BindTraveler Timer timer) {
+            timer.stop();
+        }
+    }
+
     // the nesting group only starts applying once auxiliary thread context is started (it does not
     // apply to OptionalThreadContext that miss)
     @Pointcut(className = "java.lang.Runnable", methodName = "run", methodParameterTypes = {},
@@ -413,6 +664,71 @@ public class ExecutorAspect {
         }
     }
 
+    // this captures stages that run on the thread that completes the source future (which may not
+    // be part of any transaction), async stages are captured by RunnableAdvice and ExecAdvice
+    //
+    // stages that are run by postComplete() share a single auxiliary thread context per chain for
+    // the duration of the run (see CompletionRun), instead of starting one per stage
+    //
+    // the nesting group only starts applying once auxiliary thread context is started (it does not
+    // apply to OptionalThreadContext that miss)
+    @Pointcut(className = "java.util.concurrent.CompletableFuture$Completion",
+            methodName = "tryFire", methodParameterTypes = {"int"},
+            nestingGroup = "executor-run")
+    public static class CompletionTryFireAdvice {
+        @IsEnabled
+        public static boolean isEnabled(@BindReceiver Object completion) {
+            if (!(completion instanceof RunnableEtcMixin)) {
+                // this class was loaded before class file transformer was added to jvm
+                return false;
+            }
+            RunnableEtcMixin completionMixin = (RunnableEtcMixin) completion;
+            if (completionMixin.glowroot$getAuxContext() != null) {
+                return true;
+            }
+            // stages without an auxiliary thread context still need to end the current run's
+            // auxiliary thread context, since it may belong to an unrelated transaction, but the
+            // thread local lookup is only needed if there is such a run on some thread
+            return CompletionRun.isAnyTraceEntryActive() && completionRun.get().hasTraceEntry();
+        }
+        @OnBefore
+        public static @Nullable Object onBefore(@BindReceiver Object completion) {
+            RunnableEtcMixin completionMixin = (RunnableEtcMixin) completion;
+            AuxThreadContext auxContext = completionMixin.glowroot$getAuxContext();
+            if (auxContext != null && !isReadyToFire(completion)) {
+                // not clearing the auxiliary thread context here since tryFire() will be called
+                // again once the stage is ready to run
+                return null;
+            }
+            CompletionRun run = completionRun.get();
+            if (run.isActive() && !run.isFiring()) {
+                run.fire(auxContext);
+                return run;
+            }
+            if (auxContext == null) {
+                return null;
+            }
+            return auxContext.start();
+        }
+        @OnReturn
+        public static void onReturn(@BindTraveler @Nullable Object traveler) {
+            if (traveler instanceof CompletionRun) {
+                ((CompletionRun) traveler).fired();
+            } else if (traveler != null) {
+                ((TraceEntry) traveler).end();
+            }
+        }
+        @OnThrow
+        public static void onThrow(@BindThrowable Throwable t,
+                @BindTraveler @Nullable Object traveler) {
+            if (traveler instanceof CompletionRun) {
+                ((CompletionRun) traveler).firedWithError(t);
+            } else if (traveler != null) {
+                ((TraceEntry) traveler).endWithError(t);
+            }
+        }
+    }
+
     // the nesting group only starts applying once auxiliary thread context is started (it does not
     // apply to OptionalThreadContext that miss)
     @Pointcut(className = "java.util.concurrent.Callable", methodName = "call",
@@ -510,6 +826,10 @@ public class ExecutorAspect {
         Runnable runnable = runnableHolder.get();
         if (runnable instanceof SuppressedRunnableMixin) {
             return;
+        } else if (runnable instanceof CompletionMixin
+                && ((RunnableEtcMixin) runnable).glowroot$getAuxContext() != null) {
+            // async CompletableFuture stage that already has its chain's auxiliary thread context
+            return;
         } else if (runnable instanceof RunnableEtcMixin) {
             onBeforeCommon(context, (RunnableEtcMixin) runnable);
         } else if (runnable != null && runnable.getClass().getName().contains("$$Lambda$")) {
@@ -554,6 +874,47 @@ public class ExecutorAspect {
         runnableMixin.glowroot$setAuxContext(auxContext);
     }
 
+    private static AuxThreadContext getChainAuxContext(ThreadContext context,
+            CompletableFutureMixin futureMixin) {
+        CompletableFutureChain chain = futureMixin.glowroot$getChain();
+        if (chain == null || chain.getThreadContext() != context) {
+            // the future can also be shared across transactions (e.g. cached), so only stages
+            // registered from the same thread context share the chain's auxiliary thread context
+            chain = new CompletableFutureChain(context, context.createAuxThreadContext());
+            futureMixin.glowroot$setChain(chain);
+        }
+        return chain.getAuxContext();
+    }
+
+    private static boolean isRelay(Object completion, @Nullable TwoInputStage stage) {
+        String className = completion.getClass().getName();
+        if (className.endsWith("$CoCompletion")) {
+            // CoCompletion is pushed onto the second source of a stage with two sources, which is
+            // either a stage that is being registered by thenCombine(), applyToEither(), etc, or
+            // otherwise a relay
+            return stage == null;
+        }
+        return className.endsWith("$BiRelay") || className.endsWith("$OrRelay")
+                || className.endsWith("$AnyOf");
+    }
+
+    // tryFire() returns without running a stage with two sources when called before both sources
+    // have completed (thenCombine(), etc) or after both sources have completed, since then the
+    // first one to complete has already run it (applyToEither(), etc)
+    private static boolean isReadyToFire(Object completion) {
+        if (!(completion instanceof CompletionMixin)) {
+            return true;
+        }
+        CompletionMixin completionMixin = (CompletionMixin) completion;
+        Future<?> source = completionMixin.glowroot$getSource();
+        Future<?> otherSource = completionMixin.glowroot$getOtherSource();
+        if (source == null || otherSource == null) {
+            return true;
+        }
+        boolean bothDone = source.isDone() && otherSource.isDone();
+        return bothDone != completionMixin.glowroot$isEither();
+    }
+
     private static void wrapRunnable(ParameterHolder<Runnable> runnableHolder,
             ThreadContext context) {
         Runnable runnable = runnableHolder.get();
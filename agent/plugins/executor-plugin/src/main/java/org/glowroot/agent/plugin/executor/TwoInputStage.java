@@ -0,0 +1,46 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.executor;
+
+import java.util.concurrent.Future;
+
+import org.glowroot.agent.plugin.api.checker.Nullable;
+
+// the two sources of a stage that is being registered by thenCombine(), applyToEither(), etc
+public class TwoInputStage {
+
+    private final Future<?> source;
+    private final @Nullable Future<?> other;
+    private final boolean either;
+
+    public TwoInputStage(Future<?> source, @Nullable Future<?> other, boolean either) {
+        this.source = source;
+        this.other = other;
+        this.either = either;
+    }
+
+    public Future<?> getSource() {
+        return source;
+    }
+
+    public @Nullable Future<?> getOther() {
+        return other;
+    }
+
+    public boolean isEither() {
+        return either;
+    }
+}
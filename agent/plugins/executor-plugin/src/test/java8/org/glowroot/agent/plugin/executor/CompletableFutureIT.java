@@ -0,0 +1,464 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.executor;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import com.google.common.collect.Queues;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.glowroot.agent.it.harness.AppUnderTest;
+import org.glowroot.agent.it.harness.Container;
+import org.glowroot.agent.it.harness.TraceEntryMarker;
+import org.glowroot.agent.it.harness.TransactionMarker;
+import org.glowroot.agent.it.harness.impl.JavaagentContainer;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompletableFutureIT {
+
+    private static Container container;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        // tests only work with javaagent container because they need to weave bootstrap classes
+        // (CompletableFuture and its completions)
+        container = JavaagentContainer.create();
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        container.close();
+    }
+
+    @After
+    public void afterEachTest() throws Exception {
+        container.checkAndReset();
+    }
+
+    @Test
+    public void shouldCaptureStagesCompletedOnNonTransactionThread() throws Exception {
+        // when
+        Trace trace = container.execute(DoStagesCompletedOnNonTransactionThread.class);
+        // then
+        checkTrace(trace);
+    }
+
+    @Test
+    public void shouldCaptureAsyncStages() throws Exception {
+        // when
+        Trace trace = container.execute(DoAsyncStages.class);
+        // then
+        checkTracePerExecutorRun(trace);
+    }
+
+    @Test
+    public void shouldCaptureSyncStagesCompletedByAsyncStage() throws Exception {
+        // when
+        Trace trace = container.execute(DoSyncStagesCompletedByAsyncStage.class);
+        // then
+        checkTrace(trace);
+    }
+
+    @Test
+    public void shouldCaptureJoin() throws Exception {
+        // when
+        Trace trace = container.execute(DoJoin.class);
+        // then
+        Trace.Header header = trace.getHeader();
+        assertThat(header.getMainThreadRootTimer().getChildTimerCount()).isEqualTo(1);
+        assertThat(header.getMainThreadRootTimer().getChildTimer(0).getName())
+                .isEqualTo("wait on future");
+        assertThat(header.getMainThreadRootTimer().getChildTimer(0).getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldCaptureTwoInputStageCompletedOnNonTransactionThreads() throws Exception {
+        // when
+        Trace trace = container.execute(DoTwoInputStageCompletedOnNonTransactionThreads.class);
+        // then
+        checkTrace(trace);
+    }
+
+    @Test
+    public void shouldCaptureTwoInputStageWithOtherSourceCompletedFirst() throws Exception {
+        // when
+        Trace trace = container.execute(DoTwoInputStageWithOtherSourceCompletedFirst.class);
+        // then
+        checkTrace(trace);
+    }
+
+    @Test
+    public void shouldCaptureApplyToEither() throws Exception {
+        // when
+        Trace trace = container.execute(DoApplyToEither.class);
+        // then
+        checkTrace(trace);
+    }
+
+    @Test
+    public void shouldCaptureAcceptEitherWithOtherSourceCompletedFirst() throws Exception {
+        // when
+        Trace trace = container.execute(DoAcceptEitherWithOtherSourceCompletedFirst.class);
+        // then
+        checkTrace(trace);
+    }
+
+    @Test
+    public void shouldCaptureRunAfterEither() throws Exception {
+        // when
+        Trace trace = container.execute(DoRunAfterEither.class);
+        // then
+        checkTrace(trace);
+    }
+
+    @Test
+    public void shouldCaptureAllOf() throws Exception {
+        // when
+        Trace trace = container.execute(DoAllOf.class);
+        // then
+        checkTrace(trace);
+    }
+
+    @Test
+    public void shouldCaptureAnyOf() throws Exception {
+        // when
+        Trace trace = container.execute(DoAnyOf.class);
+        // then
+        checkTrace(trace);
+    }
+
+    // the stages of the chain share a single auxiliary thread context
+    private static void checkTrace(Trace trace) {
+        Trace.Header header = trace.getHeader();
+        assertThat(header.hasAuxThreadRootTimer()).isTrue();
+        assertThat(header.getAsyncTimerCount()).isZero();
+        assertThat(header.getAuxThreadRootTimer().getName()).isEqualTo("auxiliary thread");
+        assertThat(header.getAuxThreadRootTimer().getCount()).isEqualTo(1);
+        assertThat(header.getAuxThreadRootTimer().getChildTimerCount()).isEqualTo(1);
+        assertThat(header.getAuxThreadRootTimer().getChildTimer(0).getName())
+                .isEqualTo("mock trace entry marker");
+        assertThat(header.getAuxThreadRootTimer().getChildTimer(0).getCount()).isEqualTo(3);
+        List<Trace.Entry> entries = trace.getEntryList();
+
+        assertThat(entries).hasSize(4);
+        assertThat(entries.get(0).getDepth()).isEqualTo(0);
+        assertThat(entries.get(0).getMessage()).isEqualTo("auxiliary thread");
+        for (int i = 1; i < entries.size(); i++) {
+            assertThat(entries.get(i).getDepth()).isEqualTo(1);
+            assertThat(entries.get(i).getMessage())
+                    .isEqualTo("trace entry marker / CreateTraceEntry");
+        }
+    }
+
+    // each async stage is a separate executor run, with its own auxiliary thread context
+    private static void checkTracePerExecutorRun(Trace trace) {
+        Trace.Header header = trace.getHeader();
+        assertThat(header.hasAuxThreadRootTimer()).isTrue();
+        assertThat(header.getAsyncTimerCount()).isZero();
+        assertThat(header.getAuxThreadRootTimer().getName()).isEqualTo("auxiliary thread");
+        assertThat(header.getAuxThreadRootTimer().getCount()).isEqualTo(3);
+        assertThat(header.getAuxThreadRootTimer().getChildTimerCount()).isEqualTo(1);
+        assertThat(header.getAuxThreadRootTimer().getChildTimer(0).getName())
+                .isEqualTo("mock trace entry marker");
+        List<Trace.Entry> entries = trace.getEntryList();
+
+        assertThat(entries).hasSize(6);
+        for (int i = 0; i < entries.size(); i += 2) {
+            assertThat(entries.get(i).getDepth()).isEqualTo(0);
+            assertThat(entries.get(i).getMessage()).isEqualTo("auxiliary thread");
+
+            assertThat(entries.get(i + 1).getDepth()).isEqualTo(1);
+            assertThat(entries.get(i + 1).getMessage())
+                    .isEqualTo("trace entry marker / CreateTraceEntry");
+        }
+    }
+
+    public static class DoStagesCompletedOnNonTransactionThread
+            implements AppUnderTest, TransactionMarker {
+
+        private final CountDownLatch chainedLatch = new CountDownLatch(1);
+        private volatile CompletableFuture<Void> future;
+
+        @Override
+        public void executeApp() throws Exception {
+            // the thread is created outside of the transaction, so the context can only reach the
+            // stages through the CompletableFuture chain itself
+            Thread thread = new Thread(() -> {
+                try {
+                    chainedLatch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                future.complete(null);
+            });
+            thread.start();
+            transactionMarker();
+            thread.join();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            future = new CompletableFuture<Void>();
+            CompletableFuture<Void> last = future
+                    .thenRun(() -> new CreateTraceEntry().traceEntryMarker())
+                    .thenRun(() -> new CreateTraceEntry().traceEntryMarker())
+                    .thenRun(() -> new CreateTraceEntry().traceEntryMarker());
+            chainedLatch.countDown();
+            last.get();
+        }
+    }
+
+    // the sources are completed one after the other on threads that are created outside of the
+    // transaction, and only the stage that is created from the two sources (plus the two stages
+    // chained after it) are captured, so each of these is expected to produce a single auxiliary
+    // thread context with three trace entries (see checkTrace())
+    public abstract static class CompleteTwoSourcesOnNonTransactionThreads
+            implements AppUnderTest, TransactionMarker {
+
+        private final CountDownLatch chainedLatch = new CountDownLatch(1);
+        private volatile CompletableFuture<Void> firstToComplete;
+        private volatile CompletableFuture<Void> secondToComplete;
+        private volatile Thread thread2;
+
+        @Override
+        public void executeApp() throws Exception {
+            Thread thread1 = new Thread(() -> {
+                try {
+                    chainedLatch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                firstToComplete.complete(null);
+            });
+            thread2 = new Thread(() -> {
+                try {
+                    thread1.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                secondToComplete.complete(null);
+            });
+            thread1.start();
+            thread2.start();
+            transactionMarker();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            CompletableFuture<Void> source = new CompletableFuture<Void>();
+            CompletableFuture<Void> other = new CompletableFuture<Void>();
+            if (otherSourceCompletesFirst()) {
+                firstToComplete = other;
+                secondToComplete = source;
+            } else {
+                firstToComplete = source;
+                secondToComplete = other;
+            }
+            CompletableFuture<Void> last = createStage(source, other)
+                    .thenRun(() -> new CreateTraceEntry().traceEntryMarker())
+                    .thenRun(() -> new CreateTraceEntry().traceEntryMarker());
+            chainedLatch.countDown();
+            last.get();
+            // wait for the second source to complete inside of the transaction, since that also
+            // calls back into the stage created from both sources (which must not start another
+            // auxiliary thread context)
+            thread2.join();
+        }
+
+        abstract CompletableFuture<?> createStage(CompletableFuture<Void> source,
+                CompletableFuture<Void> other);
+
+        boolean otherSourceCompletesFirst() {
+            return false;
+        }
+    }
+
+    public static class DoTwoInputStageCompletedOnNonTransactionThreads
+            extends CompleteTwoSourcesOnNonTransactionThreads {
+        @Override
+        CompletableFuture<?> createStage(CompletableFuture<Void> source,
+                CompletableFuture<Void> other) {
+            return source.thenCombine(other, (v1, v2) -> {
+                new CreateTraceEntry().traceEntryMarker();
+                return v1;
+            });
+        }
+    }
+
+    public static class DoTwoInputStageWithOtherSourceCompletedFirst
+            extends DoTwoInputStageCompletedOnNonTransactionThreads {
+        @Override
+        boolean otherSourceCompletesFirst() {
+            return true;
+        }
+    }
+
+    public static class DoApplyToEither extends CompleteTwoSourcesOnNonTransactionThreads {
+        @Override
+        CompletableFuture<?> createStage(CompletableFuture<Void> source,
+                CompletableFuture<Void> other) {
+            return source.applyToEither(other, v -> {
+                new CreateTraceEntry().traceEntryMarker();
+                return v;
+            });
+        }
+    }
+
+    public static class DoAcceptEitherWithOtherSourceCompletedFirst
+            extends CompleteTwoSourcesOnNonTransactionThreads {
+        @Override
+        CompletableFuture<?> createStage(CompletableFuture<Void> source,
+                CompletableFuture<Void> other) {
+            return source.acceptEither(other, v -> new CreateTraceEntry().traceEntryMarker());
+        }
+        @Override
+        boolean otherSourceCompletesFirst() {
+            return true;
+        }
+    }
+
+    public static class DoRunAfterEither extends CompleteTwoSourcesOnNonTransactionThreads {
+        @Override
+        CompletableFuture<?> createStage(CompletableFuture<Void> source,
+                CompletableFuture<Void> other) {
+            return source.runAfterEither(other, () -> new CreateTraceEntry().traceEntryMarker());
+        }
+    }
+
+    public static class DoAllOf extends CompleteTwoSourcesOnNonTransactionThreads {
+        @Override
+        CompletableFuture<?> createStage(CompletableFuture<Void> source,
+                CompletableFuture<Void> other) {
+            return CompletableFuture.allOf(source, other)
+                    .thenRun(() -> new CreateTraceEntry().traceEntryMarker());
+        }
+    }
+
+    public static class DoAnyOf extends CompleteTwoSourcesOnNonTransactionThreads {
+        @Override
+        CompletableFuture<?> createStage(CompletableFuture<Void> source,
+                CompletableFuture<Void> other) {
+            return CompletableFuture.anyOf(source, other)
+                    .thenRun(() -> new CreateTraceEntry().traceEntryMarker());
+        }
+    }
+
+    public static class DoAsyncStages implements AppUnderTest, TransactionMarker {
+
+        private ThreadPoolExecutor executor;
+
+        @Override
+        public void executeApp() throws Exception {
+            executor =
+                    new ThreadPoolExecutor(1, 1, 60, MILLISECONDS, Queues.newLinkedBlockingQueue());
+            // need to pre-create threads, otherwise stage execution will be captured by the
+            // initial thread run, and won't really test stage execution capture
+            executor.prestartAllCoreThreads();
+            transactionMarker();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            CompletableFuture.completedFuture(null)
+                    .thenRunAsync(() -> new CreateTraceEntry().traceEntryMarker(), executor)
+                    .thenRunAsync(() -> new CreateTraceEntry().traceEntryMarker(), executor)
+                    .thenRunAsync(() -> new CreateTraceEntry().traceEntryMarker(), executor)
+                    .get();
+            executor.shutdown();
+            executor.awaitTermination(10, SECONDS);
+        }
+    }
+
+    public static class DoSyncStagesCompletedByAsyncStage implements AppUnderTest, TransactionMarker {
+
+        private ThreadPoolExecutor executor;
+
+        @Override
+        public void executeApp() throws Exception {
+            executor =
+                    new ThreadPoolExecutor(1, 1, 60, MILLISECONDS, Queues.newLinkedBlockingQueue());
+            // need to pre-create threads, otherwise stage execution will be captured by the
+            // initial thread run, and won't really test stage execution capture
+            executor.prestartAllCoreThreads();
+            transactionMarker();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            // the sync stages are run by the executor thread when it completes the async stage
+            CompletableFuture.completedFuture(null)
+                    .thenRunAsync(() -> new CreateTraceEntry().traceEntryMarker(), executor)
+                    .thenRun(() -> new CreateTraceEntry().traceEntryMarker())
+                    .thenRun(() -> new CreateTraceEntry().traceEntryMarker())
+                    .get();
+            executor.shutdown();
+            executor.awaitTermination(10, SECONDS);
+        }
+    }
+
+    public static class DoJoin implements AppUnderTest, TransactionMarker {
+
+        private ThreadPoolExecutor executor;
+
+        @Override
+        public void executeApp() throws Exception {
+            executor =
+                    new ThreadPoolExecutor(1, 1, 60, MILLISECONDS, Queues.newLinkedBlockingQueue());
+            executor.prestartAllCoreThreads();
+            transactionMarker();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            CompletableFuture<Void> future = new CompletableFuture<Void>();
+            executor.execute(() -> {
+                try {
+                    MILLISECONDS.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                future.complete(null);
+            });
+            future.join();
+            executor.shutdown();
+            executor.awaitTermination(10, SECONDS);
+        }
+    }
+
+    private static class CreateTraceEntry implements TraceEntryMarker {
+
+        @Override
+        public void traceEntryMarker() {
+            try {
+                MILLISECONDS.sleep(100);
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+}
@@ -68,6 +68,7 @@ public class ApacheHttpAsyncClientAspect {
             } else {
                 uri = uriObj.toString();
             }
+            ApacheHttpClientAspect.propagateTraceContext(context, request);
             AsyncTraceEntry asyncTraceEntry = context.startAsyncServiceCallEntry("HTTP",
                     method + Uris.stripQueryString(uri),
                     MessageSupplier.create("http client request: {}{}", method, uri), timerName);
@@ -154,6 +155,7 @@ public class ApacheHttpAsyncClientAspect {
             if (uri == null) {
                 uri = "";
             }
+            ApacheHttpClientAspect.propagateTraceContext(context, request);
             AsyncTraceEntry asyncTraceEntry = context.startAsyncServiceCallEntry("HTTP",
                     method + Uris.stripQueryString(uri),
                     MessageSupplier.create("http client request: {}{}{}", method, host, uri),
@@ -26,6 +26,7 @@ import org.glowroot.agent.plugin.api.ThreadContext;
 import org.glowroot.agent.plugin.api.TimerName;
 import org.glowroot.agent.plugin.api.TraceEntry;
 import org.glowroot.agent.plugin.api.checker.Nullable;
+import org.glowroot.agent.plugin.api.config.BooleanProperty;
 import org.glowroot.agent.plugin.api.weaving.BindParameter;
 import org.glowroot.agent.plugin.api.weaving.BindThrowable;
 import org.glowroot.agent.plugin.api.weaving.BindTraveler;
@@ -37,6 +38,9 @@ import org.glowroot.agent.plugin.httpclient._.Uris;
 
 public class ApacheHttpClient3xAspect {
 
+    private static final BooleanProperty propagateTraceContext =
+            Agent.getConfigService("http-client").getBooleanProperty("propagateTraceContext");
+
     @Pointcut(className = "org.apache.commons.httpclient.HttpClient", methodName = "executeMethod",
             methodParameterTypes = {"org.apache.commons.httpclient.HostConfiguration",
                     "org.apache.commons.httpclient.HttpMethod",
@@ -71,6 +75,10 @@ public class ApacheHttpClient3xAspect {
             } catch (URIException e) {
                 uri = "";
             }
+            if (propagateTraceContext.value()
+                    && methodObj.getRequestHeader("traceparent") == null) {
+                methodObj.setRequestHeader("traceparent", context.getTransactionTraceparent());
+            }
             return context.startServiceCallEntry("HTTP", method + Uris.stripQueryString(uri),
                     MessageSupplier.create("http client request: {}{}", method, uri),
                     timerName);
@@ -28,6 +28,7 @@ import org.glowroot.agent.plugin.api.ThreadContext;
 import org.glowroot.agent.plugin.api.TimerName;
 import org.glowroot.agent.plugin.api.TraceEntry;
 import org.glowroot.agent.plugin.api.checker.Nullable;
+import org.glowroot.agent.plugin.api.config.BooleanProperty;
 import org.glowroot.agent.plugin.api.weaving.BindParameter;
 import org.glowroot.agent.plugin.api.weaving.BindThrowable;
 import org.glowroot.agent.plugin.api.weaving.BindTraveler;
@@ -40,6 +41,9 @@ import org.glowroot.agent.plugin.httpclient._.Uris;
 // see nearly identical copy of this in WiremockApacheHttpClientAspect
 public class ApacheHttpClientAspect {
 
+    private static final BooleanProperty propagateTraceContext =
+            Agent.getConfigService("http-client").getBooleanProperty("propagateTraceContext");
+
     @Pointcut(className = "org.apache.http.client.HttpClient", methodName = "execute",
             methodParameterTypes = {"org.apache.http.client.methods.HttpUriRequest", ".."},
             nestingGroup = "http-client", timerName = "http client request")
@@ -64,6 +68,7 @@ public class ApacheHttpClientAspect {
             } else {
                 uri = uriObj.toString();
             }
+            propagateTraceContext(context, request);
             return context.startServiceCallEntry("HTTP", method + Uris.stripQueryString(uri),
                     MessageSupplier.create("http client request: {}{}", method, uri),
                     timerName);
@@ -111,6 +116,7 @@ public class ApacheHttpClientAspect {
             if (uri == null) {
                 uri = "";
             }
+            propagateTraceContext(context, request);
             return context.startServiceCallEntry("HTTP", method + Uris.stripQueryString(uri),
                     MessageSupplier.create("http client request: {}{}{}", method, host, uri),
                     timerName);
@@ -127,4 +133,11 @@ public class ApacheHttpClientAspect {
             traceEntry.endWithError(t);
         }
     }
+
+    // also used by ApacheHttpAsyncClientAspect
+    static void propagateTraceContext(ThreadContext context, HttpRequest request) {
+        if (propagateTraceContext.value() && !request.containsHeader("traceparent")) {
+            request.setHeader("traceparent", context.getTransactionTraceparent());
+        }
+    }
 }
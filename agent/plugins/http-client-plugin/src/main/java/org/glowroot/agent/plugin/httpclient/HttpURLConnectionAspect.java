@@ -29,6 +29,7 @@ import org.glowroot.agent.plugin.api.Timer;
 import org.glowroot.agent.plugin.api.TimerName;
 import org.glowroot.agent.plugin.api.TraceEntry;
 import org.glowroot.agent.plugin.api.checker.Nullable;
+import org.glowroot.agent.plugin.api.config.BooleanProperty;
 import org.glowroot.agent.plugin.api.weaving.BindReceiver;
 import org.glowroot.agent.plugin.api.weaving.BindReturn;
 import org.glowroot.agent.plugin.api.weaving.BindThrowable;
@@ -47,6 +48,9 @@ public class HttpURLConnectionAspect {
     private static final AtomicBoolean inputStreamIssueAlreadyLogged = new AtomicBoolean();
     private static final AtomicBoolean outputStreamIssueAlreadyLogged = new AtomicBoolean();
 
+    private static final BooleanProperty propagateTraceContext =
+            Agent.getConfigService("http-client").getBooleanProperty("propagateTraceContext");
+
     // the field and method names are verbose since they will be mixed in to existing classes
     @Mixin({"java.net.HttpURLConnection",
             "sun.net.www.protocol.http.HttpURLConnection$HttpInputStream",
@@ -167,12 +171,27 @@ public class HttpURLConnectionAspect {
             } else {
                 url = urlObj.toString();
             }
+            if (propagateTraceContext.value()) {
+                propagateTraceContext(threadContext, httpURLConnection);
+            }
             traceEntry = threadContext.startServiceCallEntry("HTTP",
                     method + Uris.stripQueryString(url),
                     MessageSupplier.create("http client request: {}{}", method, url), timerName);
             ((HasTraceEntryMixin) httpURLConnection).glowroot$setTraceEntry(traceEntry);
             return new TraceEntryOrTimer(traceEntry);
         }
+        private static void propagateTraceContext(ThreadContext threadContext,
+                HttpURLConnection httpURLConnection) {
+            try {
+                if (httpURLConnection.getRequestProperty("traceparent") == null) {
+                    httpURLConnection.setRequestProperty("traceparent",
+                            threadContext.getTransactionTraceparent());
+                }
+            } catch (IllegalStateException e) {
+                // already connected, too late to add request headers
+                logger.debug(e.getMessage(), e);
+            }
+        }
     }
 
     @Pointcut(className = "java.net.URLConnection",
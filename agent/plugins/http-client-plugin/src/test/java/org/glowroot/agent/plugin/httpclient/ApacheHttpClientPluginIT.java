@@ -20,6 +20,7 @@ import java.lang.reflect.Method;
 import java.util.Iterator;
 
 import com.google.common.io.ByteStreams;
+import org.apache.http.Header;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
@@ -71,6 +72,20 @@ public class ApacheHttpClientPluginIT {
         assertThat(i.hasNext()).isFalse();
     }
 
+    @Test
+    public void shouldPropagateTraceContext() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty("http-client", "propagateTraceContext",
+                true);
+
+        // when
+        Trace trace = container.execute(ExecuteHttpGetWithTraceContext.class);
+
+        // then
+        assertThat(getAttribute(trace, "W3C trace id")).matches("[0-9a-f]{32}");
+        assertThat(getAttribute(trace, "W3C span id")).matches("[0-9a-f]{16}");
+    }
+
     @Test
     public void shouldCaptureHttpGetUsingHttpHostArg() throws Exception {
         // when
@@ -164,6 +179,32 @@ public class ApacheHttpClientPluginIT {
         }
     }
 
+    static String getAttribute(Trace trace, String name) {
+        for (Trace.Attribute attribute : trace.getHeader().getAttributeList()) {
+            if (attribute.getName().equals(name)) {
+                return attribute.getValue(0);
+            }
+        }
+        throw new AssertionError("Attribute not found: " + name);
+    }
+
+    public static class ExecuteHttpGetWithTraceContext extends ExecuteHttpBase {
+        @Override
+        public void transactionMarker() throws Exception {
+            HttpClient httpClient = createHttpClient();
+            HttpGet httpGet = new HttpGet("http://localhost:" + getPort() + "/hello1");
+            HttpResponse response = httpClient.execute(httpGet);
+            Header header = response.getFirstHeader("Echo-Traceparent");
+            if (header == null || !header.getValue().matches("00-[0-9a-f]{32}-[0-9a-f]{16}-01")) {
+                throw new IllegalStateException("Unexpected traceparent: " + header);
+            }
+            InputStream content = response.getEntity().getContent();
+            ByteStreams.exhaust(content);
+            content.close();
+            closeHttpClient(httpClient);
+        }
+    }
+
     public static class ExecuteHttpGetUsingHttpHostArg extends ExecuteHttpBase {
         @Override
         public void transactionMarker() throws Exception {
@@ -39,6 +39,11 @@ public class HttpServer extends NanoHTTPD {
         }
         Response response = newFixedLengthResponse(Status.OK, "text/plain", null, 0);
         response.addHeader("Connection", "Close");
+        // echoed back so that tests can verify trace context propagation
+        String traceparent = session.getHeaders().get("traceparent");
+        if (traceparent != null) {
+            response.addHeader("Echo-Traceparent", traceparent);
+        }
         return response;
     }
 
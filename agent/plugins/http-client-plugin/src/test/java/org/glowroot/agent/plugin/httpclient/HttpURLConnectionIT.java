@@ -68,6 +68,22 @@ public class HttpURLConnectionIT {
         shouldCaptureHttpPost(ExecuteHttpPost.class, "http");
     }
 
+    @Test
+    public void shouldPropagateTraceContext() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty("http-client", "propagateTraceContext",
+                true);
+
+        // when
+        Trace trace = container.execute(ExecuteHttpGetWithTraceContext.class);
+
+        // then
+        assertThat(ApacheHttpClientPluginIT.getAttribute(trace, "W3C trace id"))
+                .matches("[0-9a-f]{32}");
+        assertThat(ApacheHttpClientPluginIT.getAttribute(trace, "W3C span id"))
+                .matches("[0-9a-f]{16}");
+    }
+
     @Test
     public void shouldCaptureHttpGetHTTPS() throws Exception {
         shouldCaptureHttpGet(ExecuteHttpGetHTTPS.class, "https");
@@ -146,6 +162,22 @@ public class HttpURLConnectionIT {
         }
     }
 
+    public static class ExecuteHttpGetWithTraceContext extends ExecuteHttpBase {
+        @Override
+        public void transactionMarker() throws Exception {
+            URL obj = new URL("http://localhost:" + getPort() + "/hello1/");
+            HttpURLConnection connection = (HttpURLConnection) obj.openConnection();
+            InputStream content = connection.getInputStream();
+            String traceparent = connection.getHeaderField("Echo-Traceparent");
+            if (traceparent == null
+                    || !traceparent.matches("00-[0-9a-f]{32}-[0-9a-f]{16}-01")) {
+                throw new IllegalStateException("Unexpected traceparent: " + traceparent);
+            }
+            ByteStreams.exhaust(content);
+            content.close();
+        }
+    }
+
     public static class ExecuteHttpGetWithQueryString extends ExecuteHttpBase {
         @Override
         public void transactionMarker() throws Exception {
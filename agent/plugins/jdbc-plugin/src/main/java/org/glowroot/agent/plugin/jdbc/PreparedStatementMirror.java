@@ -15,11 +15,8 @@
  */
 package org.glowroot.agent.plugin.jdbc;
 
-import java.util.Collection;
-import java.util.Collections;
-import java.util.concurrent.ConcurrentLinkedQueue;
-
 import org.glowroot.agent.plugin.api.checker.Nullable;
+import org.glowroot.agent.plugin.jdbc.message.BatchedBindParameters;
 import org.glowroot.agent.plugin.jdbc.message.BindParameterList;
 
 // used to capture and mirror the state of prepared statements since the underlying
@@ -33,36 +30,36 @@ class PreparedStatementMirror extends StatementMirror {
     private final String sql;
     // ok for this field to be non-volatile since it is only temporary storage for a single thread
     // while that thread is setting parameter values into the prepared statement and executing it
-    private BindParameterList parameters;
+    //
+    // created lazily so that nothing is allocated when bind parameter capture is disabled
+    private @Nullable BindParameterList parameters;
     private boolean parametersShared;
     // ok for this field to be non-volatile since it is only temporary storage for a single thread
     // while that thread is setting parameter values into the prepared statement and executing it
-    private @Nullable Collection<BindParameterList> batchedParameters;
+    private @Nullable BatchedBindParameters batchedParameters;
     private int batchSize;
 
     PreparedStatementMirror(String sql) {
         this.sql = sql;
-        // TODO delay creation to optimize case when bind parameter capture is disabled
-        parameters = new BindParameterList(PARAMETERS_INITIAL_CAPACITY);
     }
 
-    void addBatch() {
+    void addBatch(boolean captureBindParameters) {
         // synchronization isn't an issue here as this method is called only by the monitored thread
-        if (batchedParameters == null) {
-            batchedParameters = new ConcurrentLinkedQueue<BindParameterList>();
-        }
-        if (batchSize++ < CAPTURED_BATCH_SIZE_LIMIT) {
-            batchedParameters.add(parameters);
-            parametersShared = true;
+        if (captureBindParameters && batchSize < CAPTURED_BATCH_SIZE_LIMIT) {
+            if (batchedParameters == null) {
+                batchedParameters =
+                        new BatchedBindParameters(parameters == null ? 0 : parameters.size());
+            }
+            // the values are copied into the batch, so parameters is not shared and can continue
+            // to be reused (without copy-on-write) while setting the values for the next row
+            batchedParameters.addRow(parameters);
         }
+        batchSize++;
     }
 
-    Collection<BindParameterList> getBatchedParameters() {
-        if (batchedParameters == null) {
-            return Collections.emptyList();
-        } else {
-            return batchedParameters;
-        }
+    @Nullable
+    BatchedBindParameters getBatchedParameters() {
+        return batchedParameters;
     }
 
     @Nullable
@@ -81,19 +78,30 @@ class PreparedStatementMirror extends StatementMirror {
 
     // remember parameterIndex starts at 1 not 0
     void setParameterValue(int parameterIndex, @Nullable Object object) {
-        if (parametersShared) {
+        BindParameterList parameters = this.parameters;
+        if (parameters == null || parametersShared) {
             // separate method for less common path to not impact inlining budget of fast(er) path
-            copyParameters();
+            parameters = createOrCopyParameters(parameters);
         }
         parameters.set(parameterIndex - 1, object);
     }
 
-    private void copyParameters() {
-        parameters = BindParameterList.copyOf(parameters);
+    private BindParameterList createOrCopyParameters(@Nullable BindParameterList parameters) {
+        BindParameterList newParameters;
+        if (parameters == null) {
+            newParameters = new BindParameterList(PARAMETERS_INITIAL_CAPACITY);
+        } else {
+            newParameters = BindParameterList.copyOf(parameters);
+        }
+        this.parameters = newParameters;
         parametersShared = false;
+        return newParameters;
     }
 
     void clearParameters() {
+        if (parameters == null) {
+            return;
+        }
         if (parametersShared) {
             parameters = new BindParameterList(parameters.size());
             parametersShared = false;
@@ -104,12 +112,7 @@ class PreparedStatementMirror extends StatementMirror {
 
     @Override
     public void clearBatch() {
-        if (parametersShared) {
-            parameters = new BindParameterList(parameters.size());
-            parametersShared = false;
-        } else {
-            parameters.clear();
-        }
+        clearParameters();
         batchedParameters = null;
         batchSize = 0;
     }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2011-2018 the original author or authors.
+ * Copyright 2011-2019 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -20,12 +20,15 @@ import org.glowroot.agent.plugin.api.Logger;
 import org.glowroot.agent.plugin.api.QueryEntry;
 import org.glowroot.agent.plugin.api.Timer;
 import org.glowroot.agent.plugin.api.checker.NonNull;
+import org.glowroot.agent.plugin.api.checker.Nullable;
 import org.glowroot.agent.plugin.api.config.BooleanProperty;
+import org.glowroot.agent.plugin.api.config.ConfigListener;
 import org.glowroot.agent.plugin.api.config.ConfigService;
 import org.glowroot.agent.plugin.api.weaving.BindReceiver;
 import org.glowroot.agent.plugin.api.weaving.BindReturn;
 import org.glowroot.agent.plugin.api.weaving.BindTraveler;
 import org.glowroot.agent.plugin.api.weaving.IsEnabled;
+import org.glowroot.agent.plugin.api.weaving.Mixin;
 import org.glowroot.agent.plugin.api.weaving.OnAfter;
 import org.glowroot.agent.plugin.api.weaving.OnBefore;
 import org.glowroot.agent.plugin.api.weaving.OnReturn;
@@ -38,11 +41,77 @@ public class ResultSetAspect {
     private static final Logger logger = Logger.getLogger(ResultSetAspect.class);
     private static final ConfigService configService = Agent.getConfigService("jdbc");
 
+    // visibility is provided by memoryBarrier in org.glowroot.config.ConfigService
+    private static boolean captureResultSetRowCountOnly;
+
+    static {
+        configService.registerConfigListener(new ConfigListener() {
+            @Override
+            public void onChange() {
+                captureResultSetRowCountOnly =
+                        configService.getBooleanProperty("captureResultSetRowCountOnly").value();
+            }
+        });
+    }
+
     @Shim("java.sql.ResultSet")
     public interface ResultSet {
         int getRow();
     }
 
+    // the field and method names are verbose since they will be mixed in to existing classes
+    @Mixin("java.sql.ResultSet")
+    public static class HasRowCountImpl implements HasRowCountMixin {
+
+        // does not need to be volatile, app/framework must provide visibility of ResultSets if
+        // used across threads and this can piggyback
+        private transient int glowroot$rowCount;
+
+        private transient boolean glowroot$rowCountQueryEntryBound;
+        private transient @Nullable QueryEntry glowroot$rowCountQueryEntry;
+
+        @Override
+        public void glowroot$incrementRowCount() {
+            glowroot$rowCount++;
+        }
+
+        @Override
+        public int glowroot$getRowCount() {
+            return glowroot$rowCount;
+        }
+
+        @Override
+        public boolean glowroot$isRowCountQueryEntryBound() {
+            return glowroot$rowCountQueryEntryBound;
+        }
+
+        @Override
+        public @Nullable QueryEntry glowroot$getRowCountQueryEntry() {
+            return glowroot$rowCountQueryEntry;
+        }
+
+        @Override
+        public void glowroot$bindRowCountQueryEntry(@Nullable QueryEntry queryEntry) {
+            glowroot$rowCountQueryEntry = queryEntry;
+            glowroot$rowCountQueryEntryBound = true;
+        }
+    }
+
+    // the method names are verbose since they will be mixed in to existing classes
+    public interface HasRowCountMixin {
+
+        void glowroot$incrementRowCount();
+
+        int glowroot$getRowCount();
+
+        boolean glowroot$isRowCountQueryEntryBound();
+
+        @Nullable
+        QueryEntry glowroot$getRowCountQueryEntry();
+
+        void glowroot$bindRowCountQueryEntry(@Nullable QueryEntry queryEntry);
+    }
+
     @Pointcut(className = "java.sql.ResultSet", methodName = "next", methodParameterTypes = {},
             nestingGroup = "jdbc")
     public static class NextAdvice {
@@ -50,7 +119,8 @@ public class ResultSetAspect {
                 configService.getBooleanProperty("captureResultSetNavigate");
         @IsEnabled
         public static boolean isEnabled(@BindReceiver HasStatementMirrorMixin resultSet) {
-            return timerEnabled.value() && isEnabledCommon(resultSet);
+            return timerEnabled.value() && !captureResultSetRowCountOnly
+                    && isEnabledCommon(resultSet);
         }
         @OnBefore
         public static Timer onBefore(@BindReceiver HasStatementMirrorMixin resultSet) {
@@ -84,6 +154,49 @@ public class ResultSetAspect {
         }
     }
 
+    // when capturing row count only, ResultSet.next() does not start a timer or touch the query
+    // entry, it only increments a field on the ResultSet itself, and the row count is published
+    // to the query entry once the ResultSet is exhausted or closed
+    //
+    // the query entry is bound to the ResultSet on the first call to next(), since by the time the
+    // ResultSet is closed, the statement may have been re-executed and its last query entry may
+    // belong to a different ResultSet
+    //
+    // this advice intentionally does not use the "jdbc" nesting group, since that requires a
+    // thread local lookup on every call, and the row count of a wrapped ResultSet is never
+    // published anyways since it does not have a statement mirror
+    @Pointcut(className = "java.sql.ResultSet", methodName = "next", methodParameterTypes = {})
+    public static class RowCountOnlyNextAdvice {
+        @IsEnabled
+        public static boolean isEnabled() {
+            return captureResultSetRowCountOnly;
+        }
+        @OnReturn
+        public static void onReturn(@BindReturn boolean currentRowValid,
+                @BindReceiver HasRowCountMixin resultSet) {
+            if (!resultSet.glowroot$isRowCountQueryEntryBound()) {
+                bindRowCountQueryEntry(resultSet);
+            }
+            if (currentRowValid) {
+                resultSet.glowroot$incrementRowCount();
+            } else {
+                publishRowCount(resultSet);
+            }
+        }
+    }
+
+    @Pointcut(className = "java.sql.ResultSet", methodName = "close", methodParameterTypes = {})
+    public static class RowCountOnlyCloseAdvice {
+        @IsEnabled
+        public static boolean isEnabled() {
+            return captureResultSetRowCountOnly;
+        }
+        @OnReturn
+        public static void onReturn(@BindReceiver HasRowCountMixin resultSet) {
+            publishRowCount(resultSet);
+        }
+    }
+
     @Pointcut(className = "java.sql.ResultSet",
             methodName = "previous|relative|absolute|first|last", methodParameterTypes = "..",
             nestingGroup = "jdbc")
@@ -161,6 +274,33 @@ public class ResultSetAspect {
         }
     }
 
+    private static void bindRowCountQueryEntry(HasRowCountMixin resultSet) {
+        StatementMirror mirror =
+                ((HasStatementMirrorMixin) resultSet).glowroot$getStatementMirror();
+        if (mirror == null) {
+            resultSet.glowroot$bindRowCountQueryEntry(null);
+        } else {
+            // this is null if tracing is disabled (e.g. exceeded trace entry limit)
+            resultSet.glowroot$bindRowCountQueryEntry(mirror.getLastQueryEntry());
+        }
+    }
+
+    private static void publishRowCount(HasRowCountMixin resultSet) {
+        // if next() was never called, there is no query entry bound and nothing to publish
+        QueryEntry queryEntry = resultSet.glowroot$getRowCountQueryEntry();
+        if (queryEntry == null) {
+            return;
+        }
+        int rowCount = resultSet.glowroot$getRowCount();
+        if (rowCount == 0) {
+            queryEntry.rowNavigationAttempted();
+        } else {
+            // setCurrRow() is idempotent, so ok if this is published both when the ResultSet is
+            // exhausted and when it is closed
+            queryEntry.setCurrRow(rowCount);
+        }
+    }
+
     private static boolean isEnabledCommon(HasStatementMirrorMixin resultSet) {
         StatementMirror mirror = resultSet.glowroot$getStatementMirror();
         return mirror != null && mirror.getLastQueryEntry() != null;
@@ -45,7 +45,9 @@ import org.glowroot.agent.plugin.jdbc.PreparedStatementMirror.ByteArrayParameter
 import org.glowroot.agent.plugin.jdbc.PreparedStatementMirror.StreamingParameterValue;
 import org.glowroot.agent.plugin.jdbc.message.BatchPreparedStatementMessageSupplier;
 import org.glowroot.agent.plugin.jdbc.message.BatchPreparedStatementMessageSupplier2;
+import org.glowroot.agent.plugin.jdbc.message.NormalizedStatementMessageSupplier;
 import org.glowroot.agent.plugin.jdbc.message.PreparedStatementMessageSupplier;
+import org.glowroot.agent.plugin.jdbc.message.SqlNormalizer;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
@@ -60,6 +62,9 @@ public class StatementAspect {
     private static final BooleanProperty captureStatementClose =
             configService.getBooleanProperty("captureStatementClose");
 
+    private static final BooleanProperty normalizeStatementLiterals =
+            configService.getBooleanProperty("normalizeStatementLiterals");
+
     private static boolean captureBindParameters;
 
     static {
@@ -273,7 +278,7 @@ public class StatementAspect {
             PreparedStatementMirror mirror =
                     (PreparedStatementMirror) preparedStatement.glowroot$getStatementMirror();
             if (mirror != null) {
-                mirror.addBatch();
+                mirror.addBatch(captureBindParameters);
             }
         }
     }
@@ -316,8 +321,20 @@ public class StatementAspect {
                 // this shouldn't happen since just checked hasGlowrootStatementMirror() above
                 return null;
             }
-            QueryEntry query = context.startQueryEntry(QUERY_TYPE, sql,
-                    QueryMessageSupplier.create("jdbc query: "), timerName);
+            String queryText = sql;
+            QueryMessageSupplier queryMessageSupplier;
+            if (normalizeStatementLiterals.value()) {
+                queryText = SqlNormalizer.normalize(sql);
+            }
+            // normalize() returns the same instance when there is nothing to normalize, in which
+            // case equals() is just an identity check
+            if (queryText.equals(sql)) {
+                queryMessageSupplier = QueryMessageSupplier.create("jdbc query: ");
+            } else {
+                queryMessageSupplier = new NormalizedStatementMessageSupplier(sql);
+            }
+            QueryEntry query = context.startQueryEntry(QUERY_TYPE, queryText,
+                    queryMessageSupplier, timerName);
             mirror.setLastQueryEntry(query);
             return query;
         }
@@ -579,22 +596,39 @@ public class StatementAspect {
         private static QueryEntry onBeforeStatement(StatementMirror mirror, ThreadContext context) {
             List<String> batchedSql = mirror.getBatchedSql();
             String concatenated;
+            QueryMessageSupplier queryMessageSupplier;
             if (batchedSql.isEmpty()) {
                 concatenated = "[empty batch]";
+                queryMessageSupplier = QueryMessageSupplier.create("jdbc query: ");
             } else {
                 StringBuilder sb = new StringBuilder("[batch] ");
+                boolean normalize = normalizeStatementLiterals.value();
+                boolean normalized = false;
                 boolean first = true;
                 for (String sql : batchedSql) {
                     if (!first) {
                         sb.append(", ");
                     }
-                    sb.append(sql);
+                    if (normalize) {
+                        String normalizedSql = SqlNormalizer.normalize(sql);
+                        normalized |= !normalizedSql.equals(sql);
+                        sb.append(normalizedSql);
+                    } else {
+                        sb.append(sql);
+                    }
                     first = false;
                 }
                 concatenated = sb.toString();
+                if (normalized) {
+                    // literals are extracted lazily from the original batched sql, same as for
+                    // single statement execution
+                    queryMessageSupplier = new NormalizedStatementMessageSupplier(batchedSql);
+                } else {
+                    queryMessageSupplier = QueryMessageSupplier.create("jdbc query: ");
+                }
             }
             QueryEntry queryEntry = context.startQueryEntry(QUERY_TYPE, concatenated,
-                    QueryMessageSupplier.create("jdbc query: "), timerName);
+                    queryMessageSupplier, timerName);
             mirror.setLastQueryEntry(queryEntry);
             mirror.clearBatch();
             return queryEntry;
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc.message;
+
+import java.util.Arrays;
+
+import org.glowroot.agent.plugin.api.checker.Nullable;
+
+// micro-optimized storage for batched bind parameters
+//
+// all rows are copied into a single flat array (instead of retaining a separate BindParameterList
+// per row), so that large batches do not allocate multiple objects per row, and the values are
+// only formatted if and when the query message is actually needed
+//
+// this is not thread safe, rows are only added by the monitored thread while it is adding the
+// batch, and once the batch is executed this is handed off to BatchPreparedStatementMessageSupplier
+// and never modified again (PreparedStatementMirror.clearBatch() drops its reference to it), and
+// since that hand off is via a final field, the rows written prior are visible to other threads
+// that read the query message (e.g. when viewing an active trace)
+public class BatchedBindParameters {
+
+    private static final int ROWS_INITIAL_CAPACITY = 8;
+
+    private @Nullable Object[] values;
+    private int valuesSize;
+
+    // exclusive end offset into values for each row
+    private int[] rowEnds;
+    private int rowCount;
+
+    public BatchedBindParameters(int rowWidth) {
+        values = new Object[Math.max(rowWidth, 1) * ROWS_INITIAL_CAPACITY];
+        rowEnds = new int[ROWS_INITIAL_CAPACITY];
+    }
+
+    public void addRow(@Nullable BindParameterList parameters) {
+        if (rowCount == rowEnds.length) {
+            // using same capacity increase formula as ArrayList
+            rowEnds = Arrays.copyOf(rowEnds, rowCount + (rowCount >> 1));
+        }
+        if (parameters != null) {
+            int size = parameters.size();
+            int newValuesSize = valuesSize + size;
+            if (newValuesSize > values.length) {
+                int capacity = values.length + (values.length >> 1);
+                values = Arrays.copyOf(values, Math.max(capacity, newValuesSize));
+            }
+            parameters.copyTo(values, valuesSize);
+            valuesSize = newValuesSize;
+        }
+        rowEnds[rowCount++] = valuesSize;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    void appendRow(StringBuilder sb, int row) {
+        int start = row == 0 ? 0 : rowEnds[row - 1];
+        BindParameterList.appendParameters(sb, values, start, rowEnds[row]);
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2014-2018 the original author or authors.
+ * Copyright 2014-2019 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -72,11 +72,41 @@ public class BindParameterList implements Iterable</*@Nullable*/ Object> {
         return size == 0;
     }
 
+    void copyTo(@Nullable Object[] dest, int destPos) {
+        System.arraycopy(parameters, 0, dest, destPos, size);
+    }
+
     public void clear() {
         Arrays.fill(parameters, null);
         size = 0;
     }
 
+    // formatting is kept here (instead of in PreparedStatementMessageSupplier) so that it has no
+    // dependency on plugin configuration
+    static void appendParameters(StringBuilder sb, @Nullable Object[] parameters, int start,
+            int end) {
+        sb.append(" [");
+        for (int i = start; i < end; i++) {
+            if (i != start) {
+                sb.append(", ");
+            }
+            appendParameter(sb, parameters[i]);
+        }
+        sb.append("]");
+    }
+
+    static void appendParameter(StringBuilder sb, @Nullable Object parameter) {
+        if (parameter instanceof String) {
+            sb.append("\'");
+            sb.append((String) parameter);
+            sb.append("\'");
+        } else if (parameter == null) {
+            sb.append("NULL");
+        } else {
+            sb.append(String.valueOf(parameter));
+        }
+    }
+
     @Override
     public Iterator</*@Nullable*/ Object> iterator() {
         return new ParameterIterator();
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc.message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.glowroot.agent.plugin.api.QueryMessage;
+import org.glowroot.agent.plugin.api.QueryMessageSupplier;
+
+// used when the query text has been normalized, in order to still display the literal values in
+// the trace entry (similar to how bind parameters are displayed)
+public class NormalizedStatementMessageSupplier extends QueryMessageSupplier {
+
+    private final List<String> sqls;
+
+    public NormalizedStatementMessageSupplier(String sql) {
+        this.sqls = Collections.singletonList(sql);
+    }
+
+    // the batched sql list is not copied since it is no longer modified once the batch is executed
+    // (see StatementMirror.clearBatch())
+    public NormalizedStatementMessageSupplier(List<String> batchedSql) {
+        this.sqls = batchedSql;
+    }
+
+    @Override
+    public QueryMessage get() {
+        // literals are only extracted (by normalizing again) if and when the message is needed
+        List<String> literals = new ArrayList<String>();
+        for (String sql : sqls) {
+            SqlNormalizer.normalize(sql, literals);
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(" [");
+        boolean first = true;
+        for (String literal : literals) {
+            if (!first) {
+                sb.append(", ");
+            }
+            sb.append(literal);
+            first = false;
+        }
+        sb.append("]");
+        return QueryMessage.create("jdbc query: ", sb.toString());
+    }
+}
@@ -113,15 +113,7 @@ public class PreparedStatementMessageSupplier extends QueryMessageSupplier {
             if (!first) {
                 sb.append(", ");
             }
-            if (parameter instanceof String) {
-                sb.append("\'");
-                sb.append((String) parameter);
-                sb.append("\'");
-            } else if (parameter == null) {
-                sb.append("NULL");
-            } else {
-                sb.append(String.valueOf(parameter));
-            }
+            BindParameterList.appendParameter(sb, parameter);
             first = false;
         }
         sb.append("]");
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc.message;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.glowroot.agent.plugin.api.checker.Nullable;
+
+// replaces numeric and string literals with "?" and collapses IN lists of literals to "(?)", so
+// that sql which is built with inlined literals (instead of bind parameters) aggregates under a
+// single query text
+//
+// this is a simple single-pass tokenizer, not a sql parser, it only needs to be good enough to
+// recognize literals without mangling identifiers, quoted identifiers or comments
+public class SqlNormalizer {
+
+    static final int CACHE_SIZE = 1000;
+
+    // one-off sql texts (e.g. with huge IN lists) would only churn the cache
+    private static final int CACHE_MAX_SQL_LENGTH = 4096;
+
+    // lookups are lock-free since this is hit by every Statement execution across all threads,
+    // and instead of LRU ordering (which requires locking on every read) the cache is simply
+    // cleared once it is full, which is only expected to happen repeatedly when the application
+    // executes unbounded distinct sql that doesn't normalize to a bounded set anyways
+    private static final ConcurrentMap<String, String> cache =
+            new ConcurrentHashMap<String, String>();
+
+    // approximate under concurrent clearing, which is fine since it is only used to bound the cache
+    private static final AtomicInteger cacheCount = new AtomicInteger();
+
+    private SqlNormalizer() {}
+
+    public static String normalize(String sql) {
+        if (sql.length() > CACHE_MAX_SQL_LENGTH) {
+            return normalize(sql, null);
+        }
+        String normalized = cache.get(sql);
+        if (normalized == null) {
+            normalized = normalize(sql, null);
+            if (cache.putIfAbsent(sql, normalized) == null
+                    && cacheCount.incrementAndGet() > CACHE_SIZE) {
+                cache.clear();
+                cacheCount.set(0);
+            }
+        }
+        return normalized;
+    }
+
+    static int getCacheSize() {
+        return cache.size();
+    }
+
+    // returns the same String instance if there is nothing to normalize, and adds the replaced
+    // literals (as they appear in the sql) to the literals list if it is non-null
+    static String normalize(String sql, @Nullable List<String> literals) {
+        int length = sql.length();
+        StringBuilder sb = new StringBuilder(length);
+        // output position just after "in (", or -1 if not currently directly inside an IN list
+        int inListStart = -1;
+        boolean afterInKeyword = false;
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            char next = i + 1 < length ? sql.charAt(i + 1) : 0;
+            int end;
+            if (c == '\'') {
+                end = endOfStringLiteral(sql, i);
+                if (literals != null) {
+                    literals.add(sql.substring(i, end));
+                }
+                sb.append('?');
+                afterInKeyword = false;
+            } else if (c == '"' || c == '`') {
+                // quoted identifier
+                end = endOfQuotedIdentifier(sql, i);
+                sb.append(sql, i, end);
+                afterInKeyword = false;
+            } else if (c == '-' && next == '-') {
+                end = sql.indexOf('\n', i);
+                end = end == -1 ? length : end;
+                sb.append(sql, i, end);
+            } else if (c == '/' && next == '*') {
+                end = sql.indexOf("*/", i + 2);
+                end = end == -1 ? length : end + 2;
+                sb.append(sql, i, end);
+            } else if (isDigit(c) || (c == '.' && isDigit(next))) {
+                // this also consumes exponents and hex literals, e.g. 1.5e10 and 0xff
+                end = i + 1;
+                while (end < length && (isIdentifierPart(sql.charAt(end))
+                        || sql.charAt(end) == '.')) {
+                    end++;
+                }
+                if (literals != null) {
+                    literals.add(sql.substring(i, end));
+                }
+                sb.append('?');
+                afterInKeyword = false;
+            } else if (isIdentifierPart(c)) {
+                // consuming whole identifier so that digits inside identifiers are not replaced
+                end = i + 1;
+                while (end < length && isIdentifierPart(sql.charAt(end))) {
+                    end++;
+                }
+                sb.append(sql, i, end);
+                afterInKeyword = end - i == 2 && sql.regionMatches(true, i, "in", 0, 2);
+            } else if (c == '(') {
+                end = i + 1;
+                sb.append(c);
+                inListStart = afterInKeyword ? sb.length() : -1;
+                afterInKeyword = false;
+            } else if (c == ')') {
+                end = i + 1;
+                if (inListStart != -1 && isPlaceholderList(sb, inListStart)) {
+                    sb.setLength(inListStart);
+                    sb.append('?');
+                }
+                sb.append(c);
+                inListStart = -1;
+                afterInKeyword = false;
+            } else {
+                end = i + 1;
+                sb.append(c);
+                if (!Character.isWhitespace(c)) {
+                    afterInKeyword = false;
+                }
+            }
+            i = end;
+        }
+        if (sb.length() == length && sb.toString().equals(sql)) {
+            return sql;
+        }
+        return sb.toString();
+    }
+
+    // mysql (by default) and postgresql E'' strings also treat backslash as an escape character,
+    // e.g. 'it\'s', but in standard sql a backslash is just a regular character, e.g. 'c:\', so
+    // backslash escapes are only honored if the literal is still terminated when doing so
+    private static int endOfStringLiteral(String sql, int start) {
+        int end = endOfQuoted(sql, start, true);
+        if (end == -1) {
+            end = endOfQuoted(sql, start, false);
+        }
+        return end == -1 ? sql.length() : end;
+    }
+
+    private static int endOfQuotedIdentifier(String sql, int start) {
+        int end = endOfQuoted(sql, start, false);
+        return end == -1 ? sql.length() : end;
+    }
+
+    // returns index just past the closing quote (or -1 if unterminated), treating doubled quote as
+    // an escaped quote, and if backslashEscapes is true, also treating backslash as escaping the
+    // following character
+    private static int endOfQuoted(String sql, int start, boolean backslashEscapes) {
+        char quote = sql.charAt(start);
+        int length = sql.length();
+        int i = start + 1;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (backslashEscapes && c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == quote) {
+                if (i + 1 < length && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    private static boolean isPlaceholderList(StringBuilder sb, int start) {
+        boolean placeholder = false;
+        for (int i = start; i < sb.length(); i++) {
+            char c = sb.charAt(i);
+            if (c == '?') {
+                placeholder = true;
+            } else if (c != ',' && !Character.isWhitespace(c)) {
+                return false;
+            }
+        }
+        return placeholder;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#' || c == '@';
+    }
+}
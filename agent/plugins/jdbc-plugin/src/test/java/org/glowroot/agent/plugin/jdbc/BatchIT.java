@@ -1,5 +1,5 @@
 /*
- * Copyright 2015-2018 the original author or authors.
+ * Copyright 2015-2019 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -284,6 +284,42 @@ public class BatchIT {
         assertThat(i.hasNext()).isFalse();
     }
 
+    @Test
+    public void testBatchStatementWithNormalizedLiterals() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "normalizeStatementLiterals",
+                true);
+
+        // when
+        Trace trace = container.execute(ExecuteBatchStatement.class);
+
+        // then
+        Iterator<Trace.Entry> i = trace.getEntryList().iterator();
+        List<Trace.SharedQueryText> sharedQueryTexts = trace.getSharedQueryTextList();
+
+        Trace.Entry entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage()).isEmpty();
+        assertThat(sharedQueryTexts.get(entry.getQueryEntryMessage().getSharedQueryTextIndex())
+                .getFullText()).isEqualTo("[batch] insert into employee (name) values (?),"
+                        + " insert into employee (name) values (?)");
+        assertThat(entry.getQueryEntryMessage().getPrefix()).isEqualTo("jdbc query: ");
+        assertThat(entry.getQueryEntryMessage().getSuffix())
+                .isEqualTo(" ['huckle', 'sally'] => 2 rows");
+
+        entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage()).isEmpty();
+        assertThat(sharedQueryTexts.get(entry.getQueryEntryMessage().getSharedQueryTextIndex())
+                .getFullText()).isEqualTo("[batch] insert into employee (name) values (?),"
+                        + " insert into employee (name) values (?)");
+        assertThat(entry.getQueryEntryMessage().getPrefix()).isEqualTo("jdbc query: ");
+        assertThat(entry.getQueryEntryMessage().getSuffix())
+                .isEqualTo(" ['lowly', 'pig will'] => 2 rows");
+
+        assertThat(i.hasNext()).isFalse();
+    }
+
     @Test
     public void testBatchStatementNull() throws Exception {
         // when
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc;
+
+import org.junit.Test;
+
+import org.glowroot.agent.plugin.api.internal.ReadableQueryMessage;
+import org.glowroot.agent.plugin.jdbc.message.BatchPreparedStatementMessageSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PreparedStatementMirrorTest {
+
+    @Test
+    public void shouldNotCreateBatchedParametersWhenNotCapturingBindParameters() {
+        // given
+        PreparedStatementMirror mirror = new PreparedStatementMirror("insert into x values (?)");
+
+        // when
+        mirror.setParameterValue(1, "a");
+        mirror.addBatch(false);
+        mirror.setParameterValue(1, "b");
+        mirror.addBatch(false);
+
+        // then
+        assertThat(mirror.getBatchedParameters()).isNull();
+        assertThat(mirror.getBatchSize()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldBuildMessageLazilyAfterSeveralAddBatchCalls() {
+        // given
+        PreparedStatementMirror mirror =
+                new PreparedStatementMirror("insert into x values (?, ?)");
+        for (int i = 0; i < 10; i++) {
+            mirror.setParameterValue(1, i);
+            mirror.setParameterValue(2, "x" + i);
+            mirror.addBatch(true);
+        }
+        BatchPreparedStatementMessageSupplier messageSupplier =
+                new BatchPreparedStatementMessageSupplier(mirror.getBatchedParameters(),
+                        mirror.getBatchSize());
+        mirror.clearBatch();
+        // the next batch must not affect the message of the prior batch
+        mirror.setParameterValue(1, 100);
+        mirror.setParameterValue(2, "x100");
+        mirror.addBatch(true);
+
+        // when
+        ReadableQueryMessage message = (ReadableQueryMessage) messageSupplier.get();
+
+        // then
+        assertThat(message.getPrefix()).isEqualTo("jdbc query: 10 x ");
+        StringBuilder expectedSuffix = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            expectedSuffix.append(" [" + i + ", 'x" + i + "']");
+        }
+        assertThat(message.getSuffix()).isEqualTo(expectedSuffix.toString());
+    }
+
+    @Test
+    public void shouldResetOnClearBatch() {
+        // given
+        PreparedStatementMirror mirror =
+                new PreparedStatementMirror("insert into x values (?, ?)");
+        mirror.setParameterValue(1, 1);
+        mirror.setParameterValue(2, "a");
+        mirror.addBatch(true);
+        mirror.addBatch(true);
+
+        // when
+        mirror.clearBatch();
+
+        // then
+        assertThat(mirror.getBatchedParameters()).isNull();
+        assertThat(mirror.getBatchSize()).isZero();
+        mirror.setParameterValue(1, 2);
+        mirror.addBatch(true);
+        assertThat(mirror.getBatchedParameters().getRowCount()).isEqualTo(1);
+        assertThat(mirror.getBatchSize()).isEqualTo(1);
+        // parameter 2 was cleared along with the batch
+        BatchPreparedStatementMessageSupplier messageSupplier =
+                new BatchPreparedStatementMessageSupplier(mirror.getBatchedParameters(),
+                        mirror.getBatchSize());
+        ReadableQueryMessage message = (ReadableQueryMessage) messageSupplier.get();
+        assertThat(message.getSuffix()).isEqualTo(" [2]");
+    }
+}
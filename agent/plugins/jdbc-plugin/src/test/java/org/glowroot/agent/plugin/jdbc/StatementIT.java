@@ -40,6 +40,8 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 public class StatementIT {
 
+    private static final String PLUGIN_ID = "jdbc";
+
     private static Container container;
 
     @BeforeClass
@@ -88,6 +90,48 @@ public class StatementIT {
         assertThat(j.hasNext()).isFalse();
     }
 
+    @Test
+    public void testStatementWithNormalizedLiterals() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "normalizeStatementLiterals",
+                true);
+
+        // when
+        Trace trace = container.execute(ExecuteStatementWithLiterals.class);
+
+        // then
+        Iterator<Trace.Entry> i = trace.getEntryList().iterator();
+        List<Trace.SharedQueryText> sharedQueryTexts = trace.getSharedQueryTextList();
+
+        Trace.Entry entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage()).isEmpty();
+        assertThat(sharedQueryTexts.get(entry.getQueryEntryMessage().getSharedQueryTextIndex())
+                .getFullText()).isEqualTo("select * from employee where name in (?)");
+        assertThat(entry.getQueryEntryMessage().getPrefix()).isEqualTo("jdbc query: ");
+        assertThat(entry.getQueryEntryMessage().getSuffix())
+                .isEqualTo(" ['john doe', 'sally doe'] => 2 rows");
+
+        entry = i.next();
+        assertThat(sharedQueryTexts.get(entry.getQueryEntryMessage().getSharedQueryTextIndex())
+                .getFullText()).isEqualTo("select * from employee where name in (?)");
+        assertThat(entry.getQueryEntryMessage().getSuffix())
+                .isEqualTo(" ['jane doe'] => 1 row");
+
+        assertThat(i.hasNext()).isFalse();
+
+        Iterator<Aggregate.Query> j = trace.getQueryList().iterator();
+
+        Aggregate.Query query = j.next();
+        assertThat(query.getType()).isEqualTo("SQL");
+        assertThat(sharedQueryTexts.get(query.getSharedQueryTextIndex()).getFullText())
+                .isEqualTo("select * from employee where name in (?)");
+        assertThat(query.getExecutionCount()).isEqualTo(2);
+        assertThat(query.getTotalRows().getValue()).isEqualTo(3);
+
+        assertThat(j.hasNext()).isFalse();
+    }
+
     @Test
     public void testStatementQuery() throws Exception {
         // when
@@ -119,6 +163,85 @@ public class StatementIT {
         assertThat(j.hasNext()).isFalse();
     }
 
+    @Test
+    public void testStatementQueryWithRowCountOnly() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "captureResultSetRowCountOnly",
+                true);
+
+        // when
+        Trace trace = container.execute(ExecuteStatementQueryAndIterateOverResults.class);
+
+        // then
+        Iterator<Trace.Entry> i = trace.getEntryList().iterator();
+        List<Trace.SharedQueryText> sharedQueryTexts = trace.getSharedQueryTextList();
+
+        Trace.Entry entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage()).isEmpty();
+        assertThat(sharedQueryTexts.get(entry.getQueryEntryMessage().getSharedQueryTextIndex())
+                .getFullText()).isEqualTo("select * from employee");
+        assertThat(entry.getQueryEntryMessage().getPrefix()).isEqualTo("jdbc query: ");
+        assertThat(entry.getQueryEntryMessage().getSuffix()).isEqualTo(" => 3 rows");
+
+        assertThat(i.hasNext()).isFalse();
+
+        Iterator<Aggregate.Query> j = trace.getQueryList().iterator();
+
+        Aggregate.Query query = j.next();
+        assertThat(query.getExecutionCount()).isEqualTo(1);
+        assertThat(query.getTotalRows().getValue()).isEqualTo(3);
+
+        assertThat(j.hasNext()).isFalse();
+    }
+
+    @Test
+    public void testStatementQueryWithRowCountOnlyClosedEarly() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "captureResultSetRowCountOnly",
+                true);
+
+        // when
+        Trace trace = container.execute(ExecuteStatementQueryAndCloseAfterTwoRows.class);
+
+        // then
+        Iterator<Trace.Entry> i = trace.getEntryList().iterator();
+
+        Trace.Entry entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getQueryEntryMessage().getSuffix()).isEqualTo(" => 2 rows");
+
+        assertThat(i.hasNext()).isFalse();
+    }
+
+    @Test
+    public void testStatementQueryWithRowCountOnlyReExecuted() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "captureResultSetRowCountOnly",
+                true);
+
+        // when
+        Trace trace = container.execute(ExecuteStatementQueryTwiceAndCloseFirstLate.class);
+
+        // then
+        Iterator<Trace.Entry> i = trace.getEntryList().iterator();
+        List<Trace.SharedQueryText> sharedQueryTexts = trace.getSharedQueryTextList();
+
+        Trace.Entry entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(sharedQueryTexts.get(entry.getQueryEntryMessage().getSharedQueryTextIndex())
+                .getFullText()).isEqualTo("select * from employee");
+        assertThat(entry.getQueryEntryMessage().getSuffix()).isEqualTo(" => 2 rows");
+
+        entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(sharedQueryTexts.get(entry.getQueryEntryMessage().getSharedQueryTextIndex())
+                .getFullText()).isEqualTo("select * from employee where name like 'john%'");
+        assertThat(entry.getQueryEntryMessage().getSuffix()).isEqualTo(" => 1 row");
+
+        assertThat(i.hasNext()).isFalse();
+    }
+
     @Test
     public void testStatementUpdate() throws Exception {
         // when
@@ -447,6 +570,36 @@ public class StatementIT {
         }
     }
 
+    public static class ExecuteStatementWithLiterals implements AppUnderTest, TransactionMarker {
+        private Connection connection;
+        @Override
+        public void executeApp() throws Exception {
+            connection = Connections.createConnection();
+            try {
+                transactionMarker();
+            } finally {
+                Connections.closeConnection(connection);
+            }
+        }
+        @Override
+        public void transactionMarker() throws Exception {
+            Statement statement = connection.createStatement();
+            try {
+                ResultSet rs = statement.executeQuery(
+                        "select * from employee where name in ('john doe', 'sally doe')");
+                while (rs.next()) {
+                    rs.getString(1);
+                }
+                rs = statement.executeQuery("select * from employee where name in ('jane doe')");
+                while (rs.next()) {
+                    rs.getString(1);
+                }
+            } finally {
+                statement.close();
+            }
+        }
+    }
+
     public static class ExecuteStatementQueryAndIterateOverResults
             implements AppUnderTest, TransactionMarker {
         private Connection connection;
@@ -473,6 +626,66 @@ public class StatementIT {
         }
     }
 
+    public static class ExecuteStatementQueryAndCloseAfterTwoRows
+            implements AppUnderTest, TransactionMarker {
+        private Connection connection;
+        @Override
+        public void executeApp() throws Exception {
+            connection = Connections.createConnection();
+            try {
+                transactionMarker();
+            } finally {
+                Connections.closeConnection(connection);
+            }
+        }
+        @Override
+        public void transactionMarker() throws Exception {
+            Statement statement = connection.createStatement();
+            try {
+                ResultSet rs = statement.executeQuery("select * from employee");
+                rs.next();
+                rs.next();
+                rs.close();
+            } finally {
+                statement.close();
+            }
+        }
+    }
+
+    public static class ExecuteStatementQueryTwiceAndCloseFirstLate
+            implements AppUnderTest, TransactionMarker {
+        private Connection connection;
+        @Override
+        public void executeApp() throws Exception {
+            connection = Connections.createConnection();
+            try {
+                transactionMarker();
+            } finally {
+                Connections.closeConnection(connection);
+            }
+        }
+        @Override
+        public void transactionMarker() throws Exception {
+            Statement statement = connection.createStatement();
+            try {
+                ResultSet rs = statement.executeQuery("select * from employee");
+                rs.next();
+                rs.next();
+                // re-executing the statement implicitly closes the first result set, but the
+                // application can still call close() on it afterwards
+                ResultSet rs2 =
+                        statement.executeQuery("select * from employee where name like 'john%'");
+                rs.close();
+                while (rs2.next()) {
+                    rs2.getString(1);
+                }
+                rs2.close();
+            } finally {
+                statement.close();
+            }
+        }
+    }
+
     public static class ExecuteStatementUpdate implements AppUnderTest, TransactionMarker {
         private Connection connection;
         @Override
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc.message;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BatchedBindParametersTest {
+
+    @Test
+    public void shouldGrowBeyondInitialCapacity() {
+        // given
+        BatchedBindParameters batchedParameters = new BatchedBindParameters(2);
+
+        // when
+        for (int i = 0; i < 100; i++) {
+            batchedParameters.addRow(newRow(i, "x" + i));
+        }
+
+        // then
+        assertThat(batchedParameters.getRowCount()).isEqualTo(100);
+        assertThat(getRow(batchedParameters, 0)).isEqualTo(" [0, 'x0']");
+        assertThat(getRow(batchedParameters, 50)).isEqualTo(" [50, 'x50']");
+        assertThat(getRow(batchedParameters, 99)).isEqualTo(" [99, 'x99']");
+    }
+
+    @Test
+    public void shouldGrowWhenRowsAreWiderThanInitialRowWidth() {
+        // given
+        BatchedBindParameters batchedParameters = new BatchedBindParameters(0);
+
+        // when
+        batchedParameters.addRow(newRow(1, 2, 3, 4, 5, 6, 7, 8, 9, 10));
+        batchedParameters.addRow(null);
+        batchedParameters.addRow(newRow(11));
+
+        // then
+        assertThat(batchedParameters.getRowCount()).isEqualTo(3);
+        assertThat(getRow(batchedParameters, 0))
+                .isEqualTo(" [1, 2, 3, 4, 5, 6, 7, 8, 9, 10]");
+        assertThat(getRow(batchedParameters, 1)).isEqualTo(" []");
+        assertThat(getRow(batchedParameters, 2)).isEqualTo(" [11]");
+    }
+
+    @Test
+    public void shouldCopyRowValues() {
+        // given
+        BatchedBindParameters batchedParameters = new BatchedBindParameters(1);
+        BindParameterList parameters = newRow("a");
+
+        // when
+        batchedParameters.addRow(parameters);
+        // the bind parameter list is reused for the next row
+        parameters.clear();
+        parameters.set(0, "b");
+        batchedParameters.addRow(parameters);
+
+        // then
+        assertThat(getRow(batchedParameters, 0)).isEqualTo(" ['a']");
+        assertThat(getRow(batchedParameters, 1)).isEqualTo(" ['b']");
+    }
+
+    private static BindParameterList newRow(Object... values) {
+        BindParameterList parameters = new BindParameterList(values.length);
+        for (int i = 0; i < values.length; i++) {
+            parameters.set(i, values[i]);
+        }
+        return parameters;
+    }
+
+    private static String getRow(BatchedBindParameters batchedParameters, int row) {
+        StringBuilder sb = new StringBuilder();
+        batchedParameters.appendRow(sb, row);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc.message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SqlNormalizerTest {
+
+    @Test
+    public void shouldReplaceLiterals() {
+        assertThat(SqlNormalizer.normalize("select * from employee where id = 12"))
+                .isEqualTo("select * from employee where id = ?");
+        assertThat(SqlNormalizer.normalize("select * from employee where name = 'it''s' and x=1.5"))
+                .isEqualTo("select * from employee where name = ? and x=?");
+        assertThat(SqlNormalizer.normalize("update t set a = -1e10, b = 0xff, c = .5"))
+                .isEqualTo("update t set a = -?, b = ?, c = ?");
+    }
+
+    @Test
+    public void shouldNotReplaceIdentifiersOrComments() {
+        String sql = "select t1.col2, \"col 3\", `4` from table1 t1 -- 5\n/* '6' */ where x = ?";
+        assertThat(SqlNormalizer.normalize(sql)).isSameAs(sql);
+    }
+
+    @Test
+    public void shouldCollapseInLists() {
+        assertThat(SqlNormalizer.normalize("select * from t where id in (1, 2, 3)"))
+                .isEqualTo("select * from t where id in (?)");
+        assertThat(SqlNormalizer.normalize("select * from t where name IN ('a','b')"))
+                .isEqualTo("select * from t where name IN (?)");
+        assertThat(SqlNormalizer.normalize("select * from t where id in (select id from u)"))
+                .isEqualTo("select * from t where id in (select id from u)");
+        assertThat(SqlNormalizer.normalize("select * from t where id in (1, x)"))
+                .isEqualTo("select * from t where id in (?, x)");
+        assertThat(SqlNormalizer.normalize("select * from t where f(1, 2) = 3"))
+                .isEqualTo("select * from t where f(?, ?) = ?");
+    }
+
+    @Test
+    public void shouldCaptureLiterals() {
+        // given
+        List<String> literals = new ArrayList<String>();
+
+        // when
+        SqlNormalizer.normalize("select * from t where a = 'x' and b in (1, 2)", literals);
+
+        // then
+        assertThat(literals).containsExactly("'x'", "1", "2");
+    }
+
+    @Test
+    public void shouldHandleBackslashEscapes() {
+        assertThat(SqlNormalizer.normalize("select * from t where a = 'it\\'s' and b = 1"))
+                .isEqualTo("select * from t where a = ? and b = ?");
+        assertThat(SqlNormalizer.normalize("select * from t where a = 'x\\\\' and b = 'y'"))
+                .isEqualTo("select * from t where a = ? and b = ?");
+        // standard sql where backslash is not an escape character
+        assertThat(SqlNormalizer.normalize("select * from t where a = 'c:\\' and b = 1"))
+                .isEqualTo("select * from t where a = ? and b = ?");
+    }
+
+    @Test
+    public void shouldCaptureBackslashEscapedLiterals() {
+        // given
+        List<String> literals = new ArrayList<String>();
+
+        // when
+        SqlNormalizer.normalize("select * from t where a = 'it\\'s' and b = 'c:\\'", literals);
+
+        // then
+        assertThat(literals).containsExactly("'it\\'s'", "'c:\\'");
+    }
+
+    @Test
+    public void shouldStayBoundedWhenCacheIsFull() {
+        for (int i = 0; i < SqlNormalizer.CACHE_SIZE * 2; i++) {
+            assertThat(SqlNormalizer.normalize("select * from t" + i + " where id = " + i))
+                    .isEqualTo("select * from t" + i + " where id = ?");
+        }
+        assertThat(SqlNormalizer.getCacheSize()).isLessThanOrEqualTo(SqlNormalizer.CACHE_SIZE);
+    }
+
+    @Test
+    public void shouldNormalizeConcurrently() throws Exception {
+        // given
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+
+        // when
+        for (int i = 0; i < 4; i++) {
+            futures.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    for (int j = 0; j < SqlNormalizer.CACHE_SIZE * 3; j++) {
+                        String normalized =
+                                SqlNormalizer.normalize("select * from t where id = " + j % 1500);
+                        if (!normalized.equals("select * from t where id = ?")) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            }));
+        }
+
+        // then
+        for (Future<Boolean> future : futures) {
+            assertThat(future.get()).isTrue();
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void shouldHandleUnterminated() {
+        assertThat(SqlNormalizer.normalize("select 'abc")).isEqualTo("select ?");
+        assertThat(SqlNormalizer.normalize("select 1 /* abc")).isEqualTo("select ? /* abc");
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.header.Header;
+
+import org.glowroot.agent.plugin.api.Agent;
+import org.glowroot.agent.plugin.api.MessageSupplier;
+import org.glowroot.agent.plugin.api.OptionalThreadContext;
+import org.glowroot.agent.plugin.api.TimerName;
+import org.glowroot.agent.plugin.api.TraceEntry;
+import org.glowroot.agent.plugin.api.checker.Nullable;
+import org.glowroot.agent.plugin.api.config.BooleanProperty;
+import org.glowroot.agent.plugin.api.weaving.BindReceiver;
+import org.glowroot.agent.plugin.api.weaving.BindReturn;
+import org.glowroot.agent.plugin.api.weaving.BindThrowable;
+import org.glowroot.agent.plugin.api.weaving.BindTraveler;
+import org.glowroot.agent.plugin.api.weaving.MethodModifier;
+import org.glowroot.agent.plugin.api.weaving.Mixin;
+import org.glowroot.agent.plugin.api.weaving.OnBefore;
+import org.glowroot.agent.plugin.api.weaving.OnReturn;
+import org.glowroot.agent.plugin.api.weaving.OnThrow;
+import org.glowroot.agent.plugin.api.weaving.Pointcut;
+import org.glowroot.agent.plugin.kafka._.ConsumerBatch;
+
+public class ConsumerAspect {
+
+    private static final BooleanProperty transactionPerPollBatch =
+            Agent.getConfigService("kafka").getBooleanProperty("transactionPerPollBatch");
+
+    // the field and method names are verbose since they will be mixed in to existing classes
+    @Mixin("org.apache.kafka.clients.consumer.KafkaConsumer")
+    public static class KafkaConsumerImpl implements KafkaConsumerMixin {
+
+        // KafkaConsumer enforces single threaded access, so no need for volatile
+        private transient @Nullable ConsumerBatch glowroot$consumerBatch;
+
+        @Override
+        public @Nullable ConsumerBatch glowroot$getConsumerBatch() {
+            return glowroot$consumerBatch;
+        }
+
+        @Override
+        public void glowroot$setConsumerBatch(@Nullable ConsumerBatch consumerBatch) {
+            glowroot$consumerBatch = consumerBatch;
+        }
+    }
+
+    // the method names are verbose since they will be mixed in to existing classes
+    public interface KafkaConsumerMixin {
+
+        @Nullable
+        ConsumerBatch glowroot$getConsumerBatch();
+
+        void glowroot$setConsumerBatch(@Nullable ConsumerBatch consumerBatch);
+    }
+
+    // poll(long) and poll(java.time.Duration) both delegate to a private method in kafka-clients
+    // 2.0.0+, so restricting to public methods is sufficient to avoid nesting, which is important
+    // since a nesting group would be inherited by the transaction started in @OnReturn below
+    @Pointcut(className = "org.apache.kafka.clients.consumer.KafkaConsumer", methodName = "poll",
+            methodParameterTypes = {".."}, methodModifiers = MethodModifier.PUBLIC,
+            timerName = "kafka poll")
+    public static class PollAdvice {
+
+        private static final TimerName timerName = Agent.getTimerName(PollAdvice.class);
+
+        private static final TimerName batchTimerName = Agent.getTimerName("kafka consumer batch");
+
+        // traveler returned when @OnBefore ends the prior batch transaction, in which case the
+        // context passed to @OnReturn is still the (completed) thread context of that transaction,
+        // so context.isInTransaction() cannot be used there to decide whether to start the next one
+        private static final Object PRIOR_BATCH_ENDED = new Object();
+
+        @OnBefore
+        public static @Nullable Object onBefore(OptionalThreadContext context,
+                @BindReceiver KafkaConsumerMixin consumer) {
+            ConsumerBatch consumerBatch = consumer.glowroot$getConsumerBatch();
+            if (consumerBatch != null && consumerBatch.isProcessingThread()) {
+                // processing of the prior batch is complete
+                consumer.glowroot$setConsumerBatch(null);
+                consumerBatch.end(context);
+                // the batch transaction was the only transaction on this thread
+                return PRIOR_BATCH_ENDED;
+            }
+            if (!context.isInTransaction()) {
+                return null;
+            }
+            return context.startTraceEntry(new PollMessageSupplier(), timerName);
+        }
+
+        @OnReturn
+        public static void onReturn(@BindReturn @Nullable ConsumerRecords<?, ?> records,
+                OptionalThreadContext context, @BindReceiver KafkaConsumerMixin consumer,
+                @BindTraveler @Nullable Object traveler) {
+            if (traveler instanceof TraceEntry) {
+                TraceEntry traceEntry = (TraceEntry) traveler;
+                if (records != null) {
+                    Object messageSupplier = traceEntry.getMessageSupplier();
+                    if (messageSupplier instanceof PollMessageSupplier) {
+                        ((PollMessageSupplier) messageSupplier).setRecordCount(records.count());
+                    }
+                }
+                traceEntry.end();
+                return;
+            }
+            if (records == null || !transactionPerPollBatch.value()) {
+                return;
+            }
+            if (traveler != PRIOR_BATCH_ENDED && context.isInTransaction()) {
+                return;
+            }
+            int recordCount = records.count();
+            if (recordCount == 0) {
+                return;
+            }
+            long startTick = System.nanoTime();
+            // only the first record is inspected so the overhead does not depend on the batch
+            // size
+            ConsumerRecord<?, ?> firstRecord = records.iterator().next();
+            String topic = firstRecord.topic();
+            if (topic == null) {
+                topic = "";
+            }
+            TraceEntry batchTraceEntry = context.startTransaction("Kafka Consumer", topic,
+                    MessageSupplier.create("kafka consumer batch: {} => {}", topic,
+                            Integer.toString(recordCount)),
+                    batchTimerName);
+            if (ProducerAspect.propagateTraceContext.value()) {
+                // the batch joins the trace of its first record
+                Header header = firstRecord.headers().lastHeader("traceparent");
+                if (header != null && header.value() != null) {
+                    context.setTransactionTraceparent(
+                            new String(header.value(), ProducerAspect.UTF_8));
+                }
+            }
+            context.addTransactionAttribute("Kafka batch size", Integer.toString(recordCount));
+            long timestamp = firstRecord.timestamp();
+            if (timestamp >= 0) {
+                context.addTransactionAttribute("Kafka record latency (ms)",
+                        Long.toString(Math.max(0, System.currentTimeMillis() - timestamp)));
+            }
+            consumer.glowroot$setConsumerBatch(
+                    new ConsumerBatch(batchTraceEntry, recordCount, startTick));
+        }
+
+        @OnThrow
+        public static void onThrow(@BindThrowable Throwable t,
+                @BindTraveler @Nullable Object traveler) {
+            if (traveler instanceof TraceEntry) {
+                ((TraceEntry) traveler).endWithError(t);
+            }
+        }
+    }
+
+    @Pointcut(className = "org.apache.kafka.clients.consumer.KafkaConsumer", methodName = "close",
+            methodParameterTypes = {".."}, methodModifiers = MethodModifier.PUBLIC)
+    public static class CloseAdvice {
+
+        @OnBefore
+        public static void onBefore(OptionalThreadContext context,
+                @BindReceiver KafkaConsumerMixin consumer) {
+            ConsumerBatch consumerBatch = consumer.glowroot$getConsumerBatch();
+            if (consumerBatch == null) {
+                return;
+            }
+            if (consumerBatch.isProcessingThread()) {
+                consumer.glowroot$setConsumerBatch(null);
+                consumerBatch.end(context);
+            }
+            // otherwise the batch transaction is left for the processing thread to end on its next
+            // call to poll (which fails once the consumer is closed), since ending it here would
+            // end the processing thread's transaction out from under it
+        }
+    }
+}
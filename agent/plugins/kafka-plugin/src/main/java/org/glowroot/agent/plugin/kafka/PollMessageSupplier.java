@@ -0,0 +1,38 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.kafka;
+
+import org.glowroot.agent.plugin.api.Message;
+import org.glowroot.agent.plugin.api.MessageSupplier;
+
+class PollMessageSupplier extends MessageSupplier {
+
+    private volatile int recordCount = -1;
+
+    void setRecordCount(int recordCount) {
+        this.recordCount = recordCount;
+    }
+
+    @Override
+    public Message get() {
+        int recordCount = this.recordCount;
+        if (recordCount == -1) {
+            return Message.create("kafka poll");
+        } else {
+            return Message.create("kafka poll => " + recordCount);
+        }
+    }
+}
@@ -15,8 +15,11 @@
  */
 package org.glowroot.agent.plugin.kafka;
 
+import java.nio.charset.Charset;
+
 import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Headers;
 
 import org.glowroot.agent.plugin.api.Agent;
 import org.glowroot.agent.plugin.api.AsyncTraceEntry;
@@ -25,6 +28,7 @@ import org.glowroot.agent.plugin.api.ParameterHolder;
 import org.glowroot.agent.plugin.api.ThreadContext;
 import org.glowroot.agent.plugin.api.TimerName;
 import org.glowroot.agent.plugin.api.checker.Nullable;
+import org.glowroot.agent.plugin.api.config.BooleanProperty;
 import org.glowroot.agent.plugin.api.weaving.BindParameter;
 import org.glowroot.agent.plugin.api.weaving.BindThrowable;
 import org.glowroot.agent.plugin.api.weaving.BindTraveler;
@@ -35,6 +39,11 @@ import org.glowroot.agent.plugin.api.weaving.Pointcut;
 
 public class ProducerAspect {
 
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final BooleanProperty propagateTraceContext =
+            Agent.getConfigService("kafka").getBooleanProperty("propagateTraceContext");
+
     @Pointcut(className = "org.apache.kafka.clients.producer.KafkaProducer", methodName = "send",
             methodParameterTypes = {"org.apache.kafka.clients.producer.ProducerRecord",
                     "org.apache.kafka.clients.producer.Callback"},
@@ -54,6 +63,9 @@ public class ProducerAspect {
             if (topic == null) {
                 topic = "";
             }
+            if (propagateTraceContext.value()) {
+                propagateTraceContext(context, record);
+            }
             AsyncTraceEntry asyncTraceEntry = context.startAsyncServiceCallEntry("Kafka", topic,
                     MessageSupplier.create("kafka send: {}", topic), timerName);
             Callback callback = callbackHolder.get();
@@ -66,6 +78,20 @@ public class ProducerAspect {
             return asyncTraceEntry;
         }
 
+        private static void propagateTraceContext(ThreadContext context,
+                ProducerRecord<?, ?> record) {
+            Headers headers = record.headers();
+            if (headers.lastHeader("traceparent") != null) {
+                return;
+            }
+            try {
+                headers.add("traceparent", context.getTransactionTraceparent().getBytes(UTF_8));
+            } catch (IllegalStateException e) {
+                // headers are read-only once the record has been sent, e.g. when re-sending the
+                // same record
+            }
+        }
+
         @OnReturn
         public static void onReturn(@BindTraveler @Nullable AsyncTraceEntry asyncTraceEntry) {
             if (asyncTraceEntry != null) {
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.kafka._;
+
+import org.glowroot.agent.plugin.api.ThreadContext;
+import org.glowroot.agent.plugin.api.TraceEntry;
+
+// state for a transaction started by ConsumerAspect for processing a batch of records returned
+// from poll, which is ended on the next call to poll (or close) on the same consumer from the
+// thread that is processing the batch
+//
+// KafkaConsumer is not thread safe (and enforces single threaded access), so no synchronization
+// is needed here
+public class ConsumerBatch {
+
+    private final TraceEntry traceEntry;
+    private final int recordCount;
+    private final long startTick;
+    private final Thread thread;
+
+    public ConsumerBatch(TraceEntry traceEntry, int recordCount, long startTick) {
+        this.traceEntry = traceEntry;
+        this.recordCount = recordCount;
+        this.startTick = startTick;
+        thread = Thread.currentThread();
+    }
+
+    // the batch transaction is bound to the thread that is processing the batch, and cannot be
+    // ended from any other thread
+    public boolean isProcessingThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    public void end(ThreadContext context) {
+        // computed once per batch so the overhead does not depend on the batch size
+        long avgRecordProcessingNanos = (System.nanoTime() - startTick) / recordCount;
+        context.addTransactionAttribute("Kafka avg record processing time (microseconds)",
+                Long.toString(avgRecordProcessingNanos / 1000));
+        traceEntry.end();
+    }
+}
@@ -1,5 +1,5 @@
 /**
- * Copyright 2018 the original author or authors.
+ * Copyright 2018-2019 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,17 +17,25 @@ package org.glowroot.agent.plugin.kafka;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.common.serialization.LongDeserializer;
 import org.apache.kafka.common.serialization.LongSerializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
@@ -39,11 +47,15 @@ import org.glowroot.agent.it.harness.Container;
 import org.glowroot.agent.it.harness.TransactionMarker;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class KafkaPluginIT {
 
+    private static final String TRACEPARENT =
+            "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01";
+
     private static Container container;
 
     @BeforeClass
@@ -81,6 +93,101 @@ public class KafkaPluginIT {
         assertThat(nestedTimers.get(0).getName()).isEqualTo("kafka poll");
     }
 
+    @Test
+    public void shouldStartTransactionPerPollBatch() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty("kafka", "transactionPerPollBatch",
+                true);
+
+        // when
+        Trace trace = container.execute(ProcessBatch.class, "Kafka Consumer");
+
+        // then
+        Trace.Header header = trace.getHeader();
+        assertThat(header.getTransactionName()).isEqualTo("demo");
+        assertThat(header.getHeadline()).isEqualTo("kafka consumer batch: demo => 3");
+        assertThat(header.getMainThreadRootTimer().getName()).isEqualTo("kafka consumer batch");
+        assertThat(getAttribute(header, "Kafka batch size")).isEqualTo("3");
+        assertThat(Long.parseLong(getAttribute(header, "Kafka record latency (ms)")))
+                .isGreaterThanOrEqualTo(0);
+        assertThat(Long.parseLong(
+                getAttribute(header, "Kafka avg record processing time (microseconds)")))
+                        .isGreaterThanOrEqualTo(1000);
+    }
+
+    @Test
+    public void shouldStartTransactionPerBackToBackPollBatch() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty("kafka", "transactionPerPollBatch",
+                true);
+
+        // when
+        // the second batch is the one that did not get a transaction when the prior batch
+        // transaction was ended by the same poll() call, and since its transaction completes last,
+        // waiting for it also ensures no trace from this app is left over for subsequent tests
+        Trace trace =
+                container.execute(ProcessBackToBackBatches.class, "Kafka Consumer", "demo2");
+
+        // then
+        Trace.Header header = trace.getHeader();
+        assertThat(header.getHeadline()).isEqualTo("kafka consumer batch: demo2 => 3");
+        assertThat(header.getMainThreadRootTimer().getName()).isEqualTo("kafka consumer batch");
+        assertThat(getAttribute(header, "Kafka batch size")).isEqualTo("3");
+    }
+
+    @Test
+    public void shouldJoinTraceContextPerPollBatch() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty("kafka", "transactionPerPollBatch",
+                true);
+        container.getConfigService().setPluginProperty("kafka", "propagateTraceContext", true);
+
+        // when
+        Trace trace = container.execute(ProcessBatch.class, "Kafka Consumer");
+
+        // then
+        Trace.Header header = trace.getHeader();
+        assertThat(getAttribute(header, "W3C trace id"))
+                .isEqualTo("4bf92f3577b34da6a3ce929d0e0e4736");
+        assertThat(getAttribute(header, "W3C parent id")).isEqualTo("00f067aa0ba902b7");
+    }
+
+    @Test
+    public void shouldEndTransactionPerPollBatchClosedFromAnotherThread() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty("kafka", "transactionPerPollBatch",
+                true);
+
+        // when
+        Trace trace = container.execute(ProcessBatchClosedFromAnotherThread.class,
+                "Kafka Consumer");
+
+        // then
+        Trace.Header header = trace.getHeader();
+        assertThat(header.getHeadline()).isEqualTo("kafka consumer batch: demo => 3");
+        assertThat(header.getMainThreadRootTimer().getName()).isEqualTo("kafka consumer batch");
+        assertThat(header.hasAuxThreadRootTimer()).isFalse();
+        // the batch transaction is ended by the processing thread, so this is captured in the
+        // batch transaction (and not lost on the closing thread)
+        assertThat(Long.parseLong(
+                getAttribute(header, "Kafka avg record processing time (microseconds)")))
+                        .isGreaterThanOrEqualTo(1000);
+    }
+
+    @Test
+    public void shouldNotStartTransactionPerPollBatchByDefault() throws Exception {
+        container.executeNoExpectedTrace(ProcessBatch.class);
+    }
+
+    private static String getAttribute(Trace.Header header, String name) {
+        for (Trace.Attribute attribute : header.getAttributeList()) {
+            if (attribute.getName().equals(name)) {
+                return attribute.getValue(0);
+            }
+        }
+        throw new AssertionError("Attribute not found: " + name);
+    }
+
     public static class SendRecord implements AppUnderTest, TransactionMarker {
 
         private Producer<Long, String> producer;
@@ -155,4 +262,99 @@ public class KafkaPluginIT {
             return consumer;
         }
     }
+
+    public static class ProcessBatch implements AppUnderTest {
+
+        @Override
+        public void executeApp() throws Exception {
+            Consumer<String, String> consumer = new StubConsumer("demo");
+            ConsumerRecords<String, String> consumerRecords = consumer.poll(100);
+            for (ConsumerRecord<String, String> consumerRecord : consumerRecords) {
+                MILLISECONDS.sleep(1);
+            }
+            // this ends the batch transaction
+            consumer.poll(100);
+            consumer.close();
+        }
+    }
+
+    public static class ProcessBatchClosedFromAnotherThread implements AppUnderTest {
+
+        @Override
+        public void executeApp() throws Exception {
+            final Consumer<String, String> consumer = new StubConsumer("demo");
+            ConsumerRecords<String, String> consumerRecords = consumer.poll(100);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    consumer.close();
+                }
+            });
+            thread.start();
+            thread.join();
+            for (ConsumerRecord<String, String> consumerRecord : consumerRecords) {
+                MILLISECONDS.sleep(1);
+            }
+            // this ends the batch transaction (a real consumer would then throw
+            // IllegalStateException since it has been closed)
+            consumer.poll(100);
+        }
+    }
+
+    public static class ProcessBackToBackBatches implements AppUnderTest {
+
+        @Override
+        public void executeApp() throws Exception {
+            Consumer<String, String> consumer = new StubConsumer("demo", "demo2");
+            consumer.poll(100);
+            // this ends the first batch transaction and starts the second one
+            consumer.poll(100);
+            // this ends the second batch transaction
+            consumer.poll(100);
+            consumer.close();
+        }
+    }
+
+    // this is a KafkaConsumer so that it is instrumented, but does not need a Kafka broker
+    private static class StubConsumer extends KafkaConsumer<String, String> {
+
+        private final String[] batchTopics;
+        private int pollCount;
+
+        // returns one batch of records for each topic, then no more records
+        private StubConsumer(String... batchTopics) {
+            super(createProperties());
+            this.batchTopics = batchTopics;
+        }
+
+        @Override
+        public ConsumerRecords<String, String> poll(long timeout) {
+            if (pollCount == batchTopics.length) {
+                return ConsumerRecords.empty();
+            }
+            String topic = batchTopics[pollCount++];
+            TopicPartition topicPartition = new TopicPartition(topic, 0);
+            List<ConsumerRecord<String, String>> records = Lists.newArrayList();
+            long timestamp = System.currentTimeMillis();
+            for (int i = 0; i < 3; i++) {
+                RecordHeaders headers = new RecordHeaders();
+                headers.add("traceparent", TRACEPARENT.getBytes(Charsets.UTF_8));
+                records.add(new ConsumerRecord<String, String>(topic, 0, i, timestamp,
+                        TimestampType.CREATE_TIME, 0L, 0, 0, "key", "value", headers));
+            }
+            Map<TopicPartition, List<ConsumerRecord<String, String>>> map =
+                    ImmutableMap.of(topicPartition, records);
+            return new ConsumerRecords<String, String>(map);
+        }
+
+        private static Properties createProperties() {
+            Properties props = new Properties();
+            props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+            props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG,
+                    StringDeserializer.class.getName());
+            props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG,
+                    StringDeserializer.class.getName());
+            return props;
+        }
+    }
 }
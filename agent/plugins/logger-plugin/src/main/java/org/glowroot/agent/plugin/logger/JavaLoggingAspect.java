@@ -1,5 +1,5 @@
 /*
- * Copyright 2017-2018 the original author or authors.
+ * Copyright 2017-2019 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -38,6 +38,8 @@ public class JavaLoggingAspect {
 
     private static final String TIMER_NAME = "logging";
 
+    private static final Formatter formatter = new DummyFormatter();
+
     @Pointcut(className = "java.util.logging.Logger", methodName = "log",
             methodParameterTypes = {"java.util.logging.LogRecord"}, nestingGroup = "logging",
             timerName = TIMER_NAME)
@@ -45,8 +47,6 @@ public class JavaLoggingAspect {
 
         private static final TimerName timerName = Agent.getTimerName(LogAdvice.class);
 
-        private static final Formatter formatter = new DummyFormatter();
-
         // cannot use java.util.logging.Logger in the signature of this method because that triggers
         // java.util.logging.Logger to be loaded before weaving is put in place (from inside
         // org.glowroot.agent.weaving.AdviceBuilder)
@@ -78,7 +78,7 @@ public class JavaLoggingAspect {
                     traveler.traceEntry.endWithInfo(t);
                 }
             } else if (traveler.level >= Level.WARNING.intValue()) {
-                traveler.traceEntry.endWithError(traveler.formattedMessage);
+                traveler.traceEntry.endWithError(traveler.messageSupplier.getFormattedMessage());
             } else {
                 traveler.traceEntry.end();
             }
@@ -89,21 +89,24 @@ public class JavaLoggingAspect {
             // cannot check Logger.getFilter().isLoggable(LogRecord) because the Filter object
             // could be stateful and might alter its state (e.g.
             // com.sun.mail.util.logging.DurationFilter)
-            String formattedMessage = nullToEmpty(formatter.formatMessage(record));
             int lvl = level.intValue();
             Throwable t = record.getThrown();
-            if (LoggerPlugin.markTraceAsError(lvl >= Level.SEVERE.intValue(),
-                    lvl >= Level.WARNING.intValue(), t != null)) {
-                context.setTransactionError(formattedMessage, t);
+            LogMessageSupplier messageSupplier;
+            if (lvl < Level.WARNING.intValue()
+                    && LoggerPlugin.hasOnlyImmutableArgs(record.getParameters())) {
+                messageSupplier = new LogMessageSupplier(level.getName().toLowerCase(),
+                        record.getLoggerName(), record);
+            } else {
+                String formattedMessage = nullToEmpty(formatter.formatMessage(record));
+                if (LoggerPlugin.markTraceAsError(lvl >= Level.SEVERE.intValue(),
+                        lvl >= Level.WARNING.intValue(), t != null)) {
+                    context.setTransactionError(formattedMessage, t);
+                }
+                messageSupplier = new LogMessageSupplier(level.getName().toLowerCase(),
+                        record.getLoggerName(), formattedMessage);
             }
-            TraceEntry traceEntry =
-                    context.startTraceEntry(new LogMessageSupplier(level.getName().toLowerCase(),
-                            record.getLoggerName(), formattedMessage), timerName);
-            return new LogAdviceTraveler(traceEntry, lvl, formattedMessage, t);
-        }
-
-        private static String nullToEmpty(@Nullable String s) {
-            return s == null ? "" : s;
+            TraceEntry traceEntry = context.startTraceEntry(messageSupplier, timerName);
+            return new LogAdviceTraveler(traceEntry, lvl, messageSupplier, t);
         }
     }
 
@@ -131,14 +134,14 @@ public class JavaLoggingAspect {
 
         private final TraceEntry traceEntry;
         private final int level;
-        private final String formattedMessage;
+        private final LogMessageSupplier messageSupplier;
         private final @Nullable Throwable throwable;
 
-        private LogAdviceTraveler(TraceEntry traceEntry, int level, String formattedMessage,
-                @Nullable Throwable throwable) {
+        private LogAdviceTraveler(TraceEntry traceEntry, int level,
+                LogMessageSupplier messageSupplier, @Nullable Throwable throwable) {
             this.traceEntry = traceEntry;
             this.level = level;
-            this.formattedMessage = formattedMessage;
+            this.messageSupplier = messageSupplier;
             this.throwable = throwable;
         }
     }
@@ -155,18 +158,42 @@ public class JavaLoggingAspect {
 
         private final String level;
         private final String loggerName;
-        private final String messageText;
+        // only non-null when formatting lazily (see LoggerPlugin.hasOnlyImmutableArgs())
+        private final @Nullable LogRecord record;
+
+        private volatile @Nullable String formattedMessage;
+
+        private LogMessageSupplier(String level, String loggerName, String formattedMessage) {
+            this.level = level;
+            this.loggerName = loggerName;
+            record = null;
+            this.formattedMessage = formattedMessage;
+        }
 
-        private LogMessageSupplier(String level, String loggerName, String messageText) {
+        private LogMessageSupplier(String level, String loggerName, LogRecord record) {
             this.level = level;
             this.loggerName = loggerName;
-            this.messageText = messageText;
+            this.record = record;
         }
 
         @Override
         public Message get() {
             return Message.create("log {}: {} - {}", level,
-                    LoggerPlugin.getAbbreviatedLoggerName(loggerName), messageText);
+                    LoggerPlugin.getAbbreviatedLoggerName(loggerName), getFormattedMessage());
         }
+
+        private String getFormattedMessage() {
+            String formattedMessage = this.formattedMessage;
+            if (formattedMessage == null) {
+                formattedMessage =
+                        record == null ? "" : nullToEmpty(formatter.formatMessage(record));
+                this.formattedMessage = formattedMessage;
+            }
+            return formattedMessage;
+        }
+    }
+
+    private static String nullToEmpty(@Nullable String s) {
+        return s == null ? "" : s;
     }
 }
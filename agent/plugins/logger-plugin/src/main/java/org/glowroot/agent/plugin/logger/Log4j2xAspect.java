@@ -1,5 +1,5 @@
 /*
- * Copyright 2014-2018 the original author or authors.
+ * Copyright 2014-2019 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -56,8 +56,19 @@ public class Log4j2xAspect {
 
     @Shim("org.apache.logging.log4j.message.Message")
     public interface Message {
+
         @Nullable
         String getFormattedMessage();
+
+        @Nullable
+        Object /*@Nullable*/ [] getParameters();
+    }
+
+    @Shim("org.apache.logging.log4j.message.ReusableMessage")
+    public interface ReusableMessage {
+        @Shim("org.apache.logging.log4j.message.Message memento()")
+        @Nullable
+        Message glowroot$memento();
     }
 
     @Pointcut(className = "org.apache.logging.log4j.spi.ExtendedLogger", methodName = "logMessage",
@@ -75,22 +86,24 @@ public class Log4j2xAspect {
                 @BindParameter @Nullable Level level,
                 @SuppressWarnings("unused") @BindParameter @Nullable Object marker,
                 @BindParameter @Nullable Message message, @BindParameter @Nullable Throwable t) {
-            String formattedMessage =
-                    message == null ? "" : nullToEmpty(message.getFormattedMessage());
             int lvl = level == null ? 0 : level.intLevel();
-            if (LoggerPlugin.markTraceAsError(lvl <= ERROR, lvl <= WARN, t != null)) {
-                context.setTransactionError(formattedMessage, t);
+            Message lazyMessage = lvl > WARN ? getLazyFormattableMessage(message) : null;
+            LogMessageSupplier messageSupplier;
+            if (lazyMessage != null
+                    && LoggerPlugin.hasOnlyImmutableArgs(lazyMessage.getParameters())) {
+                messageSupplier =
+                        new LogMessageSupplier(getLevelStr(lvl), logger.getName(), lazyMessage);
+            } else {
+                String formattedMessage =
+                        message == null ? "" : nullToEmpty(message.getFormattedMessage());
+                if (LoggerPlugin.markTraceAsError(lvl <= ERROR, lvl <= WARN, t != null)) {
+                    context.setTransactionError(formattedMessage, t);
+                }
+                messageSupplier = new LogMessageSupplier(getLevelStr(lvl), logger.getName(),
+                        formattedMessage);
             }
-            // not using LoggerPlugin.getAbbreviatedLoggerName() because log4j2 2.9.0+ uses
-            // canonical class name instead of class name for the logger name (see
-            // https://issues.apache.org/jira/browse/LOG4J2-2023) and this causes
-            // LoggerPlugin.getAbbreviatedLoggerName() to abbreviate outer class names, e.g. a
-            // logger for org.example.Outer$Inner has logger name org.example.Outer.Inner and would
-            // then be abbreviated as org.example.O.Inner, which seems not ideal
-            TraceEntry traceEntry =
-                    context.startTraceEntry(MessageSupplier.create("log {}: {} - {}",
-                            getLevelStr(lvl), logger.getName(), formattedMessage), timerName);
-            return new LogAdviceTraveler(traceEntry, lvl, formattedMessage, t);
+            TraceEntry traceEntry = context.startTraceEntry(messageSupplier, timerName);
+            return new LogAdviceTraveler(traceEntry, lvl, messageSupplier, t);
         }
 
         @OnAfter
@@ -104,14 +117,28 @@ public class Log4j2xAspect {
                     traveler.traceEntry.endWithInfo(t);
                 }
             } else if (traveler.level <= WARN) {
-                traveler.traceEntry.endWithError(traveler.formattedMessage);
+                traveler.traceEntry.endWithError(traveler.messageSupplier.getFormattedMessage());
             } else {
                 traveler.traceEntry.end();
             }
         }
 
-        private static String nullToEmpty(@Nullable String s) {
-            return s == null ? "" : s;
+        // returns null if the message cannot be formatted lazily
+        private static @Nullable Message getLazyFormattableMessage(@Nullable Message message) {
+            if (message == null) {
+                return null;
+            }
+            String className = message.getClass().getName();
+            if (className.equals("org.apache.logging.log4j.message.ParameterizedMessage")) {
+                return message;
+            }
+            if (className.equals("org.apache.logging.log4j.message.ReusableParameterizedMessage")
+                    && message instanceof ReusableMessage) {
+                // reusable messages are overwritten by the next log statement on the same thread,
+                // the memento is an immutable ParameterizedMessage copy (without formatting it)
+                return ((ReusableMessage) message).glowroot$memento();
+            }
+            return null;
         }
 
         private static String getLevelStr(int lvl) {
@@ -142,15 +169,65 @@ public class Log4j2xAspect {
 
         private final TraceEntry traceEntry;
         private final int level;
-        private final String formattedMessage;
+        private final LogMessageSupplier messageSupplier;
         private final @Nullable Throwable throwable;
 
-        private LogAdviceTraveler(TraceEntry traceEntry, int level, String formattedMessage,
-                @Nullable Throwable throwable) {
+        private LogAdviceTraveler(TraceEntry traceEntry, int level,
+                LogMessageSupplier messageSupplier, @Nullable Throwable throwable) {
             this.traceEntry = traceEntry;
             this.level = level;
-            this.formattedMessage = formattedMessage;
+            this.messageSupplier = messageSupplier;
             this.throwable = throwable;
         }
     }
+
+    private static class LogMessageSupplier extends MessageSupplier {
+
+        private final String level;
+        private final @Nullable String loggerName;
+        // only non-null when formatting lazily (see LoggerPlugin.hasOnlyImmutableArgs())
+        private final @Nullable Message message;
+
+        private volatile @Nullable String formattedMessage;
+
+        private LogMessageSupplier(String level, @Nullable String loggerName,
+                String formattedMessage) {
+            this.level = level;
+            this.loggerName = loggerName;
+            message = null;
+            this.formattedMessage = formattedMessage;
+        }
+
+        private LogMessageSupplier(String level, @Nullable String loggerName, Message message) {
+            this.level = level;
+            this.loggerName = loggerName;
+            this.message = message;
+        }
+
+        // not using LoggerPlugin.getAbbreviatedLoggerName() because log4j2 2.9.0+ uses canonical
+        // class name instead of class name for the logger name (see
+        // https://issues.apache.org/jira/browse/LOG4J2-2023) and this causes
+        // LoggerPlugin.getAbbreviatedLoggerName() to abbreviate outer class names, e.g. a logger
+        // for org.example.Outer$Inner has logger name org.example.Outer.Inner and would then be
+        // abbreviated as org.example.O.Inner, which seems not ideal
+        @Override
+        public org.glowroot.agent.plugin.api.Message get() {
+            return org.glowroot.agent.plugin.api.Message.create("log {}: {} - {}", level,
+                    loggerName, getFormattedMessage());
+        }
+
+        private String getFormattedMessage() {
+            String formattedMessage = this.formattedMessage;
+            if (formattedMessage == null) {
+                formattedMessage =
+                        message == null ? "" : nullToEmpty(message.getFormattedMessage());
+                this.formattedMessage = formattedMessage;
+            }
+            return formattedMessage;
+        }
+    }
+
+    private static String nullToEmpty(@Nullable String s) {
+        return s == null ? "" : s;
+    }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2014-2018 the original author or authors.
+ * Copyright 2014-2019 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -54,6 +54,9 @@ public class LogbackAspect {
         @Nullable
         String getFormattedMessage();
 
+        @Nullable
+        Object /*@Nullable*/ [] getArgumentArray();
+
         @Nullable
         String getLoggerName();
 
@@ -86,7 +89,6 @@ public class LogbackAspect {
             if (loggingEvent == null) {
                 return null;
             }
-            String formattedMessage = nullToEmpty(loggingEvent.getFormattedMessage());
             Level level = loggingEvent.glowroot$getLevel();
             int lvl = level == null ? 0 : level.toInt();
             Object throwableProxy = loggingEvent.glowroot$getThrowableProxy();
@@ -96,14 +98,21 @@ public class LogbackAspect {
                 // and it is only used for logging exceptions over the wire
                 t = ((ThrowableProxy) throwableProxy).getThrowable();
             }
-            if (LoggerPlugin.markTraceAsError(lvl >= ERROR_INT, lvl >= WARN_INT, t != null)) {
-                context.setTransactionError(formattedMessage, t);
+            LogMessageSupplier messageSupplier;
+            if (lvl < WARN_INT
+                    && LoggerPlugin.hasOnlyImmutableArgs(loggingEvent.getArgumentArray())) {
+                messageSupplier =
+                        new LogMessageSupplier(lvl, loggingEvent.getLoggerName(), loggingEvent);
+            } else {
+                String formattedMessage = nullToEmpty(loggingEvent.getFormattedMessage());
+                if (LoggerPlugin.markTraceAsError(lvl >= ERROR_INT, lvl >= WARN_INT, t != null)) {
+                    context.setTransactionError(formattedMessage, t);
+                }
+                messageSupplier =
+                        new LogMessageSupplier(lvl, loggingEvent.getLoggerName(), formattedMessage);
             }
-            TraceEntry traceEntry;
-            traceEntry = context.startTraceEntry(
-                    new LogMessageSupplier(lvl, loggingEvent.getLoggerName(), formattedMessage),
-                    timerName);
-            return new LogAdviceTraveler(traceEntry, lvl, formattedMessage, t);
+            TraceEntry traceEntry = context.startTraceEntry(messageSupplier, timerName);
+            return new LogAdviceTraveler(traceEntry, lvl, messageSupplier, t);
         }
 
         @OnAfter
@@ -120,15 +129,11 @@ public class LogbackAspect {
                     traveler.traceEntry.endWithInfo(t);
                 }
             } else if (traveler.level >= WARN_INT) {
-                traveler.traceEntry.endWithError(traveler.formattedMessage);
+                traveler.traceEntry.endWithError(traveler.messageSupplier.getFormattedMessage());
             } else {
                 traveler.traceEntry.end();
             }
         }
-
-        private static String nullToEmpty(@Nullable String s) {
-            return s == null ? "" : s;
-        }
     }
 
     // this is for logback prior to 0.9.16
@@ -152,10 +157,10 @@ public class LogbackAspect {
             if (LoggerPlugin.markTraceAsError(lvl >= ERROR_INT, lvl >= WARN_INT, t != null)) {
                 context.setTransactionError(formattedMessage, t);
             }
-            TraceEntry traceEntry = context.startTraceEntry(
-                    new LogMessageSupplier(lvl, invoker.getLoggerName(logger), formattedMessage),
-                    timerName);
-            return new LogAdviceTraveler(traceEntry, lvl, formattedMessage, t);
+            LogMessageSupplier messageSupplier =
+                    new LogMessageSupplier(lvl, invoker.getLoggerName(logger), formattedMessage);
+            TraceEntry traceEntry = context.startTraceEntry(messageSupplier, timerName);
+            return new LogAdviceTraveler(traceEntry, lvl, messageSupplier, t);
         }
 
         @OnAfter
@@ -172,7 +177,7 @@ public class LogbackAspect {
                     traveler.traceEntry.endWithInfo(t);
                 }
             } else if (traveler.level >= WARN_INT) {
-                traveler.traceEntry.endWithError(traveler.formattedMessage);
+                traveler.traceEntry.endWithError(traveler.messageSupplier.getFormattedMessage());
             } else {
                 traveler.traceEntry.end();
             }
@@ -183,14 +188,14 @@ public class LogbackAspect {
 
         private final TraceEntry traceEntry;
         private final int level;
-        private final String formattedMessage;
+        private final LogMessageSupplier messageSupplier;
         private final @Nullable Throwable throwable;
 
-        private LogAdviceTraveler(TraceEntry traceEntry, int level, String formattedMessage,
-                @Nullable Throwable throwable) {
+        private LogAdviceTraveler(TraceEntry traceEntry, int level,
+                LogMessageSupplier messageSupplier, @Nullable Throwable throwable) {
             this.traceEntry = traceEntry;
             this.level = level;
-            this.formattedMessage = formattedMessage;
+            this.messageSupplier = messageSupplier;
             this.throwable = throwable;
         }
     }
@@ -199,18 +204,42 @@ public class LogbackAspect {
 
         private final int level;
         private final @Nullable String loggerName;
-        private final String messageText;
+        // only non-null when formatting lazily (see LoggerPlugin.hasOnlyImmutableArgs())
+        private final @Nullable ILoggingEvent loggingEvent;
+
+        private volatile @Nullable String formattedMessage;
 
-        private LogMessageSupplier(int level, @Nullable String loggerName, String messageText) {
+        private LogMessageSupplier(int level, @Nullable String loggerName,
+                String formattedMessage) {
             this.level = level;
             this.loggerName = loggerName;
-            this.messageText = messageText;
+            loggingEvent = null;
+            this.formattedMessage = formattedMessage;
+        }
+
+        private LogMessageSupplier(int level, @Nullable String loggerName,
+                ILoggingEvent loggingEvent) {
+            this.level = level;
+            this.loggerName = loggerName;
+            this.loggingEvent = loggingEvent;
         }
 
         @Override
         public Message get() {
             return Message.create("log {}: {} - {}", getLevelStr(level),
-                    LoggerPlugin.getAbbreviatedLoggerName(loggerName), messageText);
+                    LoggerPlugin.getAbbreviatedLoggerName(loggerName), getFormattedMessage());
+        }
+
+        private String getFormattedMessage() {
+            String formattedMessage = this.formattedMessage;
+            if (formattedMessage == null) {
+                // logback caches the formatted message in the logging event, so this is free if an
+                // appender has already formatted it
+                formattedMessage = loggingEvent == null ? ""
+                        : nullToEmpty(loggingEvent.getFormattedMessage());
+                this.formattedMessage = formattedMessage;
+            }
+            return formattedMessage;
         }
 
         private static String getLevelStr(int lvl) {
@@ -234,4 +263,8 @@ public class LogbackAspect {
             }
         }
     }
+
+    private static String nullToEmpty(@Nullable String s) {
+        return s == null ? "" : s;
+    }
 }
@@ -1,5 +1,5 @@
 /*
- * Copyright 2014-2018 the original author or authors.
+ * Copyright 2014-2019 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -52,10 +52,36 @@ class LoggerPlugin {
         return false;
     }
 
+    // log messages below warn are formatted lazily, only if the trace entry is read (which is rare
+    // in comparison to how often they are logged), but this is only safe when the arguments are
+    // immutable, since otherwise they could be modified by the application in the meantime
+    static boolean hasOnlyImmutableArgs(@Nullable Object /*@Nullable*/ [] args) {
+        if (args == null) {
+            return true;
+        }
+        for (Object arg : args) {
+            if (arg != null && !isImmutable(arg)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     static String getAbbreviatedLoggerName(@Nullable String loggerName) {
         if (loggerName == null) {
             return "null";
         }
         return loggerNameAbbreviator.abbreviate(loggerName);
     }
+
+    private static boolean isImmutable(Object arg) {
+        if (arg instanceof Enum) {
+            return true;
+        }
+        Class<?> argClass = arg.getClass();
+        return argClass == String.class || argClass == Integer.class || argClass == Long.class
+                || argClass == Boolean.class || argClass == Double.class
+                || argClass == Float.class || argClass == Short.class || argClass == Byte.class
+                || argClass == Character.class;
+    }
 }
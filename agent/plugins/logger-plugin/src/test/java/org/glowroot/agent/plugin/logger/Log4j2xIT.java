@@ -219,6 +219,29 @@ public class Log4j2xIT {
         assertThat(i.hasNext()).isFalse();
     }
 
+    @Test
+    public void testLogInfoWithParameters() throws Exception {
+        // when
+        Trace trace = container.execute(ShouldLogInfoWithParameters.class);
+
+        // then
+        Iterator<Trace.Entry> i = trace.getEntryList().iterator();
+
+        Trace.Entry entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage()).isEqualTo("log info: glowroot.test.info - cde_2 c 1");
+
+        entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage()).isEqualTo("log info: glowroot.test.info - cde_2 d 2");
+
+        entry = i.next();
+        assertThat(entry.getDepth()).isEqualTo(0);
+        assertThat(entry.getMessage()).isEqualTo("log info: glowroot.test.info - cde_2 e f");
+
+        assertThat(i.hasNext()).isFalse();
+    }
+
     @Test
     public void testLogWithMoreThanTwoParameters() throws Exception {
         // when
@@ -364,6 +387,23 @@ public class Log4j2xIT {
         }
     }
 
+    public static class ShouldLogInfoWithParameters implements AppUnderTest, TransactionMarker {
+        private static final Logger logger = LogManager.getLogger("glowroot.test.info");
+        @Override
+        public void executeApp() {
+            transactionMarker();
+        }
+        @Override
+        public void transactionMarker() {
+            logger.info("cde_2 {} {}", "c", 1);
+            logger.info("cde_2 {} {}", "d", 2L);
+            // mutable parameters need to be formatted before they are modified
+            StringBuilder sb = new StringBuilder("f");
+            logger.info("cde_2 {} {}", "e", sb);
+            sb.append("g");
+        }
+    }
+
     public static class ShouldLogWithMoreThanTwoParameters
             implements AppUnderTest, TransactionMarker {
         private static final Logger logger =
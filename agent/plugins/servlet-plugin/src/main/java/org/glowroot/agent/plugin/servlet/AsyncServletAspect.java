@@ -26,6 +26,7 @@ import org.glowroot.agent.plugin.api.weaving.BindReturn;
 import org.glowroot.agent.plugin.api.weaving.OnBefore;
 import org.glowroot.agent.plugin.api.weaving.OnReturn;
 import org.glowroot.agent.plugin.api.weaving.Pointcut;
+import org.glowroot.agent.plugin.servlet._.ServletMessageSupplier;
 
 public class AsyncServletAspect {
 
@@ -38,6 +39,13 @@ public class AsyncServletAspect {
         public static void onReturn(@BindReturn AsyncContext asyncContext,
                 final ThreadContext context) {
             context.setTransactionAsync();
+            ServletMessageSupplier messageSupplier =
+                    (ServletMessageSupplier) context.getServletRequestInfo();
+            if (messageSupplier != null) {
+                // the transaction will complete on another thread, so it cannot be known on the
+                // request processing thread whether the trace will be stored
+                messageSupplier.captureDeferredRequestDetail();
+            }
             asyncContext.addListener(new AsyncListener() {
                 @Override
                 public void onComplete(AsyncEvent event) {
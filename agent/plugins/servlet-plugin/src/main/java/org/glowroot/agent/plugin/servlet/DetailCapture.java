@@ -40,7 +40,8 @@ import org.glowroot.agent.plugin.servlet._.Strings;
 // shallow copies are also necessary because servlet container may clear out the objects after the
 // request is complete (e.g. tomcat does this) in order to reuse them, in which case this detail
 // would need to be captured synchronously at end of request anyways (although then it could be
-// captured only if trace met threshold for storage...)
+// captured only if trace met threshold for storage, which is what the deferRequestDetailCapture
+// property does, see ServletMessageSupplier.captureDeferredRequestDetail())
 public class DetailCapture {
 
     private DetailCapture() {}
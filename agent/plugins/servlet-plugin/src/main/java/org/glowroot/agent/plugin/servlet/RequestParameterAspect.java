@@ -50,6 +50,12 @@ public class RequestParameterAspect {
             if (messageSupplier == null || messageSupplier.isRequestParametersCaptured()) {
                 return;
             }
+            if (messageSupplier.isRequestDetailDeferred()) {
+                // request parameters are captured from this request at the end of the request, and
+                // only if the trace is going to be stored
+                messageSupplier.setDeferredParameterRequest(request);
+                return;
+            }
             // the request is being traced and the parameter map hasn't been captured yet
             captureRequestParameters(requestClassMeta, request, messageSupplier);
         }
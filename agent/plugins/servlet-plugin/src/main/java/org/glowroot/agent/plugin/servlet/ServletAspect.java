@@ -90,6 +90,9 @@ public class ServletAspect {
             FastThreadLocal.Holder</*@Nullable*/ String> errorMessageHolder =
                     SendError.getErrorMessageHolder();
             String errorMessage = errorMessageHolder.get();
+            if (messageSupplier != null) {
+                captureDeferredRequestDetail(context, messageSupplier, errorMessage != null);
+            }
             if (errorMessage != null) {
                 traceEntry.endWithError(errorMessage);
                 errorMessageHolder.set(null);
@@ -115,6 +118,7 @@ public class ServletAspect {
             if (messageSupplier != null) {
                 // container will set this unless headers are already flushed
                 messageSupplier.setResponseCode(500);
+                captureDeferredRequestDetail(context, messageSupplier, true);
             }
             // ignoring potential sendError since this seems worse
             SendError.clearErrorMessage();
@@ -151,7 +155,13 @@ public class ServletAspect {
             String requestContextPath = Strings.nullToEmpty(request.getContextPath());
             String requestServletPath = Strings.nullToEmpty(request.getServletPath());
             String requestPathInfo = request.getPathInfo();
-            Map<String, Object> requestHeaders = DetailCapture.captureRequestHeaders(request);
+            boolean deferRequestDetailCapture = ServletPluginProperties.deferRequestDetailCapture();
+            Map<String, Object> requestHeaders;
+            if (deferRequestDetailCapture) {
+                requestHeaders = Collections.emptyMap();
+            } else {
+                requestHeaders = DetailCapture.captureRequestHeaders(request);
+            }
             RequestHostAndPortDetail requestHostAndPortDetail =
                     DetailCapture.captureRequestHostAndPortDetail(request, requestInvoker);
             if (session == null) {
@@ -165,6 +175,9 @@ public class ServletAspect {
                         requestServletPath, requestPathInfo, requestUri, requestQueryString,
                         requestHeaders, requestHostAndPortDetail, sessionAttributes);
             }
+            if (deferRequestDetailCapture) {
+                messageSupplier.setDeferredRequest(request);
+            }
             String user = null;
             if (session != null) {
                 SessionAttributePath userAttributePath =
@@ -200,6 +213,9 @@ public class ServletAspect {
             if (transactionNameOverride != null) {
                 context.setTransactionName(transactionNameOverride, Priority.CORE_MAX);
             }
+            if (ServletPluginProperties.propagateTraceContext()) {
+                context.setTransactionTraceparent(request.getHeader("traceparent"));
+            }
             if (user != null) {
                 context.setTransactionUser(user, Priority.CORE_PLUGIN);
             }
@@ -207,6 +223,20 @@ public class ServletAspect {
         }
     }
 
+    // this is called before the root trace entry is ended, so it is still on the request processing
+    // thread and the request has not been recycled by the servlet container yet
+    private static void captureDeferredRequestDetail(OptionalThreadContext context,
+            ServletMessageSupplier messageSupplier, boolean error) {
+        if (!messageSupplier.isRequestDetailDeferred()) {
+            return;
+        }
+        if (error || context.shouldStoreTransactionTrace()) {
+            messageSupplier.captureDeferredRequestDetail();
+        } else {
+            messageSupplier.discardDeferredRequestDetail();
+        }
+    }
+
     @Pointcut(className = "javax.servlet.Filter", methodName = "doFilter",
             methodParameterTypes = {"javax.servlet.ServletRequest", "javax.servlet.ServletResponse",
                     "javax.servlet.FilterChain"},
@@ -26,6 +26,8 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 
+import javax.servlet.http.HttpServletRequest;
+
 import org.glowroot.agent.plugin.api.Message;
 import org.glowroot.agent.plugin.api.MessageSupplier;
 import org.glowroot.agent.plugin.api.ThreadContext.ServletRequestInfo;
@@ -50,7 +52,12 @@ public class ServletMessageSupplier extends MessageSupplier implements ServletRe
 
     private volatile @MonotonicNonNull Map<String, Object> requestParameters;
 
-    private final Map<String, Object> requestHeaders;
+    private volatile Map<String, Object> requestHeaders;
+
+    // these are only used when request detail capture is deferred, and are cleared once the
+    // request detail is captured or discarded, see captureDeferredRequestDetail()
+    private volatile @Nullable HttpServletRequest deferredRequest;
+    private volatile @Nullable HttpServletRequest deferredParameterRequest;
 
     private final @Nullable RequestHostAndPortDetail requestHostAndPortDetail;
 
@@ -187,6 +194,40 @@ public class ServletMessageSupplier extends MessageSupplier implements ServletRe
         this.requestParameters = requestParameters;
     }
 
+    public boolean isRequestDetailDeferred() {
+        return deferredRequest != null;
+    }
+
+    public void setDeferredRequest(HttpServletRequest request) {
+        deferredRequest = request;
+    }
+
+    // this is the (possibly wrapped) request that getParameter*() was last called on, since
+    // request parameters can only be captured once the application has asked for them
+    public void setDeferredParameterRequest(HttpServletRequest request) {
+        deferredParameterRequest = request;
+    }
+
+    // this must be called from the request processing thread before the request completes, since
+    // the servlet container may recycle the request object after that
+    public void captureDeferredRequestDetail() {
+        HttpServletRequest request = deferredRequest;
+        if (request == null) {
+            return;
+        }
+        requestHeaders = DetailCapture.captureRequestHeaders(request);
+        HttpServletRequest parameterRequest = deferredParameterRequest;
+        if (parameterRequest != null && requestParameters == null) {
+            requestParameters = DetailCapture.captureRequestParameters(parameterRequest);
+        }
+        discardDeferredRequestDetail();
+    }
+
+    public void discardDeferredRequestDetail() {
+        deferredRequest = null;
+        deferredParameterRequest = null;
+    }
+
     public void setResponseCode(int responseCode) {
         this.responseCode = responseCode;
     }
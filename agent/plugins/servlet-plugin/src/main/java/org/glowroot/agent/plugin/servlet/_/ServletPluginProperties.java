@@ -41,6 +41,8 @@ public class ServletPluginProperties {
     private static List<Pattern> maskRequestParameters = Collections.emptyList();
     private static List<Pattern> captureRequestHeaders = Collections.emptyList();
 
+    private static boolean deferRequestDetailCapture;
+
     private static boolean someRequestHostAndPortDetail;
     private static boolean captureRequestRemoteAddress;
     private static boolean captureRequestRemoteHostname;
@@ -66,6 +68,8 @@ public class ServletPluginProperties {
 
     private static boolean traceErrorOn4xxResponseCode;
 
+    private static boolean propagateTraceContext;
+
     static {
         configService.registerConfigListener(new ServletPluginConfigListener());
     }
@@ -84,6 +88,10 @@ public class ServletPluginProperties {
         return captureRequestHeaders;
     }
 
+    public static boolean deferRequestDetailCapture() {
+        return deferRequestDetailCapture;
+    }
+
     public static boolean captureSomeRequestHostAndPortDetail() {
         return someRequestHostAndPortDetail;
     }
@@ -166,6 +174,10 @@ public class ServletPluginProperties {
         return traceErrorOn4xxResponseCode;
     }
 
+    public static boolean propagateTraceContext() {
+        return propagateTraceContext;
+    }
+
     public static class SessionAttributePath {
 
         private final String attributeName;
@@ -219,6 +231,8 @@ public class ServletPluginProperties {
             captureRequestParameters = buildPatternList("captureRequestParameters");
             maskRequestParameters = buildPatternList("maskRequestParameters");
             captureRequestHeaders = buildPatternList("captureRequestHeaders");
+            deferRequestDetailCapture =
+                    configService.getBooleanProperty("deferRequestDetailCapture").value();
             captureRequestRemoteAddress =
                     configService.getBooleanProperty("captureRequestRemoteAddr").value();
             captureRequestRemoteHostname =
@@ -257,6 +271,8 @@ public class ServletPluginProperties {
                     captureSessionAttributeNames.contains(HTTP_SESSION_ID_ATTR);
             traceErrorOn4xxResponseCode =
                     configService.getBooleanProperty("traceErrorOn4xxResponseCode").value();
+            propagateTraceContext =
+                    configService.getBooleanProperty("propagateTraceContext").value();
         }
 
         private static List<Pattern> buildPatternList(String propertyName) {
@@ -27,6 +27,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -78,6 +79,48 @@ public class RequestHeaderIT {
         assertThat(requestHeaders.get("Extra")).isNull();
     }
 
+    @Test
+    public void testDeferredRequestHeaders() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "captureRequestHeaders",
+                ImmutableList.of("Content-Type", " Content-Length"));
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "deferRequestDetailCapture",
+                true);
+
+        // when
+        Trace trace = container.execute(SetStandardRequestHeaders.class, "Web");
+
+        // then
+        Map<String, Object> requestHeaders =
+                ResponseHeaderIT.getDetailMap(trace, "Request headers");
+        assertThat(requestHeaders.get("Content-Type")).isEqualTo("text/plain;charset=UTF-8");
+        assertThat(requestHeaders.get("Content-Length")).isEqualTo("1");
+        assertThat(requestHeaders.get("Extra")).isNull();
+    }
+
+    @Test
+    public void testTraceparentRequestHeader() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "propagateTraceContext", true);
+
+        // when
+        Trace trace = container.execute(SetTraceparentRequestHeader.class, "Web");
+
+        // then
+        Map<String, String> attributes = getAttributes(trace);
+        assertThat(attributes.get("W3C trace id")).isEqualTo("4bf92f3577b34da6a3ce929d0e0e4736");
+        assertThat(attributes.get("W3C parent id")).isEqualTo("00f067aa0ba902b7");
+    }
+
+    @Test
+    public void testTraceparentRequestHeaderNotPropagated() throws Exception {
+        // when
+        Trace trace = container.execute(SetTraceparentRequestHeader.class, "Web");
+
+        // then
+        assertThat(trace.getHeader().getAttributeList()).isEmpty();
+    }
+
     @Test
     public void testStandardRequestHeadersLowercase() throws Exception {
         // given
@@ -145,6 +188,14 @@ public class RequestHeaderIT {
         assertThat(requestHeaders.get("h1")).isEqualTo("");
     }
 
+    private static Map<String, String> getAttributes(Trace trace) {
+        Map<String, String> attributes = Maps.newHashMap();
+        for (Trace.Attribute attribute : trace.getHeader().getAttributeList()) {
+            attributes.put(attribute.getName(), attribute.getValue(0));
+        }
+        return attributes;
+    }
+
     @SuppressWarnings("serial")
     public static class SetStandardRequestHeaders extends TestServlet {
         @Override
@@ -156,6 +207,15 @@ public class RequestHeaderIT {
         }
     }
 
+    @SuppressWarnings("serial")
+    public static class SetTraceparentRequestHeader extends TestServlet {
+        @Override
+        protected void before(HttpServletRequest request, HttpServletResponse response) {
+            ((MockHttpServletRequest) request).addHeader("traceparent",
+                    "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01");
+        }
+    }
+
     @SuppressWarnings("serial")
     public static class SetStandardRequestHeadersLowercase extends TestServlet {
         @Override
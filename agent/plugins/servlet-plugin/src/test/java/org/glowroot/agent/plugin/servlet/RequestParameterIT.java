@@ -15,6 +15,7 @@
  */
 package org.glowroot.agent.plugin.servlet;
 
+import java.lang.ref.WeakReference;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -26,6 +27,7 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
@@ -40,8 +42,12 @@ import org.springframework.mock.web.MockHttpServletResponse;
 import org.glowroot.agent.it.harness.AppUnderTest;
 import org.glowroot.agent.it.harness.Container;
 import org.glowroot.agent.it.harness.impl.JavaagentContainer;
+import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.TransactionConfig;
+import org.glowroot.wire.api.model.Proto.OptionalInt32;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class RequestParameterIT {
@@ -101,6 +107,43 @@ public class RequestParameterIT {
         assertThat(queryString).isEqualTo("xYz=aBc&multi=m1&multi=m2");
     }
 
+    @Test
+    public void testDeferredRequestParameters() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "deferRequestDetailCapture",
+                true);
+
+        // when
+        Trace trace = container.execute(GetParameter.class, "Web");
+
+        // then
+        Map<String, Object> requestParameters =
+                ResponseHeaderIT.getDetailMap(trace, "Request parameters");
+        assertThat(requestParameters).hasSize(3);
+        assertThat(requestParameters.get("xYz")).isEqualTo("aBc");
+        assertThat(requestParameters.get("jpassword1")).isEqualTo("****");
+        @SuppressWarnings("unchecked")
+        List<String> multi = (List<String>) requestParameters.get("multi");
+        assertThat(multi).containsExactly("m1", "m2");
+    }
+
+    @Test
+    public void testDeferredRequestDetailDiscardedBelowSlowThreshold() throws Exception {
+        // given
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "captureRequestHeaders",
+                ImmutableList.of("Content-Type"));
+        container.getConfigService().setPluginProperty(PLUGIN_ID, "deferRequestDetailCapture",
+                true);
+        container.getConfigService().updateTransactionConfig(TransactionConfig.newBuilder()
+                .setSlowThresholdMillis(OptionalInt32.newBuilder().setValue(60000))
+                .setProfilingIntervalMillis(OptionalInt32.newBuilder().setValue(1000))
+                .build());
+
+        // when
+        // (the app fails if the request detail is read or the request is still referenced)
+        container.executeNoExpectedTrace(GetParameterBelowSlowThreshold.class);
+    }
+
     @Test
     public void testWithoutCaptureRequestParameters() throws Exception {
         // given
@@ -198,6 +241,68 @@ public class RequestParameterIT {
         }
     }
 
+    @SuppressWarnings("serial")
+    public static class GetParameterBelowSlowThreshold extends TestServlet {
+        @Override
+        public void executeApp() throws Exception {
+            WeakReference<DetailTrackingRequest> requestRef = executeRequest();
+            // the request must not be held on to after the request ends
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            while (requestRef.get() != null && stopwatch.elapsed(SECONDS) < 10) {
+                System.gc();
+                MILLISECONDS.sleep(10);
+            }
+            if (requestRef.get() != null) {
+                throw new IllegalStateException("Request is still referenced after it ended");
+            }
+        }
+        private WeakReference<DetailTrackingRequest> executeRequest() throws Exception {
+            DetailTrackingRequest request = new DetailTrackingRequest();
+            request.addHeader("Content-Type", "text/plain;charset=UTF-8");
+            request.setParameter("xYz", "aBc");
+            request.setParameter("multi", new String[] {"m1", "m2"});
+            service((ServletRequest) request,
+                    (ServletResponse) new PatchedMockHttpServletResponse());
+            if (request.detailRead) {
+                throw new IllegalStateException("Request detail was read even though the"
+                        + " transaction was below the slow threshold");
+            }
+            return new WeakReference<DetailTrackingRequest>(request);
+        }
+        @Override
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) {
+            request.getParameter("xYz");
+        }
+    }
+
+    // tracks whether any of the methods used to capture request headers and parameters are called
+    private static class DetailTrackingRequest extends MockCatalinaHttpServletRequest {
+
+        private volatile boolean detailRead;
+
+        private DetailTrackingRequest() {
+            super("GET", "/testservlet");
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+            detailRead = true;
+            return super.getHeaderNames();
+        }
+
+        @Override
+        public Enumeration<String> getParameterNames() {
+            detailRead = true;
+            return super.getParameterNames();
+        }
+
+        @Override
+        public Map<String, String[]> getParameterMap() {
+            detailRead = true;
+            return super.getParameterMap();
+        }
+    }
+
     @SuppressWarnings("serial")
     public static class GetParameterWithoutMaskedQueryString extends TestServlet {
         @Override
@@ -247,7 +247,8 @@ public class CentralModule {
             });
             rollupService = new RollupService(repos.getActiveAgentDao(), repos.getAggregateDao(),
                     repos.getGaugeValueDao(), repos.getSyntheticResultDao(), centralAlertingService,
-                    clock);
+                    clusterManager, clock);
+            rollupService.start();
             syntheticMonitorService = new SyntheticMonitorService(repos.getActiveAgentDao(),
                     repos.getConfigRepository(), repos.getAlertingDisabledDao(),
                     repos.getIncidentDao(), alertingService, repos.getSyntheticResultDao(),
@@ -18,10 +18,8 @@ package org.glowroot.central;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
-import java.util.Map;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -31,6 +29,7 @@ import com.google.common.cache.LoadingCache;
 import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.checker.nullness.qual.RequiresNonNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,6 +39,7 @@ import org.glowroot.central.repo.ActiveAgentDao;
 import org.glowroot.central.repo.AgentConfigDao;
 import org.glowroot.central.repo.AgentDisplayDao;
 import org.glowroot.central.repo.AggregateDao;
+import org.glowroot.central.repo.AggregateDao.AggregateWriter;
 import org.glowroot.central.repo.EnvironmentDao;
 import org.glowroot.central.repo.GaugeValueDao;
 import org.glowroot.central.repo.HeartbeatDao;
@@ -51,7 +51,6 @@ import org.glowroot.common.util.Clock;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 import org.glowroot.wire.api.model.AggregateOuterClass.OldAggregatesByType;
-import org.glowroot.wire.api.model.AggregateOuterClass.OldTransactionAggregate;
 import org.glowroot.wire.api.model.CollectorServiceGrpc;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.AggregateResponseMessage;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.AggregateStreamMessage;
@@ -85,6 +84,9 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
 
     private static final Logger logger = LoggerFactory.getLogger(CollectorServiceImpl.class);
 
+    // this bounds the number of aggregate stream messages that are buffered per stream
+    private static final int AGGREGATE_STREAM_BATCH_SIZE = 100;
+
     private final AgentDisplayDao agentDisplayDao;
     private final AgentConfigDao agentConfigDao;
     private final ActiveAgentDao activeAgentDao;
@@ -295,6 +297,20 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
 
     private <T> void throttle(String agentId, boolean postV09, String collectionType,
             StreamObserver<T> responseObserver, Runnable runnable) {
+        Semaphore semaphore = acquireThrottle(agentId, postV09, collectionType, responseObserver);
+        if (semaphore == null) {
+            return;
+        }
+        try {
+            runnable.run();
+        } finally {
+            semaphore.release();
+        }
+    }
+
+    // returns null (after reporting the error to the response observer) if rejected
+    private <T> @Nullable Semaphore acquireThrottle(String agentId, boolean postV09,
+            String collectionType, StreamObserver<T> responseObserver) {
         Semaphore semaphore = throttlePerAgentId.getUnchecked(agentId);
         boolean acquired;
         try {
@@ -302,7 +318,7 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
         } catch (InterruptedException e) {
             // probably shutdown requested
             responseObserver.onError(e);
-            return;
+            return null;
         }
         if (!acquired) {
             logger.warn("{} - {} collection rejected due to backlog",
@@ -310,13 +326,9 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
             responseObserver.onError(Status.RESOURCE_EXHAUSTED
                     .withDescription("collection rejected due to backlog")
                     .asRuntimeException());
-            return;
-        }
-        try {
-            runnable.run();
-        } finally {
-            semaphore.release();
+            return null;
         }
+        return semaphore;
     }
 
     private void collectAggregatesUnderThrottle(String agentId, boolean postV09, long captureTime,
@@ -338,6 +350,11 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
             responseObserver.onError(t);
             return;
         }
+        onAggregatesStored(postV09AgentId, captureTime, responseObserver);
+    }
+
+    private void onAggregatesStored(String postV09AgentId, long captureTime,
+            StreamObserver<AggregateResponseMessage> responseObserver) {
         String agentDisplay;
         try {
             agentDisplay = agentDisplayDao.readFullDisplay(postV09AgentId);
@@ -549,12 +566,20 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
         }
     }
 
+    // aggregates are stored in small batches as they are received (instead of buffering the entire
+    // stream), which bounds the memory retained per agent, and since storing blocks the gRPC
+    // thread, gRPC flow control provides back pressure
+    //
+    // the per-agent throttle is only held while storing each batch, not for the lifetime of the
+    // stream, so that a slow agent connection cannot hold it indefinitely
     private final class AggregateStreamObserver implements StreamObserver<AggregateStreamMessage> {
 
         private final StreamObserver<AggregateResponseMessage> responseObserver;
         private @MonotonicNonNull AggregateStreamHeader streamHeader;
-        private List<Aggregate.SharedQueryText> sharedQueryTexts = new ArrayList<>();
-        private Map<String, OldAggregatesByType.Builder> aggregatesByTypeMap = new HashMap<>();
+        private @MonotonicNonNull String postV09AgentId;
+        private @MonotonicNonNull AggregateWriter aggregateWriter;
+        private final List<AggregateStreamMessage> pendingMessages = new ArrayList<>();
+        private boolean failed;
 
         private AggregateStreamObserver(StreamObserver<AggregateResponseMessage> responseObserver) {
             this.responseObserver = responseObserver;
@@ -583,50 +608,140 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
             }
         }
 
+        // this is called when the agent cancels the stream or the connection is lost
         @Override
         public void onError(Throwable t) {
             logError(t);
+            if (!failed) {
+                failed = true;
+                abort();
+            }
         }
 
         private void onNextInternal(AggregateStreamMessage value) {
-            switch (value.getMessageCase()) {
-                case STREAM_HEADER:
-                    streamHeader = value.getStreamHeader();
-                    break;
-                case SHARED_QUERY_TEXT:
-                    sharedQueryTexts.add(value.getSharedQueryText());
-                    break;
-                case OVERALL_AGGREGATE:
-                    OverallAggregate overallAggregate = value.getOverallAggregate();
-                    String transactionType = overallAggregate.getTransactionType();
-                    aggregatesByTypeMap.put(transactionType, OldAggregatesByType.newBuilder()
-                            .setTransactionType(transactionType)
-                            .setOverallAggregate(overallAggregate.getAggregate()));
-                    break;
-                case TRANSACTION_AGGREGATE:
-                    TransactionAggregate transactionAggregate = value.getTransactionAggregate();
-                    OldAggregatesByType.Builder builder = checkNotNull(
-                            aggregatesByTypeMap.get(transactionAggregate.getTransactionType()));
-                    builder.addTransactionAggregate(OldTransactionAggregate.newBuilder()
-                            .setTransactionName(transactionAggregate.getTransactionName())
-                            .setAggregate(transactionAggregate.getAggregate())
-                            .build());
-                    break;
-                default:
-                    throw new RuntimeException("Unexpected message: " + value.getMessageCase());
+            if (failed) {
+                // error has already been reported to the agent
+                return;
+            }
+            if (value.getMessageCase() == AggregateStreamMessage.MessageCase.STREAM_HEADER) {
+                streamHeader = value.getStreamHeader();
+                onStreamHeader(streamHeader);
+                return;
+            }
+            pendingMessages.add(value);
+            if (pendingMessages.size() >= AGGREGATE_STREAM_BATCH_SIZE) {
+                storePendingMessages();
             }
         }
 
+        private void onStreamHeader(AggregateStreamHeader streamHeader) {
+            try {
+                postV09AgentId =
+                        grpcCommon.getAgentId(streamHeader.getAgentId(), streamHeader.getPostV09());
+                aggregateWriter = aggregateDao.createWriter(postV09AgentId,
+                        getFutureProofAggregateCaptureTime(streamHeader.getCaptureTime()));
+            } catch (Throwable t) {
+                fail(t);
+            }
+        }
+
+        @Instrumentation.Transaction(transactionType = "gRPC", transactionName = "Aggregates",
+                traceHeadline = "Collect aggregates: {{this.streamHeader.agentId}}",
+                timer = "aggregates")
+        private void storePendingMessages() {
+            AggregateStreamHeader streamHeader = checkNotNull(this.streamHeader);
+            Semaphore semaphore = acquireThrottle(streamHeader.getAgentId(),
+                    streamHeader.getPostV09(), "aggregate", responseObserver);
+            if (semaphore == null) {
+                // error has already been reported to the agent
+                failed = true;
+                abort();
+                return;
+            }
+            try {
+                storePendingMessagesUnderThrottle();
+            } catch (Throwable t) {
+                fail(t);
+            } finally {
+                semaphore.release();
+            }
+        }
+
+        private void storePendingMessagesUnderThrottle() throws Exception {
+            AggregateWriter aggregateWriter = checkNotNull(this.aggregateWriter);
+            for (AggregateStreamMessage value : pendingMessages) {
+                switch (value.getMessageCase()) {
+                    case SHARED_QUERY_TEXT:
+                        aggregateWriter.addSharedQueryText(value.getSharedQueryText());
+                        break;
+                    case OVERALL_AGGREGATE:
+                        OverallAggregate overallAggregate = value.getOverallAggregate();
+                        aggregateWriter.storeOverallAggregate(
+                                overallAggregate.getTransactionType(),
+                                overallAggregate.getAggregate());
+                        break;
+                    case TRANSACTION_AGGREGATE:
+                        TransactionAggregate transactionAggregate =
+                                value.getTransactionAggregate();
+                        aggregateWriter.storeTransactionAggregate(
+                                transactionAggregate.getTransactionType(),
+                                transactionAggregate.getTransactionName(),
+                                transactionAggregate.getAggregate());
+                        break;
+                    default:
+                        throw new RuntimeException(
+                                "Unexpected message: " + value.getMessageCase());
+                }
+            }
+            pendingMessages.clear();
+        }
+
         private void onCompletedInternal() {
-            checkNotNull(streamHeader);
-            List<OldAggregatesByType> aggregatesByTypeList = new ArrayList<>();
-            for (OldAggregatesByType.Builder aggregatesByType : aggregatesByTypeMap.values()) {
-                aggregatesByTypeList.add(aggregatesByType.build());
+            if (failed) {
+                // error has already been reported to the agent
+                return;
             }
-            throttleCollectAggregates(streamHeader.getAgentId(), streamHeader.getPostV09(),
+            AggregateStreamHeader streamHeader = checkNotNull(this.streamHeader);
+            String postV09AgentId = checkNotNull(this.postV09AgentId);
+            Semaphore semaphore = acquireThrottle(streamHeader.getAgentId(),
+                    streamHeader.getPostV09(), "aggregate", responseObserver);
+            if (semaphore == null) {
+                // error has already been reported to the agent
+                failed = true;
+                abort();
+                return;
+            }
+            try {
+                storePendingMessagesUnderThrottle();
+                checkNotNull(aggregateWriter).complete();
+            } catch (Throwable t) {
+                fail(t);
+                return;
+            } finally {
+                semaphore.release();
+            }
+            onAggregatesStored(postV09AgentId,
                     getFutureProofAggregateCaptureTime(streamHeader.getCaptureTime()),
-                    sharedQueryTexts,
-                    aggregatesByTypeList, responseObserver);
+                    responseObserver);
+        }
+
+        private void fail(Throwable t) {
+            logError(t);
+            failed = true;
+            abort();
+            responseObserver.onError(t);
+        }
+
+        private void abort() {
+            pendingMessages.clear();
+            if (aggregateWriter == null) {
+                return;
+            }
+            try {
+                aggregateWriter.abort();
+            } catch (Throwable t) {
+                logError(t);
+            }
         }
 
         private void logError(Throwable t) {
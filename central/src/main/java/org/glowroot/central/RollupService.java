@@ -15,14 +15,23 @@
  */
 package org.glowroot.central;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
@@ -35,6 +44,7 @@ import org.glowroot.central.repo.ActiveAgentDao;
 import org.glowroot.central.repo.AggregateDao;
 import org.glowroot.central.repo.GaugeValueDao;
 import org.glowroot.central.repo.SyntheticResultDao;
+import org.glowroot.central.util.ClusterManager;
 import org.glowroot.central.util.MoreExecutors2;
 import org.glowroot.central.util.MoreFutures;
 import org.glowroot.central.util.Session;
@@ -52,6 +62,8 @@ class RollupService implements Runnable {
     private static final int MAX_WORKER_THREADS = 4;
     private static final int INITIAL_WORKER_THREADS = 2;
 
+    private static final String ROLLUP_STATS_OBJECT_NAME = "org.glowroot.central:type=RollupStats";
+
     private static final Logger logger = LoggerFactory.getLogger(RollupService.class);
 
     private final ActiveAgentDao activeAgentDao;
@@ -59,23 +71,35 @@ class RollupService implements Runnable {
     private final GaugeValueDao gaugeValueDao;
     private final SyntheticResultDao syntheticResultDao;
     private final CentralAlertingService centralAlertingService;
+    private final ClusterManager clusterManager;
     private final Clock clock;
 
+    private final RollupStats rollupStats;
+    private final Set<String> lagReadsInFlight = Sets.newConcurrentHashSet();
+
     private final ExecutorService mainLoopExecutor;
 
     private volatile boolean closed;
 
     RollupService(ActiveAgentDao activeAgentDao, AggregateDao aggregateDao,
             GaugeValueDao gaugeValueDao, SyntheticResultDao syntheticResultDao,
-            CentralAlertingService centralAlertingService, Clock clock) {
+            CentralAlertingService centralAlertingService, ClusterManager clusterManager,
+            Clock clock) {
         this.activeAgentDao = activeAgentDao;
         this.aggregateDao = aggregateDao;
         this.gaugeValueDao = gaugeValueDao;
         this.syntheticResultDao = syntheticResultDao;
         this.centralAlertingService = centralAlertingService;
+        this.clusterManager = clusterManager;
         this.clock = clock;
+        rollupStats = new RollupStats(clock);
         mainLoopExecutor = MoreExecutors2.newSingleThreadExecutor("Rollup-Main-Loop");
-        mainLoopExecutor.execute(castInitialized(this));
+    }
+
+    void start() throws Exception {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(rollupStats,
+                ObjectName.getInstance(ROLLUP_STATS_OBJECT_NAME));
+        mainLoopExecutor.execute(this);
     }
 
     @Override
@@ -88,10 +112,17 @@ class RollupService implements Runnable {
             try {
                 MILLISECONDS.sleep(millisUntilNextRollup(clock.currentTimeMillis()));
                 // perform larger sweep approx every 100 minutes
-                long lastXMillis = counter++ % 100 == 0 ? DAYS.toMillis(7) : MINUTES.toMillis(30);
+                boolean largerSweep = counter++ % 100 == 0;
+                long lastXMillis = largerSweep ? DAYS.toMillis(7) : MINUTES.toMillis(30);
                 Stopwatch stopwatch = Stopwatch.createStarted();
-                List<AgentRollup> agentRollups =
-                        activeAgentDao.readRecentlyActiveAgentRollups(lastXMillis);
+                // each central node only rolls up the top-level agent rollups that it owns, and
+                // takes over the top-level agent rollups of any central node that leaves the
+                // cluster (any unfinished work is picked up from the "needs rollup" tables)
+                List<AgentRollup> agentRollups = getLocallyOwned(
+                        activeAgentDao.readRecentlyActiveAgentRollups(lastXMillis));
+                if (largerSweep) {
+                    rollupStats.retainOnly(agentRollups);
+                }
                 runInternal(agentRollups, workerExecutor);
                 long elapsedInSeconds = stopwatch.elapsed(SECONDS);
                 int oldNumWorkerThreads = numWorkerThreads;
@@ -136,8 +167,14 @@ class RollupService implements Runnable {
         }
     }
 
-    void close() throws InterruptedException {
+    void close() throws Exception {
         closed = true;
+        MBeanServer platformMBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = ObjectName.getInstance(ROLLUP_STATS_OBJECT_NAME);
+        // not registered if start() was not called or failed, e.g. during failed startup
+        if (platformMBeanServer.isRegistered(objectName)) {
+            platformMBeanServer.unregisterMBean(objectName);
+        }
         // shutdownNow() is needed here to send interrupt to main rollup thread
         mainLoopExecutor.shutdownNow();
         if (!mainLoopExecutor.awaitTermination(10, SECONDS)) {
@@ -151,11 +188,13 @@ class RollupService implements Runnable {
             timer = "outer rollup loop")
     private void runInternal(List<AgentRollup> agentRollups,
             ListeningExecutorService workerExecutor) throws Exception {
+        updateRollupLags(agentRollups, aggregateDao, rollupStats, lagReadsInFlight);
+        long currentTimeMillis = clock.currentTimeMillis();
         List<Future<?>> futures = new ArrayList<>();
-        // randomize order so that multiple central collector nodes will be less likely to perform
-        // duplicative work
-        for (AgentRollup agentRollup : shuffle(agentRollups)) {
-            futures.addAll(rollupAggregates(agentRollup, workerExecutor));
+        // agent rollups that are furthest behind are submitted first so that a single large agent
+        // rollup that is still catching up does not delay the rollups of all of the others
+        for (AgentRollup agentRollup : orderByLag(agentRollups, rollupStats, currentTimeMillis)) {
+            futures.addAll(rollupAggregates(agentRollup, currentTimeMillis, workerExecutor));
             futures.add(rollupGauges(agentRollup, workerExecutor));
             futures.addAll(rollupSyntheticMonitors(agentRollup, workerExecutor));
             // checking aggregate and gauge alerts after rollup since their calculation can depend
@@ -179,19 +218,59 @@ class RollupService implements Runnable {
         }
     }
 
-    private List<Future<?>> rollupAggregates(AgentRollup agentRollup,
+    // the reads are not waited on, so that they never delay the rollup loop, which means the agent
+    // rollups are ordered by the lags that were read during prior sweeps (and agent rollups whose
+    // lag has not been read yet are ordered first)
+    @VisibleForTesting
+    static void updateRollupLags(List<AgentRollup> agentRollups, AggregateDao aggregateDao,
+            RollupStats rollupStats, Set<String> lagReadsInFlight) {
+        for (AgentRollup agentRollup : agentRollups) {
+            updateRollupLags(agentRollup.children(), aggregateDao, rollupStats, lagReadsInFlight);
+            String agentRollupId = agentRollup.id();
+            if (!lagReadsInFlight.add(agentRollupId)) {
+                // the read from a prior sweep has not completed yet
+                continue;
+            }
+            ListenableFuture<Optional<Long>> future;
+            try {
+                future = aggregateDao.readOldestNeedsRollupCaptureTime(agentRollupId);
+            } catch (Exception e) {
+                lagReadsInFlight.remove(agentRollupId);
+                logger.error("{} - {}", agentRollupId, e.getMessage(), e);
+                continue;
+            }
+            Futures.addCallback(future, new FutureCallback<Optional<Long>>() {
+                @Override
+                public void onSuccess(Optional<Long> oldestNeedsRollupCaptureTime) {
+                    rollupStats.updateOldestNeedsRollupCaptureTime(agentRollupId,
+                            oldestNeedsRollupCaptureTime);
+                    lagReadsInFlight.remove(agentRollupId);
+                }
+                @Override
+                public void onFailure(Throwable t) {
+                    // the prior lag (if any) is retained
+                    lagReadsInFlight.remove(agentRollupId);
+                    logger.error("{} - {}", agentRollupId, t.getMessage(), t);
+                }
+            }, MoreExecutors.directExecutor());
+        }
+    }
+
+    private List<Future<?>> rollupAggregates(AgentRollup agentRollup, long currentTimeMillis,
             ListeningExecutorService workerExecutor) {
         List<Future<?>> futures = new ArrayList<>();
-        // randomize order so that multiple central collector nodes will be less likely to perform
-        // duplicative work
-        for (AgentRollup childAgentRollup : shuffle(agentRollup.children())) {
-            futures.addAll(rollupAggregates(childAgentRollup, workerExecutor));
+        for (AgentRollup childAgentRollup : orderByLag(agentRollup.children(), rollupStats,
+                currentTimeMillis)) {
+            futures.addAll(rollupAggregates(childAgentRollup, currentTimeMillis, workerExecutor));
         }
         futures.add(workerExecutor.submit(new Runnable() {
             @Override
             public void run() {
                 try {
+                    Stopwatch stopwatch = Stopwatch.createStarted();
                     aggregateDao.rollup(agentRollup.id());
+                    rollupStats.recordAggregateRollup(agentRollup.id(),
+                            stopwatch.elapsed(MILLISECONDS));
                 } catch (InterruptedException e) {
                     // probably shutdown requested (see close method above)
                 } catch (Throwable t) {
@@ -271,6 +350,38 @@ class RollupService implements Runnable {
                 MoreExecutors2.newFixedThreadPool(numWorkerThreads, "Rollup-Worker-%d"));
     }
 
+    private List<AgentRollup> getLocallyOwned(List<AgentRollup> agentRollups) {
+        // partitioning by top-level agent rollup keeps each agent rollup hierarchy on a single
+        // central node, since gauge rollups of a parent depend on the rollups of its children
+        List<AgentRollup> locallyOwned = new ArrayList<>();
+        for (AgentRollup agentRollup : agentRollups) {
+            if (clusterManager.isLocalOwner(agentRollup.id())) {
+                locallyOwned.add(agentRollup);
+            }
+        }
+        return locallyOwned;
+    }
+
+    @VisibleForTesting
+    static List<AgentRollup> orderByLag(List<AgentRollup> agentRollups, RollupStats rollupStats,
+            long currentTimeMillis) {
+        // randomize order first so that multiple central collector nodes will be less likely to
+        // perform duplicative work, then (stable) sort by lag rounded to the minute so that the
+        // randomization is retained among agent rollups that are equally behind
+        List<AgentRollup> ordered = shuffle(agentRollups);
+        Collections.sort(ordered, new Comparator<AgentRollup>() {
+            @Override
+            public int compare(AgentRollup left, AgentRollup right) {
+                return Long.compare(getLagMinutes(right), getLagMinutes(left));
+            }
+            private long getLagMinutes(AgentRollup agentRollup) {
+                return MILLISECONDS.toMinutes(
+                        rollupStats.getLagMillis(agentRollup, currentTimeMillis));
+            }
+        });
+        return ordered;
+    }
+
     private static <T> List<T> shuffle(List<T> agentRollups) {
         List<T> mutable = new ArrayList<>(agentRollups);
         Collections.shuffle(mutable);
@@ -290,11 +401,6 @@ class RollupService implements Runnable {
         return 60000 - (currentTimeMillis - 10000) % 60000;
     }
 
-    @SuppressWarnings("return.type.incompatible")
-    private static <T> /*@Initialized*/ T castInitialized(/*@UnderInitialization*/ T obj) {
-        return obj;
-    }
-
     @FunctionalInterface
     interface AgentRollupConsumer {
         void accept(AgentRollup agentRollup) throws Exception;
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.Maps;
+
+import org.glowroot.common.util.Clock;
+import org.glowroot.common2.repo.ActiveAgentRepository.AgentRollup;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+// tracks how far behind each agent rollup's aggregate rollup is, based on the oldest aggregate data
+// that is still waiting to be rolled up, so that the agent rollups that are furthest behind can be
+// rolled up first
+class RollupStats implements RollupStatsMXBean {
+
+    // the last bucket is everything above the last upper bound
+    private static final long[] LAG_HISTOGRAM_UPPER_BOUNDS_MILLIS = {MINUTES.toMillis(5),
+            MINUTES.toMillis(15), HOURS.toMillis(1), HOURS.toMillis(6), DAYS.toMillis(1)};
+    private static final String[] LAG_HISTOGRAM_BUCKET_NAMES =
+            {"<= 5 minutes", "<= 15 minutes", "<= 1 hour", "<= 6 hours", "<= 1 day", "> 1 day"};
+
+    // Long.MAX_VALUE is used when there is nothing waiting to be rolled up, which then results in
+    // no lag (see getLagMillis() below)
+    private final ConcurrentMap<String, Long> oldestNeedsRollupCaptureTimes =
+            Maps.newConcurrentMap();
+    private final ConcurrentMap<String, Long> lastDurationMillis = Maps.newConcurrentMap();
+
+    private final Clock clock;
+
+    RollupStats(Clock clock) {
+        this.clock = clock;
+    }
+
+    void updateOldestNeedsRollupCaptureTime(String agentRollupId,
+            Optional<Long> oldestNeedsRollupCaptureTime) {
+        oldestNeedsRollupCaptureTimes.put(agentRollupId,
+                oldestNeedsRollupCaptureTime.orElse(Long.MAX_VALUE));
+    }
+
+    void recordAggregateRollup(String agentRollupId, long durationMillis) {
+        lastDurationMillis.put(agentRollupId, durationMillis);
+    }
+
+    // called after the larger (7 day) sweep so that agent rollups which are no longer active do
+    // not accumulate
+    void retainOnly(List<AgentRollup> agentRollups) {
+        Set<String> agentRollupIds = new HashSet<>();
+        addAgentRollupIds(agentRollups, agentRollupIds);
+        oldestNeedsRollupCaptureTimes.keySet().retainAll(agentRollupIds);
+        lastDurationMillis.keySet().retainAll(agentRollupIds);
+    }
+
+    // returns the max lag of the agent rollup and its descendants, since the agent rollup's own
+    // rollup (from children) cannot catch up before its descendants do
+    //
+    // returns Long.MAX_VALUE if the lag of the agent rollup (or one of its descendants) is not
+    // known yet
+    long getLagMillis(AgentRollup agentRollup, long currentTimeMillis) {
+        Long oldestNeedsRollupCaptureTime = oldestNeedsRollupCaptureTimes.get(agentRollup.id());
+        long lagMillis = oldestNeedsRollupCaptureTime == null ? Long.MAX_VALUE
+                : getLagMillis(oldestNeedsRollupCaptureTime, currentTimeMillis);
+        for (AgentRollup childAgentRollup : agentRollup.children()) {
+            lagMillis = Math.max(lagMillis, getLagMillis(childAgentRollup, currentTimeMillis));
+        }
+        return lagMillis;
+    }
+
+    @Override
+    public Map<String, Long> getAggregateRollupLagMillis() {
+        long currentTimeMillis = clock.currentTimeMillis();
+        Map<String, Long> lagMillis = new HashMap<>();
+        for (Map.Entry<String, Long> entry : oldestNeedsRollupCaptureTimes.entrySet()) {
+            lagMillis.put(entry.getKey(), getLagMillis(entry.getValue(), currentTimeMillis));
+        }
+        return lagMillis;
+    }
+
+    @Override
+    public Map<String, Integer> getAggregateRollupLagHistogram() {
+        long currentTimeMillis = clock.currentTimeMillis();
+        int[] counts = new int[LAG_HISTOGRAM_BUCKET_NAMES.length];
+        for (long oldestNeedsRollupCaptureTime : oldestNeedsRollupCaptureTimes.values()) {
+            long lagMillis = getLagMillis(oldestNeedsRollupCaptureTime, currentTimeMillis);
+            int bucket = 0;
+            while (bucket < LAG_HISTOGRAM_UPPER_BOUNDS_MILLIS.length
+                    && lagMillis > LAG_HISTOGRAM_UPPER_BOUNDS_MILLIS[bucket]) {
+                bucket++;
+            }
+            counts[bucket]++;
+        }
+        Map<String, Integer> histogram = new LinkedHashMap<>();
+        for (int i = 0; i < counts.length; i++) {
+            histogram.put(LAG_HISTOGRAM_BUCKET_NAMES[i], counts[i]);
+        }
+        return histogram;
+    }
+
+    @Override
+    public Map<String, Long> getAggregateRollupDurationMillis() {
+        return new HashMap<>(lastDurationMillis);
+    }
+
+    @Override
+    public long getMaxAggregateRollupLagMillis() {
+        long currentTimeMillis = clock.currentTimeMillis();
+        long maxLagMillis = 0;
+        for (long oldestNeedsRollupCaptureTime : oldestNeedsRollupCaptureTimes.values()) {
+            maxLagMillis = Math.max(maxLagMillis,
+                    getLagMillis(oldestNeedsRollupCaptureTime, currentTimeMillis));
+        }
+        return maxLagMillis;
+    }
+
+    // the newest "needs rollup" capture time is normally in the near future (see
+    // Common.getNeedsRollupList()), which is not lag
+    private static long getLagMillis(long oldestNeedsRollupCaptureTime, long currentTimeMillis) {
+        return Math.max(0, currentTimeMillis - oldestNeedsRollupCaptureTime);
+    }
+
+    private static void addAgentRollupIds(List<AgentRollup> agentRollups,
+            Set<String> agentRollupIds) {
+        for (AgentRollup agentRollup : agentRollups) {
+            agentRollupIds.add(agentRollup.id());
+            addAgentRollupIds(agentRollup.children(), agentRollupIds);
+        }
+    }
+}
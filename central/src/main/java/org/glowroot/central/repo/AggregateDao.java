@@ -1,5 +1,5 @@
 /*
- * Copyright 2017-2018 the original author or authors.
+ * Copyright 2017-2019 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,6 +16,9 @@
 package org.glowroot.central.repo;
 
 import java.util.List;
+import java.util.Optional;
+
+import com.google.common.util.concurrent.ListenableFuture;
 
 import org.glowroot.agent.api.Instrumentation;
 import org.glowroot.agent.api.Instrumentation.AlreadyInTransactionBehavior;
@@ -29,12 +32,40 @@ public interface AggregateDao extends AggregateRepository {
     void store(String agentId, long captureTime, List<OldAggregatesByType> aggregatesByTypeList,
             List<Aggregate.SharedQueryText> initialSharedQueryTexts) throws Exception;
 
+    // used to store aggregates incrementally as they are received from the agent, instead of
+    // buffering the entire aggregate stream in memory
+    AggregateWriter createWriter(String agentId, long captureTime) throws Exception;
+
     @Instrumentation.Transaction(transactionType = "Background",
             transactionName = "Rollup aggregates", traceHeadline = "Rollup aggregates: {{0}}",
             timer = "rollup aggregates",
             alreadyInTransactionBehavior = AlreadyInTransactionBehavior.CAPTURE_NEW_TRANSACTION)
     void rollup(String agentRollupId) throws Exception;
 
+    // returns the capture time of the oldest aggregate data that is still waiting to be rolled up
+    // (from the agent rollup itself, or from its child agent rollups), which is how far behind the
+    // rollups are for this agent rollup
+    ListenableFuture<Optional<Long>> readOldestNeedsRollupCaptureTime(String agentRollupId)
+            throws Exception;
+
     @OnlyUsedByTests
     void truncateAll() throws Exception;
+
+    interface AggregateWriter {
+
+        // shared query texts must be added before any aggregates that reference them
+        void addSharedQueryText(Aggregate.SharedQueryText sharedQueryText) throws Exception;
+
+        void storeOverallAggregate(String transactionType, Aggregate overallAggregate)
+                throws Exception;
+
+        void storeTransactionAggregate(String transactionType, String transactionName,
+                Aggregate transactionAggregate) throws Exception;
+
+        void complete() throws Exception;
+
+        // called instead of complete() when the stream fails part way through, so that the
+        // aggregates that have already been stored still get rolled up
+        void abort() throws Exception;
+    }
 }
@@ -24,16 +24,17 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
-import java.util.stream.Collectors;
 
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.base.Function;
 import com.google.common.base.Strings;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
@@ -104,6 +105,8 @@ public class AggregateDaoImpl implements AggregateDao {
     @SuppressWarnings("deprecation")
     private static final HashFunction SHA_1 = Hashing.sha1();
 
+    private static final int MAX_PENDING_AGGREGATES_PER_WRITER = 100;
+
     private static final Table summaryTable = ImmutableTable.builder()
             .partialName("summary")
             .addColumns(ImmutableColumn.of("total_duration_nanos", "double"))
@@ -233,6 +236,10 @@ public class AggregateDaoImpl implements AggregateDao {
     private final PreparedStatement readNeedsRollupFromChild;
     private final PreparedStatement deleteNeedsRollupFromChild;
 
+    // these are used to measure how far behind the rollups are
+    private final PreparedStatement readOldestNeedsRollup;
+    private final PreparedStatement readOldestNeedsRollupFromChild;
+
     private final ImmutableList<Table> allTables;
 
     AggregateDaoImpl(Session session, ActiveAgentDao activeAgentDao,
@@ -408,6 +415,12 @@ public class AggregateDaoImpl implements AggregateDao {
                 + " where agent_rollup = ?");
         deleteNeedsRollupFromChild = session.prepare("delete from aggregate_needs_rollup_from_child"
                 + " where agent_rollup = ? and capture_time = ? and uniqueness = ?");
+
+        // rows are clustered by capture_time, so the first row is the oldest
+        readOldestNeedsRollup = session.prepare("select capture_time from aggregate_needs_rollup_1"
+                + " where agent_rollup = ? limit 1");
+        readOldestNeedsRollupFromChild = session.prepare("select capture_time from"
+                + " aggregate_needs_rollup_from_child where agent_rollup = ? limit 1");
     }
 
     @Override
@@ -423,96 +436,37 @@ public class AggregateDaoImpl implements AggregateDao {
             String agentIdForMeta, List<String> agentRollupIdsForMeta, long captureTime,
             List<OldAggregatesByType> aggregatesByTypeList,
             List<Aggregate.SharedQueryText> initialSharedQueryTexts) throws Exception {
-        if (aggregatesByTypeList.isEmpty()) {
-            MoreFutures.waitForAll(activeAgentDao.insert(agentIdForMeta, captureTime));
-            return;
-        }
-        TTL adjustedTTL = getAdjustedTTL(getTTLs().get(0), captureTime, clock);
-        List<Future<?>> futures = new ArrayList<>();
-        List<Aggregate.SharedQueryText> sharedQueryTexts = new ArrayList<>();
+        AggregateWriter aggregateWriter = createWriter(agentId, agentRollupIds, agentIdForMeta,
+                agentRollupIdsForMeta, captureTime);
         for (Aggregate.SharedQueryText sharedQueryText : initialSharedQueryTexts) {
-            String fullTextSha1 = sharedQueryText.getFullTextSha1();
-            if (fullTextSha1.isEmpty()) {
-                String fullText = sharedQueryText.getFullText();
-                if (fullText.length() > Constants.AGGREGATE_QUERY_TEXT_TRUNCATE) {
-                    // relying on agent side to rate limit (re-)sending the same full text
-                    fullTextSha1 = SHA_1.hashString(fullText, UTF_8).toString();
-                    futures.addAll(fullQueryTextDao.store(agentRollupIds, fullTextSha1, fullText));
-                    sharedQueryText = Aggregate.SharedQueryText.newBuilder()
-                            .setTruncatedText(fullText.substring(0,
-                                    Constants.AGGREGATE_QUERY_TEXT_TRUNCATE))
-                            .setFullTextSha1(fullTextSha1)
-                            .build();
-                }
-            }
-            sharedQueryTexts.add(sharedQueryText);
+            aggregateWriter.addSharedQueryText(sharedQueryText);
         }
-
-        // wait for success before proceeding in order to ensure cannot end up with orphaned
-        // fullTextSha1
-        MoreFutures.waitForAll(futures);
-        futures.clear();
-
         for (OldAggregatesByType aggregatesByType : aggregatesByTypeList) {
             String transactionType = aggregatesByType.getTransactionType();
-            Aggregate overallAggregate = aggregatesByType.getOverallAggregate();
-            futures.addAll(storeOverallAggregate(agentId, transactionType, captureTime,
-                    overallAggregate, sharedQueryTexts, adjustedTTL));
+            aggregateWriter.storeOverallAggregate(transactionType,
+                    aggregatesByType.getOverallAggregate());
             for (OldTransactionAggregate transactionAggregate : aggregatesByType
                     .getTransactionAggregateList()) {
-                futures.addAll(storeTransactionAggregate(agentId, transactionType,
-                        transactionAggregate.getTransactionName(), captureTime,
-                        transactionAggregate.getAggregate(), sharedQueryTexts, adjustedTTL));
+                aggregateWriter.storeTransactionAggregate(transactionType,
+                        transactionAggregate.getTransactionName(),
+                        transactionAggregate.getAggregate());
             }
-            // wait for success before proceeding in order to ensure cannot end up with
-            // "no overview table records found" during a transactionName rollup, since
-            // transactionName rollups are based on finding transactionName in summary table
-            MoreFutures.waitForAll(futures);
-            futures.clear();
-            for (OldTransactionAggregate transactionAggregate : aggregatesByType
-                    .getTransactionAggregateList()) {
-                futures.addAll(storeTransactionNameSummary(agentId, transactionType,
-                        transactionAggregate.getTransactionName(), captureTime,
-                        transactionAggregate.getAggregate(), adjustedTTL));
-            }
-            futures.addAll(transactionTypeDao.store(agentRollupIdsForMeta, transactionType));
         }
-        futures.addAll(activeAgentDao.insert(agentIdForMeta, captureTime));
-        // wait for success before inserting "needs rollup" records
-        MoreFutures.waitForAll(futures);
-        futures.clear();
+        aggregateWriter.complete();
+    }
 
-        List<RollupConfig> rollupConfigs = configRepository.getRollupConfigs();
-        // TODO report checker framework issue that occurs without this suppression
-        @SuppressWarnings("assignment.type.incompatible")
-        Set<String> transactionTypes = aggregatesByTypeList.stream()
-                .map(OldAggregatesByType::getTransactionType).collect(Collectors.toSet());
-
-        int needsRollupAdjustedTTL =
-                Common.getNeedsRollupAdjustedTTL(adjustedTTL.generalTTL(), rollupConfigs);
-        if (agentRollupIds.size() > 1) {
-            BoundStatement boundStatement = insertNeedsRollupFromChild.bind();
-            int i = 0;
-            boundStatement.setString(i++, agentRollupIds.get(1));
-            boundStatement.setTimestamp(i++, new Date(captureTime));
-            boundStatement.setUUID(i++, UUIDs.timeBased());
-            boundStatement.setString(i++, agentId);
-            boundStatement.setSet(i++, transactionTypes);
-            boundStatement.setInt(i++, needsRollupAdjustedTTL);
-            futures.add(session.writeAsync(boundStatement));
-        }
-        // insert into aggregate_needs_rollup_1
-        long intervalMillis = rollupConfigs.get(1).intervalMillis();
-        long rollupCaptureTime = CaptureTimes.getRollup(captureTime, intervalMillis);
-        BoundStatement boundStatement = insertNeedsRollup.get(0).bind();
-        int i = 0;
-        boundStatement.setString(i++, agentId);
-        boundStatement.setTimestamp(i++, new Date(rollupCaptureTime));
-        boundStatement.setUUID(i++, UUIDs.timeBased());
-        boundStatement.setSet(i++, transactionTypes);
-        boundStatement.setInt(i++, needsRollupAdjustedTTL);
-        futures.add(session.writeAsync(boundStatement));
-        MoreFutures.waitForAll(futures);
+    @Override
+    public AggregateWriter createWriter(String agentId, long captureTime) throws Exception {
+        List<String> agentRollupIds = AgentRollupIds.getAgentRollupIds(agentId);
+        return createWriter(agentId, agentRollupIds, agentId, agentRollupIds, captureTime);
+    }
+
+    public AggregateWriter createWriter(String agentId, List<String> agentRollupIds,
+            String agentIdForMeta, List<String> agentRollupIdsForMeta, long captureTime)
+            throws Exception {
+        TTL adjustedTTL = getAdjustedTTL(getTTLs().get(0), captureTime, clock);
+        return new AggregateWriterImpl(agentId, agentRollupIds, agentIdForMeta,
+                agentRollupIdsForMeta, captureTime, adjustedTTL);
     }
 
     // query.from() is non-inclusive
@@ -828,6 +782,36 @@ public class AggregateDaoImpl implements AggregateDao {
         }
     }
 
+    @Override
+    public ListenableFuture<Optional<Long>> readOldestNeedsRollupCaptureTime(String agentRollupId)
+            throws Exception {
+        List<ListenableFuture<ResultSet>> futures = new ArrayList<>();
+        for (PreparedStatement readPS : ImmutableList.of(readOldestNeedsRollup,
+                readOldestNeedsRollupFromChild)) {
+            BoundStatement boundStatement = readPS.bind();
+            boundStatement.setString(0, agentRollupId);
+            futures.add(session.readAsync(boundStatement));
+        }
+        return Futures.transform(Futures.allAsList(futures),
+                new Function<List<ResultSet>, Optional<Long>>() {
+                    @Override
+                    public Optional<Long> apply(List<ResultSet> resultsList) {
+                        Long oldestCaptureTime = null;
+                        for (ResultSet results : resultsList) {
+                            Row row = results.one();
+                            if (row == null) {
+                                continue;
+                            }
+                            long captureTime = checkNotNull(row.getTimestamp(0)).getTime();
+                            if (oldestCaptureTime == null || captureTime < oldestCaptureTime) {
+                                oldestCaptureTime = captureTime;
+                            }
+                        }
+                        return Optional.ofNullable(oldestCaptureTime);
+                    }
+                }, asyncExecutor);
+    }
+
     @Override
     @OnlyUsedByTests
     public void truncateAll() throws Exception {
@@ -2500,6 +2484,192 @@ public class AggregateDaoImpl implements AggregateDao {
                 .build();
     }
 
+    private class AggregateWriterImpl implements AggregateWriter {
+
+        private final String agentId;
+        private final List<String> agentRollupIds;
+        private final String agentIdForMeta;
+        private final List<String> agentRollupIdsForMeta;
+        private final long captureTime;
+        private final TTL adjustedTTL;
+
+        private final List<Aggregate.SharedQueryText> sharedQueryTexts = new ArrayList<>();
+        private final Set<String> transactionTypes = new HashSet<>();
+
+        private final List<Future<?>> fullTextFutures = new ArrayList<>();
+        private final List<Future<?>> futures = new ArrayList<>();
+
+        // transaction name summaries are only written after the corresponding transaction
+        // aggregates have been successfully written, in order to ensure cannot end up with
+        // "no overview table records found" during a transactionName rollup, since
+        // transactionName rollups are based on finding transactionName in summary table
+        private final Map<String, Map<String, Aggregate>> pendingTransactionNameSummaries =
+                new HashMap<>();
+        private int pendingAggregateCount;
+
+        private AggregateWriterImpl(String agentId, List<String> agentRollupIds,
+                String agentIdForMeta, List<String> agentRollupIdsForMeta, long captureTime,
+                TTL adjustedTTL) {
+            this.agentId = agentId;
+            this.agentRollupIds = agentRollupIds;
+            this.agentIdForMeta = agentIdForMeta;
+            this.agentRollupIdsForMeta = agentRollupIdsForMeta;
+            this.captureTime = captureTime;
+            this.adjustedTTL = adjustedTTL;
+        }
+
+        @Override
+        public void addSharedQueryText(Aggregate.SharedQueryText sharedQueryText)
+                throws Exception {
+            String fullTextSha1 = sharedQueryText.getFullTextSha1();
+            if (fullTextSha1.isEmpty()) {
+                String fullText = sharedQueryText.getFullText();
+                if (fullText.length() > Constants.AGGREGATE_QUERY_TEXT_TRUNCATE) {
+                    // relying on agent side to rate limit (re-)sending the same full text
+                    fullTextSha1 = SHA_1.hashString(fullText, UTF_8).toString();
+                    fullTextFutures
+                            .addAll(fullQueryTextDao.store(agentRollupIds, fullTextSha1, fullText));
+                    sharedQueryText = Aggregate.SharedQueryText.newBuilder()
+                            .setTruncatedText(fullText.substring(0,
+                                    Constants.AGGREGATE_QUERY_TEXT_TRUNCATE))
+                            .setFullTextSha1(fullTextSha1)
+                            .build();
+                }
+            }
+            sharedQueryTexts.add(sharedQueryText);
+        }
+
+        @Override
+        public void storeOverallAggregate(String transactionType, Aggregate overallAggregate)
+                throws Exception {
+            beforeStoreAggregate();
+            transactionTypes.add(transactionType);
+            futures.addAll(AggregateDaoImpl.this.storeOverallAggregate(agentId, transactionType,
+                    captureTime, overallAggregate, sharedQueryTexts, adjustedTTL));
+            afterStoreAggregate();
+        }
+
+        @Override
+        public void storeTransactionAggregate(String transactionType, String transactionName,
+                Aggregate transactionAggregate) throws Exception {
+            beforeStoreAggregate();
+            transactionTypes.add(transactionType);
+            futures.addAll(AggregateDaoImpl.this.storeTransactionAggregate(agentId,
+                    transactionType, transactionName, captureTime, transactionAggregate,
+                    sharedQueryTexts, adjustedTTL));
+            // only retain the fields needed for the transaction name summary
+            Map<String, Aggregate> pendingSummaries = pendingTransactionNameSummaries
+                    .computeIfAbsent(transactionType, k -> new HashMap<>());
+            pendingSummaries.put(transactionName, Aggregate.newBuilder()
+                    .setTotalDurationNanos(transactionAggregate.getTotalDurationNanos())
+                    .setTransactionCount(transactionAggregate.getTransactionCount())
+                    .setErrorCount(transactionAggregate.getErrorCount())
+                    .build());
+            afterStoreAggregate();
+        }
+
+        @Override
+        public void complete() throws Exception {
+            if (transactionTypes.isEmpty()) {
+                MoreFutures.waitForAll(fullTextFutures);
+                MoreFutures.waitForAll(activeAgentDao.insert(agentIdForMeta, captureTime));
+                return;
+            }
+            flush();
+            for (String transactionType : transactionTypes) {
+                futures.addAll(transactionTypeDao.store(agentRollupIdsForMeta, transactionType));
+            }
+            futures.addAll(activeAgentDao.insert(agentIdForMeta, captureTime));
+            // wait for success before inserting "needs rollup" records
+            MoreFutures.waitForAll(futures);
+            futures.clear();
+            insertNeedsRollup();
+        }
+
+        @Override
+        public void abort() throws Exception {
+            if (transactionTypes.isEmpty()) {
+                return;
+            }
+            try {
+                // this still only writes transaction name summaries after the corresponding
+                // transaction aggregates have been successfully written
+                flush();
+                for (String transactionType : transactionTypes) {
+                    futures.addAll(
+                            transactionTypeDao.store(agentRollupIdsForMeta, transactionType));
+                }
+                MoreFutures.waitForAll(futures);
+            } finally {
+                futures.clear();
+                // even if some of the writes above failed, the aggregates that were successfully
+                // written still need to be rolled up
+                insertNeedsRollup();
+            }
+        }
+
+        private void insertNeedsRollup() throws Exception {
+            List<Future<?>> needsRollupFutures = new ArrayList<>();
+            List<RollupConfig> rollupConfigs = configRepository.getRollupConfigs();
+            int needsRollupAdjustedTTL =
+                    Common.getNeedsRollupAdjustedTTL(adjustedTTL.generalTTL(), rollupConfigs);
+            if (agentRollupIds.size() > 1) {
+                BoundStatement boundStatement = insertNeedsRollupFromChild.bind();
+                int i = 0;
+                boundStatement.setString(i++, agentRollupIds.get(1));
+                boundStatement.setTimestamp(i++, new Date(captureTime));
+                boundStatement.setUUID(i++, UUIDs.timeBased());
+                boundStatement.setString(i++, agentId);
+                boundStatement.setSet(i++, transactionTypes);
+                boundStatement.setInt(i++, needsRollupAdjustedTTL);
+                needsRollupFutures.add(session.writeAsync(boundStatement));
+            }
+            // insert into aggregate_needs_rollup_1
+            long intervalMillis = rollupConfigs.get(1).intervalMillis();
+            long rollupCaptureTime = CaptureTimes.getRollup(captureTime, intervalMillis);
+            BoundStatement boundStatement = insertNeedsRollup.get(0).bind();
+            int i = 0;
+            boundStatement.setString(i++, agentId);
+            boundStatement.setTimestamp(i++, new Date(rollupCaptureTime));
+            boundStatement.setUUID(i++, UUIDs.timeBased());
+            boundStatement.setSet(i++, transactionTypes);
+            boundStatement.setInt(i++, needsRollupAdjustedTTL);
+            needsRollupFutures.add(session.writeAsync(boundStatement));
+            MoreFutures.waitForAll(needsRollupFutures);
+        }
+
+        private void beforeStoreAggregate() throws Exception {
+            // wait for success before proceeding in order to ensure cannot end up with orphaned
+            // fullTextSha1
+            MoreFutures.waitForAll(fullTextFutures);
+            fullTextFutures.clear();
+        }
+
+        private void afterStoreAggregate() throws Exception {
+            if (++pendingAggregateCount >= MAX_PENDING_AGGREGATES_PER_WRITER) {
+                // this bounds the memory retained per aggregate stream, and (since this blocks
+                // the caller) provides back pressure to the agent
+                flush();
+            }
+        }
+
+        private void flush() throws Exception {
+            MoreFutures.waitForAll(futures);
+            futures.clear();
+            for (Map.Entry<String, Map<String, Aggregate>> entry : pendingTransactionNameSummaries
+                    .entrySet()) {
+                String transactionType = entry.getKey();
+                for (Map.Entry<String, Aggregate> innerEntry : entry.getValue().entrySet()) {
+                    futures.addAll(storeTransactionNameSummary(agentId, transactionType,
+                            innerEntry.getKey(), captureTime, innerEntry.getValue(),
+                            adjustedTTL));
+                }
+            }
+            pendingTransactionNameSummaries.clear();
+            pendingAggregateCount = 0;
+        }
+    }
+
     @Value.Immutable
     interface Table {
         String partialName();
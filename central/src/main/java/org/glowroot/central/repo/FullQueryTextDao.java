@@ -63,6 +63,12 @@ class FullQueryTextDao {
 
     private final RateLimiter<String> rateLimiter = new RateLimiter<>(100000, true);
 
+    // the same full query texts are received from every agent every minute, so this avoids
+    // re-writing the same (agent rollup, sha1) check record more than once a day (the check record
+    // TTL is always at least 2 days, see getTTL(), so it cannot expire before being re-written)
+    private final RateLimiter<FullQueryTextKey> checkRateLimiter =
+            new RateLimiter<>(250000, true);
+
     FullQueryTextDao(Session session, ConfigRepositoryImpl configRepository, Executor asyncExecutor)
             throws Exception {
         this.session = session;
@@ -96,6 +102,8 @@ class FullQueryTextDao {
         MBeanServer platformMBeanServer = ManagementFactory.getPlatformMBeanServer();
         platformMBeanServer.registerMBean(rateLimiter.getLocalCacheStats(), ObjectName
                 .getInstance("org.glowroot.central:type=FullQueryTextRateLimiter"));
+        platformMBeanServer.registerMBean(checkRateLimiter.getLocalCacheStats(), ObjectName
+                .getInstance("org.glowroot.central:type=FullQueryTextCheckRateLimiter"));
     }
 
     @Nullable
@@ -112,12 +120,23 @@ class FullQueryTextDao {
         // relying on agent side to rate limit (re-)sending the same full text
         List<Future<?>> futures = new ArrayList<>();
         for (String agentRollupId : agentRollupIds) {
+            FullQueryTextKey checkKey = ImmutableFullQueryTextKey.of(agentRollupId, fullTextSha1);
+            if (!checkRateLimiter.tryAcquire(checkKey)) {
+                continue;
+            }
             BoundStatement boundStatement = insertCheckV2PS.bind();
             int i = 0;
             boundStatement.setString(i++, agentRollupId);
             boundStatement.setString(i++, fullTextSha1);
             boundStatement.setInt(i++, getTTL());
-            futures.add(session.writeAsync(boundStatement));
+            ListenableFuture<?> future;
+            try {
+                future = session.writeAsync(boundStatement);
+            } catch (Throwable t) {
+                checkRateLimiter.release(checkKey);
+                throw t;
+            }
+            futures.add(MoreFutures.onFailure(future, () -> checkRateLimiter.release(checkKey)));
         }
         if (!rateLimiter.tryAcquire(fullTextSha1)) {
             return futures;
@@ -207,12 +226,14 @@ class FullQueryTextDao {
         MBeanServer platformMBeanServer = ManagementFactory.getPlatformMBeanServer();
         platformMBeanServer.unregisterMBean(ObjectName
                 .getInstance("org.glowroot.central:type=FullQueryTextRateLimiter"));
+        platformMBeanServer.unregisterMBean(ObjectName
+                .getInstance("org.glowroot.central:type=FullQueryTextCheckRateLimiter"));
     }
 
     @Value.Immutable
     @Styles.AllParameters
     interface FullQueryTextKey {
-        String agentId();
+        String agentRollupId();
         String fullTextSha1();
     }
 }
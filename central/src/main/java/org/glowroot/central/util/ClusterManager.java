@@ -18,6 +18,7 @@ package org.glowroot.central.util;
 import java.io.File;
 import java.io.Serializable;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Queue;
@@ -30,8 +31,10 @@ import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -58,6 +61,7 @@ import org.glowroot.common2.repo.util.LockSet;
 import org.glowroot.common2.repo.util.LockSet.LockSetImpl;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.concurrent.TimeUnit.SECONDS;
@@ -107,8 +111,39 @@ public abstract class ClusterManager {
     public abstract <K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object> DistributedExecutionMap<K, V> createDistributedExecutionMap(
             String cacheName);
 
+    // partitions keys (e.g. agent rollup ids) across the live cluster members using rendezvous
+    // hashing, so that each key is owned by exactly one member (once membership has converged) and
+    // only the keys owned by a member that leaves the cluster are reassigned
+    public abstract boolean isLocalOwner(String key);
+
     public abstract void close() throws InterruptedException;
 
+    @VisibleForTesting
+    static <T> T getOwner(String key, List<T> members) {
+        T owner = members.get(0);
+        long ownerWeight = Long.MIN_VALUE;
+        for (T member : members) {
+            long weight = getWeight(key, member.toString());
+            if (weight > ownerWeight) {
+                owner = member;
+                ownerWeight = weight;
+            }
+        }
+        return owner;
+    }
+
+    @VisibleForTesting
+    static long getWeight(String key, String member) {
+        // the member length prefix keeps the hash input unambiguous, otherwise member "a" with key
+        // "12" would have the same weight as member "a1" with key "2"
+        return Hashing.murmur3_128().newHasher()
+                .putInt(member.length())
+                .putString(member, UTF_8)
+                .putString(key, UTF_8)
+                .hash()
+                .asLong();
+    }
+
     private static class ClusterManagerImpl extends ClusterManager {
 
         private final EmbeddedCacheManager cacheManager;
@@ -193,6 +228,17 @@ public abstract class ClusterManager {
             return new DistributedExecutionMapImpl<K, V>(cacheManager.getCache(cacheName));
         }
 
+        @Override
+        public boolean isLocalOwner(String key) {
+            List<Address> members = cacheManager.getMembers();
+            Address localAddress = cacheManager.getAddress();
+            if (members == null || members.isEmpty() || localAddress == null) {
+                // transport not started (yet), better to perform duplicative work than none
+                return true;
+            }
+            return localAddress.equals(getOwner(key, members));
+        }
+
         @Override
         public void close() throws InterruptedException {
             cacheManager.stop();
@@ -309,6 +355,11 @@ public abstract class ClusterManager {
                     .asMap();
         }
 
+        @Override
+        public boolean isLocalOwner(String key) {
+            return true;
+        }
+
         @Override
         public void close() {}
     }
@@ -17,8 +17,10 @@ package org.glowroot.central.v09support;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.immutables.value.Value;
 
@@ -82,6 +84,18 @@ public class AggregateDaoWithV09Support implements AggregateDao {
         }
     }
 
+    @Override
+    public AggregateWriter createWriter(String agentId, long captureTime) throws Exception {
+        if (captureTime <= v09LastCaptureTime
+                && agentRollupIdsWithV09Data.contains(agentId)) {
+            return delegate.createWriter(V09Support.convertToV09(agentId),
+                    V09Support.getAgentRollupIdsV09(agentId), agentId,
+                    AgentRollupIds.getAgentRollupIds(agentId), captureTime);
+        } else {
+            return delegate.createWriter(agentId, captureTime);
+        }
+    }
+
     // query.from() is non-inclusive
     @Override
     public void mergeOverallSummaryInto(String agentRollupId, SummaryQuery query,
@@ -242,6 +256,12 @@ public class AggregateDaoWithV09Support implements AggregateDao {
         }
     }
 
+    @Override
+    public ListenableFuture<Optional<Long>> readOldestNeedsRollupCaptureTime(String agentRollupId)
+            throws Exception {
+        return delegate.readOldestNeedsRollupCaptureTime(agentRollupId);
+    }
+
     private void splitMergeIfNeeded(String agentRollupId, SummaryQuery query,
             DelegateMergeAction<SummaryQuery> action) throws Exception {
         SummaryQueryPlan plan = getPlan(agentRollupId, query);
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.glowroot.central.repo.ActiveAgentDao;
+import org.glowroot.central.repo.AgentConfigDao;
+import org.glowroot.central.repo.AgentDisplayDao;
+import org.glowroot.central.repo.AggregateDao;
+import org.glowroot.central.repo.AggregateDao.AggregateWriter;
+import org.glowroot.central.repo.EnvironmentDao;
+import org.glowroot.central.repo.GaugeValueDao;
+import org.glowroot.central.repo.HeartbeatDao;
+import org.glowroot.central.repo.TraceDao;
+import org.glowroot.central.repo.V09AgentRollupDao;
+import org.glowroot.common.util.Clock;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.AggregateResponseMessage;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.AggregateStreamMessage;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.AggregateStreamMessage.AggregateStreamHeader;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.AggregateStreamMessage.OverallAggregate;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.AggregateStreamMessage.TransactionAggregate;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.OldAggregateMessage;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class CollectorServiceImplTest {
+
+    private static final long CAPTURE_TIME = 60000;
+
+    private AggregateDao aggregateDao;
+    private AggregateWriter aggregateWriter;
+    private CollectorServiceImpl collectorService;
+
+    @Before
+    public void beforeEach() throws Exception {
+        aggregateDao = mock(AggregateDao.class);
+        aggregateWriter = mock(AggregateWriter.class);
+        when(aggregateDao.createWriter("a", CAPTURE_TIME)).thenReturn(aggregateWriter);
+        AgentDisplayDao agentDisplayDao = mock(AgentDisplayDao.class);
+        when(agentDisplayDao.readFullDisplay("a")).thenReturn("a");
+        V09AgentRollupDao v09AgentRollupDao = mock(V09AgentRollupDao.class);
+        collectorService = new CollectorServiceImpl(agentDisplayDao, mock(AgentConfigDao.class),
+                mock(ActiveAgentDao.class), mock(EnvironmentDao.class), mock(HeartbeatDao.class),
+                aggregateDao, mock(GaugeValueDao.class), mock(TraceDao.class), v09AgentRollupDao,
+                new GrpcCommon(v09AgentRollupDao), mock(CentralAlertingService.class),
+                mock(Clock.class), "0.0.0");
+    }
+
+    @Test
+    public void shouldStoreAggregatesInBatchesAsTheyArrive() throws Exception {
+        // given
+        StreamObserver<AggregateResponseMessage> responseObserver = newResponseObserver();
+        StreamObserver<AggregateStreamMessage> requestObserver =
+                collectorService.collectAggregateStream(responseObserver);
+
+        // when
+        requestObserver.onNext(streamHeader());
+        requestObserver.onNext(overallAggregate());
+        sendTransactionAggregates(requestObserver, 0, 98);
+
+        // then
+        verifyZeroInteractions(aggregateWriter);
+
+        // when
+        sendTransactionAggregates(requestObserver, 98, 99);
+
+        // then
+        verify(aggregateWriter).storeOverallAggregate(eq("Web"), any(Aggregate.class));
+        verify(aggregateWriter, times(99)).storeTransactionAggregate(eq("Web"), anyString(),
+                any(Aggregate.class));
+
+        // when
+        sendTransactionAggregates(requestObserver, 99, 150);
+        requestObserver.onCompleted();
+
+        // then
+        verify(aggregateWriter, times(150)).storeTransactionAggregate(eq("Web"), anyString(),
+                any(Aggregate.class));
+        verify(aggregateWriter).complete();
+        verify(aggregateWriter, never()).abort();
+        verify(responseObserver).onNext(any(AggregateResponseMessage.class));
+        verify(responseObserver).onCompleted();
+        verify(responseObserver, never()).onError(any(Throwable.class));
+    }
+
+    @Test(timeout = 10000)
+    public void shouldNotHoldThrottleBetweenBatches() throws Exception {
+        // given
+        StreamObserver<AggregateStreamMessage> requestObserver =
+                collectorService.collectAggregateStream(newResponseObserver());
+        requestObserver.onNext(streamHeader());
+        sendTransactionAggregates(requestObserver, 0, 150);
+        StreamObserver<AggregateResponseMessage> otherResponseObserver = newResponseObserver();
+
+        // when
+        collectorService.collectAggregates(OldAggregateMessage.newBuilder()
+                .setAgentId("a")
+                .setCaptureTime(CAPTURE_TIME)
+                .build(), otherResponseObserver);
+
+        // then
+        verify(otherResponseObserver).onCompleted();
+        verify(otherResponseObserver, never()).onError(any(Throwable.class));
+    }
+
+    @Test
+    public void shouldAbortWhenStoreFails() throws Exception {
+        // given
+        StreamObserver<AggregateResponseMessage> responseObserver = newResponseObserver();
+        StreamObserver<AggregateStreamMessage> requestObserver =
+                collectorService.collectAggregateStream(responseObserver);
+        doThrow(new IllegalStateException("test")).when(aggregateWriter)
+                .storeTransactionAggregate(anyString(), eq("t50"), any(Aggregate.class));
+
+        // when
+        requestObserver.onNext(streamHeader());
+        sendTransactionAggregates(requestObserver, 0, 200);
+        requestObserver.onCompleted();
+
+        // then
+        verify(aggregateWriter, times(51)).storeTransactionAggregate(eq("Web"), anyString(),
+                any(Aggregate.class));
+        verify(aggregateWriter).abort();
+        verify(aggregateWriter, never()).complete();
+        verify(responseObserver).onError(any(IllegalStateException.class));
+        verify(responseObserver, never()).onNext(any(AggregateResponseMessage.class));
+        verify(responseObserver, never()).onCompleted();
+    }
+
+    @Test
+    public void shouldAbortWhenStreamIsCancelled() throws Exception {
+        // given
+        StreamObserver<AggregateResponseMessage> responseObserver = newResponseObserver();
+        StreamObserver<AggregateStreamMessage> requestObserver =
+                collectorService.collectAggregateStream(responseObserver);
+
+        // when
+        requestObserver.onNext(streamHeader());
+        sendTransactionAggregates(requestObserver, 0, 150);
+        requestObserver.onError(Status.CANCELLED.asRuntimeException());
+
+        // then
+        // the 50 buffered aggregates are discarded
+        verify(aggregateWriter, times(100)).storeTransactionAggregate(eq("Web"), anyString(),
+                any(Aggregate.class));
+        verify(aggregateWriter).abort();
+        verify(aggregateWriter, never()).complete();
+        verifyZeroInteractions(responseObserver);
+    }
+
+    @Test
+    public void shouldFailWhenWriterCannotBeCreated() throws Exception {
+        // given
+        StreamObserver<AggregateResponseMessage> responseObserver = newResponseObserver();
+        StreamObserver<AggregateStreamMessage> requestObserver =
+                collectorService.collectAggregateStream(responseObserver);
+        when(aggregateDao.createWriter(anyString(), anyLong()))
+                .thenThrow(new IllegalStateException("test"));
+
+        // when
+        requestObserver.onNext(streamHeader());
+        sendTransactionAggregates(requestObserver, 0, 150);
+        requestObserver.onCompleted();
+
+        // then
+        verifyZeroInteractions(aggregateWriter);
+        verify(responseObserver).onError(any(IllegalStateException.class));
+        verify(responseObserver, never()).onCompleted();
+    }
+
+    private static AggregateStreamMessage streamHeader() {
+        return AggregateStreamMessage.newBuilder()
+                .setStreamHeader(AggregateStreamHeader.newBuilder()
+                        .setAgentId("a")
+                        .setCaptureTime(CAPTURE_TIME)
+                        .setPostV09(true))
+                .build();
+    }
+
+    private static AggregateStreamMessage overallAggregate() {
+        return AggregateStreamMessage.newBuilder()
+                .setOverallAggregate(OverallAggregate.newBuilder()
+                        .setTransactionType("Web")
+                        .setAggregate(Aggregate.getDefaultInstance()))
+                .build();
+    }
+
+    private static void sendTransactionAggregates(
+            StreamObserver<AggregateStreamMessage> requestObserver, int from, int to) {
+        for (int i = from; i < to; i++) {
+            requestObserver.onNext(AggregateStreamMessage.newBuilder()
+                    .setTransactionAggregate(TransactionAggregate.newBuilder()
+                            .setTransactionType("Web")
+                            .setTransactionName("t" + i)
+                            .setAggregate(Aggregate.getDefaultInstance()))
+                    .build());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static StreamObserver<AggregateResponseMessage> newResponseObserver() {
+        return mock(StreamObserver.class);
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 the original author or authors.
+ * Copyright 2016-2019 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,9 +15,25 @@
  */
 package org.glowroot.central;
 
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.SettableFuture;
 import org.junit.Test;
 
+import org.glowroot.central.repo.AggregateDao;
+import org.glowroot.common.util.Clock;
+import org.glowroot.common2.repo.ActiveAgentRepository.AgentRollup;
+import org.glowroot.common2.repo.ImmutableAgentRollup;
+
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class RollupServiceTest {
 
@@ -28,4 +44,97 @@ public class RollupServiceTest {
         assertThat(RollupService.millisUntilNextRollup(45000)).isEqualTo(25000);
         assertThat(RollupService.millisUntilNextRollup(60000)).isEqualTo(10000);
     }
+
+    @Test
+    public void shouldOrderByLag() {
+        // given
+        RollupStats rollupStats = new RollupStats(mock(Clock.class));
+        AgentRollup a = agentRollup("a");
+        AgentRollup b = agentRollup("b");
+        AgentRollup c = agentRollup("c");
+        AgentRollup d = agentRollup("d::", agentRollup("d::x"));
+        AgentRollup e = agentRollup("e");
+        rollupStats.updateOldestNeedsRollupCaptureTime("a", Optional.of(540000L));
+        rollupStats.updateOldestNeedsRollupCaptureTime("b", Optional.of(300000L));
+        // c has not been read yet
+        rollupStats.updateOldestNeedsRollupCaptureTime("d::", Optional.empty());
+        rollupStats.updateOldestNeedsRollupCaptureTime("d::x", Optional.of(420000L));
+        rollupStats.updateOldestNeedsRollupCaptureTime("e", Optional.empty());
+
+        // when
+        List<AgentRollup> ordered =
+                RollupService.orderByLag(ImmutableList.of(a, b, c, d, e), rollupStats, 600000);
+
+        // then
+        assertThat(ordered).containsExactly(c, b, d, a, e);
+    }
+
+    @Test
+    public void shouldOrderByLagRoundedToTheMinute() {
+        // given
+        RollupStats rollupStats = new RollupStats(mock(Clock.class));
+        AgentRollup a = agentRollup("a");
+        AgentRollup b = agentRollup("b");
+        AgentRollup c = agentRollup("c");
+        // a and b are equally behind when rounded to the minute
+        rollupStats.updateOldestNeedsRollupCaptureTime("a", Optional.of(470000L));
+        rollupStats.updateOldestNeedsRollupCaptureTime("b", Optional.of(450000L));
+        rollupStats.updateOldestNeedsRollupCaptureTime("c", Optional.of(300000L));
+
+        // when
+        List<AgentRollup> ordered =
+                RollupService.orderByLag(ImmutableList.of(a, b, c), rollupStats, 600000);
+
+        // then
+        assertThat(ordered.get(0)).isEqualTo(c);
+        assertThat(ordered.subList(1, 3)).containsOnly(a, b);
+    }
+
+    @Test
+    public void shouldUpdateRollupLagsWithoutWaitingForReads() throws Exception {
+        // given
+        Clock clock = mock(Clock.class);
+        when(clock.currentTimeMillis()).thenReturn(600000L);
+        RollupStats rollupStats = new RollupStats(clock);
+        AggregateDao aggregateDao = mock(AggregateDao.class);
+        SettableFuture<Optional<Long>> parentFuture = SettableFuture.create();
+        SettableFuture<Optional<Long>> childFuture = SettableFuture.create();
+        when(aggregateDao.readOldestNeedsRollupCaptureTime("p::")).thenReturn(parentFuture);
+        when(aggregateDao.readOldestNeedsRollupCaptureTime("p::c")).thenReturn(childFuture);
+        List<AgentRollup> agentRollups = ImmutableList.of(agentRollup("p::", agentRollup("p::c")));
+        Set<String> lagReadsInFlight = Sets.newConcurrentHashSet();
+
+        // when
+        RollupService.updateRollupLags(agentRollups, aggregateDao, rollupStats, lagReadsInFlight);
+
+        // then
+        assertThat(rollupStats.getAggregateRollupLagMillis()).isEmpty();
+        assertThat(lagReadsInFlight).containsOnly("p::", "p::c");
+
+        // when
+        childFuture.set(Optional.of(300000L));
+        // the parent read from the first sweep is still in flight, so it is not read again
+        RollupService.updateRollupLags(agentRollups, aggregateDao, rollupStats, lagReadsInFlight);
+
+        // then
+        verify(aggregateDao).readOldestNeedsRollupCaptureTime("p::");
+        verify(aggregateDao, times(2)).readOldestNeedsRollupCaptureTime("p::c");
+        assertThat(rollupStats.getAggregateRollupLagMillis()).containsOnlyKeys("p::c");
+
+        // when
+        parentFuture.setException(new Exception("read failed"));
+
+        // then
+        assertThat(lagReadsInFlight).isEmpty();
+        assertThat(rollupStats.getAggregateRollupLagMillis()).containsOnlyKeys("p::c");
+    }
+
+    private static AgentRollup agentRollup(String id, AgentRollup... children) {
+        return ImmutableAgentRollup.builder()
+                .id(id)
+                .display(id)
+                .lastDisplayPart(id)
+                .addChildren(children)
+                .build();
+    }
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central;
+
+import java.util.Optional;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.glowroot.common.util.Clock;
+import org.glowroot.common2.repo.ActiveAgentRepository.AgentRollup;
+import org.glowroot.common2.repo.ImmutableAgentRollup;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RollupStatsTest {
+
+    private static final long NOW = DAYS.toMillis(10);
+
+    private RollupStats rollupStats;
+
+    @Before
+    public void beforeEach() {
+        Clock clock = mock(Clock.class);
+        when(clock.currentTimeMillis()).thenReturn(NOW);
+        rollupStats = new RollupStats(clock);
+    }
+
+    @Test
+    public void shouldMeasureLagFromOldestNeedsRollup() {
+        // given
+        rollupStats.updateOldestNeedsRollupCaptureTime("a",
+                Optional.of(NOW - MINUTES.toMillis(3)));
+        rollupStats.updateOldestNeedsRollupCaptureTime("b", Optional.empty());
+        // the newest needs rollup capture time is normally in the near future
+        rollupStats.updateOldestNeedsRollupCaptureTime("c",
+                Optional.of(NOW + MINUTES.toMillis(1)));
+
+        // when then
+        assertThat(rollupStats.getLagMillis(agentRollup("a"), NOW))
+                .isEqualTo(MINUTES.toMillis(3));
+        assertThat(rollupStats.getLagMillis(agentRollup("b"), NOW)).isZero();
+        assertThat(rollupStats.getLagMillis(agentRollup("c"), NOW)).isZero();
+        assertThat(rollupStats.getLagMillis(agentRollup("d"), NOW)).isEqualTo(Long.MAX_VALUE);
+        assertThat(rollupStats.getAggregateRollupLagMillis()).containsOnlyKeys("a", "b", "c");
+        assertThat(rollupStats.getMaxAggregateRollupLagMillis()).isEqualTo(MINUTES.toMillis(3));
+    }
+
+    @Test
+    public void shouldUseMaxLagOfDescendants() {
+        // given
+        rollupStats.updateOldestNeedsRollupCaptureTime("a::", Optional.empty());
+        rollupStats.updateOldestNeedsRollupCaptureTime("a::b::",
+                Optional.of(NOW - MINUTES.toMillis(1)));
+        rollupStats.updateOldestNeedsRollupCaptureTime("a::b::c",
+                Optional.of(NOW - MINUTES.toMillis(7)));
+        AgentRollup agentRollup = agentRollup("a::", agentRollup("a::b::", agentRollup("a::b::c")));
+
+        // when then
+        assertThat(rollupStats.getLagMillis(agentRollup, NOW)).isEqualTo(MINUTES.toMillis(7));
+    }
+
+    @Test
+    public void shouldRemoveLagOfAgentRollupsThatNoLongerExist() {
+        // given
+        rollupStats.updateOldestNeedsRollupCaptureTime("a", Optional.of(NOW));
+        rollupStats.updateOldestNeedsRollupCaptureTime("b", Optional.of(NOW));
+        rollupStats.recordAggregateRollup("a", 100);
+        rollupStats.recordAggregateRollup("b", 200);
+
+        // when
+        rollupStats.retainOnly(ImmutableList.of(agentRollup("b")));
+
+        // then
+        assertThat(rollupStats.getAggregateRollupLagMillis()).containsOnlyKeys("b");
+        assertThat(rollupStats.getAggregateRollupDurationMillis()).containsOnlyKeys("b");
+    }
+
+    @Test
+    public void shouldBuildLagHistogram() {
+        // given
+        rollupStats.updateOldestNeedsRollupCaptureTime("a", Optional.empty());
+        rollupStats.updateOldestNeedsRollupCaptureTime("b",
+                Optional.of(NOW - MINUTES.toMillis(5)));
+        rollupStats.updateOldestNeedsRollupCaptureTime("c",
+                Optional.of(NOW - MINUTES.toMillis(5) - 1));
+        rollupStats.updateOldestNeedsRollupCaptureTime("d", Optional.of(NOW - HOURS.toMillis(2)));
+        rollupStats.updateOldestNeedsRollupCaptureTime("e", Optional.of(NOW - DAYS.toMillis(3)));
+
+        // when then
+        assertThat(rollupStats.getAggregateRollupLagHistogram()).containsExactly(
+                entry("<= 5 minutes", 2),
+                entry("<= 15 minutes", 1),
+                entry("<= 1 hour", 0),
+                entry("<= 6 hours", 1),
+                entry("<= 1 day", 0),
+                entry("> 1 day", 1));
+    }
+
+    private static AgentRollup agentRollup(String id, AgentRollup... children) {
+        return ImmutableAgentRollup.builder()
+                .id(id)
+                .display(id)
+                .lastDisplayPart(id)
+                .addChildren(children)
+                .build();
+    }
+}
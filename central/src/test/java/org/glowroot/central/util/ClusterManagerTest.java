@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClusterManagerTest {
+
+    private static final int KEY_COUNT = 10000;
+
+    @Test
+    public void shouldDistributeKeysEvenly() {
+        // given
+        List<String> members = ImmutableList.of("node-1", "node-2", "node-3", "node-4");
+
+        // when
+        Map<String, Integer> counts = new HashMap<>();
+        for (String key : keys()) {
+            String owner = ClusterManager.getOwner(key, members);
+            Integer count = counts.get(owner);
+            counts.put(owner, count == null ? 1 : count + 1);
+        }
+
+        // then
+        assertThat(counts).containsOnlyKeys(members.toArray(new String[0]));
+        for (int count : counts.values()) {
+            // expected 2500 each
+            assertThat(count).isBetween(2200, 2800);
+        }
+    }
+
+    @Test
+    public void shouldNotDependOnMemberOrder() {
+        // given
+        List<String> members = ImmutableList.of("node-1", "node-2", "node-3");
+        List<String> reordered = ImmutableList.of("node-3", "node-1", "node-2");
+
+        // when then
+        for (String key : keys()) {
+            assertThat(ClusterManager.getOwner(key, reordered))
+                    .isEqualTo(ClusterManager.getOwner(key, members));
+        }
+    }
+
+    @Test
+    public void shouldOnlyReassignKeysOfMemberThatLeaves() {
+        // given
+        List<String> members = ImmutableList.of("node-1", "node-2", "node-3", "node-4");
+        List<String> remaining = ImmutableList.of("node-1", "node-2", "node-4");
+
+        // when then
+        int reassigned = 0;
+        for (String key : keys()) {
+            String owner = ClusterManager.getOwner(key, members);
+            String newOwner = ClusterManager.getOwner(key, remaining);
+            if (owner.equals("node-3")) {
+                reassigned++;
+            } else {
+                assertThat(newOwner).isEqualTo(owner);
+            }
+        }
+        assertThat(reassigned).isBetween(2200, 2800);
+    }
+
+    @Test
+    public void shouldOnlyAssignKeysToMemberThatJoins() {
+        // given
+        List<String> members = ImmutableList.of("node-1", "node-2", "node-3");
+        List<String> joined = ImmutableList.of("node-1", "node-2", "node-3", "node-4");
+
+        // when then
+        int assigned = 0;
+        for (String key : keys()) {
+            String owner = ClusterManager.getOwner(key, members);
+            String newOwner = ClusterManager.getOwner(key, joined);
+            if (newOwner.equals("node-4")) {
+                assigned++;
+            } else {
+                assertThat(newOwner).isEqualTo(owner);
+            }
+        }
+        assertThat(assigned).isBetween(2200, 2800);
+    }
+
+    @Test
+    public void shouldNotConfuseMemberAndKeyBoundary() {
+        assertThat(ClusterManager.getWeight("12", "a"))
+                .isNotEqualTo(ClusterManager.getWeight("2", "a1"));
+        assertThat(ClusterManager.getWeight("", "a1"))
+                .isNotEqualTo(ClusterManager.getWeight("1", "a"));
+    }
+
+    private static List<String> keys() {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keys.add("agent-" + i);
+        }
+        return keys;
+    }
+}
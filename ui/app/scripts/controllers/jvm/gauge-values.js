@@ -144,6 +144,10 @@ glowroot.controller('JvmGaugeValuesCtrl', [
     function addToQuery(query) {
       // singular name is used since it is query string
       query.gaugeName = $scope.gaugeNames;
+      if (chartState.plot) {
+        // allows server-side to downsample long time ranges to roughly one data point per pixel
+        query.maxDataPoints = chartState.plot.width();
+      }
     }
 
     function updateGauges(allGauges) {
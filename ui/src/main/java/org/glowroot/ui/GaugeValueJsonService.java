@@ -15,12 +15,14 @@
  */
 package org.glowroot.ui;
 
+import java.math.RoundingMode;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
@@ -29,6 +31,8 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import com.google.common.io.CharStreams;
+import com.google.common.math.LongMath;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.immutables.value.Value;
 
 import org.glowroot.common.util.CaptureTimes;
@@ -99,10 +103,26 @@ class GaugeValueJsonService {
             syncManualRollupCaptureTimes(gaugeValues, rollupLevel);
         }
         double gapMillis = dataPointIntervalMillis * 1.5;
+        Integer maxDataPoints = request.maxDataPoints();
+        long bucketMillis = 0;
+        if (maxDataPoints != null && maxDataPoints > 1) {
+            bucketMillis = getDownsampleBucketMillis(request.from(), request.to(), maxDataPoints);
+        }
+        if (bucketMillis > dataPointIntervalMillis) {
+            // (at most) two data points are retained per bucket, so consecutive data points can be
+            // up to two buckets apart without there being a gap in the underlying data
+            gapMillis = Math.max(gapMillis, bucketMillis * 2.0);
+        } else {
+            // no benefit to downsampling
+            bucketMillis = 0;
+        }
         List<DataSeries> dataSeriesList = Lists.newArrayList();
         for (Map.Entry<String, List<GaugeValue>> entry : gaugeValues.entrySet()) {
-            dataSeriesList
-                    .add(convertToDataSeriesWithGaps(entry.getKey(), entry.getValue(), gapMillis));
+            List<GaugeValue> values = entry.getValue();
+            if (bucketMillis != 0) {
+                values = downsample(values, request.from(), bucketMillis);
+            }
+            dataSeriesList.add(convertToDataSeriesWithGaps(entry.getKey(), values, gapMillis));
         }
         List<Gauge> gauges =
                 gaugeValueRepository.getGauges(agentRollupId, request.from(), request.to());
@@ -268,6 +288,57 @@ class GaugeValueJsonService {
         return rolledUpGaugeValues;
     }
 
+    @VisibleForTesting
+    static long getDownsampleBucketMillis(long from, long to, int maxDataPoints) {
+        // two data points (min and max) are retained per bucket
+        int bucketCount = Math.max(maxDataPoints / 2, 1);
+        return LongMath.divide(to - from, bucketCount, RoundingMode.CEILING);
+    }
+
+    // min/max envelope per bucket, which (unlike averaging) retains spikes when the chart is
+    // displaying many more data points than it has pixels
+    @VisibleForTesting
+    static List<GaugeValue> downsample(List<GaugeValue> orderedGaugeValues, long from,
+            long bucketMillis) {
+        List<GaugeValue> downsampled = Lists.newArrayList();
+        GaugeValue bucketMin = null;
+        GaugeValue bucketMax = null;
+        long currBucket = Long.MIN_VALUE;
+        for (GaugeValue gaugeValue : orderedGaugeValues) {
+            long bucket = LongMath.divide(gaugeValue.getCaptureTime() - from, bucketMillis,
+                    RoundingMode.FLOOR);
+            if (bucket != currBucket && bucketMin != null && bucketMax != null) {
+                addBucket(downsampled, bucketMin, bucketMax);
+                bucketMin = null;
+                bucketMax = null;
+            }
+            currBucket = bucket;
+            if (bucketMin == null || gaugeValue.getValue() < bucketMin.getValue()) {
+                bucketMin = gaugeValue;
+            }
+            if (bucketMax == null || gaugeValue.getValue() > bucketMax.getValue()) {
+                bucketMax = gaugeValue;
+            }
+        }
+        if (bucketMin != null && bucketMax != null) {
+            addBucket(downsampled, bucketMin, bucketMax);
+        }
+        return downsampled;
+    }
+
+    private static void addBucket(List<GaugeValue> downsampled, GaugeValue bucketMin,
+            GaugeValue bucketMax) {
+        if (bucketMin == bucketMax) {
+            downsampled.add(bucketMin);
+        } else if (bucketMin.getCaptureTime() <= bucketMax.getCaptureTime()) {
+            downsampled.add(bucketMin);
+            downsampled.add(bucketMax);
+        } else {
+            downsampled.add(bucketMax);
+            downsampled.add(bucketMin);
+        }
+    }
+
     private static boolean isEmpty(Map<String, List<GaugeValue>> map) {
         for (List<GaugeValue> values : map.values()) {
             if (!values.isEmpty()) {
@@ -324,6 +395,9 @@ class GaugeValueJsonService {
         long to();
         // singular because this is used in query string
         ImmutableList<String> gaugeName();
+        // optional, used to downsample long time ranges to roughly the chart width in pixels
+        @Nullable
+        Integer maxDataPoints();
     }
 
     @Value.Immutable
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValueMessage.GaugeValue;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GaugeValueJsonServiceTest {
+
+    @Test
+    public void shouldCalculateBucketMillis() {
+        assertThat(GaugeValueJsonService.getDownsampleBucketMillis(0, 1000, 10)).isEqualTo(200);
+        assertThat(GaugeValueJsonService.getDownsampleBucketMillis(0, 1001, 10)).isEqualTo(201);
+        assertThat(GaugeValueJsonService.getDownsampleBucketMillis(0, 1000, 1)).isEqualTo(1000);
+    }
+
+    @Test
+    public void shouldRetainMinAndMaxPerBucket() {
+        // given
+        List<GaugeValue> gaugeValues = ImmutableList.of(
+                gaugeValue(0, 5),
+                gaugeValue(10, 9),
+                gaugeValue(20, 1),
+                gaugeValue(30, 4),
+                gaugeValue(40, 7),
+                gaugeValue(50, 7),
+                gaugeValue(60, 3),
+                gaugeValue(70, 8));
+
+        // when
+        List<GaugeValue> downsampled = GaugeValueJsonService.downsample(gaugeValues, 0, 40);
+
+        // then
+        assertThat(downsampled).containsExactly(
+                gaugeValue(10, 9),
+                gaugeValue(20, 1),
+                gaugeValue(60, 3),
+                gaugeValue(70, 8));
+    }
+
+    @Test
+    public void shouldRetainSingleValueBucket() {
+        // given
+        List<GaugeValue> gaugeValues = ImmutableList.of(
+                gaugeValue(-10, 2),
+                gaugeValue(100, 6),
+                gaugeValue(110, 6));
+
+        // when
+        List<GaugeValue> downsampled = GaugeValueJsonService.downsample(gaugeValues, 0, 50);
+
+        // then
+        assertThat(downsampled).containsExactly(
+                gaugeValue(-10, 2),
+                gaugeValue(100, 6));
+    }
+
+    private static GaugeValue gaugeValue(long captureTime, double value) {
+        return GaugeValue.newBuilder()
+                .setGaugeName("abc")
+                .setCaptureTime(captureTime)
+                .setValue(value)
+                .setWeight(1)
+                .build();
+    }
+}